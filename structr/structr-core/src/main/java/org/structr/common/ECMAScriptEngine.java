@@ -0,0 +1,416 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.common;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.tools.shell.Global;
+
+import org.structr.core.Services;
+import org.structr.core.agent.StatusInfo;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Executes ECMAScript code with Rhino. Compiled scripts are cached by the
+ * hash of their source, so that a script is parsed only once. All scripts
+ * share a sealed top-level scope with the standard objects and the shell
+ * functions (print, load etc.), each execution gets its own scope on top
+ * of it, which receives the variables of the script.
+ *
+ * Scripts of up to {@link #MAX_COMPILED_LENGTH} characters are compiled to
+ * bytecode, larger scripts (and scripts that exceed the 64KB method size
+ * limit of the JVM) are interpreted.
+ *
+ * Executions are stopped when they run longer than
+ * {@link Services#ECMASCRIPT_MAX_TIME} milliseconds or execute more than
+ * {@link Services#ECMASCRIPT_MAX_INSTRUCTIONS} instructions, unless other
+ * limits are given for an execution. A limit of 0 means no limit.
+ *
+ * @author Axel Morgner
+ */
+public class ECMAScriptEngine implements StatusInfo {
+
+	public static final String CACHED_SCRIPTS = "cached_scripts";
+	public static final String HITS           = "hits";
+	public static final String MISSES         = "misses";
+
+	/** Scripts up to this length are compiled to bytecode. */
+	public static final int MAX_COMPILED_LENGTH = 16 * 1024;
+
+	private static final int DEFAULT_CACHE_SIZE        = 500;
+	private static final long DEFAULT_MAX_INSTRUCTIONS = 0;
+	private static final long DEFAULT_MAX_TIME         = 30000;
+	private static final int INSTRUCTION_THRESHOLD     = 10000;
+	private static final Logger logger                 = Logger.getLogger(ECMAScriptEngine.class.getName());
+	private static ECMAScriptEngine instance           = null;
+
+	//~--- fields ---------------------------------------------------------
+
+	private final AtomicLong hits               = new AtomicLong(0);
+	private final AtomicLong misses             = new AtomicLong(0);
+	private final ContextFactory contextFactory = new LimitingContextFactory();
+	private long maxInstructions                = DEFAULT_MAX_INSTRUCTIONS;
+	private long maxTime                        = DEFAULT_MAX_TIME;
+	private Map<String, Script> scripts         = null;
+	private ScriptableObject sharedScope        = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public ECMAScriptEngine(final int cacheSize, final long maxTime, final long maxInstructions) {
+
+		this.maxTime         = maxTime;
+		this.maxInstructions = maxInstructions;
+		this.scripts         = new LinkedHashMap<String, Script>(cacheSize, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Entry<String, Script> eldest) {
+
+				return size() > cacheSize;
+
+			}
+
+		};
+
+		Context cx = contextFactory.enterContext();
+
+		try {
+
+			Global global = new Global();
+
+			global.setSealedStdLib(true);
+			global.init(cx);
+			global.sealObject();
+
+			this.sharedScope = global;
+
+		} finally {
+
+			Context.exit();
+
+		}
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Executes the given script with the default limits.
+	 *
+	 * @param source
+	 * @param variables the variables of the script, or null
+	 * @return the result of the script
+	 */
+	public Object execute(final String source, final Map<String, Object> variables) {
+
+		return execute(source, variables, maxTime, maxInstructions);
+
+	}
+
+	/**
+	 * Executes the given script.
+	 *
+	 * @param source
+	 * @param variables the variables of the script, or null
+	 * @param maxTime the maximum execution time in milliseconds, or 0
+	 * @param maxInstructions the maximum number of instructions, or 0
+	 * @return the result of the script
+	 * @throws ScriptLimitExceededError if the execution was stopped
+	 */
+	public Object execute(final String source, final Map<String, Object> variables, final long maxTime, final long maxInstructions) {
+
+		LimitedContext cx = (LimitedContext) contextFactory.enterContext();
+
+		try {
+
+			Script script    = getScript(cx, source);
+			Scriptable scope = cx.newObject(sharedScope);
+
+			scope.setPrototype(sharedScope);
+			scope.setParentScope(null);
+
+			if (variables != null) {
+
+				for (Entry<String, Object> entry : variables.entrySet()) {
+
+					ScriptableObject.putProperty(scope, entry.getKey(), Context.javaToJS(entry.getValue(), scope));
+				}
+
+			}
+
+			cx.startTime       = System.currentTimeMillis();
+			cx.instructions    = 0;
+			cx.maxTime         = maxTime;
+			cx.maxInstructions = maxInstructions;
+
+			return script.exec(cx, scope);
+
+		} finally {
+
+			Context.exit();
+
+		}
+
+	}
+
+	/**
+	 * Removes all compiled scripts from the cache.
+	 */
+	public void clear() {
+
+		synchronized (scripts) {
+
+			scripts.clear();
+		}
+
+	}
+
+	/**
+	 * Compiles the given script. Compiled scripts are cached and can be
+	 * executed with limits later, so the bytecode always contains the
+	 * calls that report the instruction count.
+	 */
+	private Script compile(final Context cx, final String source) {
+
+		cx.setGenerateObserverCount(true);
+
+		if (source.length() <= MAX_COMPILED_LENGTH) {
+
+			try {
+
+				cx.setOptimizationLevel(9);
+
+				return cx.compileString(source, "ScriptCommand", 1, null);
+
+			} catch (EvaluatorException eex) {
+
+				// syntax error, interpreting wouldn't help
+				throw eex;
+
+			} catch (RuntimeException rex) {
+
+				logger.log(Level.FINE, "Unable to compile script to bytecode, interpreting it: {0}", rex.getMessage());
+
+			}
+
+		}
+
+		cx.setOptimizationLevel(-1);
+
+		return cx.compileString(source, "ScriptCommand", 1, null);
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the shared engine, which is configured on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized ECMAScriptEngine getInstance() {
+
+		if (instance == null) {
+
+			Map<String, String> context = Services.getContext();
+			int cacheSize               = DEFAULT_CACHE_SIZE;
+			long maxTime                = DEFAULT_MAX_TIME;
+			long maxInstructions        = DEFAULT_MAX_INSTRUCTIONS;
+
+			if (context != null) {
+
+				try {
+
+					if (context.get(Services.ECMASCRIPT_CACHE_SIZE) != null) {
+
+						cacheSize = Integer.parseInt(context.get(Services.ECMASCRIPT_CACHE_SIZE).trim());
+					}
+
+					if (context.get(Services.ECMASCRIPT_MAX_TIME) != null) {
+
+						maxTime = Long.parseLong(context.get(Services.ECMASCRIPT_MAX_TIME).trim());
+					}
+
+					if (context.get(Services.ECMASCRIPT_MAX_INSTRUCTIONS) != null) {
+
+						maxInstructions = Long.parseLong(context.get(Services.ECMASCRIPT_MAX_INSTRUCTIONS).trim());
+					}
+
+				} catch (NumberFormatException nfex) {
+
+					logger.log(Level.WARNING, "Invalid ECMAScript configuration: {0}", nfex.getMessage());
+
+				}
+
+			}
+
+			instance = new ECMAScriptEngine(Math.max(1, cacheSize), maxTime, maxInstructions);
+
+		}
+
+		return instance;
+
+	}
+
+	private Script getScript(final Context cx, final String source) {
+
+		String key = DigestUtils.shaHex(source);
+		Script script;
+
+		synchronized (scripts) {
+
+			script = scripts.get(key);
+		}
+
+		if (script != null) {
+
+			hits.incrementAndGet();
+
+			return script;
+
+		}
+
+		misses.incrementAndGet();
+
+		script = compile(cx, source);
+
+		synchronized (scripts) {
+
+			scripts.put(key, script);
+		}
+
+		return script;
+
+	}
+
+	@Override
+	public Object getStatusProperty(final String key) {
+
+		if (CACHED_SCRIPTS.equals(key)) {
+
+			synchronized (scripts) {
+
+				return scripts.size();
+			}
+
+		} else if (HITS.equals(key)) {
+
+			return hits.get();
+
+		} else if (MISSES.equals(key)) {
+
+			return misses.get();
+		}
+
+		return null;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Thrown when a script exceeds its time or instruction limit. This is
+	 * an Error, so that it cannot be caught by the script.
+	 */
+	public static class ScriptLimitExceededError extends Error {
+
+		public ScriptLimitExceededError(final String message) {
+
+			super(message);
+
+		}
+
+	}
+
+
+	private static class LimitedContext extends Context {
+
+		private long instructions    = 0;
+		private long maxInstructions = 0;
+		private long maxTime         = 0;
+		private long startTime       = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public LimitedContext(final ContextFactory factory) {
+
+			super(factory);
+
+		}
+
+	}
+
+
+	/**
+	 * Creates contexts that observe the instruction count of the
+	 * scripts, and stops scripts that exceed their limits.
+	 */
+	private static class LimitingContextFactory extends ContextFactory {
+
+		@Override
+		protected Context makeContext() {
+
+			LimitedContext cx = new LimitedContext(this);
+
+			cx.setInstructionObserverThreshold(INSTRUCTION_THRESHOLD);
+
+			return cx;
+
+		}
+
+		@Override
+		protected void observeInstructionCount(final Context cx, final int instructionCount) {
+
+			LimitedContext context = (LimitedContext) cx;
+
+			context.instructions += instructionCount;
+
+			if ((context.maxInstructions > 0) && (context.instructions > context.maxInstructions)) {
+
+				throw new ScriptLimitExceededError("Script exceeded the limit of " + context.maxInstructions + " instructions");
+			}
+
+			if ((context.maxTime > 0) && (System.currentTimeMillis() - context.startTime > context.maxTime)) {
+
+				throw new ScriptLimitExceededError("Script exceeded the limit of " + context.maxTime + " ms");
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.common;
+
+import org.structr.common.GeoHelper.GeoCodingResult;
+import org.structr.core.Services;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Geocoder that answers lookups from a local gazetteer file, without
+ * network access. The file is configured with
+ * {@link Services#GEOCODING_GAZETTEER} and contains one place per line:
+ *
+ * <pre>
+ * # address	latitude	longitude
+ * Frankfurt am Main	50.1109	8.6821
+ * </pre>
+ *
+ * Fields are separated by tabs or semicolons, addresses are matched
+ * after normalization, see {@link GeoCodingCache#normalize(java.lang.String)}.
+ *
+ * @author Axel Morgner
+ */
+public class GazetteerGeocoder implements Geocoder {
+
+	private static final Logger logger = Logger.getLogger(GazetteerGeocoder.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private final Map<String, double[]> places = new HashMap<String, double[]>();
+
+	//~--- constructors ---------------------------------------------------
+
+	public GazetteerGeocoder() {
+
+		String path = Services.getContext() != null
+			      ? Services.getContext().get(Services.GEOCODING_GAZETTEER)
+			      : null;
+
+		if (path != null) {
+
+			load(new File(path.trim()));
+
+		} else {
+
+			logger.log(Level.WARNING, "No gazetteer file configured, set {0}", Services.GEOCODING_GAZETTEER);
+
+		}
+
+	}
+
+	public GazetteerGeocoder(final File file) {
+
+		load(file);
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	@Override
+	public GeoCodingResult geocode(final String address) {
+
+		double[] coords = places.get(GeoCodingCache.normalize(address));
+
+		if (coords != null) {
+
+			GeoCodingResult result = new GeoCodingResult(coords[0], coords[1]);
+
+			result.setAddress(address);
+
+			return result;
+
+		}
+
+		return null;
+
+	}
+
+	private void load(final File file) {
+
+		BufferedReader reader = null;
+		int lineNumber        = 0;
+
+		try {
+
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+			String line = null;
+
+			while ((line = reader.readLine()) != null) {
+
+				lineNumber++;
+
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+
+					continue;
+				}
+
+				String[] fields = line.split("[\\t;]");
+
+				if (fields.length < 3) {
+
+					logger.log(Level.WARNING, "Invalid gazetteer entry in line {0}", lineNumber);
+
+					continue;
+
+				}
+
+				try {
+
+					double latitude  = Double.parseDouble(fields[1].trim());
+					double longitude = Double.parseDouble(fields[2].trim());
+
+					places.put(GeoCodingCache.normalize(fields[0]), new double[] { latitude, longitude });
+
+				} catch (NumberFormatException nfex) {
+
+					logger.log(Level.WARNING, "Invalid coordinates in line {0}", lineNumber);
+
+				}
+
+			}
+
+			logger.log(Level.INFO, "Loaded {0} places from gazetteer {1}", new Object[] { places.size(), file.getAbsolutePath() });
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to read gazetteer {0}: {1}", new Object[] { file.getAbsolutePath(), ioex.getMessage() });
+
+		} finally {
+
+			if (reader != null) {
+
+				try { reader.close(); } catch (IOException ioex) {}
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,709 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.common;
+
+import org.structr.common.GeoHelper.GeoCodingResult;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.agent.StatusInfo;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.text.Normalizer;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Caches geocoding results, so that repeated lookups of the same address
+ * (e.g. in distance searches) do not call a remote service each time.
+ *
+ * Results are kept in an LRU map of {@link Services#GEOCODING_CACHE_SIZE}
+ * entries for {@link Services#GEOCODING_CACHE_TTL} hours, and appended to
+ * a cache file in the base path, from which the cache is filled again on
+ * startup. Addresses are normalized before lookup. Unknown addresses are
+ * remembered for a short time, but not persisted, and only if no geocoder
+ * failed. Concurrent lookups of the same address wait for the first one.
+ *
+ * On a cache miss, the geocoders configured with
+ * {@link Services#GEOCODING_PROVIDERS} are asked in order.
+ *
+ * @author Axel Morgner
+ */
+public class GeoCodingCache implements StatusInfo {
+
+	public static final String AVERAGE_UPSTREAM_LATENCY = "average_upstream_latency";
+	public static final String HIT_RATE                  = "hit_rate";
+	public static final String HITS                      = "hits";
+	public static final String MISSES                    = "misses";
+	public static final String SIZE                      = "size";
+	public static final String UPSTREAM_CALLS            = "upstream_calls";
+	public static final String UPSTREAM_FAILURES         = "upstream_failures";
+
+	private static final String CACHE_FILE         = "geocoding.cache";
+	private static final int DEFAULT_CACHE_SIZE    = 10000;
+	private static final long DEFAULT_TTL_HOURS    = 24 * 30;
+	private static final String DEFAULT_PROVIDERS  = GoogleGeocoder.class.getName();
+	private static final long NEGATIVE_TTL         = TimeUnit.HOURS.toMillis(1);
+	private static GeoCodingCache instance         = null;
+	private static final Logger logger             = Logger.getLogger(GeoCodingCache.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private final AtomicLong hits                                                       = new AtomicLong(0);
+	private final AtomicLong misses                                                     = new AtomicLong(0);
+	private final ConcurrentHashMap<String, FutureTask<GeoCodingResult>> pendingLookups = new ConcurrentHashMap<String, FutureTask<GeoCodingResult>>();
+	private final List<Geocoder> geocoders                                              = new LinkedList<Geocoder>();
+	private final AtomicLong upstreamCalls                                              = new AtomicLong(0);
+	private final AtomicLong upstreamFailures                                           = new AtomicLong(0);
+	private final AtomicLong upstreamTime                                               = new AtomicLong(0);
+	private Map<String, CachedResult> cache                                             = null;
+	private File cacheFile                                                              = null;
+	private Writer cacheWriter                                                          = null;
+	private long ttl                                                                    = 0;
+
+	//~--- constructors ---------------------------------------------------
+
+	public GeoCodingCache(final int maxSize, final long ttl, final File cacheFile, final List<Geocoder> geocoders) {
+
+		this.ttl       = ttl;
+		this.cacheFile = cacheFile;
+		this.cache     = new LinkedHashMap<String, CachedResult>(Math.min(maxSize, 1000), 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+
+				return size() > maxSize;
+
+			}
+
+		};
+
+		this.geocoders.addAll(geocoders);
+
+		if (cacheFile != null) {
+
+			load();
+		}
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Returns the coordinates of the given address, from the cache if
+	 * possible.
+	 *
+	 * @param address
+	 * @return the coordinates, or null if no geocoder knows the address
+	 * @throws FrameworkException
+	 */
+	public GeoCodingResult geocode(final String address) throws FrameworkException {
+
+		if (address == null) {
+
+			return null;
+		}
+
+		final String key = normalize(address);
+		long now         = System.currentTimeMillis();
+
+		synchronized (cache) {
+
+			CachedResult cached = cache.get(key);
+
+			if (cached != null) {
+
+				if (cached.expires > now) {
+
+					hits.incrementAndGet();
+
+					return cached.result;
+
+				}
+
+				cache.remove(key);
+
+			}
+
+		}
+
+		misses.incrementAndGet();
+
+		// concurrent lookups of the same address share one upstream call
+		FutureTask<GeoCodingResult> task    = new FutureTask<GeoCodingResult>(new Callable<GeoCodingResult>() {
+
+			@Override
+			public GeoCodingResult call() throws Exception {
+
+				// a lookup might have finished since we checked the cache
+				synchronized (cache) {
+
+					CachedResult cached = cache.get(key);
+
+					if ((cached != null) && (cached.expires > System.currentTimeMillis())) {
+
+						return cached.result;
+					}
+
+				}
+
+				return lookup(key, address);
+
+			}
+
+		});
+		FutureTask<GeoCodingResult> running = pendingLookups.putIfAbsent(key, task);
+
+		if (running == null) {
+
+			running = task;
+
+			try {
+
+				task.run();
+
+			} finally {
+
+				pendingLookups.remove(key);
+
+			}
+
+		}
+
+		try {
+
+			return running.get();
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+
+			throw new FrameworkException(500, "Interrupted while geocoding " + address);
+
+		} catch (ExecutionException eex) {
+
+			Throwable cause = eex.getCause();
+
+			if (cause instanceof FrameworkException) {
+
+				throw (FrameworkException) cause;
+			}
+
+			if (cause instanceof RuntimeException) {
+
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error) {
+
+				throw (Error) cause;
+			}
+
+			throw new FrameworkException(500, "Unable to geocode " + address);
+
+		}
+
+	}
+
+	/**
+	 * Asks the geocoders in order and caches the result. An unknown
+	 * address is only cached if every geocoder answered, so that a failing
+	 * service doesn't hide an address for the negative TTL.
+	 */
+	private GeoCodingResult lookup(final String key, final String address) throws FrameworkException {
+
+		boolean failed = false;
+
+		for (Geocoder geocoder : geocoders) {
+
+			long start = System.currentTimeMillis();
+
+			upstreamCalls.incrementAndGet();
+
+			try {
+
+				GeoCodingResult result = geocoder.geocode(address);
+
+				if (result != null) {
+
+					long now = System.currentTimeMillis();
+
+					synchronized (cache) {
+
+						cache.put(key, new CachedResult(result, now + ttl));
+						persist(key, result, now);
+
+					}
+
+					return result;
+
+				}
+
+			} catch (FrameworkException fex) {
+
+				upstreamFailures.incrementAndGet();
+
+				throw fex;
+
+			} catch (Throwable t) {
+
+				upstreamFailures.incrementAndGet();
+				logger.log(Level.WARNING, "Geocoder {0} failed: {1}", new Object[] { geocoder.getClass().getSimpleName(), t.getMessage() });
+
+				failed = true;
+
+			} finally {
+
+				upstreamTime.addAndGet(System.currentTimeMillis() - start);
+
+			}
+
+		}
+
+		if (!failed) {
+
+			synchronized (cache) {
+
+				cache.put(key, new CachedResult(null, System.currentTimeMillis() + NEGATIVE_TTL));
+
+			}
+
+		}
+
+		return null;
+
+	}
+
+	public void clear() {
+
+		synchronized (cache) {
+
+			cache.clear();
+			close();
+
+			if (cacheFile != null) {
+
+				cacheFile.delete();
+			}
+
+		}
+
+	}
+
+	/**
+	 * Logs the statistics of the shared cache and closes its cache file,
+	 * if the cache was used. Called when the node service is shut down.
+	 */
+	public static synchronized void shutdown() {
+
+		if (instance != null) {
+
+			logger.log(Level.INFO, "Geocoding cache statistics: {0}", instance.getStatus());
+			instance.close();
+
+			instance = null;
+
+		}
+
+	}
+
+	public void close() {
+
+		synchronized (cache) {
+
+			if (cacheWriter != null) {
+
+				try {
+
+					cacheWriter.close();
+
+				} catch (IOException ioex) {}
+
+				cacheWriter = null;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Loads the unexpired entries of the cache file, and rewrites it
+	 * to drop expired and evicted entries.
+	 */
+	private void load() {
+
+		long now = System.currentTimeMillis();
+
+		if (cacheFile.exists()) {
+
+			BufferedReader reader = null;
+
+			try {
+
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+
+				String line = null;
+
+				while ((line = reader.readLine()) != null) {
+
+					String[] fields = line.split("\t");
+
+					if (fields.length < 4) {
+
+						continue;
+					}
+
+					try {
+
+						long created = Long.parseLong(fields[1]);
+
+						if (created + ttl > now) {
+
+							GeoCodingResult result = new GeoCodingResult(Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+
+							if (fields.length > 4) {
+
+								result.setAddress(fields[4]);
+							}
+
+							cache.put(fields[0], new CachedResult(result, created + ttl));
+
+						}
+
+					} catch (NumberFormatException nfex) {}
+
+				}
+
+			} catch (IOException ioex) {
+
+				logger.log(Level.WARNING, "Unable to read geocoding cache {0}: {1}", new Object[] { cacheFile.getAbsolutePath(), ioex.getMessage() });
+
+			} finally {
+
+				if (reader != null) {
+
+					try { reader.close(); } catch (IOException ioex) {}
+				}
+
+			}
+
+		}
+
+		// compact file
+		try {
+
+			cacheWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile, false), "UTF-8"));
+
+			for (Map.Entry<String, CachedResult> entry : cache.entrySet()) {
+
+				CachedResult cached = entry.getValue();
+
+				write(entry.getKey(), cached.result, cached.expires - ttl);
+
+			}
+
+			cacheWriter.flush();
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to write geocoding cache {0}: {1}", new Object[] { cacheFile.getAbsolutePath(), ioex.getMessage() });
+
+			cacheWriter = null;
+
+		}
+
+		logger.log(Level.INFO, "Loaded {0} geocoding results from cache", cache.size());
+
+	}
+
+	private void persist(final String key, final GeoCodingResult result, final long created) {
+
+		if (cacheWriter != null) {
+
+			try {
+
+				write(key, result, created);
+				cacheWriter.flush();
+
+			} catch (IOException ioex) {
+
+				logger.log(Level.WARNING, "Unable to write geocoding cache: {0}", ioex.getMessage());
+
+			}
+
+		}
+
+	}
+
+	private void write(final String key, final GeoCodingResult result, final long created) throws IOException {
+
+		String address = result.getAddress();
+
+		cacheWriter.write(key);
+		cacheWriter.write("\t");
+		cacheWriter.write(Long.toString(created));
+		cacheWriter.write("\t");
+		cacheWriter.write(Double.toString(result.getLatitude()));
+		cacheWriter.write("\t");
+		cacheWriter.write(Double.toString(result.getLongitude()));
+
+		if (address != null) {
+
+			cacheWriter.write("\t");
+			cacheWriter.write(address.replaceAll("[\\t\\r\\n]+", " "));
+
+		}
+
+		cacheWriter.write("\n");
+
+	}
+
+	/**
+	 * Returns the cache key for the given address: lower case, with
+	 * composed unicode characters and punctuation and whitespace
+	 * collapsed into single blanks.
+	 *
+	 * @param address
+	 * @return
+	 */
+	public static String normalize(final String address) {
+
+		String normalized = Normalizer.normalize(address, Normalizer.Form.NFC).toLowerCase(Locale.ENGLISH);
+
+		return normalized.replaceAll("[\\s,;]+", " ").trim();
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the shared cache, which is configured on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized GeoCodingCache getInstance() {
+
+		if (instance == null) {
+
+			Map<String, String> context = Services.getContext();
+			int maxSize                 = DEFAULT_CACHE_SIZE;
+			long ttlHours               = DEFAULT_TTL_HOURS;
+			String providers            = DEFAULT_PROVIDERS;
+			File file                   = null;
+			List<Geocoder> geocoders    = new LinkedList<Geocoder>();
+
+			if (context != null) {
+
+				try {
+
+					if (context.get(Services.GEOCODING_CACHE_SIZE) != null) {
+
+						maxSize = Integer.parseInt(context.get(Services.GEOCODING_CACHE_SIZE).trim());
+					}
+
+					if (context.get(Services.GEOCODING_CACHE_TTL) != null) {
+
+						ttlHours = Long.parseLong(context.get(Services.GEOCODING_CACHE_TTL).trim());
+					}
+
+				} catch (NumberFormatException nfex) {
+
+					logger.log(Level.WARNING, "Invalid geocoding cache configuration: {0}", nfex.getMessage());
+
+				}
+
+				if (context.get(Services.GEOCODING_PROVIDERS) != null) {
+
+					providers = context.get(Services.GEOCODING_PROVIDERS);
+				}
+
+				file = new File(Services.getBasePath(), CACHE_FILE);
+
+			}
+
+			for (String provider : providers.split("[ \\t,]+")) {
+
+				if (provider.length() == 0) {
+
+					continue;
+				}
+
+				try {
+
+					geocoders.add((Geocoder) Class.forName(provider).newInstance());
+
+				} catch (Throwable t) {
+
+					logger.log(Level.WARNING, "Unable to instantiate geocoder {0}: {1}", new Object[] { provider, t.getMessage() });
+
+				}
+
+			}
+
+			instance = new GeoCodingCache(Math.max(1, maxSize), TimeUnit.HOURS.toMillis(ttlHours), file, geocoders);
+
+		}
+
+		return instance;
+
+	}
+
+	public long getHits() {
+
+		return hits.get();
+
+	}
+
+	public long getMisses() {
+
+		return misses.get();
+
+	}
+
+	public double getHitRate() {
+
+		long total = hits.get() + misses.get();
+
+		return (total > 0)
+		       ? (double) hits.get() / total
+		       : 0;
+
+	}
+
+	public long getAverageUpstreamLatency() {
+
+		long calls = upstreamCalls.get();
+
+		return (calls > 0)
+		       ? upstreamTime.get() / calls
+		       : 0;
+
+	}
+
+	public int size() {
+
+		synchronized (cache) {
+
+			return cache.size();
+
+		}
+
+	}
+
+	/**
+	 * Returns all status properties of this cache.
+	 *
+	 * @return
+	 */
+	public Map<String, Object> getStatus() {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+
+		for (String key : new String[] { SIZE, HITS, MISSES, HIT_RATE, UPSTREAM_CALLS, UPSTREAM_FAILURES, AVERAGE_UPSTREAM_LATENCY }) {
+
+			status.put(key, getStatusProperty(key));
+		}
+
+		return status;
+
+	}
+
+	// ----- interface StatusInfo -----
+	@Override
+	public Object getStatusProperty(String key) {
+
+		if (HITS.equals(key)) {
+
+			return getHits();
+
+		} else if (MISSES.equals(key)) {
+
+			return getMisses();
+
+		} else if (HIT_RATE.equals(key)) {
+
+			return getHitRate();
+
+		} else if (SIZE.equals(key)) {
+
+			return size();
+
+		} else if (UPSTREAM_CALLS.equals(key)) {
+
+			return upstreamCalls.get();
+
+		} else if (UPSTREAM_FAILURES.equals(key)) {
+
+			return upstreamFailures.get();
+
+		} else if (AVERAGE_UPSTREAM_LATENCY.equals(key)) {
+
+			return getAverageUpstreamLatency();
+
+		}
+
+		return null;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class CachedResult {
+
+		private long expires           = 0;
+		private GeoCodingResult result = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public CachedResult(final GeoCodingResult result, final long expires) {
+
+			this.result  = result;
+			this.expires = expires;
+
+		}
+
+	}
+
+}
@@ -19,10 +19,7 @@
 
 package org.structr.common;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
 import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
@@ -34,16 +31,7 @@ import org.structr.core.node.TransactionCommand;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.Arrays;
-
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -59,7 +47,7 @@ import org.structr.common.GeoHelper.GeoCodingResult.Type;
 
 /**
  * Helper class to create location nodes from coordinates or by using
- * online geocoding service
+ * the configured geocoding services
  *
  * @author Axel Morgner
  */
@@ -91,70 +79,17 @@ public class GeoHelper {
 		return (Location) Services.command(SecurityContext.getSuperUserInstance(), TransactionCommand.class).execute(transaction);
 	}
 
+	/**
+	 * Returns the coordinates of the given address, using the shared
+	 * {@link GeoCodingCache}.
+	 *
+	 * @param address
+	 * @return
+	 * @throws FrameworkException
+	 */
 	public static GeoCodingResult geocode(final String address) throws FrameworkException {
 
-		String encodedAddress;
-
-		try {
-			encodedAddress = URLEncoder.encode(address, "UTF-8");
-		} catch (UnsupportedEncodingException ex) {
-
-			logger.log(Level.WARNING, "Unsupported Encoding", ex);
-
-			return null;
-		}
-
-		Document xmlDoc;
-
-		try {
-
-			String protocol              = "xml";    // "xml" or "json"
-			URL mapsUrl                  = new URL("http://maps.google.com/maps/api/geocode/" + protocol + "?sensor=false&address=" + encodedAddress);
-			HttpURLConnection connection = (HttpURLConnection) mapsUrl.openConnection();
-
-			connection.connect();
-
-			SAXReader reader  = new SAXReader();
-			BufferedReader rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-
-			xmlDoc = reader.read(rd);
-
-			connection.disconnect();
-			rd.close();
-
-		} catch (IOException ioe) {
-
-			logger.log(Level.WARNING, "Connection to geocoding service failed", ioe);
-
-			return null;
-
-		} catch (DocumentException de) {
-
-			logger.log(Level.WARNING, "Could not read result document", de);
-
-			return null;
-		}
-
-		Element root = xmlDoc.getRootElement();
-
-		// List<Element> rootChildren = root.elements();
-		String status = root.element("status").getTextTrim();
-		if ("OK".equals(status)) {
-			
-			try {
-				return new GeoCodingResult(address, root);
-				
-			} catch(Throwable t) {
-				
-				logger.log(Level.WARNING, "Unable to find geocoding for address {0}: {1}", new Object[] { address, t.getMessage() });
-			}
-
-		} else {
-
-			logger.log(Level.WARNING, "Status not OK for address {0}: {1}", new Object[] { address, status });
-		}
-
-		return null;
+		return GeoCodingCache.getInstance().geocode(address);
 	}
 	
 	public static void main(String[] args) {
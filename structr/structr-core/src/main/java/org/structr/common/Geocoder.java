@@ -0,0 +1,43 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.common;
+
+import org.structr.common.GeoHelper.GeoCodingResult;
+import org.structr.common.error.FrameworkException;
+
+/**
+ * A source of geocoding results. Implementations are configured with
+ * {@link org.structr.core.Services#GEOCODING_PROVIDERS} and must have
+ * a public no-argument constructor.
+ *
+ * @author Axel Morgner
+ */
+public interface Geocoder {
+
+	/**
+	 * Returns the coordinates of the given address, or null if the
+	 * address is unknown to this geocoder.
+	 *
+	 * @param address
+	 * @return
+	 * @throws FrameworkException
+	 */
+	public GeoCodingResult geocode(final String address) throws FrameworkException;
+}
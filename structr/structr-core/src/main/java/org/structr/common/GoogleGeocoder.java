@@ -0,0 +1,127 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.common;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import org.structr.common.GeoHelper.GeoCodingResult;
+import org.structr.common.error.FrameworkException;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Geocoder that uses the Google geocoding web service.
+ *
+ * @author Axel Morgner
+ */
+public class GoogleGeocoder implements Geocoder {
+
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT    = 10000;
+	private static final Logger logger       = Logger.getLogger(GoogleGeocoder.class.getName());
+
+	//~--- methods --------------------------------------------------------
+
+	@Override
+	public GeoCodingResult geocode(final String address) throws FrameworkException {
+
+		String encodedAddress;
+
+		try {
+			encodedAddress = URLEncoder.encode(address, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+
+			logger.log(Level.WARNING, "Unsupported Encoding", ex);
+
+			return null;
+		}
+
+		Document xmlDoc;
+
+		try {
+
+			String protocol              = "xml";    // "xml" or "json"
+			URL mapsUrl                  = new URL("http://maps.google.com/maps/api/geocode/" + protocol + "?sensor=false&address=" + encodedAddress);
+			HttpURLConnection connection = (HttpURLConnection) mapsUrl.openConnection();
+
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.connect();
+
+			SAXReader reader  = new SAXReader();
+			BufferedReader rd = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+
+			xmlDoc = reader.read(rd);
+
+			connection.disconnect();
+			rd.close();
+
+		} catch (IOException ioe) {
+
+			logger.log(Level.WARNING, "Connection to geocoding service failed", ioe);
+
+			return null;
+
+		} catch (DocumentException de) {
+
+			logger.log(Level.WARNING, "Could not read result document", de);
+
+			return null;
+		}
+
+		Element root = xmlDoc.getRootElement();
+
+		// List<Element> rootChildren = root.elements();
+		String status = root.element("status").getTextTrim();
+		if ("OK".equals(status)) {
+			
+			try {
+				return new GeoCodingResult(address, root);
+				
+			} catch(Throwable t) {
+				
+				logger.log(Level.WARNING, "Unable to find geocoding for address {0}: {1}", new Object[] { address, t.getMessage() });
+			}
+
+		} else {
+
+			logger.log(Level.WARNING, "Status not OK for address {0}: {1}", new Object[] { address, status });
+		}
+
+		return null;
+	}
+}
@@ -36,10 +36,14 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -50,7 +54,6 @@ import javax.imageio.ImageIO;
 public abstract class ImageHelper {
 
 	private static final Logger logger = Logger.getLogger(ImageHelper.class.getName());
-	private static Thumbnail tn        = new Thumbnail();
 
 	//~--- methods --------------------------------------------------------
 
@@ -58,26 +61,71 @@ public abstract class ImageHelper {
 		return createThumbnail(originalImage, maxWidth, maxHeight, false);
 	}
 
-	synchronized public static Thumbnail createThumbnail(final Image originalImage, final int maxWidth,
-		final int maxHeight, final boolean crop) {
+	/**
+	 * Creates a thumbnail of the given image and updates the dimensions
+	 * of the original image. Must be called within a transaction.
+	 *
+	 * @param originalImage
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param crop
+	 * @return
+	 */
+	public static Thumbnail createThumbnail(final Image originalImage, final int maxWidth, final int maxHeight, final boolean crop) {
+
+		Thumbnail tn = createThumbnail(originalImage.getInputStream(), maxWidth, maxHeight, crop);
+
+		if (tn == null) {
+
+			logger.log(Level.WARNING, "Could not read original image {0} ({1})", new Object[] { originalImage.getName(), originalImage.getId() });
+
+			return null;
+		}
+
+		try {
+
+			// Update image dimensions
+			originalImage.setWidth(tn.getSourceWidth());
+			originalImage.setHeight(tn.getSourceHeight());
+
+		} catch (Throwable t) {
+			logger.log(Level.WARNING, "Could not update image dimensions", t);
+		}
+
+		return tn;
+	}
+
+	/**
+	 * Creates a thumbnail from the given image data and closes the stream.
+	 *
+	 * This method doesn't touch the database, so it can be called by any
+	 * number of threads concurrently, see {@link ThumbnailService}. The
+	 * image is decoded with subsampling if it is much larger than the
+	 * thumbnail, which reduces decoding time and memory usage for large
+	 * images considerably.
+	 *
+	 * @param in
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param crop
+	 * @return the thumbnail, or null if the image could not be read
+	 */
+	public static Thumbnail createThumbnail(final InputStream in, final int maxWidth, final int maxHeight, final boolean crop) {
 
-		// String contentType = (String) originalImage.getProperty(Image.CONTENT_TYPE_KEY);
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Thumbnail tn               = new Thumbnail();
 
 		try {
 
 			// read image
 			long start           = System.nanoTime();
-			InputStream in       = originalImage.getInputStream();
 			BufferedImage source = null;
 
 			try {
-				source = ImageIO.read(in);
+				source = readImage(in, maxWidth, maxHeight, crop, tn);
 			} catch (Throwable t) {
 
-				logger.log(Level.WARNING, "Could not read original image {0} ({1})",
-					   new Object[] { originalImage.getName(),
-							  originalImage.getId() });
+				logger.log(Level.WARNING, "Could not read image: {0}", t.getMessage());
 
 			} finally {
 
@@ -88,12 +136,8 @@ public abstract class ImageHelper {
 
 			if (source != null) {
 
-				int sourceWidth  = source.getWidth();
-				int sourceHeight = source.getHeight();
-
-				// Update image dimensions
-				originalImage.setWidth(sourceWidth);
-				originalImage.setHeight(sourceHeight);
+				int sourceWidth  = tn.getSourceWidth();
+				int sourceHeight = tn.getSourceHeight();
 
 				// float aspectRatio = sourceWidth/sourceHeight;
 				float scaleX = 1.0f * sourceWidth / maxWidth;
@@ -145,8 +189,8 @@ public abstract class ImageHelper {
 
 					// Thumbnail is source image
 					ImageIO.write(source, Thumbnail.FORMAT, baos);
-					tn.setWidth(sourceWidth);
-					tn.setHeight(sourceHeight);
+					tn.setWidth(source.getWidth());
+					tn.setHeight(source.getHeight());
 				}
 
 			} else {
@@ -179,6 +223,70 @@ public abstract class ImageHelper {
 		return null;
 	}
 
+	/**
+	 * Decodes the first image of the given stream. The dimensions are
+	 * read from the header first, so that every n-th pixel can be skipped
+	 * while decoding, as long as the decoded image is still at least twice
+	 * as large as the thumbnail. The resampling filter needs this margin
+	 * to produce a sharp result.
+	 *
+	 * The dimensions of the full image are stored in the given thumbnail.
+	 */
+	private static BufferedImage readImage(final InputStream in, final int maxWidth, final int maxHeight, final boolean crop, final Thumbnail tn) throws IOException {
+
+		if (in == null) {
+			return null;
+		}
+
+		ImageInputStream imageIn = ImageIO.createImageInputStream(in);
+
+		if (imageIn == null) {
+			return null;
+		}
+
+		try {
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+
+				reader.setInput(imageIn, true, true);
+
+				int sourceWidth  = reader.getWidth(0);
+				int sourceHeight = reader.getHeight(0);
+
+				tn.setSourceWidth(sourceWidth);
+				tn.setSourceHeight(sourceHeight);
+
+				float scaleX    = 1.0f * sourceWidth / maxWidth;
+				float scaleY    = 1.0f * sourceHeight / maxHeight;
+				int subsampling = (int) Math.floor((crop
+					? Math.min(scaleX, scaleY)
+					: Math.max(scaleX, scaleY)) / 2);
+
+				ImageReadParam param = reader.getDefaultReadParam();
+
+				if (subsampling > 1) {
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+
+				return reader.read(0, param);
+
+			} finally {
+				reader.dispose();
+			}
+
+		} finally {
+			imageIn.close();
+		}
+	}
+
 	/**
 	 * Let ImageIO read and write a JPEG image. This should normalize all types of weird
 	 * image sub formats, e.g. when extracting images from a flash file.
@@ -308,6 +416,8 @@ public abstract class ImageHelper {
 
 		private byte[] bytes;
 		private int height;
+		private int sourceHeight;
+		private int sourceWidth;
 		private int width;
 
 		//~--- constructors -------------------------------------------
@@ -366,5 +476,31 @@ public abstract class ImageHelper {
 		public void setHeight(final int height) {
 			this.height = height;
 		}
+
+		//~--- get methods --------------------------------------------
+
+		/**
+		 * Returns the width of the original image.
+		 */
+		public int getSourceWidth() {
+			return sourceWidth;
+		}
+
+		/**
+		 * Returns the height of the original image.
+		 */
+		public int getSourceHeight() {
+			return sourceHeight;
+		}
+
+		//~--- set methods --------------------------------------------
+
+		public void setSourceWidth(final int sourceWidth) {
+			this.sourceWidth = sourceWidth;
+		}
+
+		public void setSourceHeight(final int sourceHeight) {
+			this.sourceHeight = sourceHeight;
+		}
 	}
 }
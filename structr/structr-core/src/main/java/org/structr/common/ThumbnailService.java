@@ -0,0 +1,243 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.structr.core.Services;
+import org.structr.core.entity.Image;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Creates thumbnails on a bounded pool of worker threads.
+ *
+ * Concurrent requests for the same thumbnail (image, width, height and
+ * crop mode) share a single computation. The number of workers can be
+ * configured with {@link Services#THUMBNAIL_THREADS}, the sizes that are
+ * generated in advance when an image is uploaded with
+ * {@link Services#THUMBNAIL_SIZES}, e.g. <code>100x100, 300x300:crop</code>.
+ *
+ * @author Axel Morgner
+ */
+public class ThumbnailService {
+
+	private static final int MAX_QUEUE_SIZE                             = 1000;
+	private static final Logger logger                                  = Logger.getLogger(ThumbnailService.class.getName());
+	private static final ConcurrentHashMap<String, Future<Image>> tasks = new ConcurrentHashMap<String, Future<Image>>();
+	private static ThreadPoolExecutor executor                          = null;
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Submits the computation of a thumbnail, unless a computation with
+	 * the same key is already running.
+	 *
+	 * @param key the key that identifies the thumbnail
+	 * @param callable the computation
+	 * @return the future result of the computation, or null if the queue is full
+	 */
+	public static Future<Image> submit(final String key, final Callable<Image> callable) {
+
+		Future<Image> task = tasks.get(key);
+
+		if (task != null) {
+
+			return task;
+		}
+
+		FutureTask<Image> newTask = new FutureTask<Image>(new Callable<Image>() {
+
+			@Override
+			public Image call() throws Exception {
+
+				try {
+
+					return callable.call();
+
+				} finally {
+
+					tasks.remove(key);
+
+				}
+
+			}
+
+		});
+
+		task = tasks.putIfAbsent(key, newTask);
+
+		if (task != null) {
+
+			return task;
+		}
+
+		try {
+
+			getExecutor().execute(newTask);
+
+		} catch (RejectedExecutionException rex) {
+
+			logger.log(Level.FINE, "Thumbnail queue is full, rejecting {0}", key);
+			tasks.remove(key);
+
+			return null;
+
+		}
+
+		return newTask;
+
+	}
+
+	/**
+	 * Schedules the creation of all configured thumbnail sizes for the
+	 * given image.
+	 *
+	 * @param image
+	 */
+	public static void createConfiguredThumbnails(final Image image) {
+
+		for (int[] size : getConfiguredSizes()) {
+
+			image.getScaledImage(size[0], size[1], size[2] == 1, false);
+
+		}
+
+	}
+
+	public static synchronized void shutdown() {
+
+		if (executor != null) {
+
+			executor.shutdownNow();
+
+			executor = null;
+
+		}
+
+		tasks.clear();
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+
+		if (executor == null) {
+
+			int threads = Runtime.getRuntime().availableProcessors();
+
+			try {
+
+				threads = Integer.parseInt(Services.getConfigValue(Services.getContext(), Services.THUMBNAIL_THREADS, Integer.toString(threads)));
+
+			} catch (NumberFormatException nfex) {
+
+				logger.log(Level.WARNING, "Invalid number of thumbnail threads, using {0}", threads);
+
+			}
+
+			final AtomicInteger threadCount = new AtomicInteger(0);
+
+			executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUE_SIZE),
+							  new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+
+					Thread thread = new Thread(runnable, "ThumbnailWorker-" + threadCount.incrementAndGet());
+
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+
+					return thread;
+				}
+
+			});
+
+		}
+
+		return executor;
+
+	}
+
+	/**
+	 * Returns the configured thumbnail sizes as [width, height, crop]
+	 * triples, where crop is 1 for cropped thumbnails.
+	 *
+	 * @return
+	 */
+	public static List<int[]> getConfiguredSizes() {
+
+		List<int[]> sizes = new LinkedList<int[]>();
+		String config     = Services.getConfigValue(Services.getContext(), Services.THUMBNAIL_SIZES, "");
+
+		for (String size : StringUtils.split(config, ",")) {
+
+			size = size.trim();
+
+			boolean crop = size.endsWith(":crop");
+
+			if (crop) {
+
+				size = size.substring(0, size.length() - ":crop".length());
+			}
+
+			String[] dimensions = StringUtils.split(size, "x");
+
+			try {
+
+				if (dimensions.length == 2) {
+
+					sizes.add(new int[] { Integer.parseInt(dimensions[0].trim()), Integer.parseInt(dimensions[1].trim()), crop
+						? 1
+						: 0 });
+
+					continue;
+
+				}
+
+			} catch (NumberFormatException ignore) {}
+
+			logger.log(Level.WARNING, "Invalid thumbnail size {0}", size);
+
+		}
+
+		return sizes;
+
+	}
+
+}
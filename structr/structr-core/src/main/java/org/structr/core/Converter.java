@@ -18,7 +18,7 @@
  */
 package org.structr.core;
 
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 
@@ -28,21 +28,21 @@ import org.structr.common.error.FrameworkException;
  */
 public class Converter<S, T> implements Value<T> {
 
-	private PropertyConverter<S, T> converter = null;
+	private StatelessPropertyConverter<S, T> converter = null;
 	private Value<S> source = null;
 	
-	public Converter(Value<S> source, PropertyConverter<S, T> converter) {
+	public Converter(Value<S> source, StatelessPropertyConverter<S, T> converter) {
 		this.converter = converter;
 		this.source = source;
 	}
 	
 	@Override
 	public void set(SecurityContext securityContext, T value) throws FrameworkException {
-		source.set(securityContext, converter.convertForSetter(value, this));
+		source.set(securityContext, converter.convertForSetter(securityContext, null, value, this));
 	}
 
 	@Override
 	public T get(SecurityContext securityContext) {
-		return converter.convertForGetter(source.get(securityContext), this);
+		return converter.convertForGetter(securityContext, null, source.get(securityContext), this);
 	}
 }
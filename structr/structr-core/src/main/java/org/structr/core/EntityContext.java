@@ -21,8 +21,11 @@
 
 package org.structr.core;
 
+import org.structr.core.converter.LegacyConverterAdapter;
 import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.search.SortField;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -34,6 +37,7 @@ import org.neo4j.graphdb.event.TransactionEventHandler;
 
 import org.structr.common.CaseHelper;
 import org.structr.common.PropertyKey;
+import org.structr.common.RelType;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.ErrorBuffer;
 import org.structr.common.error.FrameworkException;
@@ -54,6 +58,8 @@ import org.structr.core.notion.ObjectNotion;
 //~--- JDK imports ------------------------------------------------------------
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.neo4j.graphdb.DynamicRelationshipType;
@@ -81,10 +87,8 @@ public class EntityContext {
 	private static final Map<Class, Map<String, Set<String>>> globalPropertyViewMap   = new LinkedHashMap<Class, Map<String, Set<String>>>();
 
 	// This map contains a mapping from (sourceType, propertyKey) -> RelationClass
-	private static final Map<Class, Map<String, Class<? extends PropertyConverter>>> globalAggregatedPropertyConverterMap = new LinkedHashMap<Class, Map<String, Class<? extends PropertyConverter>>>();
-	private static final Map<Class, Map<String, Class<? extends PropertyConverter>>> globalPropertyConverterMap           = new LinkedHashMap<Class, Map<String, Class<? extends PropertyConverter>>>();
+	private static final Map<Class, Map<String, Class>> globalPropertyConverterMap                                             = new LinkedHashMap<Class, Map<String, Class>>();
 	private static final Map<Class, Map<String, RelationClass>> globalPropertyRelationClassMap                            = new LinkedHashMap<Class, Map<String, RelationClass>>();
-	private static final Map<Class, Map<String, PropertyGroup>> globalAggregatedPropertyGroupMap                          = new LinkedHashMap<Class, Map<String, PropertyGroup>>();
 	private static final Map<Class, Map<String, PropertyGroup>> globalPropertyGroupMap                                    = new LinkedHashMap<Class, Map<String, PropertyGroup>>();
 
 	// This map contains view-dependent result set transformations
@@ -95,16 +99,22 @@ public class EntityContext {
 	private static final Map<Class, Set<Transformation<GraphObject>>> globalEntityCreationTransformationMap = new LinkedHashMap<Class, Set<Transformation<GraphObject>>>();
 	private static final Map<Class, Map<String, Object>> globalDefaultValueMap                              = new LinkedHashMap<Class, Map<String, Object>>();
 	private static final Map<Class, Map<String, Value>> globalConversionParameterMap                        = new LinkedHashMap<Class, Map<String, Value>>();
-	private static final Map<String, String> normalizedEntityNameCache                                      = new LinkedHashMap<String, String>();
+	private static final Map<String, String> normalizedEntityNameCache                                      = new ConcurrentHashMap<String, String>();
 	private static final Set<StructrTransactionListener> transactionListeners                               = new LinkedHashSet<StructrTransactionListener>();
 	private static final Map<String, RelationshipMapping> globalRelationshipNameMap                         = new LinkedHashMap<String, RelationshipMapping>();
 	private static final Map<String, Class> globalRelationshipClassMap                                      = new LinkedHashMap<String, Class>();
 	private static final EntityContextModificationListener globalModificationListener                       = new EntityContextModificationListener();
 	private static final Map<Long, FrameworkException> exceptionMap                                         = new LinkedHashMap<Long, FrameworkException>();
-	private static final Map<Class, Set<Class>> interfaceMap                                                = new LinkedHashMap<Class, Set<Class>>();
-	private static final Map<String, Class> reverseInterfaceMap                                             = new LinkedHashMap<String, Class>();
+	private static final Map<Class, Set<Class>> interfaceMap                                                = new ConcurrentHashMap<Class, Set<Class>>();
+	private static final Map<String, Class> reverseInterfaceMap                                             = new ConcurrentHashMap<String, Class>();
 	private static Map<String, Class> cachedEntities                                                        = new LinkedHashMap<String, Class>();
 
+	// This map contains the resolved (i.e. inheritance-aggregated) schema for each concrete type,
+	// it is replaced as a whole whenever the underlying registration maps change.
+	private static final Object schemaLock                                                                  = new Object();
+	private static volatile ConcurrentHashMap<Class, ResolvedSchema> resolvedSchemaMap                      = new ConcurrentHashMap<Class, ResolvedSchema>();
+	private static volatile ConcurrentHashMap<String, Integer> sortTypeMap                                  = new ConcurrentHashMap<String, Integer>();
+
 	private static final Map<Thread, Set<AbstractRelationship>> createdRelationshipMap                      = Collections.synchronizedMap(new WeakHashMap<Thread, Set<AbstractRelationship>>());
 	private static final Map<Thread, Set<AbstractRelationship>> modifiedRelationshipMap                     = Collections.synchronizedMap(new WeakHashMap<Thread, Set<AbstractRelationship>>());
 	private static final Map<Thread, Set<AbstractRelationship>> deletedRelationshipMap                      = Collections.synchronizedMap(new WeakHashMap<Thread, Set<AbstractRelationship>>());
@@ -112,7 +122,11 @@ public class EntityContext {
 	private static final Map<Thread, Set<AbstractNode>> modifiedNodeMap                                     = Collections.synchronizedMap(new WeakHashMap<Thread, Set<AbstractNode>>());
 	private static final Map<Thread, Set<AbstractNode>> deletedNodeMap                                      = Collections.synchronizedMap(new WeakHashMap<Thread, Set<AbstractNode>>());
 	private static final Map<Thread, SecurityContext> securityContextMap                                    = Collections.synchronizedMap(new WeakHashMap<Thread, SecurityContext>());
+	private static final Map<Thread, IndexDelta> deferredIndexDeltaMap                                      = Collections.synchronizedMap(new WeakHashMap<Thread, IndexDelta>());
+	private static final Map<Thread, IndexDelta> commitIndexDeltaMap                                        = Collections.synchronizedMap(new WeakHashMap<Thread, IndexDelta>());
+	private static final Map<Long, IndexDelta> pendingIndexDeltas                                           = new ConcurrentHashMap<Long, IndexDelta>();
 	private static final Map<Thread, Long> transactionKeyMap                                                = Collections.synchronizedMap(new WeakHashMap<Thread, Long>());
+	private static final AtomicLong relationshipGeneration                                                  = new AtomicLong(0);
 
 	//~--- methods --------------------------------------------------------
 
@@ -165,6 +179,31 @@ public class EntityContext {
 		} catch (FrameworkException ex) {
 			Logger.getLogger(EntityContext.class.getName()).log(Level.SEVERE, null, ex);
 		}
+
+		resolveSchemas(cachedEntities.values());
+	}
+
+	/**
+	 * Builds the resolved schema for each of the given types and replaces
+	 * the current set of resolved schemas atomically.
+	 *
+	 * @param types
+	 */
+	public static void resolveSchemas(final Collection<Class> types) {
+
+		synchronized (schemaLock) {
+
+			ConcurrentHashMap<Class, ResolvedSchema> newSchemaMap = new ConcurrentHashMap<Class, ResolvedSchema>();
+
+			for (Class type : types) {
+
+				newSchemaMap.put(type, new ResolvedSchema(type));
+			}
+
+			resolvedSchemaMap = newSchemaMap;
+		}
+
+		logger.log(Level.FINE, "Resolved schema for {0} types", types.size());
 	}
 
 	public static void registerTransactionListener(StructrTransactionListener listener) {
@@ -180,12 +219,22 @@ public class EntityContext {
 	}
 
 	public static void registerPropertyGroup(Class type, PropertyKey key, PropertyGroup propertyGroup) {
-		getPropertyGroupMapForType(type).put(key.name(), propertyGroup);
+
+		synchronized (schemaLock) {
+
+			getPropertyGroupMapForType(type).put(key.name(), propertyGroup);
+			invalidateResolvedSchemas();
+		}
 	}
 
 	// ----- default values -----
 	public static void registerDefaultValue(Class type, PropertyKey propertyKey, Object defaultValue) {
-		getGlobalDefaultValueMapForType(type).put(propertyKey.name(), defaultValue);
+
+		synchronized (schemaLock) {
+
+			getGlobalDefaultValueMapForType(type).put(propertyKey.name(), defaultValue);
+			invalidateResolvedSchemas();
+		}
 	}
 
 	// ----- named relations -----
@@ -276,69 +325,84 @@ public class EntityContext {
 
 	public static void registerPropertySet(Class type, String propertyView, String viewPrefix, PropertyKey... propertySet) {
 
-		Set<String> properties = getPropertySet(type, propertyView);
+		synchronized (schemaLock) {
 
-		for (PropertyKey property : propertySet) {
+			Set<String> properties = getPropertySetForType(type, propertyView);
 
-			properties.add(((viewPrefix != null)
-					? viewPrefix
-					: "").concat(property.name()));
+			for (PropertyKey property : propertySet) {
 
-		}
+				properties.add(((viewPrefix != null)
+						? viewPrefix
+						: "").concat(property.name()));
 
-		// include property sets from superclass
-		Class superClass = type.getSuperclass();
+			}
 
-		while ((superClass != null) &&!superClass.equals(Object.class)) {
+			// include property sets from superclass
+			Class superClass = type.getSuperclass();
 
-			Set<String> superProperties = getPropertySet(superClass, propertyView);
+			while ((superClass != null) &&!superClass.equals(Object.class)) {
 
-			properties.addAll(superProperties);
+				Set<String> superProperties = resolvePropertySet(superClass, propertyView);
 
-			// one level up :)
-			superClass = superClass.getSuperclass();
+				properties.addAll(superProperties);
 
-		}
-		
-		// include property sets from interfaces
-		for(Class interfaceClass : getInterfacesForType(type)) {
-			properties.addAll(getPropertySet(interfaceClass, propertyView));
+				// one level up :)
+				superClass = superClass.getSuperclass();
+
+			}
+
+			// include property sets from interfaces
+			for(Class interfaceClass : getInterfacesForType(type)) {
+				properties.addAll(resolvePropertySet(interfaceClass, propertyView));
+			}
+
+			invalidateResolvedSchemas();
 		}
 	}
 
 	public static void registerPropertySet(Class type, String propertyView, String viewPrefix, String[] propertySet) {
 
-		Set<String> properties = getPropertySet(type, propertyView);
+		synchronized (schemaLock) {
 
-		for (String property : propertySet) {
+			Set<String> properties = getPropertySetForType(type, propertyView);
 
-			properties.add(((viewPrefix != null)
-					? viewPrefix
-					: "").concat(property));
+			for (String property : propertySet) {
 
-		}
+				properties.add(((viewPrefix != null)
+						? viewPrefix
+						: "").concat(property));
 
-		// include property sets from superclass
-		Class localType = type.getSuperclass();
+			}
 
-		while ((localType != null) &&!localType.equals(Object.class)) {
+			// include property sets from superclass
+			Class localType = type.getSuperclass();
 
-			Set<String> superProperties = getPropertySet(localType, propertyView);
+			while ((localType != null) &&!localType.equals(Object.class)) {
 
-			properties.addAll(superProperties);
+				Set<String> superProperties = resolvePropertySet(localType, propertyView);
 
-			// include property sets from interfaces
-			for(Class interfaceClass : getInterfacesForType(localType)) {
-				properties.addAll(getPropertySet(interfaceClass, propertyView));
+				properties.addAll(superProperties);
+
+				// include property sets from interfaces
+				for(Class interfaceClass : getInterfacesForType(localType)) {
+					properties.addAll(resolvePropertySet(interfaceClass, propertyView));
+				}
+
+				// one level up :)
+				localType = localType.getSuperclass();
 			}
 
-			// one level up :)
-			localType = localType.getSuperclass();
+			invalidateResolvedSchemas();
 		}
 	}
 
 	public static void clearPropertySet(Class type, String propertyView) {
-		getPropertySet(type, propertyView).clear();
+
+		synchronized (schemaLock) {
+
+			getPropertySetForType(type, propertyView).clear();
+			invalidateResolvedSchemas();
+		}
 	}
 
 	// ----- validator methods -----
@@ -348,54 +412,81 @@ public class EntityContext {
 
 	public static void registerPropertyValidator(Class type, String propertyKey, PropertyValidator validator) {
 
-		Map<String, Set<PropertyValidator>> validatorMap = getPropertyValidatorMapForType(type);
+		synchronized (schemaLock) {
 
-		// fetch or create validator set
-		Set<PropertyValidator> validators = validatorMap.get(propertyKey);
+			Map<String, Set<PropertyValidator>> validatorMap = getPropertyValidatorMapForType(type);
 
-		if (validators == null) {
+			// fetch or create validator set
+			Set<PropertyValidator> validators = validatorMap.get(propertyKey);
 
-			validators = new LinkedHashSet<PropertyValidator>();
+			if (validators == null) {
 
-			validatorMap.put(propertyKey, validators);
+				validators = new LinkedHashSet<PropertyValidator>();
 
-		}
+				validatorMap.put(propertyKey, validators);
 
-		validators.add(validator);
+			}
+
+			validators.add(validator);
+			invalidateResolvedSchemas();
+		}
 	}
 
 	// ----- PropertyConverter methods -----
-	public static void registerPropertyConverter(Class type, PropertyKey propertyKey, Class<? extends PropertyConverter> propertyConverterClass) {
+	public static void registerPropertyConverter(Class type, PropertyKey propertyKey, Class propertyConverterClass) {
 		registerPropertyConverter(type, propertyKey.name(), propertyConverterClass);
 	}
 
-	public static void registerPropertyConverter(Class type, PropertyKey propertyKey, Class<? extends PropertyConverter> propertyConverterClass, Value value) {
+	public static void registerPropertyConverter(Class type, PropertyKey propertyKey, Class propertyConverterClass, Value value) {
 		registerPropertyConverter(type, propertyKey.name(), propertyConverterClass, value);
 	}
 
-	public static void registerPropertyConverter(Class type, String propertyKey, Class<? extends PropertyConverter> propertyConverterClass) {
+	public static void registerPropertyConverter(Class type, String propertyKey, Class propertyConverterClass) {
 		registerPropertyConverter(type, propertyKey, propertyConverterClass, null);
 	}
 
-	public static void registerPropertyConverter(Class type, String propertyKey, Class<? extends PropertyConverter> propertyConverterClass, Value value) {
+	/**
+	 * Registers a property converter for the given type and key. The
+	 * converter class can be either a {@link StatelessPropertyConverter},
+	 * which is instantiated only once, or a legacy {@link PropertyConverter},
+	 * which is instantiated for every conversion.
+	 */
+	public static void registerPropertyConverter(Class type, String propertyKey, Class propertyConverterClass, Value value) {
+
+		if (!StatelessPropertyConverter.class.isAssignableFrom(propertyConverterClass) && !PropertyConverter.class.isAssignableFrom(propertyConverterClass)) {
+
+			logger.log(Level.WARNING, "Class {0} is not a property converter, ignoring.", propertyConverterClass.getName());
+
+			return;
+		}
+
+		synchronized (schemaLock) {
 
-		getPropertyConverterMapForType(type).put(propertyKey, propertyConverterClass);
+			getPropertyConverterMapForType(type).put(propertyKey, propertyConverterClass);
 
-		if (value != null) {
+			if (value != null) {
 
-			getPropertyConversionParameterMapForType(type).put(propertyKey, value);
-			globalKnownPropertyKeys.add(propertyKey);
+				getPropertyConversionParameterMapForType(type).put(propertyKey, value);
+				globalKnownPropertyKeys.add(propertyKey);
+
+			}
 
+			invalidateResolvedSchemas();
 		}
 	}
 
 	// ----- read-only property map -----
 	public static void registerReadOnlyProperty(Class type, String key) {
-		getReadOnlyPropertySetForType(type).add(key);
+
+		synchronized (schemaLock) {
+
+			getReadOnlyPropertySetForType(type).add(key);
+			invalidateResolvedSchemas();
+		}
 	}
 	
 	public static void registerReadOnlyProperty(Class type, PropertyKey key) {
-		getReadOnlyPropertySetForType(type).add(key.name());
+		registerReadOnlyProperty(type, key.name());
 	}
 
 	// ----- searchable property map -----
@@ -443,7 +534,12 @@ public class EntityContext {
 
 	// ----- write-once property map -----
 	public static void registerWriteOnceProperty(Class type, String key) {
-		getWriteOncePropertySetForType(type).add(key);
+
+		synchronized (schemaLock) {
+
+			getWriteOncePropertySetForType(type).add(key);
+			invalidateResolvedSchemas();
+		}
 	}
 
 	// ----- private methods -----
@@ -536,32 +632,45 @@ public class EntityContext {
 	private static void registerPropertyRelationInternal(Class sourceType, PropertyKey[] properties, Class destType, RelationshipType relType, Direction direction, Cardinality cardinality,
 		Notion notion, int cascadeDelete) {
 
-		Map<String, RelationClass> typeMap = getPropertyRelationshipMapForType(sourceType);
-		RelationClass rel                  = new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete);
+		RelationClass rel = new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete);
+
+		synchronized (schemaLock) {
+
+			Map<String, RelationClass> typeMap = getPropertyRelationshipMapForType(sourceType);
 
-		for (PropertyKey prop : properties) {
+			for (PropertyKey prop : properties) {
 
-			typeMap.put(prop.name(), rel);
-			globalKnownPropertyKeys.add(prop.name());
+				typeMap.put(prop.name(), rel);
+				globalKnownPropertyKeys.add(prop.name());
 
+			}
+
+			invalidateResolvedSchemas();
 		}
 	}
 
 	private static void registerPropertyRelationInternal(Class sourceType, String property, Class destType, RelationshipType relType, Direction direction, Cardinality cardinality, Notion notion,
 		int cascadeDelete) {
 
-		Map<String, RelationClass> typeMap = getPropertyRelationshipMapForType(sourceType);
+		RelationClass rel = new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete);
 
-		typeMap.put(property, new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete));
-		globalKnownPropertyKeys.add(property);
+		synchronized (schemaLock) {
+
+			getPropertyRelationshipMapForType(sourceType).put(property, rel);
+			globalKnownPropertyKeys.add(property);
+			invalidateResolvedSchemas();
+		}
 	}
 
 	private static void registerEntityRelationInternal(Class sourceType, Class destType, RelationshipType relType, Direction direction, Cardinality cardinality, Notion notion, int cascadeDelete) {
 
-		Map<Class, RelationClass> typeMap = getRelationClassMapForType(sourceType);
-		RelationClass directedRelation    = new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete);
+		RelationClass directedRelation = new RelationClass(destType, relType, direction, cardinality, notion, cascadeDelete);
 
-		typeMap.put(destType, directedRelation);
+		synchronized (schemaLock) {
+
+			getRelationClassMapForType(sourceType).put(destType, directedRelation);
+			invalidateResolvedSchemas();
+		}
 	}
 	
 	public static String createCombinedRelationshipType(String oldCombinedRelationshipType, Class newDestType) {
@@ -610,7 +719,7 @@ public class EntityContext {
 	}
 
 	public static Object getDefaultValue(Class type, String propertyKey) {
-		return getGlobalDefaultValueMapForType(type).get(propertyKey);
+		return getResolvedSchema(type).getDefaultValue(propertyKey);
 	}
 
 	public static RelationshipMapping getNamedRelation(String relationName) {
@@ -739,39 +848,15 @@ public class EntityContext {
 	}
 
 	public static PropertyGroup getPropertyGroup(Class type, String key) {
-
-		PropertyGroup group = getAggregatedPropertyGroupMapForType(type).get(key);
-		if(group == null) {
-			
-			Class localType     = type;
-
-			while(group == null && localType != null && !localType.equals(Object.class)) {
-
-				group = getPropertyGroupMapForType(localType).get(key);
-
-				if(group == null) {
-
-					// try interfaces as well
-					for(Class interfaceClass : getInterfacesForType(localType)) {
-
-						group = getPropertyGroupMapForType(interfaceClass).get(key);
-						if(group != null) {
-							break;
-						}
-					}
-				}
-
-				localType = localType.getSuperclass();
-			}
-			
-			getAggregatedPropertyGroupMapForType(type).put(key, group);
-		}
-		
-		return group;
+		return getResolvedSchema(type).getPropertyGroup(key);
 	}
 
 	// ----- static relationship methods -----
 	public static RelationClass getRelationClass(Class sourceType, Class destType) {
+		return getResolvedSchema(sourceType).getRelationClass(destType);
+	}
+
+	private static RelationClass resolveRelationClass(Class sourceType, Class destType) {
 
 		RelationClass relation = null;
 		Class localType        = sourceType;
@@ -821,51 +906,16 @@ public class EntityContext {
 				localType = localType.getSuperclass();
 			}
 		}
-			
 
 		return relation;
 	}
 
 	public static RelationClass getRelationClass(Class sourceType, String key) {
-
-		Class destType = getEntityClassForRawType(key);
-
-		if (destType != null) {
-
-			return getRelationClass(sourceType, destType);
-
-		}
-
-		return getRelationClassForProperty(sourceType, key);
+		return getResolvedSchema(sourceType).getRelationClass(key);
 	}
 
 	public static RelationClass getRelationClassForProperty(Class sourceType, String propertyKey) {
-
-		RelationClass relation = null;
-		Class localType        = sourceType;
-
-		while ((relation == null) &&!localType.equals(Object.class)) {
-
-			relation  = getPropertyRelationshipMapForType(localType).get(propertyKey);
-
-			// try interfaces classes
-			if (relation == null) {
-
-				for(Class interfaceClass : getInterfacesForType(localType)) {
-
-					relation  = getPropertyRelationshipMapForType(interfaceClass).get(propertyKey);
-
-					if(relation != null) {
-
-						return relation;
-					}
-				}
-			}
-
-			localType = localType.getSuperclass();
-		}
-
-		return relation;
+		return getResolvedSchema(sourceType).getRelationClassForProperty(propertyKey);
 	}
 	
 	// ----- view transformations -----
@@ -891,148 +941,68 @@ public class EntityContext {
 
 	// ----- property set methods -----
 	public static Set<String> getPropertySet(Class type, String propertyView) {
-
-		Map<String, Set<String>> propertyViewMap = getPropertyViewMapForType(type);
-		Set<String> propertySet                  = propertyViewMap.get(propertyView);
-
-		if (propertySet == null) {
-
-			propertySet = new LinkedHashSet<String>();
-
-			propertyViewMap.put(propertyView, propertySet);
-		}
-
-		// add property set from interfaces
-		for(Class interfaceClass : getInterfacesForType(type)) {
-			propertySet.addAll(getPropertySet(interfaceClass, propertyView));
-			}
-
-		// test: fill property set with values from supertypes
-		Class superClass = type.getSuperclass();
-
-		while ((superClass != null) &&!superClass.equals(Object.class)) {
-
-			Set<String> superProperties = getPropertySet(superClass, propertyView);
-
-			propertySet.addAll(superProperties);
-
-			// one level up :)
-			superClass = superClass.getSuperclass();
-
-		}
-
-		return propertySet;
+		return getResolvedSchema(type).getPropertySet(propertyView);
 	}
 
 	public static Set<PropertyValidator> getPropertyValidators(final SecurityContext securityContext, Class type, String propertyKey) {
-
-		Set<PropertyValidator> validators                = new LinkedHashSet<PropertyValidator>();
-		Map<String, Set<PropertyValidator>> validatorMap = null;
-		Class localType                                  = type;
-
-		// try all superclasses
-		while (!localType.equals(Object.class)) {
-
-			validatorMap = getPropertyValidatorMapForType(localType);
-			
-			Set<PropertyValidator> classValidators = validatorMap.get(propertyKey);
-			if(classValidators != null) {
-				validators.addAll(validatorMap.get(propertyKey));
-			}
-
-			// try converters from interfaces as well
-			for(Class interfaceClass : getInterfacesForType(localType)) {
-				Set<PropertyValidator> interfaceValidators = getPropertyValidatorMapForType(interfaceClass).get(propertyKey);
-				if(interfaceValidators != null) {
-					validators.addAll(interfaceValidators);
-				}
-			}
-			
-//                      logger.log(Level.INFO, "Validator class {0} found for type {1}", new Object[] { clazz != null ? clazz.getSimpleName() : "null", localType } );
-			// one level up :)
-			localType = localType.getSuperclass();
-
-		}
-
-		return validators;
+		return getResolvedSchema(type).getPropertyValidators(propertyKey);
 	}
 
-	public static PropertyConverter getPropertyConverter(final SecurityContext securityContext, Class type, String propertyKey) {
+	public static StatelessPropertyConverter getPropertyConverter(Class type, String propertyKey) {
+		return getResolvedSchema(type).getPropertyConverter(propertyKey);
+	}
 
-		Class clazz = getAggregatedPropertyConverterMapForType(type).get(propertyKey);
-		if(clazz == null) {
-			
-			Map<String, Class<? extends PropertyConverter>> converterMap = null;
-			Class localType                                              = type;
+	/**
+	 * Creates a shareable property converter for the given converter
+	 * class, wrapping legacy converters in a {@link LegacyConverterAdapter}.
+	 *
+	 * @param converterClass
+	 * @return the converter, or null if the class could not be instantiated
+	 */
+	public static StatelessPropertyConverter createPropertyConverter(Class converterClass) {
 
-			while ((clazz == null) &&!localType.equals(Object.class)) {
+		if (PropertyConverter.class.isAssignableFrom(converterClass)) {
 
-				converterMap = getPropertyConverterMapForType(localType);
-				clazz        = converterMap.get(propertyKey);
+			return new LegacyConverterAdapter(converterClass);
+		}
 
-				// try converters from interfaces as well
-				if(clazz == null) {
+		try {
 
-					for(Class interfaceClass : getInterfacesForType(localType)) {
-						clazz = getPropertyConverterMapForType(interfaceClass).get(propertyKey);
-						if(clazz != null) {
-							break;
-						}
-					}
-				}
+			return (StatelessPropertyConverter) converterClass.newInstance();
 
-				localType = localType.getSuperclass();
-			}
-			
-			getAggregatedPropertyConverterMapForType(type).put(propertyKey, clazz);
+		} catch (Throwable t) {
+			logger.log(Level.WARNING, "Unable to instantiate property converter {0}: {1}", new Object[] { converterClass.getName(), t.getMessage() });
 		}
 
-		PropertyConverter propertyConverter = null;
-		if (clazz != null) {
+		return null;
+	}
 
-			try {
+	/**
+	 * Returns the Lucene sort type for the given property key, derived
+	 * from the converters registered for this key. Index fields are not
+	 * typed, so if different types register converters with different
+	 * sort types for the same key, {@link SortField#STRING} is returned.
+	 *
+	 * @param propertyKey
+	 * @return the sort type
+	 */
+	public static int getSortType(String propertyKey) {
 
-				propertyConverter = (PropertyConverter) clazz.newInstance();
+		ConcurrentHashMap<String, Integer> map = sortTypeMap;
+		Integer sortType                       = map.get(propertyKey);
 
-				propertyConverter.setSecurityContext(securityContext);
+		if (sortType == null) {
 
-			} catch (Throwable t) {
-				logger.log(Level.WARNING, "Unable to instantiate property PropertyConverter {0}: {1}", new Object[] { clazz.getName(), t.getMessage() });
-			}
+			sortType = resolveSortType(propertyKey);
 
+			map.put(propertyKey, sortType);
 		}
 
-		return propertyConverter;
+		return sortType;
 	}
 
 	public static Value getPropertyConversionParameter(Class type, String propertyKey) {
-
-		Map<String, Value> conversionParameterMap = null;
-		Class localType                           = type;
-		Value value                               = null;
-
-		while ((value == null) &&!localType.equals(Object.class)) {
-
-			conversionParameterMap = getPropertyConversionParameterMapForType(localType);
-			value                  = conversionParameterMap.get(propertyKey);
-
-			// try parameters from interfaces as well
-			if(value == null) {
-
-				for(Class interfaceClass : getInterfacesForType(localType)) {
-					value = getPropertyConversionParameterMapForType(interfaceClass).get(propertyKey);
-					if(value != null) {
-						break;
-					}
-				}
-			}
-			
-//                      logger.log(Level.INFO, "Conversion parameter value {0} found for type {1}", new Object[] { value != null ? value.getClass().getSimpleName() : "null", localType } );
-			localType = localType.getSuperclass();
-
-		}
-
-		return value;
+		return getResolvedSchema(type).getPropertyConversionParameter(propertyKey);
 	}
 
 	public static Set<String> getSearchableProperties(Class type, String index) {
@@ -1097,43 +1067,75 @@ public class EntityContext {
 		return propertyViewMap;
 	}
 
-	private static Map<String, Set<PropertyValidator>> getPropertyValidatorMapForType(Class type) {
+	private static Set<String> getPropertySetForType(Class type, String propertyView) {
 
-		Map<String, Set<PropertyValidator>> validatorMap = globalValidatorMap.get(type);
+		Map<String, Set<String>> propertyViewMap = getPropertyViewMapForType(type);
+		Set<String> propertySet                  = propertyViewMap.get(propertyView);
 
-		if (validatorMap == null) {
+		if (propertySet == null) {
 
-			validatorMap = new LinkedHashMap<String, Set<PropertyValidator>>();
+			propertySet = new LinkedHashSet<String>();
 
-			globalValidatorMap.put(type, validatorMap);
+			propertyViewMap.put(propertyView, propertySet);
+		}
+
+		return propertySet;
+	}
+
+	private static Set<String> resolvePropertySet(Class type, String propertyView) {
+
+		Set<String> propertySet = new LinkedHashSet<String>();
+
+		collectPropertySet(type, propertyView, propertySet);
+
+		return propertySet;
+	}
 
+	private static void collectPropertySet(Class type, String propertyView, Set<String> propertySet) {
+
+		Map<String, Set<String>> propertyViewMap = globalPropertyViewMap.get(type);
+
+		if (propertyViewMap != null && propertyViewMap.containsKey(propertyView)) {
+
+			propertySet.addAll(propertyViewMap.get(propertyView));
 		}
 
-		return validatorMap;
+		// add property set from interfaces
+		for(Class interfaceClass : getInterfacesForType(type)) {
+			collectPropertySet(interfaceClass, propertyView, propertySet);
+		}
+
+		// fill property set with values from supertypes
+		Class superClass = type.getSuperclass();
+
+		if ((superClass != null) &&!superClass.equals(Object.class)) {
+
+			collectPropertySet(superClass, propertyView, propertySet);
+		}
 	}
 
-	private static Map<String, Class<? extends PropertyConverter>> getAggregatedPropertyConverterMapForType(Class type) {
+	private static Map<String, Set<PropertyValidator>> getPropertyValidatorMapForType(Class type) {
 
-		Map<String, Class<? extends PropertyConverter>> PropertyConverterMap = globalAggregatedPropertyConverterMap.get(type);
+		Map<String, Set<PropertyValidator>> validatorMap = globalValidatorMap.get(type);
 
-		if (PropertyConverterMap == null) {
+		if (validatorMap == null) {
 
-			PropertyConverterMap = new LinkedHashMap<String, Class<? extends PropertyConverter>>();
+			validatorMap = new LinkedHashMap<String, Set<PropertyValidator>>();
 
-			globalAggregatedPropertyConverterMap.put(type, PropertyConverterMap);
+			globalValidatorMap.put(type, validatorMap);
 
 		}
 
-		return PropertyConverterMap;
+		return validatorMap;
 	}
 
-	private static Map<String, Class<? extends PropertyConverter>> getPropertyConverterMapForType(Class type) {
+	private static Map<String, Class> getPropertyConverterMapForType(Class type) {
 
-		Map<String, Class<? extends PropertyConverter>> PropertyConverterMap = globalPropertyConverterMap.get(type);
+		Map<String, Class> PropertyConverterMap = globalPropertyConverterMap.get(type);
 
 		if (PropertyConverterMap == null) {
 
-			PropertyConverterMap = new LinkedHashMap<String, Class<? extends PropertyConverter>>();
+			PropertyConverterMap = new LinkedHashMap<String, Class>();
 
 			globalPropertyConverterMap.put(type, PropertyConverterMap);
 
@@ -1217,43 +1219,28 @@ public class EntityContext {
 		return searchablePropertyMap;
 	}
 
-	private static Map<String, PropertyGroup> getAggregatedPropertyGroupMapForType(Class type) {
+	private static Map<String, PropertyGroup> getPropertyGroupMapForType(Class type) {
 
-		Map<String, PropertyGroup> groupMap = globalAggregatedPropertyGroupMap.get(type);
+		Map<String, PropertyGroup> groupMap = globalPropertyGroupMap.get(type);
 
 		if (groupMap == null) {
 
 			groupMap = new LinkedHashMap<String, PropertyGroup>();
 
-			globalAggregatedPropertyGroupMap.put(type, groupMap);
+			globalPropertyGroupMap.put(type, groupMap);
 
 		}
 
 		return groupMap;
 	}
 
-	private static Map<String, PropertyGroup> getPropertyGroupMapForType(Class type) {
+	private static Set<Transformation<GraphObject>> getEntityCreationTransformationsForType(Class type) {
 
-		Map<String, PropertyGroup> groupMap = globalPropertyGroupMap.get(type);
+		Set<Transformation<GraphObject>> transformations = globalEntityCreationTransformationMap.get(type);
 
-		if (groupMap == null) {
+		if (transformations == null) {
 
-			groupMap = new LinkedHashMap<String, PropertyGroup>();
-
-			globalPropertyGroupMap.put(type, groupMap);
-
-		}
-
-		return groupMap;
-	}
-
-	private static Set<Transformation<GraphObject>> getEntityCreationTransformationsForType(Class type) {
-
-		Set<Transformation<GraphObject>> transformations = globalEntityCreationTransformationMap.get(type);
-
-		if (transformations == null) {
-
-			transformations = new LinkedHashSet<Transformation<GraphObject>>();
+			transformations = new LinkedHashSet<Transformation<GraphObject>>();
 
 			globalEntityCreationTransformationMap.put(type, transformations);
 
@@ -1268,58 +1255,100 @@ public class EntityContext {
 		if(interfaces == null) {
 			
 			interfaces = new LinkedHashSet<Class>();
-			interfaceMap.put(type, interfaces);
 			
 			for(Class iface : type.getInterfaces()) {
 
 				reverseInterfaceMap.put(iface.getSimpleName(), iface);
 				interfaces.add(iface);
 			}
+
+			// publish only after the set is complete
+			interfaceMap.put(type, interfaces);
 		}
 		
 		return interfaces;
 	}
-	
-	public static EntityContextModificationListener getTransactionEventHandler() {
-		return globalModificationListener;
-	}
 
-	public static synchronized FrameworkException getFrameworkException(Long transactionKey) {
-		return exceptionMap.get(transactionKey);
-	}
+	/**
+	 * Returns the resolved schema for the given type, building it if
+	 * the type was not known when the schemas were last resolved.
+	 *
+	 * @param type
+	 * @return the resolved schema
+	 */
+	private static ResolvedSchema getResolvedSchema(Class type) {
 
-	public static boolean isKnownProperty(final String key) {
-		return globalKnownPropertyKeys.contains(key);
+		ConcurrentHashMap<Class, ResolvedSchema> schemaMap = resolvedSchemaMap;
+		ResolvedSchema schema                              = schemaMap.get(type);
+
+		if (schema == null) {
+
+			synchronized (schemaLock) {
+
+				schema = new ResolvedSchema(type);
+			}
+
+			ResolvedSchema existingSchema = schemaMap.putIfAbsent(type, schema);
+			if (existingSchema != null) {
+
+				schema = existingSchema;
+			}
+		}
+
+		return schema;
 	}
 
-	public static boolean isReadOnlyProperty(Class type, String key) {
+	private static int resolveSortType(String propertyKey) {
 
-		boolean isReadOnly = getReadOnlyPropertySetForType(type).contains(key);
-		Class localType    = type;
+		Integer sortType = null;
 
-		// try all superclasses
-		while (!isReadOnly &&!localType.equals(Object.class)) {
+		synchronized (schemaLock) {
 
-			isReadOnly = getReadOnlyPropertySetForType(localType).contains(key);
+			for (Map<String, Class> converterMap : globalPropertyConverterMap.values()) {
 
-			// one level up :)
-			localType = localType.getSuperclass();
+				Class converterClass = converterMap.get(propertyKey);
 
-		}
-		
-		if(!isReadOnly) {
-			
-			for(Class interfaceClass : getInterfacesForType(type)) {
+				if (converterClass != null) {
+
+					StatelessPropertyConverter converter = createPropertyConverter(converterClass);
+					int converterSortType                = converter != null ? converter.getSortType() : SortField.STRING;
+
+					if (sortType != null && sortType.intValue() != converterSortType) {
+
+						return SortField.STRING;
+					}
 
-				if (getReadOnlyPropertySetForType(interfaceClass).contains(key)) {
-					return true;
+					sortType = converterSortType;
 				}
-				
-				
 			}
 		}
 
-		return isReadOnly;
+		return sortType != null ? sortType : SortField.STRING;
+	}
+
+	/**
+	 * Discards all resolved schemas. Must be called with the schema
+	 * lock held, after any of the registration maps was modified.
+	 */
+	private static void invalidateResolvedSchemas() {
+		resolvedSchemaMap = new ConcurrentHashMap<Class, ResolvedSchema>();
+		sortTypeMap       = new ConcurrentHashMap<String, Integer>();
+	}
+	
+	public static EntityContextModificationListener getTransactionEventHandler() {
+		return globalModificationListener;
+	}
+
+	public static synchronized FrameworkException getFrameworkException(Long transactionKey) {
+		return exceptionMap.get(transactionKey);
+	}
+
+	public static boolean isKnownProperty(final String key) {
+		return globalKnownPropertyKeys.contains(key);
+	}
+
+	public static boolean isReadOnlyProperty(Class type, String key) {
+		return getResolvedSchema(type).isReadOnlyProperty(key);
 	}
 
 	public static boolean isSearchableProperty(Class type, String index, PropertyKey key) {
@@ -1335,33 +1364,7 @@ public class EntityContext {
 	}
 
 	public static boolean isWriteOnceProperty(Class type, String key) {
-
-		boolean isWriteOnce = getWriteOncePropertySetForType(type).contains(key);
-		Class localType     = type;
-
-		// try all superclasses
-		while (!isWriteOnce &&!localType.equals(Object.class)) {
-
-			isWriteOnce = getWriteOncePropertySetForType(localType).contains(key);
-
-			// one level up :)
-			localType = localType.getSuperclass();
-
-		}
-		
-		if(!isWriteOnce) {
-			
-			for(Class interfaceClass : getInterfacesForType(type)) {
-
-				if (getWriteOncePropertySetForType(interfaceClass).contains(key)) {
-					return true;
-				}
-				
-				
-			}
-		}
-
-		return isWriteOnce;
+		return getResolvedSchema(type).isWriteOnceProperty(key);
 	}
 
 	//~--- set methods ----------------------------------------------------
@@ -1462,6 +1465,43 @@ public class EntityContext {
 		return nodes;
 	}
 	
+	/**
+	 * Records a property write on the given node for indexing, if it is
+	 * made while the transaction event handler runs on the current thread,
+	 * e.g. by a transaction listener or in beforeModification. Such writes
+	 * are committed, but they are not part of the transaction data the
+	 * handler works on.
+	 *
+	 * @param node
+	 * @param key
+	 */
+	public static void nodePropertyWritten(final AbstractNode node, final String key) {
+
+		IndexDelta indexDelta = commitIndexDeltaMap.get(Thread.currentThread());
+
+		if (indexDelta != null) {
+
+			indexDelta.addNodeProperty(node, key);
+		}
+	}
+
+	/**
+	 * Records a property write on the given relationship for indexing, see
+	 * {@link #nodePropertyWritten(AbstractNode, String)}.
+	 *
+	 * @param rel
+	 * @param key
+	 */
+	public static void relationshipPropertyWritten(final AbstractRelationship rel, final String key) {
+
+		IndexDelta indexDelta = commitIndexDeltaMap.get(Thread.currentThread());
+
+		if (indexDelta != null) {
+
+			indexDelta.addRelationshipProperty(rel, key);
+		}
+	}
+
 	public static synchronized void setSecurityContext(SecurityContext securityContext) {
 		securityContextMap.put(Thread.currentThread(), securityContext);
 	}
@@ -1470,8 +1510,311 @@ public class EntityContext {
 		transactionKeyMap.put(Thread.currentThread(), transactionKey);
 	}
 
+	/**
+	 * Marks all memoized related nodes as outdated, see
+	 * {@link RelationClass#getRelatedNodeIterable(org.structr.common.SecurityContext, org.structr.core.entity.AbstractNode)}.
+	 */
+	public static void relationshipsModified() {
+		relationshipGeneration.incrementAndGet();
+	}
+
+	/**
+	 * Returns a number that changes whenever a relationship is created
+	 * or deleted.
+	 *
+	 * @return
+	 */
+	public static long getRelationshipGeneration() {
+		return relationshipGeneration.get();
+	}
+
+	/**
+	 * Collects the index changes of all following transactions of the
+	 * current thread in the given delta instead of applying them, until
+	 * this method is called with null. Bulk operations use this to apply
+	 * the index changes of many transactions at once, with
+	 * {@link IndexNodeCommand} and {@link IndexRelationshipCommand}.
+	 *
+	 * @param indexDelta the delta to collect the changes in, or null
+	 */
+	public static void setDeferredIndexDelta(IndexDelta indexDelta) {
+
+		if (indexDelta != null) {
+
+			deferredIndexDeltaMap.put(Thread.currentThread(), indexDelta);
+
+		} else {
+
+			deferredIndexDeltaMap.remove(Thread.currentThread());
+		}
+	}
+
 	//~--- inner classes --------------------------------------------------
 
+	// <editor-fold defaultstate="collapsed" desc="ResolvedSchema">
+	/**
+	 * The immutable, inheritance-aggregated schema of a single type. All
+	 * superclass and interface lookups are done once when this object is
+	 * created, so the getters only need a single map lookup.
+	 *
+	 * Lookups that depend on other types (relation classes) are memoized
+	 * lazily, they are discarded together with the schema.
+	 */
+	private static class ResolvedSchema {
+
+		private static final Object NO_RELATION_CLASS = new Object();
+
+		private final Map<String, Set<String>> propertyViews                          = new HashMap<String, Set<String>>();
+		private final Map<String, Set<PropertyValidator>> propertyValidators          = new HashMap<String, Set<PropertyValidator>>();
+		private final Map<String, StatelessPropertyConverter> propertyConverters       = new HashMap<String, StatelessPropertyConverter>();
+		private final Map<String, Value> conversionParameters                         = new HashMap<String, Value>();
+		private final Map<String, PropertyGroup> propertyGroups                       = new HashMap<String, PropertyGroup>();
+		private final Map<String, RelationClass> propertyRelations                    = new HashMap<String, RelationClass>();
+		private final Map<String, Object> defaultValues                               = new HashMap<String, Object>();
+		private final Set<String> readOnlyProperties                                  = new HashSet<String>();
+		private final Set<String> writeOnceProperties                                 = new HashSet<String>();
+		private final ConcurrentHashMap<Class, Object> relationClassByType            = new ConcurrentHashMap<Class, Object>();
+		private final ConcurrentHashMap<String, Object> relationClassByKey            = new ConcurrentHashMap<String, Object>();
+		private final Class type;
+
+		public ResolvedSchema(Class type) {
+
+			this.type = type;
+
+			// property views of the type, its superclasses and all of their interfaces
+			for (Map.Entry<Class, Map<String, Set<String>>> entry : globalPropertyViewMap.entrySet()) {
+
+				if (entry.getKey().isAssignableFrom(type)) {
+
+					for (String view : entry.getValue().keySet()) {
+
+						if (!propertyViews.containsKey(view)) {
+
+							propertyViews.put(view, Collections.unmodifiableSet(resolvePropertySet(type, view)));
+						}
+					}
+				}
+			}
+
+			Class localType = type;
+
+			while (localType != null && !localType.equals(Object.class)) {
+
+				// read-only and write-once properties are inherited from superclasses only
+				Set<String> readOnlySet = globalReadOnlyPropertyMap.get(localType);
+				if (readOnlySet != null) {
+					readOnlyProperties.addAll(readOnlySet);
+				}
+
+				Set<String> writeOnceSet = globalWriteOncePropertyMap.get(localType);
+				if (writeOnceSet != null) {
+					writeOnceProperties.addAll(writeOnceSet);
+				}
+
+				// type first, interfaces after type
+				collectLevel(localType);
+
+				for (Class interfaceClass : getInterfacesForType(localType)) {
+					collectLevel(interfaceClass);
+				}
+
+				// one level up :)
+				localType = localType.getSuperclass();
+			}
+
+			// interfaces of the type itself
+			for (Class interfaceClass : getInterfacesForType(type)) {
+
+				Set<String> readOnlySet = globalReadOnlyPropertyMap.get(interfaceClass);
+				if (readOnlySet != null) {
+					readOnlyProperties.addAll(readOnlySet);
+				}
+
+				Set<String> writeOnceSet = globalWriteOncePropertyMap.get(interfaceClass);
+				if (writeOnceSet != null) {
+					writeOnceProperties.addAll(writeOnceSet);
+				}
+			}
+
+			// default values are not inherited
+			Map<String, Object> defaultValueMap = globalDefaultValueMap.get(type);
+			if (defaultValueMap != null) {
+				defaultValues.putAll(defaultValueMap);
+			}
+
+			// make validator sets immutable
+			for (Map.Entry<String, Set<PropertyValidator>> entry : propertyValidators.entrySet()) {
+				entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+			}
+		}
+
+		/**
+		 * Collects the registrations of a single level of the type hierarchy.
+		 * The first registration found for a key wins, so levels must be
+		 * collected from the most specific type upwards.
+		 */
+		private void collectLevel(Class localType) {
+
+			Map<String, Set<PropertyValidator>> validatorMap = globalValidatorMap.get(localType);
+			if (validatorMap != null) {
+
+				for (Map.Entry<String, Set<PropertyValidator>> entry : validatorMap.entrySet()) {
+
+					Set<PropertyValidator> validators = propertyValidators.get(entry.getKey());
+					if (validators == null) {
+
+						validators = new LinkedHashSet<PropertyValidator>();
+						propertyValidators.put(entry.getKey(), validators);
+					}
+
+					validators.addAll(entry.getValue());
+				}
+			}
+
+			Map<String, Class> converterMap = globalPropertyConverterMap.get(localType);
+			if (converterMap != null) {
+
+				for (Map.Entry<String, Class> entry : converterMap.entrySet()) {
+
+					if (!propertyConverters.containsKey(entry.getKey())) {
+
+						// one shared converter instance per (type, key)
+						propertyConverters.put(entry.getKey(), createPropertyConverter(entry.getValue()));
+					}
+				}
+			}
+
+			Map<String, Value> conversionParameterMap = globalConversionParameterMap.get(localType);
+			if (conversionParameterMap != null) {
+
+				for (Map.Entry<String, Value> entry : conversionParameterMap.entrySet()) {
+
+					if (!conversionParameters.containsKey(entry.getKey())) {
+						conversionParameters.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			Map<String, PropertyGroup> groupMap = globalPropertyGroupMap.get(localType);
+			if (groupMap != null) {
+
+				for (Map.Entry<String, PropertyGroup> entry : groupMap.entrySet()) {
+
+					if (!propertyGroups.containsKey(entry.getKey())) {
+						propertyGroups.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			Map<String, RelationClass> relationMap = globalPropertyRelationClassMap.get(localType);
+			if (relationMap != null) {
+
+				for (Map.Entry<String, RelationClass> entry : relationMap.entrySet()) {
+
+					if (!propertyRelations.containsKey(entry.getKey())) {
+						propertyRelations.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		}
+
+		public Set<String> getPropertySet(String propertyView) {
+
+			Set<String> propertySet = propertyViews.get(propertyView);
+			if (propertySet == null) {
+
+				return Collections.emptySet();
+			}
+
+			return propertySet;
+		}
+
+		public Set<PropertyValidator> getPropertyValidators(String propertyKey) {
+
+			Set<PropertyValidator> validators = propertyValidators.get(propertyKey);
+			if (validators == null) {
+
+				return Collections.emptySet();
+			}
+
+			return validators;
+		}
+
+		public StatelessPropertyConverter getPropertyConverter(String propertyKey) {
+			return propertyConverters.get(propertyKey);
+		}
+
+		public Value getPropertyConversionParameter(String propertyKey) {
+			return conversionParameters.get(propertyKey);
+		}
+
+		public PropertyGroup getPropertyGroup(String propertyKey) {
+			return propertyGroups.get(propertyKey);
+		}
+
+		public RelationClass getRelationClassForProperty(String propertyKey) {
+			return propertyRelations.get(propertyKey);
+		}
+
+		public Object getDefaultValue(String propertyKey) {
+			return defaultValues.get(propertyKey);
+		}
+
+		public boolean isReadOnlyProperty(String propertyKey) {
+			return readOnlyProperties.contains(propertyKey);
+		}
+
+		public boolean isWriteOnceProperty(String propertyKey) {
+			return writeOnceProperties.contains(propertyKey);
+		}
+
+		public RelationClass getRelationClass(String key) {
+
+			Object relation = relationClassByKey.get(key);
+			if (relation == null) {
+
+				RelationClass relationClass = null;
+				Class destType              = getEntityClassForRawType(key);
+
+				if (destType != null) {
+
+					relationClass = getRelationClass(destType);
+
+				} else {
+
+					relationClass = getRelationClassForProperty(key);
+				}
+
+				relation = relationClass != null ? relationClass : NO_RELATION_CLASS;
+				relationClassByKey.put(key, relation);
+			}
+
+			return relation != NO_RELATION_CLASS ? (RelationClass) relation : null;
+		}
+
+		public RelationClass getRelationClass(Class destType) {
+
+			Object relation = relationClassByType.get(destType);
+			if (relation == null) {
+
+				RelationClass relationClass = null;
+
+				synchronized (schemaLock) {
+
+					relationClass = resolveRelationClass(type, destType);
+				}
+
+				relation = relationClass != null ? relationClass : NO_RELATION_CLASS;
+				relationClassByType.put(destType, relation);
+			}
+
+			return relation != NO_RELATION_CLASS ? (RelationClass) relation : null;
+		}
+	}
+
+	// </editor-fold>
+
+
 	// <editor-fold defaultstate="collapsed" desc="EntityContextModificationListener">
 	public static class EntityContextModificationListener implements TransactionEventHandler<Long> {
 
@@ -1481,6 +1824,11 @@ public class EntityContext {
 
 			Thread currentThread = Thread.currentThread();
 
+			// invalidate cached entities of all modified and deleted nodes
+			invalidateEntityCache(data);
+			invalidatePermissionCache(data);
+			invalidateRelatedNodes(data);
+
 			if (!transactionKeyMap.containsKey(currentThread)) {
 
 				return -1L;
@@ -1516,8 +1864,12 @@ public class EntityContext {
 				Set<AbstractRelationship> deletedRels                       = new LinkedHashSet<AbstractRelationship>();
 				ErrorBuffer errorBuffer                                     = new ErrorBuffer();
 				NodeFactory nodeFactory                                     = new NodeFactory();
+				IndexDelta indexDelta                                       = new IndexDelta();
 				boolean hasError                                            = false;
 
+				// collect property writes made while this handler runs
+				commitIndexDeltaMap.put(currentThread, indexDelta);
+
 				// notify transaction listeners
 				for(StructrTransactionListener listener : EntityContext.getTransactionListeners()) {
 					listener.begin(securityContext, transactionKey);
@@ -1545,6 +1897,7 @@ public class EntityContext {
 						if(modifiedNode != null) {
 
 							modifiedNodes.add(modifiedNode);
+							indexDelta.addNodeProperty(modifiedNode, entry.key());
 
 							// notify registered listeners
 							for(StructrTransactionListener listener : EntityContext.getTransactionListeners()) {
@@ -1577,6 +1930,7 @@ public class EntityContext {
 						if(modifiedRel != null) {
 							
 							modifiedRels.add(modifiedRel);
+							indexDelta.addRelationshipProperty(modifiedRel, entry.key());
 
 							// notify registered listeners
 							for(StructrTransactionListener listener : EntityContext.getTransactionListeners()) {
@@ -1623,11 +1977,15 @@ public class EntityContext {
 							AbstractNode startNode = nodeFactory.createNode(securityContext, rel.getStartNode());
 							if (startNode != null && !data.isDeleted(rel.getStartNode())) {
 								modifiedNodes.add(startNode);
+
+								// indexed values may be derived from relationships
+								indexDelta.addNode(startNode);
 							}
 							
 							AbstractNode endNode = nodeFactory.createNode(securityContext, rel.getEndNode());
 							if (endNode != null && !data.isDeleted(rel.getEndNode())) {
 								modifiedNodes.add(endNode);
+								indexDelta.addNode(endNode);
 							}
 							
 						} catch(Throwable ignore) {} 
@@ -1655,11 +2013,15 @@ public class EntityContext {
 							AbstractNode startNode = nodeFactory.createNode(securityContext, rel.getStartNode());
 							if (startNode != null && !data.isDeleted(rel.getStartNode())) {
 								modifiedNodes.add(startNode);
+
+								// indexed values may be derived from relationships
+								indexDelta.addNode(startNode);
 							}
 							
 							AbstractNode endNode = nodeFactory.createNode(securityContext, rel.getEndNode());
 							if (endNode != null && !data.isDeleted(rel.getEndNode())) {
 								modifiedNodes.add(endNode);
+								indexDelta.addNode(endNode);
 							}
 							
 						} catch(Throwable ignore) {} 
@@ -1716,8 +2078,17 @@ public class EntityContext {
 							hasError |= !listener.propertyModified(securityContext, transactionKey, errorBuffer, entity, key, entry.previouslyCommitedValue(), value);
 						}
 
-						// after successful validation, add node to index to make uniqueness constraints work
-						indexNodeCommand.execute(entity, key);
+						// after successful validation, add node to index to make uniqueness constraints
+						// work, all other properties are indexed in one batch at the end of the transaction
+						if ((validators != null) && !validators.isEmpty()) {
+
+							indexNodeCommand.execute(entity, key);
+
+						} else {
+
+							indexDelta.addNodeProperty(entity, key);
+						}
+
 						modifiedNodes.add(entity);
 					}
 				}
@@ -1748,8 +2119,17 @@ public class EntityContext {
 							hasError |= !listener.propertyModified(securityContext, transactionKey, errorBuffer, entity, key, entry.previouslyCommitedValue(), value);
 						}
 						
-						// after successful validation, add relationship to index to make uniqueness constraints work
-						indexRelationshipCommand.execute(entity, key);
+						// after successful validation, add relationship to index to make uniqueness constraints
+						// work, all other properties are indexed in one batch at the end of the transaction
+						if ((validators != null) && !validators.isEmpty()) {
+
+							indexRelationshipCommand.execute(entity, key);
+
+						} else {
+
+							indexDelta.addRelationshipProperty(entity, key);
+						}
+
 						modifiedRels.add(entity);
 					}
 				}
@@ -1767,8 +2147,6 @@ public class EntityContext {
 							hasError |= !listener.graphObjectModified(securityContext, transactionKey, errorBuffer, node);
 						}
 					}
-					
-					indexNodeCommand.execute(node);
 				}
 
 				for (AbstractRelationship rel : modifiedRels) {
@@ -1783,19 +2161,29 @@ public class EntityContext {
 							hasError |= !listener.graphObjectModified(securityContext, transactionKey, errorBuffer, rel);
 						}
 					}
-					
-					indexRelationshipCommand.execute(rel);
 				}
 
 				for (AbstractNode node : createdNodes) {
 
-					indexNodeCommand.execute(node);
+					indexDelta.addNode(node);
 
 				}
 
 				for (AbstractRelationship rel : createdRels) {
 
-					indexRelationshipCommand.execute(rel);
+					indexDelta.addRelationship(rel);
+
+				}
+
+				for (AbstractNode node : deletedNodes) {
+
+					indexDelta.removeNode(node);
+
+				}
+
+				for (AbstractRelationship rel : deletedRels) {
+
+					indexDelta.removeRelationship(rel);
 
 				}
 
@@ -1813,6 +2201,33 @@ public class EntityContext {
 					listener.commit(securityContext, transactionKey);
 				}
 
+				// all writes of this handler are in the delta now
+				commitIndexDeltaMap.remove(currentThread);
+
+				// 8: apply collected index changes, nodes are indexed after commit in async mode
+				IndexDelta deferredIndexDelta = deferredIndexDeltaMap.get(currentThread);
+
+				if (deferredIndexDelta != null) {
+
+					deferredIndexDelta.addAll(indexDelta);
+
+				} else if (indexDelta.hasRelationships()) {
+
+					indexRelationshipCommand.execute(indexDelta);
+				}
+
+				if ((deferredIndexDelta == null) && indexDelta.hasNodes()) {
+
+					if (NodeService.isAsyncIndexing()) {
+
+						pendingIndexDeltas.put(transactionKey, indexDelta);
+
+					} else {
+
+						indexNodeCommand.execute(indexDelta);
+					}
+				}
+
 				// cache change set
 				getModifiedRelationships().addAll(modifiedRels);
 				getCreatedRelationships().addAll(createdRels);
@@ -1827,17 +2242,188 @@ public class EntityContext {
 				exceptionMap.put(transactionKey, fex);
 
 				throw new IllegalStateException("Rollback");
+
+			} finally {
+
+				commitIndexDeltaMap.remove(currentThread);
 			}
 
 			return transactionKey;
 		}
 
 		@Override
-		public void afterCommit(TransactionData data, Long transactionKey) {}
+		public void afterCommit(TransactionData data, Long transactionKey) {
+
+			// invalidate again, concurrent readers may have cached the
+			// old values between beforeCommit and the actual commit
+			invalidateEntityCache(data);
+			invalidatePermissionCache(data);
+			invalidateRelatedNodes(data);
+
+			if ((transactionKey != null) && (transactionKey >= 0)) {
+
+				SecurityContext securityContext = securityContextMap.get(Thread.currentThread());
+
+				for (StructrTransactionListener listener : EntityContext.getTransactionListeners()) {
+
+					try {
+
+						listener.afterCommit(securityContext, transactionKey);
+
+					} catch (Throwable t) {
+
+						logger.log(Level.WARNING, "Transaction listener failed after commit", t);
+					}
+				}
+			}
+
+			final IndexDelta indexDelta = pendingIndexDeltas.remove(transactionKey);
+
+			if (indexDelta != null) {
+
+				NodeService.scheduleIndexUpdate(new Runnable() {
+
+					@Override
+					public void run() {
+
+						final SecurityContext superUserContext = SecurityContext.getSuperUserInstance();
+
+						try {
+
+							Services.command(superUserContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+								@Override
+								public Object execute() throws FrameworkException {
+
+									// later transactions may have been committed in the meantime
+									indexDelta.reloadNodes(superUserContext);
+
+									return Services.command(superUserContext, IndexNodeCommand.class).execute(indexDelta);
+								}
+							});
+
+						} catch (Throwable t) {
+
+							logger.log(Level.WARNING, "Unable to apply index changes", t);
+						}
+					}
+				});
+			}
+		}
+
+		private void invalidateEntityCache(TransactionData data) {
+
+			EntityCache entityCache = NodeService.getEntityCache();
+
+			for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+
+				entityCache.invalidate(entry.entity().getId());
+			}
+
+			for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+
+				entityCache.invalidate(entry.entity().getId());
+			}
+
+			for (Node node : data.deletedNodes()) {
+
+				entityCache.invalidate(node.getId());
+			}
+		}
+
+		private void invalidateRelatedNodes(TransactionData data) {
+
+			if (data.createdRelationships().iterator().hasNext() || data.deletedRelationships().iterator().hasNext()) {
+
+				relationshipsModified();
+			}
+		}
+
+		private void invalidatePermissionCache(TransactionData data) {
+
+			PermissionCache permissionCache = NodeService.getPermissionCache();
+
+			try {
+
+				for (Relationship rel : data.createdRelationships()) {
+
+					invalidatePermissionCache(permissionCache, rel);
+				}
+
+				for (Relationship rel : data.deletedRelationships()) {
+
+					invalidatePermissionCache(permissionCache, rel);
+				}
+
+				for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+
+					invalidatePermissionCache(permissionCache, entry.entity());
+				}
+
+				for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) {
+
+					invalidatePermissionCache(permissionCache, entry.entity());
+				}
+
+				for (Node node : data.deletedNodes()) {
+
+					permissionCache.invalidateNode(node.getId());
+
+					if (permissionCache.isKnownPrincipal(node.getId())) {
+
+						permissionCache.invalidatePrincipals();
+					}
+				}
+
+			} catch (Throwable t) {
+
+				// relationships deleted in this transaction can not be
+				// read after commit, drop everything to be safe
+				logger.log(Level.FINE, "Unable to invalidate permission cache selectively", t);
+				permissionCache.clear();
+			}
+		}
+
+		private void invalidatePermissionCache(PermissionCache permissionCache, Relationship rel) {
+
+			if (rel.isType(RelType.SECURITY)) {
+
+				permissionCache.invalidateNode(rel.getEndNode().getId());
+
+			} else if (rel.isType(RelType.CONTAINS)) {
+
+				// group membership of a principal that has already been resolved
+				if (permissionCache.isKnownPrincipal(rel.getStartNode().getId()) || permissionCache.isKnownPrincipal(rel.getEndNode().getId())) {
+
+					permissionCache.invalidatePrincipals();
+				}
+			}
+		}
 
 		@Override
 		public void afterRollback(TransactionData data, Long transactionKey) {
 
+			pendingIndexDeltas.remove(transactionKey);
+
+			// the commit can fail after beforeCommit notified the listeners,
+			// so let them drop what they kept for afterCommit
+			if ((transactionKey != null) && (transactionKey >= 0)) {
+
+				SecurityContext securityContext = securityContextMap.get(Thread.currentThread());
+
+				for (StructrTransactionListener listener : EntityContext.getTransactionListeners()) {
+
+					try {
+
+						listener.rollback(securityContext, transactionKey);
+
+					} catch (Throwable t) {
+
+						logger.log(Level.WARNING, "Transaction listener failed after rollback", t);
+					}
+				}
+			}
+
 			Throwable t = exceptionMap.get(transactionKey);
 
 			if (t != null) {
@@ -22,6 +22,7 @@ package org.structr.core;
 import java.util.Collections;
 import java.util.List;
 import org.structr.core.GraphObject;
+import org.structr.core.node.search.SearchCursor;
 
 /**
  * Encapsulates the result of a query operation.
@@ -44,6 +45,8 @@ public class Result {
 	private Integer pageCount = null;
 	private Integer pageSize = null;
 	private Integer page = null;
+
+	private SearchCursor nextCursor = null;
 	
 	public static Result EMPTY_RESULT = new Result(Collections.EMPTY_LIST, 0, false, false);
 	
@@ -136,6 +139,14 @@ public class Result {
 		this.pageSize = pageSize;
 	}
 
+	public SearchCursor getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(final SearchCursor nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
 	public String getPropertyView() {
 		return propertyView;
 	}
@@ -62,14 +62,47 @@ public class Services {
 	public static final String CONFIG_FILE_PATH    = "configfile.path";
 
 	// Database-related constants
-	public static final String DATABASE_PATH = "database.path";
-	public static final String FILES_PATH    = "files.path";
+	public static final String DATABASE_PATH         = "database.path";
+	public static final String FILES_PATH            = "files.path";
+	public static final String ENTITY_CACHE_SIZE     = "structr.entitycache.size";
+	public static final String PERMISSION_CACHE_SIZE = "structr.permissioncache.size";
+	public static final String INDEX_ASYNC           = "structr.index.async";
+	public static final String INDEX_ASYNC_QUEUE     = "structr.index.async.queue";
+	public static final String INDEX_REBUILD_THREADS = "structr.index.rebuild.threads";
+	public static final String THUMBNAIL_THREADS     = "structr.thumbnail.threads";
+	public static final String THUMBNAIL_SIZES       = "structr.thumbnail.sizes";
 	
 	public static final String LOG_DATABASE_PATH = "log.database.path";
 
+	// Authentication-related constants
+	public static final String AUTH_CREDENTIAL_TTL = "structr.auth.credentials.ttl";
+	public static final String AUTH_INDEX_SIZE     = "structr.auth.index.size";
+	public static final String AUTH_TOKEN_TTL      = "structr.auth.token.ttl";
+
+	// Rendering-related constants
+	public static final String HTML_GZIP      = "structr.html.gzip";
+	public static final String HTML_STREAMING = "structr.html.streaming";
+
+	// ECMAScript-related constants
+	public static final String ECMASCRIPT_CACHE_SIZE       = "structr.ecmascript.cache.size";
+	public static final String ECMASCRIPT_MAX_INSTRUCTIONS = "structr.ecmascript.maxinstructions";
+	public static final String ECMASCRIPT_MAX_TIME         = "structr.ecmascript.maxtime";
+
+	// Geocoding-related constants
+	public static final String GEOCODING_CACHE_SIZE = "structr.geocoding.cache.size";
+	public static final String GEOCODING_CACHE_TTL  = "structr.geocoding.cache.ttl";
+	public static final String GEOCODING_GAZETTEER  = "structr.geocoding.gazetteer";
+	public static final String GEOCODING_PROVIDERS  = "structr.geocoding.providers";
+
+	// AgentService-related constants
+	public static final String AGENT_MAX_AGENTS     = "structr.agent.maxagents";
+	public static final String AGENT_MAX_QUEUE_SIZE = "structr.agent.maxqueuesize";
+
 	// LogService-related constants
-	public static final String LOG_SERVICE_INTERVAL  = "structr.logging.interval";
-	public static final String LOG_SERVICE_THRESHOLD = "structr.logging.threshold";
+	public static final String LOG_SERVICE_DURABILITY = "structr.logging.durability";
+	public static final String LOG_SERVICE_INTERVAL   = "structr.logging.interval";
+	public static final String LOG_SERVICE_QUEUE_SIZE = "structr.logging.queuesize";
+	public static final String LOG_SERVICE_THRESHOLD  = "structr.logging.threshold";
 
 	// ModuleService-related constants
 	public static final String MODULES_PATH = "modules.path";
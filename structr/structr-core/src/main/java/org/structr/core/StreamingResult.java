@@ -0,0 +1,152 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.neo4j.helpers.collection.ClosableIterator;
+
+/**
+ * A result whose elements are produced lazily from an underlying
+ * closable source, e.g. index hits. The elements can be consumed
+ * exactly once with {@link #iterator()}, which allows a caller to
+ * serialize very large results with bounded memory.
+ *
+ * Callers that need random access can still use {@link #getResults()},
+ * which drains the remaining elements into a list on first access.
+ * The underlying source is closed when it is exhausted, or when
+ * {@link #close()} is called.
+ *
+ * @author Christian Morgner
+ */
+public class StreamingResult extends Result implements Iterable<GraphObject> {
+
+	private ClosableIterator<? extends GraphObject> source = null;
+	private List<GraphObject> materializedResults          = null;
+	private boolean consumed                               = false;
+
+	public StreamingResult(ClosableIterator<? extends GraphObject> source, Integer rawResultCount, boolean isCollection, boolean isPrimitiveArray) {
+
+		super(null, rawResultCount, isCollection, isPrimitiveArray);
+
+		this.source = source;
+	}
+
+	@Override
+	public Iterator<GraphObject> iterator() {
+
+		if (materializedResults != null) {
+
+			return materializedResults.iterator();
+		}
+
+		if (consumed) {
+
+			throw new IllegalStateException("Streaming result can only be consumed once.");
+		}
+
+		consumed = true;
+
+		return new Iterator<GraphObject>() {
+
+			@Override
+			public boolean hasNext() {
+
+				boolean hasNext = source.hasNext();
+
+				if (!hasNext) {
+
+					close();
+				}
+
+				return hasNext;
+			}
+
+			@Override
+			public GraphObject next() {
+				return source.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Removal not supported.");
+			}
+		};
+	}
+
+	/**
+	 * Releases the underlying source. Safe to call more than once.
+	 */
+	public void close() {
+
+		if (source != null) {
+
+			source.close();
+
+			source = null;
+		}
+	}
+
+	public boolean isMaterialized() {
+		return materializedResults != null;
+	}
+
+	@Override
+	public GraphObject get(final int i) {
+		return getResults().get(i);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return getResults().isEmpty();
+	}
+
+	@Override
+	public List<? extends GraphObject> getResults() {
+
+		if (materializedResults == null) {
+
+			if (consumed) {
+
+				throw new IllegalStateException("Streaming result has already been consumed.");
+			}
+
+			materializedResults = new ArrayList<GraphObject>();
+
+			if (source != null) {
+
+				while (source.hasNext()) {
+
+					materializedResults.add(source.next());
+				}
+
+				close();
+			}
+		}
+
+		return materializedResults;
+	}
+
+	@Override
+	public int size() {
+		return getResults().size();
+	}
+}
@@ -38,6 +38,13 @@ public interface StructrTransactionListener {
 	public void commit(SecurityContext securityContext, long transactionKey);
 	public void rollback(SecurityContext securityContext, long transactionKey);
 
+	/**
+	 * Called after the transaction has been committed, when its changes
+	 * are visible to other threads. All other methods are called before
+	 * the transaction is committed.
+	 */
+	public void afterCommit(SecurityContext securityContext, long transactionKey);
+
 	public boolean propertyModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue, Object newValue);
 	public boolean propertyRemoved(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue);
 
@@ -0,0 +1,50 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ * 
+ *  This file is part of structr <http://structr.org>.
+ * 
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.agent;
+
+/**
+ * Registers a {@link TaskListener} with the AgentService, or removes it
+ * if the second parameter is false.
+ *
+ * @author Christian Morgner
+ */
+public class AddTaskListenerCommand extends AgentServiceCommand
+{
+	@Override
+	public Object execute(Object... parameters)
+	{
+		AgentService agentService = (AgentService)arguments.get("agentService");
+
+		if(agentService != null && parameters.length > 0 && parameters[0] instanceof TaskListener)
+		{
+			TaskListener listener = (TaskListener)parameters[0];
+
+			if(parameters.length > 1 && Boolean.FALSE.equals(parameters[1]))
+			{
+				agentService.removeTaskListener(listener);
+
+			} else {
+
+				agentService.addTaskListener(listener);
+			}
+		}
+
+		return(null);
+	}
+}
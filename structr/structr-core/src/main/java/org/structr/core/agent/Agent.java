@@ -28,6 +28,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -79,14 +80,24 @@ public abstract class Agent extends Thread implements StatusInfo {
 
 			}
 
+			if (currentTask == null) {
+
+				// take the next task from the queue of our task type
+				currentTask = agentService.nextTask(this);
+
+			}
+
 			if (currentTask != null) {
 
 				lastStartTime = System.nanoTime();
 
+				boolean success = false;
+
 				ReturnValue ret = null;
 
 				try {
 					ret = processTask(currentTask);
+					success = (ret != ReturnValue.Abort);
 				} catch (Throwable t) {
 
 					// someone killed us or the task processing failed..
@@ -114,11 +125,16 @@ public abstract class Agent extends Thread implements StatusInfo {
 					}
 				}
 
-				long endTime = System.nanoTime();
+				long executionTime = System.nanoTime() - lastStartTime;
 
 				// calc. average execution time
-				averageExecutionTime += endTime;
-				averageExecutionTime /= 2;
+				averageExecutionTime = (averageExecutionTime > 0)
+						       ? (averageExecutionTime + executionTime) / 2
+						       : executionTime;
+
+				agentService.notifyTaskFinished(this, currentTask, TimeUnit.NANOSECONDS.toMillis(executionTime), success);
+
+				currentTask = null;
 
 			} else {
 
@@ -280,6 +296,12 @@ public abstract class Agent extends Thread implements StatusInfo {
 			// TODO.
 		}
 
+		// queue and timing metrics of our task type
+		if (agentService != null) {
+
+			return (agentService.getTaskTypeStatistics(getSupportedTaskType()).getStatusProperty(key));
+		}
+
 		return (null);
 	}
 
@@ -16,11 +16,10 @@
  *  You should have received a copy of the GNU General Public License
  *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
  */
-
-
-
 package org.structr.core.agent;
 
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.RunnableService;
 import org.structr.core.Services;
@@ -30,38 +29,62 @@ import org.structr.core.module.GetAgentsCommand;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.structr.common.SecurityContext;
-import org.structr.common.error.FrameworkException;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Dispatches tasks to agents.
+ *
+ * Each task type has its own priority queue and a limit for the number of
+ * agents that run concurrently. Agents are started when tasks arrive and
+ * the limit is not reached, and take the next task from the queue of
+ * their type when they are done, so there is no polling involved. Tasks
+ * with a scheduled time in the future are held back in a delay queue
+ * until they are due.
+ *
+ * The limits can be configured with {@link Services#AGENT_MAX_AGENTS}
+ * (optionally suffixed with the simple name of a task type, e.g.
+ * <code>structr.agent.maxagents.RebuildIndexTask</code>) and
+ * {@link Services#AGENT_MAX_QUEUE_SIZE}.
  *
  * @author cmorgner
  */
 public class AgentService extends Thread implements RunnableService {
 
-	private static final Logger logger = Logger.getLogger(AgentService.class.getName());
+	private static final int DEFAULT_MAX_AGENTS     = 4;
+	private static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+	private static final Logger logger              = Logger.getLogger(AgentService.class.getName());
 
 	//~--- fields ---------------------------------------------------------
 
-	private int maxAgents                               = 4;    // TODO: make configurable
-	private final Map<Class, List<Agent>> runningAgents = new ConcurrentHashMap<Class, List<Agent>>(10, 0.9f, 8);
+	private final Set<Agent> activeAgents               = Collections.newSetFromMap(new ConcurrentHashMap<Agent, Boolean>());
 	private final Map<Class, Class> agentClassCache     = new ConcurrentHashMap<Class, Class>(10, 0.9f, 8);
+	private Map<String, String> context                 = Collections.emptyMap();
+	private int maxQueueSize                            = DEFAULT_MAX_QUEUE_SIZE;
+	private volatile boolean run                        = false;
+	private final Map<Class, List<Agent>> runningAgents = new ConcurrentHashMap<Class, List<Agent>>(10, 0.9f, 8);
+	private final Map<Task, Agent> runningTasks         = new ConcurrentHashMap<Task, Agent>();
+	private final DelayQueue<QueuedTask> scheduledTasks = new DelayQueue<QueuedTask>();
+	private final AtomicLong sequence                   = new AtomicLong(0);
 	private Set<Class> supportedCommands                = null;
-	private final Queue<Task> taskQueue                 = new ConcurrentLinkedQueue<Task>();
-	private boolean run                                 = false;
+	private final Map<Class, TaskTypeQueue> taskQueues  = new ConcurrentHashMap<Class, TaskTypeQueue>(10, 0.9f, 8);
+	private final List<TaskListener> taskListeners      = new CopyOnWriteArrayList<TaskListener>();
 
 	//~--- constructors ---------------------------------------------------
 
@@ -74,30 +97,40 @@ public class AgentService extends Thread implements RunnableService {
 
 	//~--- methods --------------------------------------------------------
 
-	public void processTask(Task task) {
+	/**
+	 * Adds the given task to the queue of its type.
+	 *
+	 * @param task
+	 * @return false if the task was rejected because the queue is full
+	 */
+	public boolean processTask(Task task) {
 
-		synchronized (taskQueue) {
+		QueuedTask queuedTask = new QueuedTask(task, sequence.incrementAndGet());
+		TaskTypeQueue queue   = getTaskTypeQueue(task.getClass());
+		boolean delayed       = queuedTask.getDelay(TimeUnit.MILLISECONDS) > 0;
 
-			taskQueue.add(task);
-			logger.log(Level.FINE, "Task {0} added to task queue", task);
-		}
-	}
+		if (!queue.accept(delayed)) {
 
-	public Agent findAgentForTask(Task task) {
+			logger.log(Level.WARNING, "Task queue for {0} is full, rejecting task", task.getType());
 
-		List<Agent> agents = getRunningAgentsForTask(task.getClass());
+			return (false);
+		}
 
-		synchronized (agents) {
+		if (delayed) {
 
-			for (Agent agent : agents) {
+			scheduledTasks.add(queuedTask);
+			logger.log(Level.FINE, "Task {0} scheduled for {1}", new Object[] { task, task.getScheduledTime() });
 
-				if (agent.getTaskQueue().contains(task)) {
-					return (agent);
-				}
-			}
+		} else {
+
+			dispatch(queuedTask, false);
 		}
 
-		return (null);
+		return (true);
+	}
+
+	public Agent findAgentForTask(Task task) {
+		return (runningTasks.get(task));
 	}
 
 	@Override
@@ -107,19 +140,15 @@ public class AgentService extends Thread implements RunnableService {
 
 		while (run) {
 
-			Task nextTask = null;
+			try {
 
-			synchronized (taskQueue) {
+				// blocks until the next scheduled task is due
+				dispatch(scheduledTasks.take(), true);
 
-				nextTask = taskQueue.poll();
+			} catch (InterruptedException iex) {
 
-				if (nextTask != null) {
-					assignNextAgentForTask(nextTask);
-				}
+				// stopService() interrupts us
 			}
-
-			// let others act
-			try { Thread.sleep(1); } catch(Throwable ignore) {}
 		}
 	}
 
@@ -139,6 +168,65 @@ public class AgentService extends Thread implements RunnableService {
 		synchronized (agents) {
 			agents.remove(agent);
 		}
+
+		// agent was killed before it released its slot
+		if (activeAgents.remove(agent)) {
+
+			TaskTypeQueue queue = getTaskTypeQueue(agent.getSupportedTaskType());
+			QueuedTask next     = queue.release();
+
+			if (next != null) {
+				startAgent(next.getTask(), queue);
+			}
+		}
+	}
+
+	/**
+	 * Returns the next task for the given agent, or null if there is no
+	 * more work for it, in which case the agent must stop.
+	 *
+	 * @param agent
+	 * @return
+	 */
+	Task nextTask(Agent agent) {
+
+		QueuedTask queuedTask = getTaskTypeQueue(agent.getSupportedTaskType()).poll();
+
+		if (queuedTask == null) {
+
+			activeAgents.remove(agent);
+
+			return (null);
+		}
+
+		Task task = queuedTask.getTask();
+
+		runningTasks.put(task, agent);
+
+		return (task);
+	}
+
+	void notifyTaskFinished(Agent agent, Task task, long executionTime, boolean success) {
+
+		runningTasks.remove(task);
+		getTaskTypeQueue(task.getClass()).getStatistics().taskFinished(executionTime, success);
+
+		for (TaskListener listener : taskListeners) {
+
+			try {
+				listener.taskFinished(task, executionTime, success);
+			} catch (Throwable t) {
+				logger.log(Level.WARNING, "Task listener failed", t);
+			}
+		}
+	}
+
+	public void addTaskListener(TaskListener listener) {
+		taskListeners.add(listener);
+	}
+
+	public void removeTaskListener(TaskListener listener) {
+		taskListeners.remove(listener);
 	}
 
 	// <editor-fold defaultstate="collapsed" desc="interface RunnableService">
@@ -148,7 +236,18 @@ public class AgentService extends Thread implements RunnableService {
 	}
 
 	@Override
-	public void initialize(Map<String, String> context) {}
+	public void initialize(Map<String, String> context) {
+
+		if (context != null) {
+			this.context = context;
+		}
+
+		try {
+			maxQueueSize = Integer.parseInt(Services.getConfigValue(this.context, Services.AGENT_MAX_QUEUE_SIZE, Integer.toString(DEFAULT_MAX_QUEUE_SIZE)));
+		} catch (NumberFormatException nfex) {
+			logger.log(Level.WARNING, "Invalid task queue size, using default of {0}", DEFAULT_MAX_QUEUE_SIZE);
+		}
+	}
 
 	@Override
 	public void shutdown() {}
@@ -162,7 +261,9 @@ public class AgentService extends Thread implements RunnableService {
 
 	@Override
 	public void stopService() {
+
 		run = false;
+		this.interrupt();
 	}
 
 	@Override
@@ -173,52 +274,35 @@ public class AgentService extends Thread implements RunnableService {
 	// </editor-fold>
 
 	// <editor-fold defaultstate="collapsed" desc="private methods">
-	private void assignNextAgentForTask(Task nextTask) {
-
-		Class taskClass    = nextTask.getClass();
-		List<Agent> agents = getRunningAgentsForTask(taskClass);
-
-		// need to synchronize on agents
-		synchronized (agents) {
+	private void dispatch(QueuedTask queuedTask, boolean wasDelayed) {
 
-			// find next free agent (agents should be sorted by load, so one
-			// of the first should do..
-			for (Agent agent : agents) {
+		TaskTypeQueue queue = getTaskTypeQueue(queuedTask.getTask().getClass());
 
-				if (agent.assignTask(nextTask)) {
+		if (queue.offer(queuedTask, wasDelayed)) {
+			startAgent(queuedTask.getTask(), queue);
+		}
+	}
 
-					// ok, task is assigned
-					logger.log(Level.FINE, "Task assigned to agent {0}", agent.getName());
+	/**
+	 * Starts a new agent for the given queue. The agent takes its tasks
+	 * from the queue itself.
+	 */
+	private void startAgent(Task task, TaskTypeQueue queue) {
 
-					return;
-				}
-			}
-		}
+		Agent agent = createAgent(task);
 
-		// FIXME: find better solution for hard limit here!
-		if (agents.size() < maxAgents) {
+		if (agent != null) {
 
-			// if we get here, task was not assigned to any agent, need to
-			// create a new one.
-			Agent agent = createAgent(nextTask);
+			queue.setDefaultMaxAgents(agent.getMaxAgents());
+			activeAgents.add(agent);
+			agent.start();
 
-			if ((agent != null) && agent.assignTask(nextTask)) {
-				agent.start();
-			} else {
+			logger.log(Level.FINE, "Started agent {0}", agent.getName());
 
-				// re-add task..
-				synchronized (taskQueue) {
-					taskQueue.add(nextTask);
-				}
-			}
 		} else {
 
-			logger.log(Level.FINE, "Overall agents limit reached, re-queueing task");
-
-			// re-add task..
-			synchronized (taskQueue) {
-				taskQueue.add(nextTask);
-			}
+			logger.log(Level.WARNING, "No agent found for task type {0}", task.getType());
+			queue.agentUnavailable();
 		}
 	}
 
@@ -306,11 +390,47 @@ public class AgentService extends Thread implements RunnableService {
 	//~--- get methods ----------------------------------------------------
 
 	/**
-	 * Returns the current queue of remaining tasks.
+	 * Returns the current queue of remaining tasks, i.e. tasks that are
+	 * ready to run and tasks that wait for their scheduled time.
 	 * @return
 	 */
 	public Collection<Task> getTaskQueue() {
-		return (taskQueue);
+
+		List<Task> tasks = new LinkedList<Task>();
+
+		for (TaskTypeQueue queue : taskQueues.values()) {
+			queue.addTasksTo(tasks);
+		}
+
+		for (QueuedTask queuedTask : scheduledTasks) {
+			tasks.add(queuedTask.getTask());
+		}
+
+		return (tasks);
+	}
+
+	/**
+	 * Returns the metrics of all task types that were processed so far.
+	 * @return
+	 */
+	public Collection<TaskTypeStatistics> getTaskTypeStatistics() {
+
+		List<TaskTypeStatistics> statistics = new LinkedList<TaskTypeStatistics>();
+
+		for (TaskTypeQueue queue : taskQueues.values()) {
+			statistics.add(queue.getStatistics());
+		}
+
+		return (statistics);
+	}
+
+	/**
+	 * Returns the metrics of the given task type.
+	 * @param taskType
+	 * @return
+	 */
+	public TaskTypeStatistics getTaskTypeStatistics(Class taskType) {
+		return (getTaskTypeQueue(taskType).getStatistics());
 	}
 
 	/**
@@ -327,17 +447,291 @@ public class AgentService extends Thread implements RunnableService {
 
 		if (agents == null) {
 
-			agents = Collections.synchronizedList(new LinkedList<Agent>());
+			synchronized (runningAgents) {
 
-			// Hashtable is synchronized
-			runningAgents.put(taskClass, agents);
+				agents = runningAgents.get(taskClass);
+
+				if (agents == null) {
+
+					agents = Collections.synchronizedList(new LinkedList<Agent>());
+					runningAgents.put(taskClass, agents);
+				}
+			}
 		}
 
 		return (agents);
 	}
 
+	private TaskTypeQueue getTaskTypeQueue(Class taskClass) {
+
+		TaskTypeQueue queue = taskQueues.get(taskClass);
+
+		if (queue == null) {
+
+			synchronized (taskQueues) {
+
+				queue = taskQueues.get(taskClass);
+
+				if (queue == null) {
+
+					queue = new TaskTypeQueue(taskClass);
+					taskQueues.put(taskClass, queue);
+				}
+			}
+		}
+
+		return (queue);
+	}
+
 	@Override
 	public boolean isRunning() {
 		return (this.run);
 	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * A task together with its due time and submission order.
+	 */
+	private static class QueuedTask implements Delayed {
+
+		private long dueTime    = 0;
+		private long readySince = 0;
+		private long sequence   = 0;
+		private Task task       = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public QueuedTask(Task task, long sequence) {
+
+			this.task     = task;
+			this.sequence = sequence;
+
+			if (task.getScheduledTime() != null) {
+				this.dueTime = task.getScheduledTime().getTime();
+			} else {
+				this.dueTime = System.currentTimeMillis() + task.getDelay(TimeUnit.MILLISECONDS);
+			}
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public int compareTo(Delayed other) {
+
+			if (other instanceof QueuedTask) {
+
+				QueuedTask otherTask = (QueuedTask) other;
+
+				if (dueTime != otherTask.dueTime) {
+					return (dueTime < otherTask.dueTime ? -1 : 1);
+				}
+
+				return (PRIORITY_ORDER.compare(this, otherTask));
+			}
+
+			return (Long.valueOf(getDelay(TimeUnit.MILLISECONDS)).compareTo(other.getDelay(TimeUnit.MILLISECONDS)));
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return (unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+		}
+
+		public Task getTask() {
+			return (task);
+		}
+	}
+
+
+	/**
+	 * Orders tasks by descending priority, and tasks with the same
+	 * priority by submission order.
+	 */
+	private static final Comparator<QueuedTask> PRIORITY_ORDER = new Comparator<QueuedTask>() {
+
+		@Override
+		public int compare(QueuedTask task1, QueuedTask task2) {
+
+			int priority1 = task1.getTask().priority();
+			int priority2 = task2.getTask().priority();
+
+			if (priority1 != priority2) {
+				return (priority1 > priority2 ? -1 : 1);
+			}
+
+			return (task1.sequence < task2.sequence ? -1 : (task1.sequence == task2.sequence ? 0 : 1));
+		}
+	};
+
+
+	/**
+	 * The ready tasks of a single task type, and the number of agents
+	 * working on them.
+	 */
+	private class TaskTypeQueue {
+
+		private final PriorityQueue<QueuedTask> readyTasks = new PriorityQueue<QueuedTask>(11, PRIORITY_ORDER);
+		private int activeAgentCount                       = 0;
+		private int maxAgents                              = DEFAULT_MAX_AGENTS;
+		private boolean maxAgentsConfigured                = false;
+		private int scheduledTaskCount                     = 0;
+		private TaskTypeStatistics statistics              = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public TaskTypeQueue(Class taskType) {
+
+			String value = Services.getConfigValue(context, Services.AGENT_MAX_AGENTS + "." + taskType.getSimpleName(),
+						Services.getConfigValue(context, Services.AGENT_MAX_AGENTS, null));
+
+			if (value != null) {
+
+				try {
+
+					maxAgents           = Math.max(1, Integer.parseInt(value));
+					maxAgentsConfigured = true;
+
+				} catch (NumberFormatException nfex) {
+					logger.log(Level.WARNING, "Invalid number of agents for {0}, using default of {1}", new Object[] { taskType.getSimpleName(), DEFAULT_MAX_AGENTS });
+				}
+			}
+
+			statistics = new TaskTypeStatistics(taskType);
+			updateStatistics();
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		/**
+		 * Checks the queue size before a task is added.
+		 */
+		public synchronized boolean accept(boolean delayed) {
+
+			if (readyTasks.size() + scheduledTaskCount >= maxQueueSize) {
+
+				statistics.taskRejected();
+
+				return (false);
+			}
+
+			if (delayed) {
+				scheduledTaskCount++;
+			}
+
+			updateStatistics();
+
+			return (true);
+		}
+
+		/**
+		 * Adds a task that is ready to run.
+		 *
+		 * @return true if a new agent needs to be started
+		 */
+		public synchronized boolean offer(QueuedTask task, boolean wasDelayed) {
+
+			if (wasDelayed) {
+				scheduledTaskCount--;
+			}
+
+			task.readySince = System.currentTimeMillis();
+			readyTasks.add(task);
+
+			boolean startAgent = activeAgentCount < maxAgents;
+
+			if (startAgent) {
+				activeAgentCount++;
+			}
+
+			updateStatistics();
+
+			return (startAgent);
+		}
+
+		/**
+		 * Returns the next task, or releases the slot of the calling
+		 * agent if there are no more tasks.
+		 */
+		public synchronized QueuedTask poll() {
+
+			QueuedTask task = readyTasks.poll();
+
+			if (task != null) {
+				statistics.taskStarted(System.currentTimeMillis() - task.readySince);
+			} else {
+				activeAgentCount--;
+			}
+
+			updateStatistics();
+
+			return (task);
+		}
+
+		/**
+		 * Releases the slot of an agent that stopped unexpectedly.
+		 *
+		 * @return the next task if a new agent needs to be started
+		 */
+		public synchronized QueuedTask release() {
+
+			activeAgentCount--;
+
+			QueuedTask next = readyTasks.peek();
+
+			if (next != null) {
+				activeAgentCount++;
+			}
+
+			updateStatistics();
+
+			return (next);
+		}
+
+		/**
+		 * Releases the slot of an agent that could not be created.
+		 */
+		public synchronized void agentUnavailable() {
+
+			activeAgentCount--;
+
+			if (activeAgentCount == 0 &&!readyTasks.isEmpty()) {
+
+				logger.log(Level.WARNING, "Discarding {0} tasks of type {1}", new Object[] { readyTasks.size(), statistics.getTaskType().getSimpleName() });
+				readyTasks.clear();
+			}
+
+			updateStatistics();
+		}
+
+		public synchronized void addTasksTo(List<Task> tasks) {
+
+			for (QueuedTask queuedTask : readyTasks) {
+				tasks.add(queuedTask.getTask());
+			}
+		}
+
+		private void updateStatistics() {
+			statistics.update(readyTasks.size(), scheduledTaskCount, activeAgentCount, maxAgents);
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public TaskTypeStatistics getStatistics() {
+			return (statistics);
+		}
+
+		//~--- set methods ----------------------------------------------------
+
+		public synchronized void setDefaultMaxAgents(int defaultMaxAgents) {
+
+			if (!maxAgentsConfigured) {
+
+				maxAgents = Math.max(1, defaultMaxAgents);
+				updateStatistics();
+			}
+		}
+	}
 }
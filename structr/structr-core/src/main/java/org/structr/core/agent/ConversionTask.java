@@ -34,6 +34,9 @@ import org.structr.core.entity.Principal;
  */
 public class ConversionTask implements Task {
 
+    public static final String STATUS_PROCESSED_ROWS = "processed_rows";
+
+    private volatile long processedRows = 0;
     private Principal user;
     private AbstractNode sourceNode;
     private Class targetNodeClass;
@@ -77,6 +80,19 @@ public class ConversionTask implements Task {
         return targetNodeClass;
     }
 
+    /**
+     * Number of rows converted so far, for conversions of tabular data
+     *
+     * @return
+     */
+    public long getProcessedRows() {
+        return processedRows;
+    }
+
+    public void setProcessedRows(long processedRows) {
+        this.processedRows = processedRows;
+    }
+
     @Override
     public Set<AbstractNode> getNodes() {
         return Collections.emptySet();
@@ -113,7 +129,11 @@ public class ConversionTask implements Task {
     // ----- interface StatusInfo -----
     @Override
     public Object getStatusProperty(String key) {
-        // TODO..
+
+        if (STATUS_PROCESSED_ROWS.equals(key)) {
+            return processedRows;
+        }
+
         return (null);
     }
 }
@@ -20,9 +20,13 @@
 package org.structr.core.agent;
 
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
- * Returns a collection of the currently running agents.
+ * Returns a collection of the currently running agents. Besides their
+ * own status, agents report the queue and timing metrics of their task
+ * type, see {@link TaskTypeStatistics}.
  *
  * @author chrisi
  */
@@ -37,7 +41,15 @@ public class ListAgentsCommand extends AgentServiceCommand
 
 		if(agentService != null)
 		{
-			agentService.getRunningAgents();
+			ret = new LinkedList<Agent>();
+
+			for(List<Agent> agents : agentService.getRunningAgents().values())
+			{
+				synchronized(agents)
+				{
+					ret.addAll(agents);
+				}
+			}
 		}
 
 		return(ret);
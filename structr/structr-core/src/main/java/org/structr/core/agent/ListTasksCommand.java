@@ -20,9 +20,18 @@
 package org.structr.core.agent;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
- * Returns a Collection of the currently remaining Tasks.
+ * Returns a Collection of the currently running and remaining Tasks.
+ * Running tasks come first, their progress can be obtained through
+ * {@link StatusInfo#getStatusProperty(java.lang.String)}.
+ *
+ * If a task type is given, only tasks of this type are returned. Pass
+ * {@link TaskTypeStatistics} as type to get the queue and timing metrics
+ * of all task types instead.
  *
  * @author Christian Morgner
  */
@@ -32,11 +41,51 @@ public class ListTasksCommand extends AgentServiceCommand
 	public Object execute(Object... parameters)
 	{
 		AgentService agentService = (AgentService)arguments.get("agentService");
+		Class taskType = null;
 		Collection<Task> ret = null;
 
+		if(parameters.length > 0 && parameters[0] instanceof Class)
+		{
+			taskType = (Class)parameters[0];
+		}
+
 		if(agentService != null)
 		{
-			ret = agentService.getTaskQueue();
+			if(TaskTypeStatistics.class.equals(taskType))
+			{
+				return(agentService.getTaskTypeStatistics());
+			}
+
+			ret = new LinkedList<Task>();
+
+			for(List<Agent> agents : agentService.getRunningAgents().values())
+			{
+				synchronized(agents)
+				{
+					for(Agent agent : agents)
+					{
+						Task currentTask = agent.getCurrentTask();
+
+						if(currentTask != null)
+						{
+							ret.add(currentTask);
+						}
+					}
+				}
+			}
+
+			ret.addAll(agentService.getTaskQueue());
+
+			if(taskType != null)
+			{
+				for(Iterator<Task> it = ret.iterator(); it.hasNext();)
+				{
+					if(!taskType.equals(it.next().getClass()))
+					{
+						it.remove();
+					}
+				}
+			}
 		}
 
 		return(ret);
@@ -20,6 +20,10 @@
 package org.structr.core.agent;
 
 /**
+ * Adds the given tasks to the queue of the AgentService.
+ *
+ * Returns false if at least one of the tasks was rejected because
+ * the queue of its type is full.
  *
  * @author cmorgner
  */
@@ -29,6 +33,7 @@ public class ProcessTaskCommand extends AgentServiceCommand
 	public Object execute(Object... parameters)
 	{
 		AgentService agentService = (AgentService)arguments.get("agentService");
+		boolean accepted = true;
 
 		if(agentService != null)
 		{
@@ -37,12 +42,12 @@ public class ProcessTaskCommand extends AgentServiceCommand
 				if(o instanceof Task)
 				{
 					Task task = (Task)o;
-					agentService.processTask(task);
+					accepted &= agentService.processTask(task);
 				}
 
 			}
 		}
 
-		return(null);
+		return(accepted);
 	}
 }
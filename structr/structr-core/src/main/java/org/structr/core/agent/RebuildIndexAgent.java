@@ -16,38 +16,68 @@
  *  You should have received a copy of the GNU General Public License
  *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
  */
-
-
-
 package org.structr.core.agent;
 
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.Services;
+import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.node.*;
+import org.structr.core.node.NodeService.NodeIndex;
+import org.structr.core.node.NodeService.RelationshipIndex;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.List;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.structr.core.GraphObject;
-import org.structr.core.Result;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Rebuilds the node and relationship indices.
+ *
+ * Node and relationship ids are streamed from the database in ascending
+ * order and cut into chunks, which are indexed in separate transactions
+ * on a pool of worker threads (see {@link Services#INDEX_REBUILD_THREADS}).
+ * The start of the oldest unfinished chunk is written to a checkpoint file
+ * after each chunk, so that a crashed or aborted rebuild can resume from
+ * there.
  *
  * @author amorgner
  */
 public class RebuildIndexAgent extends Agent {
 
-	private static final Logger logger = Logger.getLogger(RebuildIndexAgent.class.getName());
+	private static final String CHECKPOINT_FILE     = "rebuildIndex.checkpoint";
+	private static final int CHUNK_SIZE             = 1000;
+	private static final String PHASE_NODES         = "nodes";
+	private static final String PHASE_RELATIONSHIPS = "relationships";
+	private static final Logger logger              = Logger.getLogger(RebuildIndexAgent.class.getName());
 
 	//~--- constructors ---------------------------------------------------
 
@@ -62,136 +92,708 @@ public class RebuildIndexAgent extends Agent {
 
 		if (task instanceof RebuildIndexTask) {
 
-			long t0 = System.currentTimeMillis();
+			RebuildIndexTask rebuildTask = (RebuildIndexTask) task;
+			String indexName             = rebuildTask.getIndex();
+			String type                  = rebuildTask.getEntityType();
+			NodeIndex nodeIndex          = null;
+			boolean rebuildNodes         = true;
+			boolean rebuildRelationships = (type == null);
+
+			if (indexName != null) {
+
+				nodeIndex            = getNodeIndex(indexName);
+				rebuildNodes         = (nodeIndex != null);
+				rebuildRelationships = rebuildRelationships && isRelationshipIndex(indexName);
+
+				if (!rebuildNodes &&!isRelationshipIndex(indexName)) {
+
+					logger.log(Level.SEVERE, "Unknown index {0}, aborting rebuild.", indexName);
+
+					return (ReturnValue.Abort);
+
+				}
+
+				// the type filter applies to nodes only
+				if ((type != null) && isRelationshipIndex(indexName)) {
+
+					logger.log(Level.SEVERE, "Index {0} is a relationship index and can't be rebuilt for node type {1}, aborting rebuild.", new Object[] { indexName, type });
+
+					return (ReturnValue.Abort);
+
+				}
+
+			}
+
+			Checkpoint checkpoint = new Checkpoint(new File(Services.getBasePath(), CHECKPOINT_FILE), type, indexName);
+
+			if (rebuildTask.isResume()) {
+
+				checkpoint.load();
 
-			logger.log(Level.INFO, "Starting rebuilding index ...");
+			}
+
+			final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+			final GraphDatabaseService graphDb    = (GraphDatabaseService) Services.command(securityContext, GraphDatabaseCommand.class).execute();
+			ExecutorService executor              = createExecutor();
+			boolean success                       = true;
+
+			logger.log(Level.INFO, "Starting rebuilding index{0}{1} ...", new Object[] { (indexName != null)
+				? " " + indexName
+				: "", (type != null)
+				      ? " for type " + type
+				      : "" });
 
-			long nodes = rebuildIndex();
-			long t1    = System.currentTimeMillis();
+			try {
 
-			logger.log(Level.INFO, "Re-indexing nodes finished, {0} nodes processed in {1} s", new Object[] { nodes, (t1 - t0) / 1000 });
+				if (rebuildNodes &&!PHASE_RELATIONSHIPS.equals(checkpoint.getPhase())) {
+
+					success = rebuildIndex(rebuildTask, checkpoint, executor, securityContext, graphDb, nodeIndex);
+
+				}
 
-			long rels = rebuildRelationshipIndex();
-			long t2   = System.currentTimeMillis();
+				if (success && rebuildRelationships) {
 
-			logger.log(Level.INFO, "Re-indexing relationships finished, {0} relationships processed in {1} s", new Object[] { rels, (t2 - t1) / 1000 });
+					success = rebuildRelationshipIndex(rebuildTask, checkpoint, executor, securityContext, graphDb);
+
+				}
+
+			} finally {
+
+				executor.shutdownNow();
+
+			}
+
+			if (!success) {
+
+				logger.log(Level.SEVERE, "Rebuilding index failed, the next rebuild will resume from checkpoint {0}", checkpoint.getPosition());
+
+				return (ReturnValue.Abort);
+
+			}
+
+			checkpoint.delete();
 
 		}
 
 		return (ReturnValue.Success);
 	}
 
-	private long rebuildIndex() throws FrameworkException {
+	private boolean rebuildIndex(final RebuildIndexTask task, final Checkpoint checkpoint, final ExecutorService executor, final SecurityContext securityContext,
+				     final GraphDatabaseService graphDb, final NodeIndex nodeIndex) {
+
+		final String type = task.getEntityType();
+		long total        = 0;
 
-		// FIXME: superuser security context
-		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
-		Command transactionCommand            = Services.command(securityContext, TransactionCommand.class);
-		Command graphDbCommand                = Services.command(securityContext, GraphDatabaseCommand.class);
-		final GraphDatabaseService graphDb    = (GraphDatabaseService) graphDbCommand.execute();
-		Long noOfNodes                        = (Long) transactionCommand.execute(new BatchTransaction() {
+		if (graphDb instanceof GraphDatabaseAPI) {
+
+			total = ((GraphDatabaseAPI) graphDb).getNodeManager().getNumberOfIdsInUse(Node.class);
+
+		}
+
+		return rebuild(task, checkpoint, executor, securityContext, PHASE_NODES, GlobalGraphOperations.at(graphDb).getAllNodes(), total, new ChunkIndexer() {
 
 			@Override
-			public Object execute(Transaction tx) throws FrameworkException {
+			public boolean accept(PropertyContainer entity) {
+
+				return (type == null) || type.equals(entity.getProperty(AbstractNode.Key.type.name(), null));
 
-				long nodes      = 0;
-				Command indexer = Services.command(securityContext, IndexNodeCommand.class);
+			}
+
+			@Override
+			public void index(long[] ids, int size) throws FrameworkException {
 
-				logger.log(Level.INFO, "Get all nodes ...");
+				Command indexer         = Services.command(securityContext, IndexNodeCommand.class);
+				NodeFactory nodeFactory = new NodeFactory();
 
-				Result allNodes = (Result) Services.command(securityContext, GetAllNodes.class).execute();
+				for (int i = 0; i < size; i++) {
 
-				logger.log(Level.INFO, "... done. Start indexing {0} nodes ...", allNodes.size());
-				
-				List<? extends GraphObject> list = allNodes.getResults();
+					try {
 
-				for (GraphObject obj : list) {
+						AbstractNode node = nodeFactory.createNode(securityContext, graphDb.getNodeById(ids[i]));
 
-					indexer.execute(obj);
-					
-					obj = null; // help GC
+						if (node == null) {
 
-					nodes++;
+							continue;
 
-					if (nodes % 1000 == 0) {
+						}
 
-						logger.log(Level.INFO, "Indexed {0} nodes, committing results to database.", nodes);
-						tx.success();
-						tx.finish();
+						if (nodeIndex != null) {
 
-						tx = graphDb.beginTx();
-						indexer = null; // help GC
-						indexer = Services.command(securityContext, IndexNodeCommand.class);
+							indexer.execute(node, nodeIndex);
 
-						logger.log(Level.FINE, "######## committed ########", nodes);
+						} else {
+
+							indexer.execute(node);
+
+						}
+
+					} catch (NotFoundException nfex) {
+
+						// node was deleted in the meantime
+						logger.log(Level.FINE, "Node {0} not found, skipping", ids[i]);
 
 					}
 
 				}
-                                logger.log(Level.INFO, "Finished indexing {0} nodes", nodes);
-                                
-				return nodes;
+
 			}
 
 		});
 
-		return noOfNodes;
 	}
 
-	private long rebuildRelationshipIndex() throws FrameworkException {
+	private boolean rebuildRelationshipIndex(final RebuildIndexTask task, final Checkpoint checkpoint, final ExecutorService executor, final SecurityContext securityContext,
+		final GraphDatabaseService graphDb) {
 
-		// FIXME: superuser security context
-		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
-		Command transactionCommand            = Services.command(securityContext, TransactionCommand.class);
-		Command graphDbCommand                = Services.command(securityContext, GraphDatabaseCommand.class);
-		final GraphDatabaseService graphDb    = (GraphDatabaseService) graphDbCommand.execute();
-		Long noOfRels                         = (Long) transactionCommand.execute(new BatchTransaction() {
+		long total = 0;
+
+		if (graphDb instanceof GraphDatabaseAPI) {
+
+			total = ((GraphDatabaseAPI) graphDb).getNodeManager().getNumberOfIdsInUse(Relationship.class);
+
+		}
+
+		return rebuild(task, checkpoint, executor, securityContext, PHASE_RELATIONSHIPS, GlobalGraphOperations.at(graphDb).getAllRelationships(), total,
+			       new ChunkIndexer() {
 
 			@Override
-			public Object execute(Transaction tx) throws FrameworkException {
+			public boolean accept(PropertyContainer entity) {
 
-				long rels       = 0;
-				Command indexer = Services.command(securityContext, IndexRelationshipCommand.class);
+				return true;
 
-				logger.log(Level.INFO, "Get all relationships ...");
+			}
+
+			@Override
+			public void index(long[] ids, int size) throws FrameworkException {
 
-				List<AbstractRelationship> allRelationships = (List<AbstractRelationship>) Services.command(securityContext, GetAllRelationships.class).execute();
+				Command indexer                = Services.command(securityContext, IndexRelationshipCommand.class);
+				RelationshipFactory relFactory = new RelationshipFactory(securityContext);
 
-				logger.log(Level.INFO, "... done. Got {0} relationships.", allRelationships.size());
+				for (int i = 0; i < size; i++) {
 
-				for (AbstractRelationship s : allRelationships) {
+					try {
 
-					indexer.execute(s);
-					
-					s = null; // help GC
+						AbstractRelationship rel = relFactory.createRelationship(securityContext, graphDb.getRelationshipById(ids[i]));
 
-					rels++;
+						if (rel != null) {
 
-					if (rels % 1000 == 0) {
+							indexer.execute(rel);
 
-						logger.log(Level.INFO, "Indexed {0} relationships, committing results to database.", rels);
-						tx.success();
-						tx.finish();
+						}
 
-						tx = graphDb.beginTx();
+					} catch (NotFoundException nfex) {
 
-						logger.log(Level.FINE, "######## committed ########", rels);
+						// relationship was deleted in the meantime
+						logger.log(Level.FINE, "Relationship {0} not found, skipping", ids[i]);
 
 					}
 
 				}
 
-				return rels;
 			}
 
 		});
 
-		return noOfRels;
+	}
+
+	/**
+	 * Streams the given entities in ascending id order, skips everything
+	 * below the checkpoint and submits chunks of ids to the executor.
+	 *
+	 * @return true if all chunks were indexed successfully
+	 */
+	private boolean rebuild(final RebuildIndexTask task, final Checkpoint checkpoint, final ExecutorService executor, final SecurityContext securityContext,
+				final String phase, final Iterable<? extends PropertyContainer> entities, final long total, final ChunkIndexer chunkIndexer) {
+
+		long t0       = System.currentTimeMillis();
+		long position = checkpoint.startPhase(phase);
+		long[] chunk  = new long[CHUNK_SIZE];
+		int size      = 0;
+
+		task.startPhase(phase, total, 0);
+
+		if (position > 0) {
+
+			logger.log(Level.INFO, "Resuming rebuild of {0} index at id {1}", new Object[] { phase, position });
+
+		}
+
+		Iterator<? extends PropertyContainer> iterator = entities.iterator();
+
+		while (iterator.hasNext() &&!checkpoint.hasFailed()) {
+
+			PropertyContainer entity = iterator.next();
+			long id                  = getId(entity);
+
+			if (id < position) {
+
+				task.addSkipped(1);
+
+				continue;
+
+			}
+
+			if (!chunkIndexer.accept(entity)) {
+
+				task.addProcessed(1);
+
+				continue;
+
+			}
+
+			chunk[size++] = id;
+
+			if (size == CHUNK_SIZE) {
+
+				submit(task, checkpoint, executor, securityContext, chunkIndexer, chunk, size);
+
+				chunk = new long[CHUNK_SIZE];
+				size  = 0;
+
+			}
+
+		}
+
+		if (size > 0) {
+
+			submit(task, checkpoint, executor, securityContext, chunkIndexer, chunk, size);
+
+		}
+
+		boolean success = checkpoint.awaitChunks() &&!checkpoint.hasFailed();
+		long t1         = System.currentTimeMillis();
+
+		logger.log(Level.INFO, "Re-indexing {0} finished, {1} processed in {2} s", new Object[] { phase, task.getStatusProperty(RebuildIndexTask.STATUS_PROCESSED),
+			(t1 - t0) / 1000 });
+
+		return success;
+	}
+
+	private void submit(final RebuildIndexTask task, final Checkpoint checkpoint, final ExecutorService executor, final SecurityContext securityContext,
+			    final ChunkIndexer chunkIndexer, final long[] ids, final int size) {
+
+		final long first = ids[0];
+
+		checkpoint.chunkStarted(first, ids[size - 1]);
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				boolean success = false;
+
+				try {
+
+					Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+						@Override
+						public Object execute() throws FrameworkException {
+
+							chunkIndexer.index(ids, size);
+
+							return null;
+
+						}
+
+					});
+
+					task.addProcessed(size);
+
+					success = true;
+
+				} catch (Throwable t) {
+
+					logger.log(Level.WARNING, "Unable to index chunk starting at id {0}: {1}", new Object[] { first, t.getMessage() });
+
+				} finally {
+
+					checkpoint.chunkFinished(first, success);
+
+				}
+
+			}
+
+		});
+
+	}
+
+	private ExecutorService createExecutor() {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		try {
+
+			threads = Integer.parseInt(Services.getConfigValue(Services.getContext(), Services.INDEX_REBUILD_THREADS, Integer.toString(threads)));
+
+		} catch (NumberFormatException nfex) {
+
+			logger.log(Level.WARNING, "Invalid number of index rebuild threads, using {0}", threads);
+
+		}
+
+		threads = Math.max(1, threads);
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+
+		// a bounded queue keeps only a few chunks in memory, the
+		// streaming thread indexes a chunk itself if the queue is full
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+
+				Thread thread = new Thread(runnable, "RebuildIndexWorker-" + threadCount.incrementAndGet());
+
+				thread.setDaemon(true);
+
+				return thread;
+			}
+
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+
 	}
 
 	//~--- get methods ----------------------------------------------------
 
+	private long getId(final PropertyContainer entity) {
+
+		if (entity instanceof Node) {
+
+			return ((Node) entity).getId();
+
+		}
+
+		return ((Relationship) entity).getId();
+
+	}
+
+	private NodeIndex getNodeIndex(final String indexName) {
+
+		for (NodeIndex index : NodeIndex.values()) {
+
+			if (index.name().equals(indexName)) {
+
+				return index;
+			}
+
+		}
+
+		return null;
+
+	}
+
+	private boolean isRelationshipIndex(final String indexName) {
+
+		for (RelationshipIndex index : RelationshipIndex.values()) {
+
+			if (index.name().equals(indexName)) {
+
+				return true;
+			}
+
+		}
+
+		return false;
+
+	}
+
 	@Override
 	public Class getSupportedTaskType() {
 		return (RebuildIndexTask.class);
 	}
+
+	// ----- interface StatusInfo -----
+	@Override
+	public Object getStatusProperty(String key) {
+
+		Task task = getCurrentTask();
+
+		if (task instanceof RebuildIndexTask) {
+
+			Object value = task.getStatusProperty(key);
+
+			if (value != null) {
+
+				return value;
+			}
+
+		}
+
+		return super.getStatusProperty(key);
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Indexes a chunk of entities within a transaction.
+	 */
+	private static abstract class ChunkIndexer {
+
+		public abstract boolean accept(PropertyContainer entity);
+
+		public abstract void index(long[] ids, int size) throws FrameworkException;
+	}
+
+
+	/**
+	 * Keeps track of the running chunks and persists the start of the
+	 * oldest unfinished chunk. A failed chunk is never removed, so that
+	 * the checkpoint can't move beyond it.
+	 */
+	private static class Checkpoint {
+
+		private final TreeSet<Long> runningChunks = new TreeSet<Long>();
+		private boolean failed                    = false;
+		private File file                         = null;
+		private String indexName                  = null;
+		private long nextPosition                 = 0;
+		private String phase                      = null;
+		private long position                     = 0;
+		private String type                       = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Checkpoint(final File file, final String type, final String indexName) {
+
+			this.file      = file;
+			this.type      = type;
+			this.indexName = indexName;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		/**
+		 * Loads the checkpoint of a previous rebuild, if it was started
+		 * with the same parameters.
+		 */
+		public synchronized void load() {
+
+			if (!file.exists()) {
+
+				return;
+			}
+
+			Properties properties = new Properties();
+			InputStream in        = null;
+
+			try {
+
+				in = new FileInputStream(file);
+
+				properties.load(in);
+
+				if (equal(type, properties.getProperty("type")) && equal(indexName, properties.getProperty("index"))) {
+
+					phase    = properties.getProperty("phase");
+					position = Long.parseLong(properties.getProperty("position", "0"));
+
+				} else {
+
+					logger.log(Level.INFO, "Ignoring checkpoint of a rebuild with different parameters");
+
+				}
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Unable to read checkpoint file {0}: {1}", new Object[] { file.getAbsolutePath(), t.getMessage() });
+
+			} finally {
+
+				close(in);
+
+			}
+
+		}
+
+		/**
+		 * Starts the given phase and returns the id to resume at.
+		 *
+		 * @param newPhase
+		 * @return
+		 */
+		public synchronized long startPhase(final String newPhase) {
+
+			if (!newPhase.equals(phase)) {
+
+				phase    = newPhase;
+				position = 0;
+
+			}
+
+			nextPosition = position;
+
+			runningChunks.clear();
+
+			return position;
+
+		}
+
+		public synchronized void chunkStarted(final long first, final long last) {
+
+			runningChunks.add(first);
+
+			nextPosition = last + 1;
+
+		}
+
+		public synchronized void chunkFinished(final long first, final boolean success) {
+
+			if (!success) {
+
+				failed = true;
+
+			} else {
+
+				runningChunks.remove(first);
+
+				if (!failed) {
+
+					position = runningChunks.isEmpty()
+						   ? nextPosition
+						   : runningChunks.first();
+
+					save();
+
+				}
+
+			}
+
+			notifyAll();
+
+		}
+
+		/**
+		 * Waits until all chunks of the current phase are finished.
+		 *
+		 * @return false if interrupted
+		 */
+		public synchronized boolean awaitChunks() {
+
+			try {
+
+				while (!failed &&!runningChunks.isEmpty()) {
+
+					wait(1000);
+
+				}
+
+				return true;
+
+			} catch (InterruptedException iex) {
+
+				logger.log(Level.WARNING, "Interrupted while waiting for index rebuild chunks");
+
+			}
+
+			return false;
+
+		}
+
+		public void delete() {
+
+			if (file.exists() &&!file.delete()) {
+
+				logger.log(Level.WARNING, "Unable to delete checkpoint file {0}", file.getAbsolutePath());
+
+			}
+
+		}
+
+		private void save() {
+
+			Properties properties = new Properties();
+			OutputStream out      = null;
+
+			if (type != null) {
+
+				properties.setProperty("type", type);
+
+			}
+
+			if (indexName != null) {
+
+				properties.setProperty("index", indexName);
+
+			}
+
+			properties.setProperty("phase", phase);
+			properties.setProperty("position", Long.toString(position));
+
+			try {
+
+				// write to a temporary file first, so that a crash
+				// never leaves a truncated checkpoint behind
+				File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+
+				out = new FileOutputStream(tmpFile);
+
+				properties.store(out, "structr index rebuild checkpoint");
+				out.close();
+
+				out = null;
+
+				if (!tmpFile.renameTo(file)) {
+
+					file.delete();
+					tmpFile.renameTo(file);
+
+				}
+
+			} catch (IOException ioex) {
+
+				logger.log(Level.WARNING, "Unable to write checkpoint file {0}: {1}", new Object[] { file.getAbsolutePath(), ioex.getMessage() });
+
+			} finally {
+
+				close(out);
+
+			}
+
+		}
+
+		private boolean equal(final String a, final String b) {
+
+			return (a == null)
+			       ? (b == null)
+			       : a.equals(b);
+
+		}
+
+		private void close(final java.io.Closeable closeable) {
+
+			if (closeable != null) {
+
+				try {
+
+					closeable.close();
+
+				} catch (IOException ignore) {}
+
+			}
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public synchronized String getPhase() {
+
+			return phase;
+
+		}
+
+		public synchronized long getPosition() {
+
+			return position;
+
+		}
+
+		public synchronized boolean hasFailed() {
+
+			return failed;
+
+		}
+
+	}
+
 }
@@ -20,23 +20,121 @@ package org.structr.core.agent;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
 
 /**
- * Use this interface for tasks that convert a given node into another
- * type.
+ * Task to rebuild the node and relationship indices. The rebuild can be
+ * restricted to a single index (e.g. only <code>fulltext</code>) or to a
+ * single node type, and resumes from the last checkpoint of a rebuild
+ * with the same parameters unless <code>resume</code> is set to false.
+ *
+ * Progress is reported through {@link #getStatusProperty(java.lang.String)}.
  *
  * @author amorgner
  */
 public class RebuildIndexTask implements Task {
 
+    public static final String PARAMETER_INDEX  = "index";
+    public static final String PARAMETER_RESUME = "resume";
+    public static final String PARAMETER_TYPE   = "type";
+
+    public static final String STATUS_ETA        = "eta";
+    public static final String STATUS_PHASE      = "phase";
+    public static final String STATUS_PROCESSED  = "processed";
+    public static final String STATUS_THROUGHPUT = "throughput";
+    public static final String STATUS_TOTAL      = "total";
+
+    private final AtomicLong processed = new AtomicLong(0);
+    private Date creationTime          = new Date();
+    private String index               = null;
+    private String phase               = null;
+    private long resumedAt             = 0;
+    private boolean resume             = true;
+    private long startTime             = 0;
+    private long total                 = 0;
+    private String type                = null;
+
     public RebuildIndexTask() {
     }
 
+    public RebuildIndexTask(final String type, final String index, final boolean resume) {
+
+        this.type   = type;
+        this.index  = index;
+        this.resume = resume;
+    }
+
+    /**
+     * Creates a task from the parameters of a maintenance request.
+     *
+     * @param parameters
+     */
+    public RebuildIndexTask(final Map<String, Object> parameters) {
+
+        if (parameters != null) {
+
+            Object typeValue   = parameters.get(PARAMETER_TYPE);
+            Object indexValue  = parameters.get(PARAMETER_INDEX);
+            Object resumeValue = parameters.get(PARAMETER_RESUME);
+
+            type   = typeValue != null ? typeValue.toString() : null;
+            index  = indexValue != null ? indexValue.toString() : null;
+            resume = resumeValue == null || Boolean.parseBoolean(resumeValue.toString());
+        }
+    }
+
+    /**
+     * Starts a new phase of the rebuild, i.e. nodes or relationships.
+     *
+     * @param phase
+     * @param total the estimated number of entities of this phase
+     * @param processed the number of entities already processed by a previous run
+     */
+    public synchronized void startPhase(final String phase, final long total, final long processed) {
+
+        this.phase     = phase;
+        this.total     = total;
+        this.startTime = System.currentTimeMillis();
+        this.resumedAt = processed;
+
+        this.processed.set(processed);
+    }
+
+    public void addProcessed(final long count) {
+        processed.addAndGet(count);
+    }
+
+    /**
+     * Counts entities that were processed by a previous run, so that they
+     * don't distort throughput and ETA of this run.
+     *
+     * @param count
+     */
+    public synchronized void addSkipped(final long count) {
+
+        resumedAt += count;
+
+        processed.addAndGet(count);
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getEntityType() {
+        return type;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
     @Override
     public Set<AbstractNode> getNodes() {
         return Collections.emptySet();
@@ -54,7 +152,7 @@ public class RebuildIndexTask implements Task {
 
     @Override
     public Date getCreationTime() {
-        return null;
+        return creationTime;
     }
 
     @Override
@@ -72,9 +170,38 @@ public class RebuildIndexTask implements Task {
 
 	// ----- interface StatusInfo -----
 	@Override
-	public Object getStatusProperty(String key)
+	public synchronized Object getStatusProperty(String key)
 	{
-		// TODO..
+		long count   = processed.get();
+		long elapsed = System.currentTimeMillis() - startTime;
+		long done    = count - resumedAt;
+
+		if (STATUS_PHASE.equals(key)) {
+
+			return phase;
+
+		} else if (STATUS_PROCESSED.equals(key)) {
+
+			return count;
+
+		} else if (STATUS_TOTAL.equals(key)) {
+
+			return total;
+
+		} else if (STATUS_THROUGHPUT.equals(key)) {
+
+			// entities per second
+			return (startTime > 0 && elapsed > 0) ? (done * 1000 / elapsed) : 0L;
+
+		} else if (STATUS_ETA.equals(key)) {
+
+			// remaining seconds, null if unknown
+			if (startTime > 0 && done > 0 && total > count) {
+
+				return (total - count) * elapsed / done / 1000;
+			}
+		}
+
 		return(null);
 	}
 
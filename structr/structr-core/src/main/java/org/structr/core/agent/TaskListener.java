@@ -0,0 +1,37 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ * 
+ *  This file is part of structr <http://structr.org>.
+ * 
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.agent;
+
+/**
+ * Listener that is notified by the {@link AgentService} when a task
+ * has been processed.
+ *
+ * @author Christian Morgner
+ */
+public interface TaskListener
+{
+	/**
+	 * Called by the agent thread after the given task was processed.
+	 *
+	 * @param task the task
+	 * @param executionTime the execution time in milliseconds
+	 * @param success false if the task failed or was aborted
+	 */
+	public void taskFinished(Task task, long executionTime, boolean success);
+}
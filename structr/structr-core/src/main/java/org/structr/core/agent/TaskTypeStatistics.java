@@ -0,0 +1,201 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ * 
+ *  This file is part of structr <http://structr.org>.
+ * 
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.agent;
+
+/**
+ * Queue-depth, wait-time and execution-time metrics of a single task type.
+ *
+ * @author Christian Morgner
+ */
+public class TaskTypeStatistics implements StatusInfo {
+
+	public static final String ACTIVE_AGENTS          = "active_agents";
+	public static final String AVERAGE_EXECUTION_TIME = "average_execution_time";
+	public static final String AVERAGE_WAIT_TIME      = "average_wait_time";
+	public static final String COMPLETED_TASKS        = "completed_tasks";
+	public static final String FAILED_TASKS           = "failed_tasks";
+	public static final String MAX_AGENTS             = "max_agents";
+	public static final String MAX_WAIT_TIME          = "max_wait_time";
+	public static final String QUEUE_SIZE             = "queue_size";
+	public static final String REJECTED_TASKS         = "rejected_tasks";
+	public static final String SCHEDULED_TASKS        = "scheduled_tasks";
+
+	//~--- fields ---------------------------------------------------------
+
+	private int activeAgents        = 0;
+	private long completedTasks     = 0;
+	private long failedTasks        = 0;
+	private int maxAgents           = 0;
+	private long maxWaitTime        = 0;
+	private int queueSize           = 0;
+	private long rejectedTasks      = 0;
+	private int scheduledTasks      = 0;
+	private long startedTasks       = 0;
+	private long totalExecutionTime = 0;
+	private long totalWaitTime      = 0;
+	private Class taskType          = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public TaskTypeStatistics(Class taskType) {
+		this.taskType = taskType;
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	synchronized void taskStarted(long waitTime) {
+
+		startedTasks++;
+		totalWaitTime += waitTime;
+		maxWaitTime    = Math.max(maxWaitTime, waitTime);
+	}
+
+	synchronized void taskFinished(long executionTime, boolean success) {
+
+		totalExecutionTime += executionTime;
+
+		if (success) {
+			completedTasks++;
+		} else {
+			failedTasks++;
+		}
+	}
+
+	synchronized void taskRejected() {
+		rejectedTasks++;
+	}
+
+	synchronized void update(int queueSize, int scheduledTasks, int activeAgents, int maxAgents) {
+
+		this.queueSize      = queueSize;
+		this.scheduledTasks = scheduledTasks;
+		this.activeAgents   = activeAgents;
+		this.maxAgents      = maxAgents;
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	public Class getTaskType() {
+		return (taskType);
+	}
+
+	/**
+	 * Returns the number of tasks that are ready to run.
+	 */
+	public synchronized int getQueueSize() {
+		return (queueSize);
+	}
+
+	/**
+	 * Returns the number of tasks that wait for their scheduled time.
+	 */
+	public synchronized int getScheduledTasks() {
+		return (scheduledTasks);
+	}
+
+	public synchronized int getActiveAgents() {
+		return (activeAgents);
+	}
+
+	public synchronized int getMaxAgents() {
+		return (maxAgents);
+	}
+
+	public synchronized long getCompletedTasks() {
+		return (completedTasks);
+	}
+
+	public synchronized long getFailedTasks() {
+		return (failedTasks);
+	}
+
+	public synchronized long getRejectedTasks() {
+		return (rejectedTasks);
+	}
+
+	/**
+	 * Returns the average time in milliseconds a task waited for an
+	 * agent after it became ready.
+	 */
+	public synchronized long getAverageWaitTime() {
+		return (startedTasks > 0 ? totalWaitTime / startedTasks : 0);
+	}
+
+	public synchronized long getMaxWaitTime() {
+		return (maxWaitTime);
+	}
+
+	/**
+	 * Returns the average execution time of a task in milliseconds.
+	 */
+	public synchronized long getAverageExecutionTime() {
+
+		long finishedTasks = completedTasks + failedTasks;
+
+		return (finishedTasks > 0 ? totalExecutionTime / finishedTasks : 0);
+	}
+
+	// ----- interface StatusInfo -----
+	@Override
+	public Object getStatusProperty(String key) {
+
+		if (QUEUE_SIZE.equals(key)) {
+
+			return (getQueueSize());
+
+		} else if (SCHEDULED_TASKS.equals(key)) {
+
+			return (getScheduledTasks());
+
+		} else if (ACTIVE_AGENTS.equals(key)) {
+
+			return (getActiveAgents());
+
+		} else if (MAX_AGENTS.equals(key)) {
+
+			return (getMaxAgents());
+
+		} else if (COMPLETED_TASKS.equals(key)) {
+
+			return (getCompletedTasks());
+
+		} else if (FAILED_TASKS.equals(key)) {
+
+			return (getFailedTasks());
+
+		} else if (REJECTED_TASKS.equals(key)) {
+
+			return (getRejectedTasks());
+
+		} else if (AVERAGE_WAIT_TIME.equals(key)) {
+
+			return (getAverageWaitTime());
+
+		} else if (MAX_WAIT_TIME.equals(key)) {
+
+			return (getMaxWaitTime());
+
+		} else if (AVERAGE_EXECUTION_TIME.equals(key)) {
+
+			return (getAverageExecutionTime());
+		}
+
+		return (null);
+	}
+}
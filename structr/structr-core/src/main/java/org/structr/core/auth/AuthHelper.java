@@ -24,24 +24,15 @@ package org.structr.core.auth;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import org.structr.common.SecurityContext;
-import org.structr.common.error.FrameworkException;
-import org.structr.core.Command;
 import org.structr.core.Services;
 import org.structr.core.auth.exception.AuthenticationException;
-import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
 import org.structr.core.entity.SuperUser;
-import org.structr.core.node.search.Search;
-import org.structr.core.node.search.SearchAttribute;
-import org.structr.core.node.search.SearchNodeCommand;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.LinkedList;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.structr.core.Result;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -69,62 +60,43 @@ public class AuthHelper {
 
 		} else {
 
-			try {
+			user = PrincipalIndex.getInstance().getPrincipalForName(userName);
 
-				Command searchNode            = Services.command(securityContext, SearchNodeCommand.class);
-				List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
+			if (user == null) {
 
-				attrs.add(Search.andExactTypeAndSubtypes(Principal.class.getSimpleName()));
-//				attrs.add(Search.andExactType("User"));
-				attrs.add(Search.andExactName(userName));
+				logger.log(Level.INFO, "No user found for name {0}", userName);
 
-				Result userList = (Result) searchNode.execute(null, false, false, attrs);
-				
-				if (!userList.isEmpty()) {
-					user = (Principal) userList.get(0);
-				}
-
-				if (user == null) {
+				errorMsg = STANDARD_ERROR_MSG;
 
-					logger.log(Level.INFO, "No user found for name {0}", userName);
-
-					errorMsg = STANDARD_ERROR_MSG;
+			} else {
 
-				} else {
+				if (user.isBlocked()) {
 
-					if (user.isBlocked()) {
+					logger.log(Level.INFO, "User {0} is blocked", user);
 
-						logger.log(Level.INFO, "User {0} is blocked", user);
-
-						errorMsg = STANDARD_ERROR_MSG;
-
-					}
+					errorMsg = STANDARD_ERROR_MSG;
 
-					if (password == null) {
+				}
 
-						logger.log(Level.INFO, "Password for user {0} is null", user);
+				if (password == null) {
 
-						errorMsg = "You should enter a password.";
+					logger.log(Level.INFO, "Password for user {0} is null", user);
 
-					}
+					errorMsg = "You should enter a password.";
 
-					String encryptedPasswordValue = DigestUtils.sha512Hex(password);
-					String pw                     = user.getEncryptedPassword();
+				}
 
-					if (pw == null || !encryptedPasswordValue.equals(pw)) {
+				String encryptedPasswordValue = DigestUtils.sha512Hex(password);
+				String pw                     = user.getEncryptedPassword();
 
-						logger.log(Level.INFO, "Wrong password for user {0}", user);
+				if (pw == null || !encryptedPasswordValue.equals(pw)) {
 
-						errorMsg = STANDARD_ERROR_MSG;
+					logger.log(Level.INFO, "Wrong password for user {0}", user);
 
-					}
+					errorMsg = STANDARD_ERROR_MSG;
 
 				}
 
-			} catch (FrameworkException fex) {
-
-				fex.printStackTrace();
-
 			}
 
 		}
@@ -140,34 +112,7 @@ public class AuthHelper {
 
 	public static Principal getUserForToken(final String messageToken) {
 
-		Principal user              = null;
-		List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
-
-		attrs.add(Search.andExactProperty(Principal.Key.sessionId, messageToken));
-		attrs.add(Search.andExactType("User"));
-
-		try {
-
-			// we need to search with a super user security context here..
-			Result results = (Result) Services.command(SecurityContext.getSuperUserInstance(), SearchNodeCommand.class).execute(null, false, false, attrs);
-
-			if (!results.isEmpty()) {
-
-				user = (Principal) results.get(0);
-
-				if ((user != null) && messageToken.equals(user.getProperty(Principal.Key.sessionId))) {
-
-					return user;
-				}
-
-			}
-		} catch (FrameworkException fex) {
-
-			logger.log(Level.WARNING, "Error while executing SearchNodeCommand", fex);
-
-		}
-
-		return user;
+		return PrincipalIndex.getInstance().getPrincipalForToken(messageToken);
 
 	}
 
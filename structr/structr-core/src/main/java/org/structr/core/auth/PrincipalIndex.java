@@ -0,0 +1,595 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.core.auth;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.structr.common.PropertyKey;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.ErrorBuffer;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.EntityContext;
+import org.structr.core.GraphObject;
+import org.structr.core.Result;
+import org.structr.core.Services;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.agent.StatusInfo;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.Person;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.SuperUser;
+import org.structr.core.node.FindNodeCommand;
+import org.structr.core.node.search.Search;
+import org.structr.core.node.search.SearchAttribute;
+import org.structr.core.node.search.SearchNodeCommand;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Maps user names, email addresses and session tokens to the ids of
+ * {@link Principal} nodes, so that authentication doesn't need an index
+ * search for every request.
+ *
+ * Entries are added when a lookup misses and the principal has been found
+ * by a search. Modifications of the name, email or session id of a principal
+ * remove the old entries, and every hit is checked against the node, so a
+ * stale entry never yields a wrong principal. Session token entries expire
+ * after {@link Services#AUTH_TOKEN_TTL} seconds.
+ *
+ * The index also holds verified credentials (a hash of user name and
+ * password) for {@link Services#AUTH_CREDENTIAL_TTL} seconds, so that API
+ * clients which send Basic auth headers with every request are not
+ * authenticated over and over again. Any modification of a principal
+ * discards its verified credentials, and every hit compares the encrypted
+ * password of the principal with the one it had when the credentials were
+ * verified.
+ *
+ * @author Axel Morgner
+ */
+public class PrincipalIndex implements StructrTransactionListener, StatusInfo {
+
+	public static final String CREDENTIALS = "credentials";
+	public static final String ENTRIES     = "entries";
+	public static final String HITS        = "hits";
+	public static final String MISSES      = "misses";
+
+	private static final long DEFAULT_CREDENTIAL_TTL = 60;
+	private static final int DEFAULT_INDEX_SIZE      = 10000;
+	private static final long DEFAULT_TOKEN_TTL      = 3600;
+	private static final String EMAIL_PREFIX         = "email:";
+	private static final String NAME_PREFIX          = "name:";
+	private static final String TOKEN_PREFIX         = "token:";
+	private static final Logger logger               = Logger.getLogger(PrincipalIndex.class.getName());
+	private static PrincipalIndex instance           = null;
+
+	//~--- fields ---------------------------------------------------------
+
+	private final Map<String, IndexEntry> credentials = new ConcurrentHashMap<String, IndexEntry>();
+	private final Map<String, IndexEntry> entries     = new ConcurrentHashMap<String, IndexEntry>();
+	private final AtomicLong hits                     = new AtomicLong(0);
+	private final AtomicLong misses                   = new AtomicLong(0);
+	private long credentialTtl                        = DEFAULT_CREDENTIAL_TTL * 1000;
+	private int maxEntries                            = DEFAULT_INDEX_SIZE;
+	private long tokenTtl                             = DEFAULT_TOKEN_TTL * 1000;
+
+	//~--- constructors ---------------------------------------------------
+
+	/**
+	 * @param maxEntries the maximum number of entries per map
+	 * @param tokenTtl the lifetime of session token entries in milliseconds
+	 * @param credentialTtl the lifetime of verified credentials in milliseconds, 0 disables the credential cache
+	 */
+	public PrincipalIndex(final int maxEntries, final long tokenTtl, final long credentialTtl) {
+
+		this.maxEntries    = maxEntries;
+		this.tokenTtl      = tokenTtl;
+		this.credentialTtl = credentialTtl;
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Stores the given credentials as verified. Must only be called after
+	 * the password has been checked.
+	 *
+	 * @param userName
+	 * @param password
+	 * @param principal
+	 */
+	public void putVerifiedCredentials(final String userName, final String password, final Principal principal) {
+
+		if ((credentialTtl <= 0) || (userName == null) || (password == null) || (principal == null) || (principal instanceof SuperUser)) {
+
+			return;
+		}
+
+		put(credentials, getCredentialKey(userName, password), principal.getId(), credentialTtl, principal.getEncryptedPassword());
+
+	}
+
+	/**
+	 * Removes all entries and verified credentials of the principal with
+	 * the given id.
+	 *
+	 * @param id
+	 */
+	public void invalidate(final long id) {
+
+		remove(credentials, id);
+		remove(entries, id);
+
+	}
+
+	public void clear() {
+
+		credentials.clear();
+		entries.clear();
+
+	}
+
+	private Principal lookup(final String prefix, final String value, final PropertyKey key, final List<SearchAttribute> attrs, final long ttl) {
+
+		if (value == null) {
+
+			return null;
+		}
+
+		String indexKey  = prefix.concat(value);
+		IndexEntry entry = entries.get(indexKey);
+
+		if (entry != null) {
+
+			if (!entry.isExpired()) {
+
+				Principal principal = load(entry.id);
+
+				if ((principal != null) && value.equals(principal.getStringProperty(key))) {
+
+					hits.incrementAndGet();
+
+					return principal;
+
+				}
+
+			}
+
+			entries.remove(indexKey);
+
+		}
+
+		misses.incrementAndGet();
+
+		Principal principal = search(attrs);
+
+		if ((principal != null) && value.equals(principal.getStringProperty(key))) {
+
+			put(entries, indexKey, principal.getId(), ttl);
+
+			return principal;
+
+		}
+
+		return null;
+
+	}
+
+	private Principal load(final long id) {
+
+		try {
+
+			Object node = Services.command(SecurityContext.getSuperUserInstance(), FindNodeCommand.class).execute(id);
+
+			if (node instanceof Principal) {
+
+				return (Principal) node;
+			}
+
+		} catch (FrameworkException fex) {
+
+			// node is gone, entry will be removed
+		}
+
+		return null;
+
+	}
+
+	private Principal search(final List<SearchAttribute> attrs) {
+
+		try {
+
+			// we need to search with a super user security context here..
+			Result results = (Result) Services.command(SecurityContext.getSuperUserInstance(), SearchNodeCommand.class).execute(null, false, false, attrs);
+
+			if (!results.isEmpty()) {
+
+				return (Principal) results.get(0);
+			}
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Error while executing SearchNodeCommand", fex);
+
+		}
+
+		return null;
+
+	}
+
+	private void put(final Map<String, IndexEntry> map, final String key, final long id, final long ttl) {
+
+		put(map, key, id, ttl, null);
+
+	}
+
+	private void put(final Map<String, IndexEntry> map, final String key, final long id, final long ttl, final String encryptedPassword) {
+
+		if (map.size() >= maxEntries) {
+
+			purge(map);
+
+			if (map.size() >= maxEntries) {
+
+				map.clear();
+			}
+
+		}
+
+		map.put(key, new IndexEntry(id, (ttl > 0)
+						? System.currentTimeMillis() + ttl
+						: 0, encryptedPassword));
+
+	}
+
+	private void purge(final Map<String, IndexEntry> map) {
+
+		for (Iterator<IndexEntry> it = map.values().iterator(); it.hasNext(); ) {
+
+			if (it.next().isExpired()) {
+
+				it.remove();
+			}
+
+		}
+
+	}
+
+	private void remove(final Map<String, IndexEntry> map, final long id) {
+
+		for (Iterator<IndexEntry> it = map.values().iterator(); it.hasNext(); ) {
+
+			if (it.next().id == id) {
+
+				it.remove();
+			}
+
+		}
+
+	}
+
+	private void removeKey(final String key, final Object oldValue) {
+
+		if (oldValue == null) {
+
+			return;
+		}
+
+		if (AbstractNode.Key.name.name().equals(key)) {
+
+			entries.remove(NAME_PREFIX.concat(oldValue.toString()));
+
+		} else if (Person.Key.email.name().equals(key)) {
+
+			entries.remove(EMAIL_PREFIX.concat(oldValue.toString()));
+
+		} else if (Principal.Key.sessionId.name().equals(key)) {
+
+			entries.remove(TOKEN_PREFIX.concat(oldValue.toString()));
+		}
+
+	}
+
+	@Override
+	public void begin(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void commit(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void rollback(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void afterCommit(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public boolean propertyModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue, Object newValue) {
+
+		if (graphObject instanceof Principal) {
+
+			removeKey(key, oldValue);
+			remove(credentials, graphObject.getId());
+
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public boolean propertyRemoved(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue) {
+
+		if (graphObject instanceof Principal) {
+
+			removeKey(key, oldValue);
+			remove(credentials, graphObject.getId());
+
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectCreated(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) throws FrameworkException {
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) throws FrameworkException {
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectDeleted(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, Map<String, Object> properties) throws FrameworkException {
+
+		if (graphObject instanceof Principal) {
+
+			invalidate(graphObject.getId());
+		}
+
+		return true;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the shared index, which is configured and registered as a
+	 * transaction listener on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized PrincipalIndex getInstance() {
+
+		if (instance == null) {
+
+			Map<String, String> context = Services.getContext();
+			int maxEntries              = DEFAULT_INDEX_SIZE;
+			long tokenTtl               = DEFAULT_TOKEN_TTL;
+			long credentialTtl          = DEFAULT_CREDENTIAL_TTL;
+
+			if (context != null) {
+
+				try {
+
+					if (context.get(Services.AUTH_INDEX_SIZE) != null) {
+
+						maxEntries = Integer.parseInt(context.get(Services.AUTH_INDEX_SIZE).trim());
+					}
+
+					if (context.get(Services.AUTH_TOKEN_TTL) != null) {
+
+						tokenTtl = Long.parseLong(context.get(Services.AUTH_TOKEN_TTL).trim());
+					}
+
+					if (context.get(Services.AUTH_CREDENTIAL_TTL) != null) {
+
+						credentialTtl = Long.parseLong(context.get(Services.AUTH_CREDENTIAL_TTL).trim());
+					}
+
+				} catch (NumberFormatException nfex) {
+
+					logger.log(Level.WARNING, "Invalid authentication index configuration: {0}", nfex.getMessage());
+
+				}
+
+			}
+
+			instance = new PrincipalIndex(Math.max(1, maxEntries), tokenTtl * 1000, credentialTtl * 1000);
+
+			EntityContext.registerTransactionListener(instance);
+
+		}
+
+		return instance;
+
+	}
+
+	/**
+	 * Returns the principal with the given name, or null.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Principal getPrincipalForName(final String name) {
+
+		List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
+
+		attrs.add(Search.andExactTypeAndSubtypes(Principal.class.getSimpleName()));
+		attrs.add(Search.andExactName(name));
+
+		return lookup(NAME_PREFIX, name, AbstractNode.Key.name, attrs, 0);
+
+	}
+
+	/**
+	 * Returns the principal with the given email address, or null.
+	 *
+	 * @param email
+	 * @return
+	 */
+	public Principal getPrincipalForEmail(final String email) {
+
+		List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
+
+		attrs.add(Search.andExactTypeAndSubtypes(Principal.class.getSimpleName()));
+		attrs.add(Search.andExactProperty(Person.Key.email, email));
+
+		return lookup(EMAIL_PREFIX, email, Person.Key.email, attrs, 0);
+
+	}
+
+	/**
+	 * Returns the user with the given session token, or null.
+	 *
+	 * @param token
+	 * @return
+	 */
+	public Principal getPrincipalForToken(final String token) {
+
+		List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
+
+		attrs.add(Search.andExactProperty(Principal.Key.sessionId, token));
+		attrs.add(Search.andExactType("User"));
+
+		return lookup(TOKEN_PREFIX, token, Principal.Key.sessionId, attrs, tokenTtl);
+
+	}
+
+	/**
+	 * Returns the principal for the given credentials if they have been
+	 * verified recently and the principal is not blocked, or null.
+	 *
+	 * @param userName
+	 * @param password
+	 * @return
+	 */
+	public Principal getVerifiedPrincipal(final String userName, final String password) {
+
+		if ((credentialTtl <= 0) || (userName == null) || (password == null)) {
+
+			return null;
+		}
+
+		String key       = getCredentialKey(userName, password);
+		IndexEntry entry = credentials.get(key);
+
+		if (entry != null) {
+
+			if (!entry.isExpired()) {
+
+				Principal principal = load(entry.id);
+
+				// the password might have been changed without a transaction event reaching us
+				if ((principal != null) &&!Boolean.TRUE.equals(principal.isBlocked()) && userName.equals(principal.getStringProperty(AbstractNode.Key.name))
+					&& (entry.encryptedPassword != null) && entry.encryptedPassword.equals(principal.getEncryptedPassword())) {
+
+					hits.incrementAndGet();
+
+					return principal;
+
+				}
+
+			}
+
+			credentials.remove(key);
+
+		}
+
+		return null;
+
+	}
+
+	private static String getCredentialKey(final String userName, final String password) {
+
+		return DigestUtils.sha256Hex(userName.concat(":").concat(password));
+
+	}
+
+	@Override
+	public Object getStatusProperty(final String key) {
+
+		if (ENTRIES.equals(key)) {
+
+			return entries.size();
+
+		} else if (CREDENTIALS.equals(key)) {
+
+			return credentials.size();
+
+		} else if (HITS.equals(key)) {
+
+			return hits.get();
+
+		} else if (MISSES.equals(key)) {
+
+			return misses.get();
+		}
+
+		return null;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class IndexEntry {
+
+		private String encryptedPassword = null;
+		private long expires             = 0;
+		private long id                  = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public IndexEntry(final long id, final long expires, final String encryptedPassword) {
+
+			this.id                = id;
+			this.expires           = expires;
+			this.encryptedPassword = encryptedPassword;
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public boolean isExpired() {
+
+			return (expires > 0) && (System.currentTimeMillis() > expires);
+
+		}
+
+	}
+
+}
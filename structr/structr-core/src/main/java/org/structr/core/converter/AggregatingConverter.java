@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -32,16 +34,16 @@ import org.structr.core.notion.Notion;
  * 
  * @author Christian Morgner
  */
-public class AggregatingConverter extends PropertyConverter {
+public class AggregatingConverter extends StatelessPropertyConverter {
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		// read only
 		return null;
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		
 		if(currentObject != null && value != null && currentObject instanceof AbstractNode) {
 			
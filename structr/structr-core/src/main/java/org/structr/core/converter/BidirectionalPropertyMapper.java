@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.error.FrameworkException;
@@ -33,7 +35,7 @@ public class BidirectionalPropertyMapper extends PropertyMapper {
 	private static final Logger logger = Logger.getLogger(BidirectionalPropertyMapper.class.getName());
 	
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(value != null) {
 
@@ -64,7 +66,7 @@ public class BidirectionalPropertyMapper extends PropertyMapper {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(value != null) {
 
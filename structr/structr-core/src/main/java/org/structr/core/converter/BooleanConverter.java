@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.apache.commons.lang.BooleanUtils;
 
 import org.structr.core.Value;
@@ -34,14 +36,14 @@ import java.util.logging.Logger;
  *
  * @author Axel Morgner
  */
-public class BooleanConverter extends PropertyConverter {
+public class BooleanConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(BooleanConverter.class.getName());
 
 	//~--- methods --------------------------------------------------------
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (source == null) {
 
@@ -72,7 +74,7 @@ public class BooleanConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
-		return convertForSetter(source, value);
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
+		return convertForSetter(securityContext, currentObject, source, value);
 	}
 }
@@ -19,6 +19,9 @@
 
 package org.structr.core.converter;
 
+import org.apache.lucene.search.SortField;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Level;
@@ -30,13 +33,13 @@ import org.structr.core.Value;
  *
  * @author Christian Morgner
  */
-public class DateConverter extends PropertyConverter {
+public class DateConverter extends StatelessPropertyConverter {
 
 	private static final String[] DatePatterns = new String[] { "yyyy-MM-dd'T'HH:mm:ssZ", "yyyy-MM-dd'T'HH:mm:ss", "yyyymmdd", "yyyymm", "yyyy" };
 	private static final Logger logger = Logger.getLogger(DateConverter.class.getName());
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(source != null) {
 			
@@ -61,7 +64,7 @@ public class DateConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(source != null) {
 			return new SimpleDateFormat(DatePatterns[0]).format(source);
@@ -71,7 +74,7 @@ public class DateConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Comparable convertForSorting(Object source, Value value) {
+	public Comparable convertForSorting(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (source != null) {
 			
@@ -80,9 +83,14 @@ public class DateConverter extends PropertyConverter {
 			}
 			
 			// fallback to superclass
-			return super.convertForSorting(source, value);
+			return super.convertForSorting(securityContext, currentObject, source, value);
 		}
 
 		return null;
 	}
+
+	@Override
+	public int getSortType() {
+		return SortField.LONG;
+	}
 }
@@ -19,6 +19,9 @@
 
 package org.structr.core.converter;
 
+import org.apache.lucene.search.SortField;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang.math.NumberUtils;
@@ -28,12 +31,12 @@ import org.structr.core.Value;
  *
  * @author Axel Morgner
  */
-public class DoubleConverter extends PropertyConverter {
+public class DoubleConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(DoubleConverter.class.getName());
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (source != null) {
 			
@@ -57,7 +60,7 @@ public class DoubleConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (source == null && value != null) {
 			return value;
@@ -66,4 +69,9 @@ public class DoubleConverter extends PropertyConverter {
 		return source;
 		
 	}
+
+	@Override
+	public int getSortType() {
+		return SortField.DOUBLE;
+	}
 }
@@ -18,6 +18,9 @@
  */
 package org.structr.core.converter;
 
+import org.apache.lucene.search.SortField;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.structr.core.Value;
 
 //~--- JDK imports ------------------------------------------------------------
@@ -31,13 +34,13 @@ import org.apache.commons.lang.StringUtils;
  *
  * @author Axel Morgner
  */
-public class IntConverter extends PropertyConverter {
+public class IntConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(IntConverter.class.getName());
 
 	//~--- methods --------------------------------------------------------
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (source != null) {
 
@@ -59,7 +62,7 @@ public class IntConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		
 		if (source == null && value != null) {
 			return value.get(securityContext);
@@ -67,4 +70,9 @@ public class IntConverter extends PropertyConverter {
 		
 		return source;
 	}
+
+	@Override
+	public int getSortType() {
+		return SortField.LONG;
+	}
 }
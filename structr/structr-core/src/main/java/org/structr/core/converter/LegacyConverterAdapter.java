@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ * 
+ *  This file is part of structr <http://structr.org>.
+ * 
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.converter;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.Value;
+
+/**
+ * Adapts a stateful {@link PropertyConverter} to the shared
+ * {@link StatelessPropertyConverter} interface by creating a new
+ * instance of the wrapped converter class for every conversion.
+ *
+ * @author Christian Morgner
+ */
+public class LegacyConverterAdapter<S, T> extends StatelessPropertyConverter<S, T> {
+
+	private static final Logger logger = Logger.getLogger(LegacyConverterAdapter.class.getName());
+
+	private Class<? extends PropertyConverter> converterClass = null;
+
+	public LegacyConverterAdapter(Class<? extends PropertyConverter> converterClass) {
+		this.converterClass = converterClass;
+	}
+
+	@Override
+	public S convertForSetter(SecurityContext securityContext, GraphObject currentObject, T source, Value value) throws FrameworkException {
+
+		PropertyConverter<S, T> converter = createConverter(securityContext, currentObject, false);
+		if (converter != null) {
+
+			return converter.convertForSetter(source, value);
+		}
+
+		return null;
+	}
+
+	@Override
+	public T convertForGetter(SecurityContext securityContext, GraphObject currentObject, S source, Value value) {
+
+		PropertyConverter<S, T> converter = createConverter(securityContext, currentObject, false);
+		if (converter != null) {
+
+			return converter.convertForGetter(source, value);
+		}
+
+		return null;
+	}
+
+	@Override
+	public T convertForRawGetter(SecurityContext securityContext, GraphObject currentObject, S source, Value value) {
+
+		PropertyConverter<S, T> converter = createConverter(securityContext, currentObject, true);
+		if (converter != null) {
+
+			return converter.convertForGetter(source, value);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Comparable convertForSorting(SecurityContext securityContext, GraphObject currentObject, S source, Value value) {
+
+		PropertyConverter<S, T> converter = createConverter(securityContext, currentObject, false);
+		if (converter != null) {
+
+			return converter.convertForSorting(source, value);
+		}
+
+		return null;
+	}
+
+	public Class<? extends PropertyConverter> getConverterClass() {
+		return converterClass;
+	}
+
+	// ----- private methods -----
+	private PropertyConverter<S, T> createConverter(SecurityContext securityContext, GraphObject currentObject, boolean rawMode) {
+
+		try {
+
+			PropertyConverter<S, T> converter = converterClass.newInstance();
+
+			converter.setSecurityContext(securityContext);
+			converter.setCurrentObject(currentObject);
+			converter.setRawMode(rawMode);
+
+			return converter;
+
+		} catch (Throwable t) {
+			logger.log(Level.WARNING, "Unable to instantiate property PropertyConverter {0}: {1}", new Object[] { converterClass.getName(), t.getMessage() });
+		}
+
+		return null;
+	}
+}
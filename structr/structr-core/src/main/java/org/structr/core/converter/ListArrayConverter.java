@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.List;
 import org.structr.core.Value;
 
@@ -27,10 +29,10 @@ import org.structr.core.Value;
  *
  * @author Christian Morgner
  */
-public class ListArrayConverter extends PropertyConverter {
+public class ListArrayConverter extends StatelessPropertyConverter {
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(source != null && source instanceof List) {
 			return ((List)source).toArray(new String[0]);
@@ -40,7 +42,7 @@ public class ListArrayConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		return source;
 	}
 }
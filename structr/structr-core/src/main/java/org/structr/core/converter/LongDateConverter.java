@@ -19,16 +19,19 @@
 
 package org.structr.core.converter;
 
+import org.apache.lucene.search.SortField;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.Date;
 import org.structr.core.Value;
 
 /**
  * @author Christian Morgner
  */
-public class LongDateConverter extends PropertyConverter<Long, Date> {
+public class LongDateConverter extends StatelessPropertyConverter<Long, Date> {
 
 	@Override
-	public Long convertForSetter(Date source, Value value) {
+	public Long convertForSetter(SecurityContext securityContext, GraphObject currentObject, Date source, Value value) {
 		if(source != null) {
 			return source.getTime();
 		}
@@ -37,7 +40,7 @@ public class LongDateConverter extends PropertyConverter<Long, Date> {
 	}
 
 	@Override
-	public Date convertForGetter(Long source, Value value) {
+	public Date convertForGetter(SecurityContext securityContext, GraphObject currentObject, Long source, Value value) {
 
 		if(source != null) {
 			return new Date(source);
@@ -45,4 +48,9 @@ public class LongDateConverter extends PropertyConverter<Long, Date> {
 
 		return null;
 	}
+
+	@Override
+	public int getSortType() {
+		return SortField.LONG;
+	}
 }
@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.core.Value;
@@ -30,16 +32,16 @@ import org.structr.core.node.FindNodeCommand;
  *
  * @author Axel Morgner
  */
-public class NodeIdNodeConverter extends PropertyConverter<Long, AbstractNode> {
+public class NodeIdNodeConverter extends StatelessPropertyConverter<Long, AbstractNode> {
 
 	@Override
-	public Long convertForSetter(AbstractNode node, Value value) {
+	public Long convertForSetter(SecurityContext securityContext, GraphObject currentObject, AbstractNode node, Value value) {
 		if (node == null) return null;
 		return node.getId();
 	}
 
 	@Override
-	public AbstractNode convertForGetter(Long nodeId, Value value) {
+	public AbstractNode convertForGetter(SecurityContext securityContext, GraphObject currentObject, Long nodeId, Value value) {
 		if (nodeId == null) return null;
 		try {
 			return (AbstractNode) Services.command(securityContext, FindNodeCommand.class).execute(nodeId);
@@ -19,6 +19,7 @@
 
 package org.structr.core.converter;
 
+import org.structr.core.GraphObject;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.structr.common.SecurityContext;
@@ -29,10 +30,10 @@ import org.structr.core.Value;
 /**
  * @author Axel Morgner
  */
-public class PasswordConverter extends PropertyConverter<String, String> {
+public class PasswordConverter extends StatelessPropertyConverter<String, String> {
 
 	@Override
-	public String convertForSetter(String clearTextPassword, Value value) throws FrameworkException {
+	public String convertForSetter(SecurityContext securityContext, GraphObject currentObject, String clearTextPassword, Value value) throws FrameworkException {
 		
 		if (StringUtils.isBlank(clearTextPassword)) return null;
 
@@ -56,7 +57,7 @@ public class PasswordConverter extends PropertyConverter<String, String> {
 	}
 
 	@Override
-	public String convertForGetter(String passwordHash, Value value) {
+	public String convertForGetter(SecurityContext securityContext, GraphObject currentObject, String passwordHash, Value value) {
 		return passwordHash;
 	}
 	
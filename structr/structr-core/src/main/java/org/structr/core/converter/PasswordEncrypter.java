@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -28,12 +30,12 @@ import org.structr.core.Value;
  *
  * @author Christian Morgner
  */
-public class PasswordEncrypter extends PropertyConverter {
+public class PasswordEncrypter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(PasswordEncrypter.class.getName());
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 
 		if(source != null) {
@@ -62,7 +64,7 @@ public class PasswordEncrypter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 //		Thread.dumpStack();
 		return source;
 	}
@@ -29,6 +29,10 @@ import org.structr.core.Value;
  * values from one type to another. Please note that implementations
  * of this interface MUST be able to handle null values.
  *
+ * Legacy converters are stateful and must therefore be instantiated
+ * for every conversion. New converters should extend
+ * {@link StatelessPropertyConverter} instead.
+ *
  * @author Christian Morgner
  */
 public abstract class PropertyConverter<S, T> {
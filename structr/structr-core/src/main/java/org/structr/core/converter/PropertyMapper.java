@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.core.Value;
@@ -27,17 +29,17 @@ import org.structr.core.Value;
  *
  * @author Christian Morgner
  */
-public class PropertyMapper extends PropertyConverter {
+public class PropertyMapper extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(PropertyMapper.class.getName());
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		return source;
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(value != null) {
 
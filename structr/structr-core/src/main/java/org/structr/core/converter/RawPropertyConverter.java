@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.structr.core.Value;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.AbstractRelationship;
@@ -27,15 +29,15 @@ import org.structr.core.entity.AbstractRelationship;
  *
  * @author Christian Morgner
  */
-public class RawPropertyConverter extends PropertyConverter {
+public class RawPropertyConverter extends StatelessPropertyConverter {
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		throw new UnsupportedOperationException("Not supported yet.");
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if(value != null) {
 
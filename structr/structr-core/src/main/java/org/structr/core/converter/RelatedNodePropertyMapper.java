@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.structr.common.PropertyKey;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.EntityContext;
@@ -37,14 +39,14 @@ import java.util.logging.Logger;
  *
  * @author Christian Morgner
  */
-public class RelatedNodePropertyMapper extends PropertyConverter {
+public class RelatedNodePropertyMapper extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(RelatedNodePropertyMapper.class.getName());
 
 	//~--- methods --------------------------------------------------------
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (value != null) {
 
@@ -55,7 +57,7 @@ public class RelatedNodePropertyMapper extends PropertyConverter {
 				ParameterHolder holder   = (ParameterHolder) param;
 				PropertyKey targetKey    = holder.getTargetKey();
 				Class targetType         = holder.getTargetType();
-				AbstractNode relatedNode = getRelatedNode(targetType);
+				AbstractNode relatedNode = getRelatedNode(securityContext, currentObject, targetType);
 
 				if (relatedNode != null) {
 
@@ -77,7 +79,7 @@ public class RelatedNodePropertyMapper extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		if (value != null) {
 
@@ -88,7 +90,7 @@ public class RelatedNodePropertyMapper extends PropertyConverter {
 				ParameterHolder holder   = (ParameterHolder) param;
 				PropertyKey targetKey    = holder.getTargetKey();
 				Class targetType         = holder.getTargetType();
-				AbstractNode relatedNode = getRelatedNode(targetType);
+				AbstractNode relatedNode = getRelatedNode(securityContext, currentObject, targetType);
 
 				if (relatedNode != null) {
 
@@ -105,7 +107,7 @@ public class RelatedNodePropertyMapper extends PropertyConverter {
 
 	//~--- get methods ----------------------------------------------------
 
-	private AbstractNode getRelatedNode(Class targetType) {
+	private AbstractNode getRelatedNode(SecurityContext securityContext, GraphObject currentObject, Class targetType) {
 
 		AbstractNode relatedNode = null;
 
@@ -19,6 +19,8 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import java.util.Collection;
 import org.structr.core.Value;
 
@@ -27,15 +29,15 @@ import org.structr.core.Value;
  * @author Axel Morgner
  */
 
-public class ResultCountConverter extends PropertyConverter {
+public class ResultCountConverter extends StatelessPropertyConverter {
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		return source;
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 		
 		int count = 0;
 		
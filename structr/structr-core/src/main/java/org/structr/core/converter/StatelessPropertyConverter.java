@@ -0,0 +1,119 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ * 
+ *  This file is part of structr <http://structr.org>.
+ * 
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.converter;
+
+import org.apache.lucene.search.SortField;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.Value;
+
+/**
+ * A converter interface that can be used to convert values from one
+ * type to another. In contrast to {@link PropertyConverter}, the
+ * security context and the current object are passed as arguments,
+ * so a single instance of this class is shared between all threads
+ * and all instances of a given type.
+ *
+ * Implementations of this class MUST be thread-safe and MUST NOT keep
+ * any per-call state in fields. Please note that implementations MUST
+ * be able to handle null values.
+ *
+ * @author Christian Morgner
+ */
+public abstract class StatelessPropertyConverter<S, T> {
+
+	/**
+	 * Converts from destination type to source type. Caution: source
+	 * will be null if there is no value in the database.
+	 *
+	 * @param securityContext
+	 * @param currentObject
+	 * @param source
+	 * @param value
+	 * @return
+	 */
+	public abstract S convertForSetter(SecurityContext securityContext, GraphObject currentObject, T source, Value value) throws FrameworkException;
+
+	/**
+	 * Converts from source type to destination type. Caution: source
+	 * will be null if there is no value in the database.
+	 *
+	 * @param securityContext
+	 * @param currentObject
+	 * @param source
+	 * @param value
+	 * @return
+	 */
+	public abstract T convertForGetter(SecurityContext securityContext, GraphObject currentObject, S source, Value value);
+
+	/**
+	 * Converts from source type to destination type without applying
+	 * any notion. Override this method if the getter conversion
+	 * of this converter applies a notion to its results.
+	 *
+	 * @param securityContext
+	 * @param currentObject
+	 * @param source
+	 * @param value
+	 * @return
+	 */
+	public T convertForRawGetter(SecurityContext securityContext, GraphObject currentObject, S source, Value value) {
+		return convertForGetter(securityContext, currentObject, source, value);
+	}
+
+	/**
+	 * Convert from source type to Comparable to allow a more
+	 * fine-grained control over the sorted results. Override
+	 * this method to modify sorting behaviour of entities.
+	 *
+	 * @param securityContext
+	 * @param currentObject
+	 * @param source
+	 * @param value
+	 * @return
+	 */
+	public Comparable convertForSorting(SecurityContext securityContext, GraphObject currentObject, S source, Value value) {
+
+		T target = convertForGetter(securityContext, currentObject, source, value);
+		if(target != null) {
+
+			if (target instanceof Comparable) {
+
+				return (Comparable)target;
+			}
+
+			// fallback
+			return target.toString();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the Lucene sort type of the raw values stored by this
+	 * converter, which allows the index to sort them natively. The
+	 * default is {@link SortField#STRING}.
+	 *
+	 * @return the sort type
+	 */
+	public int getSortType() {
+		return SortField.STRING;
+	}
+}
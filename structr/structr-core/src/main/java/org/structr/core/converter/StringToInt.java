@@ -20,7 +20,9 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
 import org.structr.core.Converter;
+import org.structr.core.GraphObject;
 import org.structr.core.Value;
 
 /**
@@ -30,10 +32,10 @@ import org.structr.core.Value;
 public class StringToInt extends Converter<String, Integer> {
 	
 	public StringToInt(Value<String> source) {
-		super(source, new PropertyConverter<String, Integer>() {
+		super(source, new StatelessPropertyConverter<String, Integer>() {
 
 			@Override
-			public String convertForSetter(Integer source, Value value) {
+			public String convertForSetter(SecurityContext securityContext, GraphObject currentObject, Integer source, Value value) {
 				
 				if (source != null) {
 					
@@ -44,7 +46,7 @@ public class StringToInt extends Converter<String, Integer> {
 			}
 
 			@Override
-			public Integer convertForGetter(String source, Value value) {
+			public Integer convertForGetter(SecurityContext securityContext, GraphObject currentObject, String source, Value value) {
 				
 				if (source != null) {
 					
@@ -19,6 +19,7 @@
 
 package org.structr.core.converter;
 
+import org.structr.common.SecurityContext;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -40,12 +41,27 @@ import org.structr.core.traversal.TraverserInterface;
  *
  * @author Christian Morgner
  */
-public class TraversingConverter extends PropertyConverter {
+public class TraversingConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(TraversingConverter.class.getName());
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
+		return convert(securityContext, currentObject, source, value, false);
+	}
+
+	@Override
+	public Object convertForRawGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
+		return convert(securityContext, currentObject, source, value, true);
+	}
+
+	@Override
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
+		return source;
+	}
+	
+	// ----- private methods -----
+	private Object convert(SecurityContext securityContext, GraphObject currentObject, Object source, Value value, boolean rawMode) {
 		
 		// source is not used here (can safely be null!)
 		
@@ -63,7 +79,7 @@ public class TraversingConverter extends PropertyConverter {
 					Comparator<AbstractNode> comparator = traverserInterface.getComparator();
 
 					try {
-						List<AbstractNode> nodes = getTraversalResults(comparator, description, currentNode);
+						List<AbstractNode> nodes = getTraversalResults(securityContext, comparator, description, currentNode);
 						
 						if (traverserInterface.collapseSingleResult() && nodes.isEmpty()) {
 							return null;
@@ -101,13 +117,7 @@ public class TraversingConverter extends PropertyConverter {
 		return null;
 	}
 
-	@Override
-	public Object convertForSetter(Object source, Value value) {
-		return source;
-	}
-	
-	// ----- private methods -----
-	private List<AbstractNode> getTraversalResults(Comparator<AbstractNode> comparator, TraversalDescription traversalDescription, AbstractNode node) throws FrameworkException {
+	private List<AbstractNode> getTraversalResults(SecurityContext securityContext, Comparator<AbstractNode> comparator, TraversalDescription traversalDescription, AbstractNode node) throws FrameworkException {
 
 		// use traverser
 		Iterable<Node> nodes = traversalDescription.traverse(node.getNode()).nodes();
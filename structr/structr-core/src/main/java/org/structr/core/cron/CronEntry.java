@@ -21,33 +21,74 @@
 
 package org.structr.core.cron;
 
+import java.lang.reflect.Constructor;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.structr.core.agent.StatusInfo;
+import org.structr.core.agent.Task;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * A task that is started by the {@link CronService} according to a cron
+ * expression, together with its execution policy and statistics.
  *
  * @author Christian Morgner
  */
-public class CronEntry implements Delayed {
+public class CronEntry implements Delayed, StatusInfo {
 
-	private static final Logger logger = Logger.getLogger(CronService.class.getName());
+	public static final String LAST_DURATION = "last_duration";
+	public static final String LAST_RUN      = "last_run";
+	public static final String MISFIRE_COUNT = "misfire_count";
+	public static final String NEXT_RUN      = "next_run";
+	public static final String RUN_COUNT     = "run_count";
+	public static final String RUNNING_COUNT = "running_count";
+	public static final String SKIP_COUNT    = "skip_count";
+	private static final Logger logger       = Logger.getLogger(CronService.class.getName());
+
+	//~--- constant enums -------------------------------------------------
+
+	/**
+	 * What to do if an entry fires while its previous task is still
+	 * queued or running.
+	 */
+	public enum Policy {
+
+		/** don't start the task */
+		skip,
+
+		/** start the task once the previous one is finished */
+		queue,
+
+		/** start the task anyway */
+		parallel
+	}
 
 	//~--- fields ---------------------------------------------------------
 
-	private CronField days    = null;
-	private CronField dow     = null;
-	private CronField hours   = null;
-	private CronField minutes = null;
-	private CronField months  = null;
-	private CronField seconds = null;
-	private String name       = null;
+	private CronField days                = null;
+	private CronField dow                 = null;
+	private CronField hours               = null;
+	private long lastDuration             = -1;
+	private long lastRun                  = 0;
+	private CronField minutes             = null;
+	private int misfireCount              = 0;
+	private CronField months              = null;
+	private String name                   = null;
+	private long nextExecutionTime        = 0;
+	private boolean pending               = false;
+	private Policy policy                 = Policy.skip;
+	private int runCount                  = 0;
+	private int runningCount              = 0;
+	private CronField seconds             = null;
+	private int skipCount                 = 0;
+	private Constructor<? extends Task> taskFactory = null;
 
 	//~--- constructors ---------------------------------------------------
 
@@ -78,6 +119,107 @@ public class CronEntry implements Delayed {
 		return buf.toString();
 	}
 
+	/**
+	 * Creates a new task instance for this entry.
+	 *
+	 * @return
+	 * @throws Exception
+	 */
+	public Task createTask() throws Exception {
+		return taskFactory.newInstance();
+	}
+
+	/**
+	 * Computes and stores the next execution time after the given time.
+	 *
+	 * @param fromMillis
+	 * @return the next execution time
+	 */
+	public synchronized long schedule(long fromMillis) {
+
+		nextExecutionTime = getNextExecutionTime(fromMillis);
+
+		return nextExecutionTime;
+	}
+
+	/**
+	 * Decides whether a task is to be started now, according to the
+	 * policy of this entry, and updates the statistics.
+	 *
+	 * @return true if a task should be started
+	 */
+	public synchronized boolean fire() {
+
+		if ((runningCount > 0) && (policy != Policy.parallel)) {
+
+			if (policy == Policy.queue) {
+
+				// start once the running task is finished
+				pending = true;
+
+			} else {
+
+				skipCount++;
+
+			}
+
+			return false;
+
+		}
+
+		taskStarted();
+
+		return true;
+	}
+
+	/**
+	 * Called when a task of this entry is finished.
+	 *
+	 * @param duration
+	 * @return true if a queued execution should be started now
+	 */
+	public synchronized boolean taskFinished(long duration) {
+
+		runningCount = Math.max(0, runningCount - 1);
+		lastDuration = duration;
+
+		if (pending && (runningCount == 0)) {
+
+			pending = false;
+
+			taskStarted();
+
+			return true;
+
+		}
+
+		return false;
+	}
+
+	/**
+	 * Called when a task of this entry could not be started.
+	 */
+	public synchronized void taskRejected() {
+
+		runningCount = Math.max(0, runningCount - 1);
+
+		if (runningCount == 0) {
+			pending = false;
+		}
+	}
+
+	public synchronized void misfired() {
+		misfireCount++;
+	}
+
+	private void taskStarted() {
+
+		runningCount++;
+		runCount++;
+
+		lastRun = System.currentTimeMillis();
+	}
+
 	// ----- static methods -----
 	public static CronEntry parse(String task, String expression) {
 
@@ -289,6 +431,14 @@ public class CronEntry implements Delayed {
 	@Override
 	public int compareTo(Delayed o) {
 
+		if (o instanceof CronEntry) {
+
+			Long myTime = Long.valueOf(getNextExecutionTime());
+			Long oTime  = Long.valueOf(((CronEntry) o).getNextExecutionTime());
+
+			return myTime.compareTo(oTime);
+		}
+
 		Long myDelay = Long.valueOf(getDelay(TimeUnit.MILLISECONDS));
 		Long oDelay  = Long.valueOf(o.getDelay(TimeUnit.MILLISECONDS));
 
@@ -299,7 +449,29 @@ public class CronEntry implements Delayed {
 
 	public long getDelayToNextExecutionInMillis() {
 
-		Calendar now       = GregorianCalendar.getInstance();
+		long now = System.currentTimeMillis();
+
+		return getNextExecutionTime(now) - now;
+	}
+
+	/**
+	 * Returns the first execution time (with a resolution of one second)
+	 * that is not before the given time.
+	 *
+	 * @param fromMillis
+	 * @return
+	 */
+	public long getNextExecutionTime(long fromMillis) {
+
+		Calendar now = GregorianCalendar.getInstance();
+
+		now.setTimeInMillis(fromMillis);
+		now.set(Calendar.MILLISECOND, 0);
+
+		if (now.getTimeInMillis() < fromMillis) {
+			now.add(Calendar.SECOND, 1);
+		}
+
 		int nowSeconds     = now.get(Calendar.SECOND);
 		int nowMinutes     = now.get(Calendar.MINUTE);
 		int nowHours       = now.get(Calendar.HOUR_OF_DAY);
@@ -369,7 +541,83 @@ public class CronEntry implements Delayed {
 			throw new IllegalArgumentException("Unable to determine next cron date for task " + name + ", aborting.");
 		}
 		
-		return now.getTimeInMillis() - System.currentTimeMillis();
+		return now.getTimeInMillis();
+	}
+
+	public synchronized long getNextExecutionTime() {
+		return nextExecutionTime;
+	}
+
+	public synchronized Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the time of the last execution, or null if the task
+	 * was not executed yet.
+	 */
+	public synchronized Date getLastRun() {
+		return lastRun > 0 ? new Date(lastRun) : null;
+	}
+
+	/**
+	 * Returns the duration of the last execution in milliseconds, or -1
+	 * if no execution is finished yet.
+	 */
+	public synchronized long getLastDuration() {
+		return lastDuration;
+	}
+
+	public synchronized int getRunCount() {
+		return runCount;
+	}
+
+	public synchronized int getRunningCount() {
+		return runningCount;
+	}
+
+	public synchronized int getSkipCount() {
+		return skipCount;
+	}
+
+	public synchronized int getMisfireCount() {
+		return misfireCount;
+	}
+
+	// ----- interface StatusInfo -----
+	@Override
+	public Object getStatusProperty(String key) {
+
+		if (LAST_RUN.equals(key)) {
+
+			return getLastRun();
+
+		} else if (LAST_DURATION.equals(key)) {
+
+			return getLastDuration();
+
+		} else if (NEXT_RUN.equals(key)) {
+
+			return new Date(getNextExecutionTime());
+
+		} else if (RUN_COUNT.equals(key)) {
+
+			return getRunCount();
+
+		} else if (RUNNING_COUNT.equals(key)) {
+
+			return getRunningCount();
+
+		} else if (SKIP_COUNT.equals(key)) {
+
+			return getSkipCount();
+
+		} else if (MISFIRE_COUNT.equals(key)) {
+
+			return getMisfireCount();
+		}
+
+		return null;
 	}
 
 	public CronField getSeconds() {
@@ -403,12 +651,7 @@ public class CronEntry implements Delayed {
 	// ----- interface Delayed -----
 	@Override
 	public long getDelay(TimeUnit unit) {
-
-		long next = TimeUnit.MILLISECONDS.convert(getDelayToNextExecutionInMillis(), unit);
-
-		logger.log(Level.INFO, "{0} ms until start of task {1}", new Object[] { next, name });
-
-		return next;
+		return unit.convert(getNextExecutionTime() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
 	}
 
 	//~--- set methods ----------------------------------------------------
@@ -440,4 +683,18 @@ public class CronEntry implements Delayed {
 	public void setName(String name) {
 		this.name = name;
 	}
+
+	public synchronized void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Resolves the task class of this entry.
+	 *
+	 * @param taskClass
+	 * @throws NoSuchMethodException if the task class has no default constructor
+	 */
+	public void setTaskClass(Class<? extends Task> taskClass) throws NoSuchMethodException {
+		this.taskFactory = taskClass.getConstructor();
+	}
 }
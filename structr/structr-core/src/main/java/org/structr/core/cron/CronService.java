@@ -16,41 +16,64 @@
  *  You should have received a copy of the GNU General Public License
  *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.structr.core.cron;
 
-import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.RunnableService;
 import org.structr.core.Services;
+import org.structr.core.agent.AddTaskListenerCommand;
 import org.structr.core.agent.ProcessTaskCommand;
 import org.structr.core.agent.Task;
+import org.structr.core.agent.TaskListener;
 
 /**
  * A service that keeps track of registered tasks and runs
  * them at their scheduled time.
  *
+ * The next execution time of each entry is computed once after each
+ * execution, and the service sleeps until the earliest entry is due.
+ * What happens if an entry is due while its previous task is still
+ * running is controlled by its {@link CronEntry.Policy}, which can be
+ * configured with <code>&lt;task&gt;.policy</code>. Executions that were
+ * missed (e.g. because of a long GC pause or a suspended machine) are
+ * not repeated, the task is started once and the entry is rescheduled
+ * from the current time.
+ *
  * @author Christian Morgner
  */
-public class CronService extends Thread implements RunnableService {
+public class CronService extends Thread implements RunnableService, TaskListener {
 
 	private static final Logger logger           = Logger.getLogger(CronService.class.getName());
 
 	public static final String   TASKS             = "CronService.tasks";
 	public static final String   EXPRESSION_SUFFIX = ".cronExpression";
+	public static final String   POLICY_SUFFIX     = ".policy";
 	public static final TimeUnit GRANULARITY_UNIT  = TimeUnit.SECONDS;
 	public static final long     GRANULARITY       = 1;
 	public static final int      NUM_FIELDS        = 6;
 
-	private SecurityContext securityContext   = SecurityContext.getSuperUserInstance();
-	private LinkedList<CronEntry> cronEntries = new LinkedList<CronEntry>();
-	private boolean doRun = false;
+	// an execution that starts later than this is counted as misfire
+	public static final long     MISFIRE_THRESHOLD = 1000;
+
+	// maximum sleep time, so that changes of the system clock are noticed
+	private static final long    MAX_SLEEP         = TimeUnit.MINUTES.toMillis(1);
+
+	private SecurityContext securityContext          = SecurityContext.getSuperUserInstance();
+	private List<CronEntry> cronEntries              = new LinkedList<CronEntry>();
+	private final Map<Task, CronEntry> runningTasks  = new ConcurrentHashMap<Task, CronEntry>();
+	private final PriorityQueue<CronEntry> schedule  = new PriorityQueue<CronEntry>();
+	private volatile boolean doRun = false;
 
 	public CronService() {
 		super("CronService");
@@ -67,32 +90,134 @@ public class CronService extends Thread implements RunnableService {
 		// sleep 5 seconds more
 		try { Thread.sleep(5000); } catch(InterruptedException iex) { }
 
-		while(doRun) {
+		if(!doRun) {
+			return;
+		}
 
-			// sleep for some time
-			try { Thread.sleep(GRANULARITY_UNIT.toMillis(GRANULARITY)); } catch(InterruptedException iex) { }
+		// get notified when our tasks are finished
+		setTaskListener(true);
+
+		long start = System.currentTimeMillis();
+
+		synchronized(schedule) {
 
 			for(CronEntry entry : cronEntries) {
 
-				if(entry.getDelayToNextExecutionInMillis() < GRANULARITY_UNIT.toMillis(GRANULARITY)) {
-					
-					String taskClassName = entry.getName();
+				entry.schedule(start);
+				schedule.add(entry);
+			}
+		}
 
-					try {
-						Class taskClass = Class.forName(taskClassName);
-						Task task = (Task)taskClass.newInstance();
+		while(doRun) {
 
-						logger.log(Level.FINE, "Starting task {0}", taskClassName);
-						Services.command(securityContext, ProcessTaskCommand.class).execute(task);
+			CronEntry entry = null;
+			long now        = 0;
 
-					} catch(Throwable t) {
-						logger.log(Level.WARNING, "Could not start task {0}: {1}", new Object[] { taskClassName, t.getMessage() } );
-					}
+			synchronized(schedule) {
+
+				entry = schedule.peek();
+				now   = System.currentTimeMillis();
+
+				long delay = (entry != null) ? entry.getNextExecutionTime() - now : MAX_SLEEP;
+
+				if(delay > 0) {
+
+					try { schedule.wait(Math.min(delay, MAX_SLEEP)); } catch(InterruptedException iex) { }
+
+					continue;
 				}
+
+				schedule.poll();
+			}
+
+			long lateness = now - entry.getNextExecutionTime();
+
+			if(lateness > MISFIRE_THRESHOLD) {
+
+				logger.log(Level.INFO, "Cron entry {0} is {1} ms late, starting it once now", new Object[] { entry.getName(), lateness });
+				entry.misfired();
+			}
+
+			if(entry.fire()) {
+
+				startTask(entry);
+
+			} else {
+
+				logger.log(Level.FINE, "Task {0} is still running, policy is {1}", new Object[] { entry.getName(), entry.getPolicy() });
+			}
+
+			synchronized(schedule) {
+
+				// reschedule, starting with the next full second
+				entry.schedule(now - (now % 1000) + 1000);
+				schedule.add(entry);
+			}
+		}
+
+		setTaskListener(false);
+	}
+
+	private void setTaskListener(boolean add) {
+
+		try {
+			Services.command(securityContext, AddTaskListenerCommand.class).execute(this, add);
+
+		} catch(FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Unable to register task listener", fex);
+		}
+	}
+
+	private void startTask(CronEntry entry) {
+
+		String taskName = entry.getName();
+
+		try {
+			Task task = entry.createTask();
+
+			runningTasks.put(task, entry);
+
+			logger.log(Level.FINE, "Starting task {0}", taskName);
+
+			Object accepted = Services.command(securityContext, ProcessTaskCommand.class).execute(task);
+
+			if(Boolean.FALSE.equals(accepted)) {
+
+				logger.log(Level.WARNING, "Task {0} was rejected", taskName);
+
+				runningTasks.remove(task);
+				entry.taskRejected();
 			}
+
+		} catch(Throwable t) {
+
+			logger.log(Level.WARNING, "Could not start task {0}: {1}", new Object[] { taskName, t.getMessage() } );
+			entry.taskRejected();
+		}
+	}
+
+	/**
+	 * Returns the configured cron entries, which provide execution
+	 * statistics through {@link CronEntry#getStatusProperty(java.lang.String)}.
+	 */
+	public List<CronEntry> getCronEntries() {
+		return Collections.unmodifiableList(cronEntries);
+	}
+
+	// ----- interface TaskListener -----
+	@Override
+	public void taskFinished(Task task, long executionTime, boolean success) {
+
+		CronEntry entry = runningTasks.remove(task);
+
+		if(entry != null && entry.taskFinished(executionTime)) {
+
+			// start queued execution
+			startTask(entry);
 		}
 	}
-	
+
 	// ----- interface RunnableService -----
 	@Override
 	public void startService() {
@@ -102,7 +227,12 @@ public class CronService extends Thread implements RunnableService {
 
 	@Override
 	public void stopService() {
+
 		this.doRun = false;
+
+		synchronized(schedule) {
+			schedule.notifyAll();
+		}
 	}
 
 	@Override
@@ -127,12 +257,46 @@ public class CronService extends Thread implements RunnableService {
 
 		for(String task : tasks) {
 
+			if(task.length() == 0) {
+				continue;
+			}
+
 			String expression = (String)context.get(task.concat(EXPRESSION_SUFFIX));
 			if(expression != null) {
 
 				CronEntry entry = CronEntry.parse(task, expression);
 				if(entry != null) {
 
+					try {
+
+						// resolve task class once
+						Class<?> taskClass = Class.forName(task);
+
+						if(!Task.class.isAssignableFrom(taskClass)) {
+
+							logger.log(Level.WARNING, "{0} is not a task, ignoring.", task);
+							continue;
+						}
+
+						entry.setTaskClass(taskClass.asSubclass(Task.class));
+
+					} catch(Throwable t) {
+
+						logger.log(Level.WARNING, "Unable to load task {0}, ignoring: {1}", new Object[] { task, t.getMessage() });
+						continue;
+					}
+
+					String policy = (String)context.get(task.concat(POLICY_SUFFIX));
+					if(policy != null) {
+
+						try {
+							entry.setPolicy(CronEntry.Policy.valueOf(policy.trim()));
+
+						} catch(IllegalArgumentException iaex) {
+							logger.log(Level.WARNING, "Invalid policy {0} for task {1}, using {2}.", new Object[] { policy, task, entry.getPolicy() });
+						}
+					}
+
 					logger.log(Level.INFO, "Adding cron entry {0}", entry);
 					
 					cronEntries.add(entry);
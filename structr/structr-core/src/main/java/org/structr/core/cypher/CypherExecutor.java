@@ -0,0 +1,425 @@
+/*
+ *  Copyright (C) 2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.cypher;
+
+import org.neo4j.cypher.ExecutionEngine;
+import org.neo4j.cypher.ExecutionPlan;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.helpers.collection.ClosableIterator;
+
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.StreamingResult;
+import org.structr.core.agent.StatusInfo;
+import org.structr.core.node.NodeFactory;
+import org.structr.core.node.RelationshipFactory;
+
+import scala.Tuple2;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Executes Cypher queries on a single, shared execution engine, so that the
+ * execution plans cached by the engine survive across queries. The engine
+ * keeps the plans of the 100 most recently used query strings, so queries
+ * should pass their variable parts as parameters instead of splicing them
+ * into the query string.
+ *
+ * Results are streamed, i.e. nodes and relationships are instantiated while
+ * the result is consumed. Execution time and result size are recorded per
+ * query string when a result has been consumed.
+ *
+ * @author Christian Morgner
+ */
+public class CypherExecutor implements StatusInfo {
+
+	public static final String STATUS_QUERIES    = "queries";
+	public static final String STATUS_STATISTICS = "statistics";
+	private static final int MAX_STATISTICS      = 1000;
+	private static final Logger logger           = Logger.getLogger(CypherExecutor.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private final Map<String, QueryStatistics> statistics = new ConcurrentHashMap<String, QueryStatistics>();
+	private ExecutionEngine engine                        = null;
+	private GraphDatabaseService graphDb                  = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public CypherExecutor(final GraphDatabaseService graphDb) {
+
+		this.graphDb = graphDb;
+		this.engine  = new ExecutionEngine(graphDb);
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Executes the given query and returns a result that instantiates the
+	 * nodes and relationships of all columns while it is consumed.
+	 *
+	 * @param securityContext
+	 * @param query
+	 * @param parameters the query parameters, or null
+	 * @param includeDeletedAndHidden
+	 * @param publicOnly
+	 * @return
+	 */
+	public StreamingResult execute(final SecurityContext securityContext, final String query, final Map<String, Object> parameters, final boolean includeDeletedAndHidden,
+				       final boolean publicOnly) {
+
+		long start                   = System.nanoTime();
+		ExecutionResult result       = execute(query, parameters);
+		GraphObjectIterator iterator = new GraphObjectIterator(securityContext, query, result, includeDeletedAndHidden, publicOnly, start);
+
+		return new StreamingResult(iterator, null, true, false);
+
+	}
+
+	/**
+	 * Executes the given query. The plan cache of the execution engine is
+	 * not thread-safe, so plans are looked up one at a time. Executing the
+	 * plan and reading the result are not synchronized.
+	 *
+	 * @param query
+	 * @param parameters the query parameters, or null
+	 * @return
+	 */
+	public ExecutionResult execute(final String query, final Map<String, Object> parameters) {
+
+		ExecutionPlan plan = null;
+
+		synchronized (engine) {
+
+			plan = engine.prepare(query);
+
+		}
+
+		return new ExecutionResult(plan.execute(toScalaMap(parameters)));
+
+	}
+
+	private static scala.collection.immutable.Map<String, Object> toScalaMap(final Map<String, Object> parameters) {
+
+		scala.collection.immutable.Map<String, Object> map = new scala.collection.immutable.HashMap<String, Object>();
+
+		if (parameters != null) {
+
+			for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+
+				map = map.$plus(new Tuple2<String, Object>(entry.getKey(), entry.getValue()));
+			}
+
+		}
+
+		return map;
+
+	}
+
+	public void clearStatistics() {
+
+		statistics.clear();
+
+	}
+
+	private void record(final String query, final long nanos, final long rows) {
+
+		QueryStatistics stats = statistics.get(query);
+
+		if (stats == null) {
+
+			if (statistics.size() >= MAX_STATISTICS) {
+
+				return;
+			}
+
+			stats = new QueryStatistics();
+
+			statistics.put(query, stats);
+
+		}
+
+		stats.record(nanos, rows);
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	public GraphDatabaseService getGraphDatabase() {
+
+		return graphDb;
+
+	}
+
+	/**
+	 * Returns the statistics of all queries executed so far, mapped to the
+	 * query string.
+	 *
+	 * @return
+	 */
+	public Map<String, QueryStatistics> getStatistics() {
+
+		return Collections.unmodifiableMap(statistics);
+
+	}
+
+	@Override
+	public Object getStatusProperty(final String key) {
+
+		if (STATUS_QUERIES.equals(key)) {
+
+			return statistics.size();
+
+		} else if (STATUS_STATISTICS.equals(key)) {
+
+			return getStatistics();
+		}
+
+		return null;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Execution statistics of a single query string.
+	 */
+	public static class QueryStatistics {
+
+		private final AtomicLong count      = new AtomicLong(0);
+		private final AtomicLong maxNanos   = new AtomicLong(0);
+		private final AtomicLong rows       = new AtomicLong(0);
+		private final AtomicLong totalNanos = new AtomicLong(0);
+
+		//~--- methods --------------------------------------------------------
+
+		private void record(final long nanos, final long resultRows) {
+
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			rows.addAndGet(resultRows);
+
+			long max = maxNanos.get();
+
+			while ((nanos > max) &&!maxNanos.compareAndSet(max, nanos)) {
+
+				max = maxNanos.get();
+			}
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public long getCount() {
+
+			return count.get();
+
+		}
+
+		public long getRows() {
+
+			return rows.get();
+
+		}
+
+		/**
+		 * @return the total execution time in milliseconds
+		 */
+		public double getTotalTime() {
+
+			return totalNanos.get() / 1000000.0;
+
+		}
+
+		/**
+		 * @return the average execution time in milliseconds
+		 */
+		public double getAverageTime() {
+
+			long executions = count.get();
+
+			return (executions > 0)
+			       ? getTotalTime() / executions
+			       : 0.0;
+
+		}
+
+		/**
+		 * @return the maximum execution time in milliseconds
+		 */
+		public double getMaxTime() {
+
+			return maxNanos.get() / 1000000.0;
+
+		}
+
+	}
+
+
+	/**
+	 * Iterates over all columns of all rows of a Cypher result and
+	 * instantiates the nodes and relationships found there. Other values
+	 * are skipped.
+	 */
+	private class GraphObjectIterator implements ClosableIterator<GraphObject> {
+
+		private NodeFactory nodeFactory                 = new NodeFactory();
+		private Iterator<Map<String, Object>> rows      = null;
+		private Iterator<String> columns                = null;
+		private Map<String, Object> row                 = null;
+		private boolean includeDeletedAndHidden         = false;
+		private boolean publicOnly                      = false;
+		private boolean closed                          = false;
+		private GraphObject next                        = null;
+		private List<String> columnNames                = null;
+		private RelationshipFactory relationshipFactory = null;
+		private SecurityContext securityContext         = null;
+		private String query                            = null;
+		private long count                              = 0;
+		private long start                              = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public GraphObjectIterator(final SecurityContext securityContext, final String query, final ExecutionResult result, final boolean includeDeletedAndHidden,
+					   final boolean publicOnly, final long start) {
+
+			this.relationshipFactory     = new RelationshipFactory(securityContext);
+			this.securityContext         = securityContext;
+			this.query                   = query;
+			this.rows                    = result.iterator();
+			this.columnNames             = result.columns();
+			this.includeDeletedAndHidden = includeDeletedAndHidden;
+			this.publicOnly              = publicOnly;
+			this.start                   = start;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public boolean hasNext() {
+
+			while ((next == null) &&!closed) {
+
+				if ((columns == null) ||!columns.hasNext()) {
+
+					if (!rows.hasNext()) {
+
+						close();
+
+						break;
+
+					}
+
+					row     = rows.next();
+					columns = columnNames.iterator();
+
+					continue;
+
+				}
+
+				next = create(row.get(columns.next()));
+
+			}
+
+			return next != null;
+
+		}
+
+		@Override
+		public GraphObject next() {
+
+			if (!hasNext()) {
+
+				throw new NoSuchElementException();
+			}
+
+			GraphObject ret = next;
+
+			next = null;
+
+			count++;
+
+			return ret;
+
+		}
+
+		@Override
+		public void remove() {
+
+			throw new UnsupportedOperationException("Removal not supported.");
+
+		}
+
+		@Override
+		public void close() {
+
+			if (!closed) {
+
+				closed = true;
+
+				record(query, System.nanoTime() - start, count);
+
+			}
+
+		}
+
+		private GraphObject create(final Object value) {
+
+			try {
+
+				if (value instanceof Node) {
+
+					return nodeFactory.createNode(securityContext, (Node) value, includeDeletedAndHidden, publicOnly);
+
+				} else if (value instanceof Relationship) {
+
+					return relationshipFactory.createRelationship(securityContext, (Relationship) value);
+				}
+
+			} catch (FrameworkException fex) {
+
+				logger.log(Level.WARNING, "Unable to instantiate Cypher result", fex);
+
+			}
+
+			return null;
+
+		}
+
+	}
+
+}
@@ -25,6 +25,7 @@ import org.structr.common.PropertyKey;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
+import org.structr.core.Result;
 import org.structr.core.Services;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.node.CypherQueryCommand;
@@ -118,7 +119,9 @@ public class CypherQuery {
 	}
 	
 	public List<AbstractNode> execute() throws FrameworkException {
-		return (List<AbstractNode>)cypherQueryCommand.execute(toString(), getParameters(), includeHiddenAndDeleted, publicOnly);
+		Result result = (Result)cypherQueryCommand.execute(toString(), getParameters(), includeHiddenAndDeleted, publicOnly);
+		
+		return (List<AbstractNode>)(List)result.getResults();
 	}
 	
 	@Override
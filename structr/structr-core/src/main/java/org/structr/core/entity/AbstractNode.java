@@ -46,7 +46,7 @@ import org.structr.core.Command;
 import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
 import org.structr.core.IterableAdapter;
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.structr.core.PropertyGroup;
 import org.structr.core.Services;
 import org.structr.core.Value;
@@ -120,11 +120,15 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 	protected Map<String, Object> cachedConvertedProperties  = new LinkedHashMap<String, Object>();
 	protected Map<String, Object> cachedRawProperties        = new LinkedHashMap<String, Object>();
+	private boolean sharedRawProperties                      = false;
 	private List<AbstractRelationship> allRelationships      = null;
 	protected Principal cachedOwnerNode                      = null;
 	private List<AbstractRelationship> incomingRelationships = null;
 	private List<AbstractRelationship> outgoingRelationships = null;
 
+	// memoized related nodes, see RelationClass#getRelatedNodeIterable
+	private Map<RelationClass, RelatedNodes> relatedNodesCache = null;
+
 	// request parameters
 	protected SecurityContext securityContext                     = null;
 	private Map<Long, AbstractRelationship> securityRelationships = null;
@@ -206,6 +210,35 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 		this.securityContext = securityContext;
 	}
 
+	/**
+	 * Initializes this node with a map of raw property values that is
+	 * shared with other instances of the same database node, e.g. from
+	 * the entity cache. The map must be thread-safe.
+	 *
+	 * @param securityContext
+	 * @param dbNode
+	 * @param rawProperties
+	 */
+	public final void init(final SecurityContext securityContext, final Node dbNode, final Map<String, Object> rawProperties) {
+
+		init(securityContext, dbNode);
+
+		this.cachedRawProperties = rawProperties;
+		this.sharedRawProperties = true;
+	}
+
+	/**
+	 * Replaces the shared raw property map with an empty private one. Inside
+	 * a transaction, values read from the database may be uncommitted, so
+	 * they must not be published to other threads, and the shared values may
+	 * be older than this transaction's own modifications.
+	 */
+	private void detachRawProperties() {
+
+		this.cachedRawProperties = new LinkedHashMap<String, Object>();
+		this.sharedRawProperties = false;
+	}
+
 	private void init(final SecurityContext securityContext, final AbstractNode node) {
 
 		init(securityContext, node.dbNode);
@@ -570,6 +603,8 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 			});
 
+			EntityContext.nodePropertyWritten(this, key);
+
 		}
 
 	}
@@ -922,6 +957,11 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 			return null;
 		}
 
+		if (sharedRawProperties &&!NodeService.getEntityCache().isEnabled()) {
+
+			detachRawProperties();
+		}
+
 		value          = applyConverter ? cachedConvertedProperties.get(key) : cachedRawProperties.get(key);
 		Class type            = this.getClass();
 		boolean dontCache     = false;
@@ -937,11 +977,23 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 				return propertyGroup.getGroupedProperties(this);
 			}
 
-			if (dbNode.hasProperty(key)) {
+			Object cachedRawValue = applyConverter ? cachedRawProperties.get(key) : null;
+
+			if (cachedRawValue != null) {
+
+				value = cachedRawValue;
+
+			} else if (dbNode.hasProperty(key)) {
 
 				if ((key != null) && (dbNode != null)) {
 
 					value = dbNode.getProperty(key);
+
+					// raw values are safe to share, converted values may depend on the security context
+					if (applyConverter && value != null) {
+
+						cachedRawProperties.put(key, value);
+					}
 				}
 
 			} else {
@@ -959,7 +1011,7 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 						case ManyToMany :
 						case OneToMany :
-							value     = new IterableAdapter(rel.getRelatedNodes(securityContext, this), notion.getAdapterForGetter(securityContext));
+							value     = new IterableAdapter(rel.getRelatedNodeIterable(securityContext, this), notion.getAdapterForGetter(securityContext));
 							dontCache = true;
 							break;
 
@@ -996,15 +1048,13 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 			if(applyConverter) {
 
 				// apply property converters
-				PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+				StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 
 				if (converter != null) {
 
 					Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
 
-					converter.setCurrentObject(this);
-
-					value = converter.convertForGetter(value, conversionValue);
+					value = converter.convertForGetter(securityContext, this, value, conversionValue);
 
 				}
 			}
@@ -1016,7 +1066,7 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 					
 					cachedConvertedProperties.put(key, value);
 					
-				} else {
+				} else if (value != null) {
 					
 					cachedRawProperties.put(key, value);
 				}
@@ -1278,13 +1328,11 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 		Class type = getClass();
 		
 		// check property converter
-		PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+		StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 		if (converter != null) {
 			
 			Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
-			converter.setCurrentObject(this);
-
-			return converter.convertForSorting(propertyValue, conversionValue);
+			return converter.convertForSorting(securityContext, this, propertyValue, conversionValue);
 		}
 		
 		// conversion failed, may the property value itself is comparable
@@ -1352,6 +1400,35 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 	}
 
+	/**
+	 * Returns the number of nodes related to this node over the given
+	 * property, without instantiating them (and without checking
+	 * whether they are readable).
+	 *
+	 * @param propertyKey
+	 * @return
+	 */
+	public int getRelatedNodeCount(PropertyKey propertyKey) {
+
+		RelationClass rc = EntityContext.getRelationClassForProperty(getClass(), propertyKey.name());
+
+		if (rc != null) {
+
+			return rc.getRelatedNodeCount(this);
+		}
+
+		return 0;
+
+	}
+
+	RelatedNodes getCachedRelatedNodes(final RelationClass relationClass) {
+
+		return (relatedNodesCache != null)
+		       ? relatedNodesCache.get(relationClass)
+		       : null;
+
+	}
+
 	@Override
 	public boolean getBooleanProperty(final String key) {
 
@@ -1386,6 +1463,12 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 	}
 
+	public SecurityContext getSecurityContext() {
+
+		return securityContext;
+
+	}
+
 	/**
 	 * Return the (cached) incoming relationship between this node and the
 	 * given principal which holds the security information.
@@ -1714,24 +1797,47 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 			return true;
 		}
 
-		AbstractRelationship r = getSecurityRelationship(principal);
+		PermissionCache permissionCache = NodeService.getPermissionCache();
+		long principalId                = principal.getId();
+		long nodeId                     = getId();
+		Boolean cachedResult            = permissionCache.isGranted(nodeId, principalId, permission);
 
-		if ((r != null) && r.isAllowed(permission)) {
+		if (cachedResult != null) {
 
-			return true;
+			return cachedResult;
 		}
 
-		// Now check possible parent principals
-		for (Principal parent : principal.getParents()) {
+		long generation = permissionCache.getGeneration();
+		boolean granted = false;
+
+		// read the security relationships of this node only once
+		populateSecurityRelationshipCacheMap();
 
-			if (isGranted(permission, parent)) {
+		// check the principal and all of its (flattened) parent principals
+		for (Long id : permissionCache.getPrincipalIds(principal)) {
 
-				return true;
+			// a group has full control over its own node, too
+			if (id.longValue() == nodeId) {
+
+				granted = true;
+
+				break;
+			}
+
+			AbstractRelationship r = securityRelationships.get(id);
+
+			if ((r != null) && r.isAllowed(permission)) {
+
+				granted = true;
+
+				break;
 			}
 
 		}
 
-		return false;
+		permissionCache.put(nodeId, principalId, permission, granted, generation);
+
+		return granted;
 
 	}
 
@@ -1836,6 +1942,17 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 	//~--- set methods ----------------------------------------------------
 
+	void setCachedRelatedNodes(final RelationClass relationClass, final RelatedNodes relatedNodes) {
+
+		if (relatedNodesCache == null) {
+
+			relatedNodesCache = new HashMap<RelationClass, RelatedNodes>();
+		}
+
+		relatedNodesCache.put(relationClass, relatedNodes);
+
+	}
+
 	public void setCreatedBy(final String createdBy) throws FrameworkException {
 
 		setProperty(Key.createdBy.name(), createdBy);
@@ -2085,16 +2202,14 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 		} else {
 
-			PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+			StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 			final Object convertedValue;
 
 			if (converter != null) {
 
 				Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
 
-				converter.setCurrentObject(this);
-
-				convertedValue = converter.convertForSetter(value, conversionValue);
+				convertedValue = converter.convertForSetter(securityContext, this, value, conversionValue);
 
 			} else {
 
@@ -2166,6 +2281,8 @@ public abstract class AbstractNode implements GraphObject, Comparable<AbstractNo
 
 				// execute transaction
 				Services.command(securityContext, TransactionCommand.class).execute(transaction);
+				EntityContext.nodePropertyWritten(this, key);
+				EntityContext.nodePropertyWritten(this, Key.lastModifiedDate.name());
 			}
 
 		}
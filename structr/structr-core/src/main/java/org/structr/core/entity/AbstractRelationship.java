@@ -40,7 +40,7 @@ import org.structr.common.error.ReadOnlyPropertyToken;
 import org.structr.core.Command;
 import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.structr.core.PropertyGroup;
 import org.structr.core.Services;
 import org.structr.core.Value;
@@ -306,6 +306,7 @@ public abstract class AbstractRelationship implements GraphObject, Comparable<Ab
 	public void removeProperty(final String key) {
 
 		dbRelationship.removeProperty(key);
+		EntityContext.relationshipPropertyWritten(this, key);
 
 	}
 
@@ -528,15 +529,13 @@ public abstract class AbstractRelationship implements GraphObject, Comparable<Ab
 			if(applyConverter) {
 
 				// apply property converters
-				PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+				StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 
 				if (converter != null) {
 
 					Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
 
-					converter.setCurrentObject(this);
-
-					value = converter.convertForGetter(value, conversionValue);
+					value = converter.convertForGetter(securityContext, this, value, conversionValue);
 
 				}
 			}
@@ -809,13 +808,11 @@ public abstract class AbstractRelationship implements GraphObject, Comparable<Ab
 		Class type = getClass();
 		
 		// check property converter
-		PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+		StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 		if (converter != null) {
 			
 			Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
-			converter.setCurrentObject(this);
-
-			return converter.convertForSorting(propertyValue, conversionValue);
+			return converter.convertForSorting(securityContext, this, propertyValue, conversionValue);
 		}
 		
 		// conversion failed, may the property value itself is comparable
@@ -1160,16 +1157,14 @@ public abstract class AbstractRelationship implements GraphObject, Comparable<Ab
 
 		}
 
-		PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+		StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 		final Object convertedValue;
 
 		if (converter != null) {
 
 			Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
 
-			converter.setCurrentObject(this);
-
-			convertedValue = converter.convertForSetter(value, conversionValue);
+			convertedValue = converter.convertForSetter(securityContext, this, value, conversionValue);
 
 		} else {
 
@@ -1219,6 +1214,7 @@ public abstract class AbstractRelationship implements GraphObject, Comparable<Ab
 
 		// execute transaction
 		Services.command(securityContext, TransactionCommand.class).execute(transaction);
+		EntityContext.relationshipPropertyWritten(this, key);
 
 		// clear cached property
 		cachedConvertedProperties.remove(key);
@@ -99,6 +99,14 @@ public class File extends AbstractNode implements Linkable {
 				toDelete.delete();
 			}
 
+			// compressed variant created on delivery
+			java.io.File gzipVariant = new java.io.File(toDelete.getPath() + ".gz");
+
+			if (gzipVariant.isFile()) {
+
+				gzipVariant.delete();
+			}
+
 		} catch (Throwable t) {
 
 			logger.log(Level.WARNING, "Exception while trying to delete file {0}: {1}", new Object[] { getFileLocation(), t });
@@ -123,15 +131,13 @@ public class File extends AbstractNode implements Linkable {
 
 	public long getSize() {
 
-		String relativeFilePath = getRelativeFilePath();
+		java.io.File fileOnDisk = getFileOnDisk();
 
-		if (relativeFilePath != null) {
+		if (fileOnDisk != null) {
 
-			String filePath         = Services.getFilePath(Path.Files, relativeFilePath);
-			java.io.File fileOnDisk = new java.io.File(filePath);
-			long fileSize           = fileOnDisk.length();
+			long fileSize = fileOnDisk.length();
 
-			logger.log(Level.FINE, "File size of node {0} ({1}): {2}", new Object[] { getId(), filePath, fileSize });
+			logger.log(Level.FINE, "File size of node {0} ({1}): {2}", new Object[] { getId(), fileOnDisk.getPath(), fileSize });
 
 			return fileSize;
 
@@ -141,6 +147,24 @@ public class File extends AbstractNode implements Linkable {
 
 	}
 
+	/**
+	 * Returns the file on disk that holds the content of this node.
+	 *
+	 * @return the file, or null if this node has no relative file path
+	 */
+	public java.io.File getFileOnDisk() {
+
+		String relativeFilePath = getRelativeFilePath();
+
+		if (relativeFilePath != null) {
+
+			return new java.io.File(Services.getFilePath(Path.Files, relativeFilePath));
+		}
+
+		return null;
+
+	}
+
 	public Long getChecksum() {
 
 		Long storedChecksum = getLongProperty(Key.checksum);
@@ -24,10 +24,13 @@ package org.structr.core.entity;
 import org.apache.commons.io.FileUtils;
 
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
 
 import org.structr.common.PropertyKey;
 import org.structr.common.PropertyView;
 import org.structr.common.RelType;
+import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.EntityContext;
@@ -37,6 +40,8 @@ import org.structr.core.node.CreateNodeCommand;
 import org.structr.core.node.CreateRelationshipCommand;
 import org.structr.core.node.DeleteNodeCommand;
 import org.structr.core.node.DeleteRelationshipCommand;
+import org.structr.core.node.FindNodeCommand;
+import org.structr.core.node.GraphDatabaseCommand;
 import org.structr.core.node.NodeAttribute;
 import org.structr.core.node.StructrTransaction;
 import org.structr.core.node.TransactionCommand;
@@ -48,10 +53,14 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.ImageHelper;
 import org.structr.common.ImageHelper.Thumbnail;
+import org.structr.common.ThumbnailService;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -206,10 +215,141 @@ public class Image extends File {
 	 */
 	public Image getScaledImage(final int maxWidth, final int maxHeight, final boolean cropToFit) {
 
+		return getScaledImage(maxWidth, maxHeight, cropToFit, true);
+
+	}
+
+	/**
+	 * Get (down-)scaled image of this image
+	 *
+	 * Thumbnails are created by the {@link ThumbnailService}. If blocking is false and the
+	 * requested thumbnail doesn't exist yet, its creation is scheduled and null is returned,
+	 * so that the caller can render a placeholder until the thumbnail is ready.
+	 *
+	 * Inside a transaction, the thumbnail is created on the calling thread, because a
+	 * worker would have to wait for the locks held by the caller.
+	 *
+	 * @maxWidth
+	 * @maxHeight
+	 * @cropToFit if true, scale down until the shorter edge fits inside the rectangle, and then crop
+	 * @blocking if false, don't wait for the thumbnail to be created
+	 *
+	 * @return
+	 */
+	public Image getScaledImage(final int maxWidth, final int maxHeight, final boolean cropToFit, final boolean blocking) {
+
+		Image thumbnail = findThumbnail(maxWidth, maxHeight);
+
+		if (thumbnail != null) {
+
+			return thumbnail;
+		}
+
+		if (isInTransaction()) {
+
+			return blocking
+			       ? createThumbnail(maxWidth, maxHeight, cropToFit)
+			       : null;
+
+		}
+
+		// the worker only gets the id and loads its own instance of this image
+		final long imageId   = getId();
+		String key           = imageId + "_" + maxWidth + "x" + maxHeight + (cropToFit
+			? "_crop"
+			: "");
+		Future<Image> future = ThumbnailService.submit(key, new Callable<Image>() {
+
+			@Override
+			public Image call() throws Exception {
+
+				Image image = (Image) Services.command(SecurityContext.getSuperUserInstance(), FindNodeCommand.class).execute(imageId);
+
+				return (image != null)
+				       ? image.createThumbnail(maxWidth, maxHeight, cropToFit)
+				       : null;
+
+			}
+
+		});
+
+		if (future == null) {
+
+			// thumbnail queue is full
+			return blocking
+			       ? createThumbnail(maxWidth, maxHeight, cropToFit)
+			       : null;
+
+		}
+
+		if (!blocking &&!future.isDone()) {
+
+			return null;
+		}
+
+		try {
+
+			thumbnail = future.get();
+
+		} catch (InterruptedException iex) {
+
+			logger.log(Level.WARNING, "Interrupted while waiting for thumbnail of {0}", getName());
+			Thread.currentThread().interrupt();
+
+		} catch (ExecutionException eex) {
+
+			logger.log(Level.WARNING, "Unable to create thumbnail", eex.getCause());
+
+		}
+
+		if (thumbnail == null) {
+
+			return null;
+		}
+
+		// thumbnail was created by a worker, reload it in our own security context
+		thumbnailRelationships = null;
+
+		Image ownThumbnail = findThumbnail(maxWidth, maxHeight);
+
+		return (ownThumbnail != null)
+		       ? ownThumbnail
+		       : thumbnail;
+
+	}
+
+	/**
+	 * Returns true if the current thread is inside a transaction.
+	 */
+	private boolean isInTransaction() {
+
+		try {
+
+			GraphDatabaseService graphDb = (GraphDatabaseService) Services.command(securityContext, GraphDatabaseCommand.class).execute();
+
+			return ((GraphDatabaseAPI) graphDb).getTxManager().getTransaction() != null;
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to determine transaction state", t);
+
+		}
+
+		// don't risk waiting for a worker
+		return true;
+
+	}
+
+	/**
+	 * Returns an existing thumbnail of the requested size, if it is not
+	 * older than this image.
+	 */
+	private Image findThumbnail(final int maxWidth, final int maxHeight) {
+
 		thumbnailRelationships = getThumbnailRelationships();
 
 		Image thumbnail           = null;
-		final Image originalImage = this;
+		Image originalImage       = this;
 		Integer origWidth         = originalImage.getWidth();
 		Integer origHeight        = originalImage.getHeight();
 
@@ -252,9 +392,40 @@ public class Image extends File {
 
 		}
 
+		return null;
+
+	}
+
+	/**
+	 * Creates a thumbnail of the given size. The image data is scaled
+	 * outside of the transaction, which only creates the thumbnail node.
+	 */
+	private Image createThumbnail(final int maxWidth, final int maxHeight, final boolean cropToFit) {
+
+		// another thread might have created the thumbnail in the meantime
+		thumbnailRelationships = null;
+
+		Image thumbnail = findThumbnail(maxWidth, maxHeight);
+
+		if (thumbnail != null) {
+
+			return thumbnail;
+		}
+
 		// No thumbnail exists, or thumbnail is too old, so let's create a new one
 		logger.log(Level.INFO, "Creating thumbnail for {0}", getName());
 
+		final Image originalImage     = this;
+		final Thumbnail thumbnailData = ImageHelper.createThumbnail(getInputStream(), maxWidth, maxHeight, cropToFit);
+
+		if (thumbnailData == null) {
+
+			logger.log(Level.WARNING, "Could not create thumbnail for image {0} ({1})", new Object[] { getName(), getId() });
+
+			return null;
+
+		}
+
 		try {
 
 			Command transactionCommand = Services.command(securityContext, TransactionCommand.class);
@@ -274,67 +445,58 @@ public class Image extends File {
 					NodeAttribute isPublicAttr                       = new NodeAttribute(AbstractNode.Key.visibleToPublicUsers.name(), originalImage.getVisibleToPublicUsers());
 					NodeAttribute isVisibleForAuthenticatedUsersAttr = new NodeAttribute(AbstractNode.Key.visibleToAuthenticatedUsers.name(),
 												   originalImage.getVisibleToAuthenticatedUsers());
-					Thumbnail thumbnailData = ImageHelper.createThumbnail(originalImage, maxWidth, maxHeight, cropToFit);
-
-					if (thumbnailData != null) {
-
-						// create thumbnail node
-						// Image thumbnail = (Image) createNode.execute(user,
-						Image thumbnail = (Image) createNode.execute(originalImage.getOwnerNode(),                                    // Same owner as original image
-							typeAttr, contentTypeAttr, isHiddenAttr, isPublicAttr, isVisibleForAuthenticatedUsersAttr, false);    // Don't index thumbnails
-
-						if (thumbnail != null) {
 
-							// Create a thumbnail relationship
-							AbstractRelationship thumbnailRelationship = (AbstractRelationship) createRel.execute(originalImage, thumbnail, RelType.THUMBNAIL);
+					// Update image dimensions
+					originalImage.setWidth(thumbnailData.getSourceWidth());
+					originalImage.setHeight(thumbnailData.getSourceHeight());
 
-							// Add to cache list
-							thumbnailRelationships.add(thumbnailRelationship);
+					// create thumbnail node
+					// Image thumbnail = (Image) createNode.execute(user,
+					Image thumbnail = (Image) createNode.execute(originalImage.getOwnerNode(),                                    // Same owner as original image
+						typeAttr, contentTypeAttr, isHiddenAttr, isPublicAttr, isVisibleForAuthenticatedUsersAttr, false);    // Don't index thumbnails
 
-							// determine properties
-							String relativeFilePath = thumbnail.getId() + "_" + System.currentTimeMillis();
-							String path             = Services.getFilesPath() + "/" + relativeFilePath;
-							java.io.File imageFile  = new java.io.File(path);
+					if (thumbnail != null) {
 
-							try {
+						// Create a thumbnail relationship
+						AbstractRelationship thumbnailRelationship = (AbstractRelationship) createRel.execute(originalImage, thumbnail, RelType.THUMBNAIL);
 
-								// copy url to file
-								FileUtils.writeByteArrayToFile(imageFile, thumbnailData.getBytes());
-							} catch (IOException ex) {
+						// determine properties
+						String relativeFilePath = thumbnail.getId() + "_" + System.currentTimeMillis();
+						String path             = Services.getFilesPath() + "/" + relativeFilePath;
+						java.io.File imageFile  = new java.io.File(path);
 
-								logger.log(Level.SEVERE, "Could not write thumbnail data to file", ex);
+						try {
 
-								return null;
+							// copy url to file
+							FileUtils.writeByteArrayToFile(imageFile, thumbnailData.getBytes());
+						} catch (IOException ex) {
 
-							}
-
-							// set size
-							long size = imageFile.length();
-
-							thumbnail.setSize(size);
+							logger.log(Level.SEVERE, "Could not write thumbnail data to file", ex);
 
-							Integer tnWidth  = thumbnailData.getWidth();
-							Integer tnHeight = thumbnailData.getHeight();
+							return null;
 
-							thumbnailRelationship.setProperty(Key.width.name(), tnWidth);
-							thumbnailRelationship.setProperty(Key.height.name(), tnHeight);
+						}
 
-							// set local file url
-							thumbnail.setRelativeFilePath(relativeFilePath);
+						// set size
+						long size = imageFile.length();
 
-							// Set name to reflect thumbnail size
-							thumbnail.setName(originalImage.getName() + "_thumb_" + tnWidth + "x" + tnHeight);
-						}
+						thumbnail.setSize(size);
 
-						return thumbnail;
-					} else {
+						Integer tnWidth  = thumbnailData.getWidth();
+						Integer tnHeight = thumbnailData.getHeight();
 
-						logger.log(Level.WARNING, "Could not create thumbnail for image {0} ({1})", new Object[] { getName(), getId() });
+						thumbnailRelationship.setProperty(Key.width.name(), tnWidth);
+						thumbnailRelationship.setProperty(Key.height.name(), tnHeight);
 
-						return null;
+						// set local file url
+						thumbnail.setRelativeFilePath(relativeFilePath);
 
+						// Set name to reflect thumbnail size
+						thumbnail.setName(originalImage.getName() + "_thumb_" + tnWidth + "x" + tnHeight);
 					}
 
+					return thumbnail;
+
 				}
 
 			});
@@ -70,12 +70,28 @@ import org.structr.core.Result;
  * Even the size of the list may vary, and this will alter the results of insert
  * and remove methods.
  * </p>
+ * <p>
+ * The size of the list and the ids of every {@link #SEGMENT_SIZE}th node are
+ * stored on the list node itself, so that {@link #size()} runs in constant time
+ * and {@link #get(int)} and {@link #subList(int, int)} need to follow at most
+ * {@link #SEGMENT_SIZE} relationships to reach a position. Positional access is
+ * therefore not logarithmic, but bounded by a constant of 256 hops plus a lookup
+ * in the segment list, regardless of the length of the list. This index describes
+ * the unfiltered list, so it is not used as long as evaluators or a maximum length
+ * are set. Lists that were created without the index are indexed on first access.
+ * </p>
  *
  * @author Christian Morgner
  */
 public class NodeList<T extends AbstractNode> extends AbstractNode implements Iterable<AbstractNode>, Decorable<AbstractNode>, Evaluable {
 
-	private static final Logger logger = Logger.getLogger(NodeList.class.getName());
+	/** The number of list entries per segment of the position index. */
+	public static final int SEGMENT_SIZE = 256;
+
+	private static final String LOCK_PROPERTY     = "listLock";
+	private static final String SEGMENTS_PROPERTY = "listSegments";
+	private static final String SIZE_PROPERTY     = "listSize";
+	private static final Logger logger            = Logger.getLogger(NodeList.class.getName());
 
 	//~--- static initializers --------------------------------------------
 
@@ -87,9 +103,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 	//~--- fields ---------------------------------------------------------
 
 	private Set<Decorator<AbstractNode>> decorators = new LinkedHashSet<Decorator<AbstractNode>>();
-	private Command factory                         = null;
 	private int maxLength                           = -1;
-	private Command transaction                     = null;
 	private Set<Evaluator> evaluators               = new LinkedHashSet<Evaluator>();
 
 	//~--- constant enums -------------------------------------------------
@@ -107,9 +121,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	public NodeList(int maxLength) {
 
-		this.maxLength   = maxLength;
-		this.transaction = Services.command(securityContext, TransactionCommand.class);
-		this.factory     = Services.command(securityContext, NodeFactoryCommand.class);;
+		this.maxLength = maxLength;
 
 	}
 
@@ -119,34 +131,46 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	/**
 	 * Returns the size of this node list. Note that setting or removing evaluators can change
-	 * the value returned by this method. This method will take time proportional to the number
-	 * of elements in the list.
+	 * the value returned by this method. This method runs in constant time if no evaluators
+	 * are set, and takes time proportional to the number of elements in the list otherwise.
 	 *
 	 * @return the size of this list with the current set of evaluators
 	 */
 	public int size() {
 
-		int ret = 0;
+		if (isFiltered()) {
 
-		for (Node node : getRawNodes()) {
+			int ret = 0;
+
+			for (Node node : getRawNodes()) {
+
+				ret++;
+			}
+
+			return (ret);
 
-			ret++;
 		}
 
-		return (ret);
+		return getListIndex().size;
 
 	}
 
 	/**
 	 * Returns an iterator over the elements of this list (according to the current set
-	 * of evaluators).
+	 * of evaluators). If no evaluators are set, the nodes are instantiated while the
+	 * iterator advances.
 	 *
 	 * @return the iterator
 	 */
 	@Override
 	public Iterator<AbstractNode> iterator() {
 
-		return (getNodes().iterator());
+		if (isFiltered()) {
+
+			return (getNodes().iterator());
+		}
+
+		return new NodeIterator(getFirstRawNode(), Integer.MAX_VALUE);
 
 	}
 
@@ -196,7 +220,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 		try {
 
-			Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
+			Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
 				@Override
 				public Object execute() throws FrameworkException {
@@ -234,7 +258,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 		try {
 
-			Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
+			Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
 				@Override
 				public Object execute() throws FrameworkException {
@@ -272,7 +296,9 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	/**
 	 * Adds all the elements in the given collection to this list, applying
-	 * any decorator that is set on this list before addition.
+	 * any decorator that is set on this list before addition. The nodes are
+	 * linked in a single pass, moving the LAST pointer and updating the
+	 * index only once.
 	 *
 	 * @param nodes
 	 * @return
@@ -282,19 +308,146 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 		try {
 
-			Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
+			Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
 				@Override
 				public Object execute() throws FrameworkException {
 
-					boolean ret = false;
+					List<Node> toAdd = decorate(nodes);
+
+					if (toAdd.isEmpty()) {
 
-					for (AbstractNode node : nodes) {
+						return (false);
+					}
+
+					ListIndex index = getListIndexForUpdate();
+					Node rootNode   = getNode();
+					Node lastNode   = getLastRawNode();
+					Node previous   = (lastNode != null)
+							  ? lastNode
+							  : rootNode;
+
+					for (Node node : toAdd) {
+
+						createRelationship(previous, node, RelType.NEXT_LIST_ENTRY);
+
+						if ((index.size % SEGMENT_SIZE) == 0) {
+
+							index.segments.add(node.getId());
+						}
+
+						index.size++;
+
+						previous = node;
 
-						ret |= appendNodeToList(node.getNode());
 					}
 
-					return (ret);
+					deleteRelationship(rootNode, RelType.LAST_LIST_ENTRY, Direction.OUTGOING);
+					createRelationship(rootNode, previous, RelType.LAST_LIST_ENTRY);
+					setListIndex(index);
+
+					return (true);
+
+				}
+
+			});
+
+			return (returnValue.booleanValue());
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Unable to add nodes to this list", fex);
+
+		}
+
+		return false;
+
+	}
+
+	/**
+	 * Inserts all the elements in the given collection at the given position
+	 * (with respect to the evaluators that are currently set on this list),
+	 * applying any decorator that is set on this list before addition. The
+	 * nodes are linked in a single pass, the index is rebuilt from the segment
+	 * that contains the given position.
+	 *
+	 * @param position
+	 * @param nodes
+	 * @return
+	 */
+	public boolean addAll(final int position, final Collection<? extends AbstractNode> nodes) {
+
+		final int size = this.size();
+
+		if ((position < 0) || (position > size)) {
+
+			throw new ArrayIndexOutOfBoundsException();
+		}
+
+		if (position == size) {
+
+			return addAll(nodes);
+		}
+
+		try {
+
+			Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+				@Override
+				public Object execute() throws FrameworkException {
+
+					lockListIndex();
+
+					Node node = getNodeAt(position);
+
+					if (node == null) {
+
+						return (false);
+					}
+
+					List<Node> toInsert = decorate(nodes);
+
+					if (toInsert.isEmpty()) {
+
+						return (false);
+					}
+
+					ListIndex index   = getListIndex();
+					Node previousNode = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.INCOMING);
+					int segment       = findSegment(index, node);
+					Node previous     = previousNode;
+
+					deleteRelationship(previousNode, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+					for (Node newNode : toInsert) {
+
+						createRelationship(previous, newNode, RelType.NEXT_LIST_ENTRY);
+
+						previous = newNode;
+
+					}
+
+					createRelationship(previous, node, RelType.NEXT_LIST_ENTRY);
+
+					if (segment < 0) {
+
+						setListIndex(createListIndex());
+
+					} else {
+
+						// the head of the segment moves only if the nodes were inserted before it
+						Node head = (node.getId() == index.segments.get(segment))
+							    ? toInsert.get(0)
+							    : getNodeById(index.segments.get(segment));
+
+						index.size += toInsert.size();
+
+						reindex(index, segment, head);
+						setListIndex(index);
+
+					}
+
+					return (true);
 
 				}
 
@@ -312,38 +465,6 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	}
 
-//      /**
-//       * Inserts all the elements in the given collection at the given index, applying
-//       * any decorator that is set on this list before addition, respecting any evaluator
-//       * that is currently set on this list.
-//       *
-//       * @param index
-//       * @param nodes
-//       * @return
-//       */
-//      @Override
-//      public boolean addAll(final int index, final Collection<? extends AbstractNode> nodes) {
-//          Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
-//
-//              @Override
-//              public Object execute() throws FrameworkException {
-//                  Node startNode = getNodeAt(index);
-//                  Node nextNode = null;
-//                  boolean ret = false;
-//
-//                  for (AbstractNode toInsert : nodes) {
-//                      nextNode = getRelatedNode(startNode, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
-//
-//                      ret |= insertNodeBefore(nextNode, toInsert.getNode());
-//                  }
-//
-//                  return (ret);
-//              }
-//          });
-//
-//          return (returnValue.booleanValue());
-//      }
-//
 //      /**
 //       * Removes all elements in the given collection from this list.
 //       *
@@ -352,7 +473,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 //       */
 //      @Override
 //      public boolean removeAll(final Collection<?> nodes) {
-//          Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
+//          Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 //
 //              @Override
 //              public Object execute() throws FrameworkException {
@@ -382,7 +503,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 //       */
 //      @Override
 //      public boolean retainAll(final Collection<?> nodes) {
-//          Boolean returnValue = (Boolean) transaction.execute(new StructrTransaction() {
+//          Boolean returnValue = (Boolean) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 //
 //              @Override
 //              public Object execute() throws FrameworkException {
@@ -403,23 +524,36 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	/**
 	 * Clears this list. Due to the fact that this method has to remove all
-	 * elements from the linked list, this method will take time proportional
-	 * to the size of the list, with a relativley large constant factor.
+	 * relationships of the linked list, this method will take time proportional
+	 * to the size of the list.
 	 */
 	public void clear() {
 
 		try {
 
-			transaction.execute(new StructrTransaction() {
+			Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
 				@Override
 				public Object execute() throws FrameworkException {
 
-					for (Node node : getRawNodes()) {
+					Node rootNode = getNode();
+					Node node     = rootNode;
+
+					lockListIndex();
+
+					while (node != null) {
+
+						Node nextNode = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+						deleteRelationship(node, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+						node = nextNode;
 
-						removeNodeFromList(node);
 					}
 
+					deleteRelationship(rootNode, RelType.LAST_LIST_ENTRY, Direction.OUTGOING);
+					setListIndex(new ListIndex());
+
 					return (null);
 
 				}
@@ -434,29 +568,94 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	}
 
-//
-//      /**
-//       * Returns the element at the given index, or null if no element exists,
-//       * with respect to the evaluators that are currently set on this list.
-//       *
-//       * @param index
-//       * @return
-//       */
-//      @Override
-//      public T get(int index) {
-//          if (index < 0 || index >= size()) {
-//              throw new ArrayIndexOutOfBoundsException();
-//          }
-//
-//          Node node = getNodeAt(index);
-//
-//          if (node != null) {
-//              return ((T) factory.execute(node));
-//          }
-//
-//          return (null);
-//      }
-//
+	/**
+	 * Returns the element at the given index, with respect to the evaluators
+	 * that are currently set on this list. If no evaluators are set, this
+	 * method follows at most {@link #SEGMENT_SIZE} relationships.
+	 *
+	 * @param index
+	 * @return the element at the given index, or null if it is not visible
+	 */
+	public AbstractNode get(final int index) {
+
+		if ((index < 0) || (index >= size())) {
+
+			throw new ArrayIndexOutOfBoundsException();
+		}
+
+		Node node = getNodeAt(index);
+
+		try {
+
+			if (node != null) {
+
+				return ((AbstractNode) Services.command(securityContext, NodeFactoryCommand.class).execute(node));
+			}
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Unable to instantiate node", fex);
+
+		}
+
+		return (null);
+
+	}
+
+	/**
+	 * Returns the elements from fromIndex (inclusive) to toIndex (exclusive),
+	 * with respect to the evaluators that are currently set on this list.
+	 * Nodes that are not visible in the current security context are left
+	 * out, so the returned list may contain less elements than requested.
+	 *
+	 * @param fromIndex
+	 * @param toIndex
+	 * @return
+	 */
+	public List<AbstractNode> subList(final int fromIndex, final int toIndex) {
+
+		if ((fromIndex < 0) || (toIndex > size()) || (fromIndex > toIndex)) {
+
+			throw new ArrayIndexOutOfBoundsException();
+		}
+
+		List<AbstractNode> ret = new LinkedList<AbstractNode>();
+
+		if (fromIndex == toIndex) {
+
+			return (ret);
+		}
+
+		if (isFiltered()) {
+
+			int pos = 0;
+
+			for (AbstractNode node : getNodes()) {
+
+				if ((pos >= fromIndex) && (pos < toIndex)) {
+
+					ret.add(node);
+				}
+
+				pos++;
+
+			}
+
+			return (ret);
+
+		}
+
+		Iterator<AbstractNode> iterator = new NodeIterator(getNodeAt(fromIndex), toIndex - fromIndex);
+
+		while (iterator.hasNext()) {
+
+			ret.add(iterator.next());
+		}
+
+		return (ret);
+
+	}
+
 //      /**
 //       * Replaces the element at the given position with the given element, with
 //       * respect to the evaluators that are currently set on this list.
@@ -503,7 +702,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 		try {
 
-			transaction.execute(new StructrTransaction() {
+			Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
 				@Override
 				public Object execute() throws FrameworkException {
@@ -609,26 +808,6 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 //      public ListIterator<AbstractNode> listIterator(int index) {
 //          return getNodeList().listIterator(index);
 //          //throw new UnsupportedOperationException("Bi-directional iteration is not yet supported by this class.");
-//      }
-//
-//      /**
-//       * Returns a sublist of this list, starting at (including) fromIndex,
-//       * ending at (not including) toIndex, with respect to the evaluators that are
-//       * currently set on this list.
-//       *
-//       * @param fromIndex
-//       * @param toIndex
-//       * @return
-//       */
-//      @Override
-//      public List<AbstractNode> subList(int fromIndex, int toIndex) {
-//          //return a new NodeList instance with the given bounds
-//          Node startNode = getNodeAt(fromIndex);
-//          NodeList ret = new NodeList(toIndex - fromIndex);
-//
-//          ret.init(startNode);
-//
-//          return (ret);
 //      }
 	// ----- interface Decorable<T>
 	@Override
@@ -683,7 +862,9 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 	}
 
 	/**
-	 * Removes the given node from this list.
+	 * Removes the given node from this list. The heads of all segments behind
+	 * the removed node move to their successors, which takes time proportional
+	 * to the number of segments.
 	 *
 	 * @param toRemove
 	 * @return true if the list was modified as a result of this operation
@@ -695,10 +876,37 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 		if ((toRemove != null) && isMember(toRemove)) {
 
 			// node is not null and part of this list
+			ListIndex index   = getListIndexForUpdate();
+			int segment       = findSegment(index, toRemove);
 			Node rootNode     = getNode();
 			Node previousNode = getRelatedNode(toRemove, RelType.NEXT_LIST_ENTRY, Direction.INCOMING);
 			Node nextNode     = getRelatedNode(toRemove, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
 
+			if (segment >= 0) {
+
+				// shift segment heads before the structure changes
+				for (int i = segment; i < index.segments.size(); i++) {
+
+					Node head = getNodeById(index.segments.get(i));
+
+					if ((i > segment) || head.equals(toRemove)) {
+
+						Node successor = getRelatedNode(head, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+						index.segments.set(i, (successor != null)
+								      ? successor.getId()
+								      : null);
+
+					}
+
+				}
+
+				index.size--;
+
+				truncate(index);
+
+			}
+
 			// delete relationship from previousNode to toRemove
 			deleteRelationship(previousNode, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
 
@@ -719,6 +927,10 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 				createRelationship(rootNode, previousNode, RelType.LAST_LIST_ENTRY);
 			}
 
+			setListIndex((segment >= 0)
+				     ? index
+				     : createListIndex());
+
 			listWasModified = true;
 		}
 
@@ -727,8 +939,9 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 	}
 
 	/**
-	 * Appends the given node to this list. Note that this method does not run
-	 * in a transaction to enable bulk add methods to share a single transaction.
+	 * Appends the given node to this list and updates the position index.
+	 * Note that this method does not run in a transaction to enable bulk add
+	 * methods to share a single transaction.
 	 *
 	 * @param toAdd
 	 * @return true if this list was modified as a result of this call
@@ -740,8 +953,9 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 		if (!isMember(toAdd)) {
 
 			// node is not null and not already a member of this list
-			Node rootNode = getNode();
-			Node lastNode = getRelatedNode(rootNode, RelType.LAST_LIST_ENTRY, Direction.OUTGOING);
+			ListIndex index = getListIndexForUpdate();
+			Node rootNode   = getNode();
+			Node lastNode   = getRelatedNode(rootNode, RelType.LAST_LIST_ENTRY, Direction.OUTGOING);
 
 			if (lastNode != null) {
 
@@ -763,6 +977,16 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 				listWasModified = true;
 			}
+
+			if ((index.size % SEGMENT_SIZE) == 0) {
+
+				// the appended node starts a new segment
+				index.segments.add(toAdd.getId());
+			}
+
+			index.size++;
+
+			setListIndex(index);
 		}
 
 		return (listWasModified);
@@ -771,6 +995,8 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	private boolean insertNodeIntoList(int index, Node toInsert) {
 
+		lockListIndex();
+
 		Node node   = getNodeAt(index);
 		boolean ret = false;
 
@@ -783,12 +1009,23 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	}
 
+	/**
+	 * Inserts the given node before the given list member. The heads of all
+	 * segments behind the inserted node move to their predecessors, which
+	 * takes time proportional to the number of segments.
+	 *
+	 * @param node
+	 * @param toInsert
+	 * @return
+	 */
 	private boolean insertNodeBefore(Node node, Node toInsert) {
 
 		boolean ret = false;
 
 		if ((node != null) && (toInsert != null) &&!isMember(toInsert)) {
 
+			ListIndex index   = getListIndexForUpdate();
+			int segment       = findSegment(index, node);
 			Node previousNode = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.INCOMING);
 
 			// delete relationship from previousNode to node
@@ -800,6 +1037,35 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 			// create relationship from toInsert to node
 			ret |= createRelationship(toInsert, node, RelType.NEXT_LIST_ENTRY);
 
+			if (segment < 0) {
+
+				setListIndex(createListIndex());
+
+				return (ret);
+
+			}
+
+			for (int i = segment; i < index.segments.size(); i++) {
+
+				Node head = getNodeById(index.segments.get(i));
+
+				if ((i > segment) || head.equals(node)) {
+
+					index.segments.set(i, getRelatedNode(head, RelType.NEXT_LIST_ENTRY, Direction.INCOMING).getId());
+				}
+
+			}
+
+			if ((index.size % SEGMENT_SIZE) == 0) {
+
+				// the last node starts a new segment
+				index.segments.add(getLastRawNode().getId());
+			}
+
+			index.size++;
+
+			setListIndex(index);
+
 		}
 
 		return (ret);
@@ -883,7 +1149,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 			if (node != null) {
 
-				return ((AbstractNode) factory.execute(node));
+				return ((AbstractNode) Services.command(securityContext, NodeFactoryCommand.class).execute(node));
 			}
 
 		} catch (FrameworkException fex) {
@@ -918,7 +1184,7 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 		try {
 
-			return ((AbstractNode) factory.execute(getLastRawNode()));
+			return ((AbstractNode) Services.command(securityContext, NodeFactoryCommand.class).execute(getLastRawNode()));
 
 		} catch (FrameworkException fex) {
 
@@ -1038,24 +1304,276 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	/**
 	 * Returns the node at the given position, or null if no node is found.
+	 * If no evaluators are set, the position index is used to find the
+	 * nearest segment head.
 	 *
 	 * @param index
 	 * @return the node at index or null
 	 */
 	private Node getNodeAt(int index) {
 
-		int pos = 0;
+		if (isFiltered()) {
 
-		for (Node node : getRawNodes()) {
+			int pos = 0;
 
-			if (pos++ == index) {
+			for (Node node : getRawNodes()) {
+
+				if (pos++ == index) {
+
+					return (node);
+				}
 
-				return (node);
 			}
 
+			return (null);
+
 		}
 
-		return (null);
+		ListIndex listIndex = getListIndex();
+
+		if ((index < 0) || (index >= listIndex.size)) {
+
+			return (null);
+		}
+
+		Node node = getNodeById(listIndex.segments.get(index / SEGMENT_SIZE));
+
+		for (int i = 0; (i < (index % SEGMENT_SIZE)) && (node != null); i++) {
+
+			node = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+		}
+
+		return (node);
+
+	}
+
+	/**
+	 * Locks the list node and returns its position index, so that no
+	 * other transaction can modify the index until this transaction is
+	 * finished. Must be called in a transaction.
+	 *
+	 * @return
+	 */
+	private ListIndex getListIndexForUpdate() {
+
+		lockListIndex();
+
+		return (getListIndex());
+
+	}
+
+	/**
+	 * Acquires a write lock on the list node, which is held until the
+	 * current transaction is finished. Neo4j locks a node before removing
+	 * a property, even if the property does not exist.
+	 */
+	private void lockListIndex() {
+
+		getNode().removeProperty(LOCK_PROPERTY);
+
+	}
+
+	/**
+	 * Returns the position index of this list. Lists that were created
+	 * before the index was introduced are indexed and migrated here.
+	 *
+	 * @return
+	 */
+	private ListIndex getListIndex() {
+
+		Node rootNode = getNode();
+
+		if (rootNode.hasProperty(SIZE_PROPERTY) && rootNode.hasProperty(SEGMENTS_PROPERTY)) {
+
+			ListIndex index = new ListIndex();
+			long[] segments = (long[]) rootNode.getProperty(SEGMENTS_PROPERTY);
+
+			index.size = (Integer) rootNode.getProperty(SIZE_PROPERTY);
+
+			for (long segment : segments) {
+
+				index.segments.add(segment);
+			}
+
+			return (index);
+
+		}
+
+		logger.log(Level.INFO, "Creating position index for node list {0}", getNodeId());
+
+		final ListIndex index = createListIndex();
+
+		try {
+
+			Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+				@Override
+				public Object execute() throws FrameworkException {
+
+					setListIndex(index);
+
+					return (null);
+
+				}
+
+			});
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.WARNING, "Unable to store position index of node list", fex);
+
+		}
+
+		return (index);
+
+	}
+
+	/**
+	 * Creates the position index by walking the whole list.
+	 *
+	 * @return
+	 */
+	private ListIndex createListIndex() {
+
+		ListIndex index = new ListIndex();
+
+		reindex(index, 0, getFirstRawNode());
+
+		return (index);
+
+	}
+
+	/**
+	 * Recomputes the segment heads of the given index, starting with the
+	 * given segment, whose head is the given node, and sets the size of the
+	 * index accordingly.
+	 *
+	 * @param index
+	 * @param segment
+	 * @param head
+	 */
+	private void reindex(final ListIndex index, final int segment, final Node head) {
+
+		Node node = head;
+		int pos   = segment * SEGMENT_SIZE;
+
+		index.segments.subList(segment, index.segments.size()).clear();
+
+		while (node != null) {
+
+			if ((pos % SEGMENT_SIZE) == 0) {
+
+				index.segments.add(node.getId());
+			}
+
+			pos++;
+
+			node = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+		}
+
+		index.size = pos;
+
+	}
+
+	/**
+	 * Returns the segment that contains the given list member, by walking
+	 * backwards until a segment head is found, or -1 if the index does not
+	 * match the list.
+	 *
+	 * @param index
+	 * @param node
+	 * @return
+	 */
+	private int findSegment(final ListIndex index, final Node node) {
+
+		Map<Long, Integer> heads = new HashMap<Long, Integer>();
+		Node rootNode            = getNode();
+		Node current             = node;
+
+		for (int i = 0; i < index.segments.size(); i++) {
+
+			heads.put(index.segments.get(i), i);
+		}
+
+		for (int i = 0; (i < SEGMENT_SIZE) && (current != null) &&!current.equals(rootNode); i++) {
+
+			Integer segment = heads.get(current.getId());
+
+			if (segment != null) {
+
+				return (segment);
+			}
+
+			current = getRelatedNode(current, RelType.NEXT_LIST_ENTRY, Direction.INCOMING);
+
+		}
+
+		logger.log(Level.WARNING, "Position index of node list {0} is inconsistent, rebuilding", getNodeId());
+
+		return (-1);
+
+	}
+
+	/**
+	 * Applies all decorators that are set on this list to the given nodes and
+	 * returns the database nodes that are not yet a member of this list.
+	 *
+	 * @param nodes
+	 * @return
+	 * @throws FrameworkException
+	 */
+	private List<Node> decorate(final Collection<? extends AbstractNode> nodes) throws FrameworkException {
+
+		Set<Node> ret = new LinkedHashSet<Node>();
+
+		for (AbstractNode node : nodes) {
+
+			Node dbNode = node.getNode();
+
+			if (!isMember(dbNode) &&!ret.contains(dbNode)) {
+
+				for (Decorator<AbstractNode> decorator : decorators) {
+
+					decorator.decorate(node);
+				}
+
+				ret.add(dbNode);
+
+			}
+
+		}
+
+		return (new ArrayList<Node>(ret));
+
+	}
+
+	private void truncate(final ListIndex index) {
+
+		int segments = (index.size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+
+		if (index.segments.size() > segments) {
+
+			index.segments.subList(segments, index.segments.size()).clear();
+		}
+
+	}
+
+	private Node getNodeById(final long id) {
+
+		return getNode().getGraphDatabase().getNodeById(id);
+
+	}
+
+	/**
+	 * Indicates whether evaluators or a maximum length are set, so that the
+	 * position index can not be used.
+	 *
+	 * @return
+	 */
+	private boolean isFiltered() {
+
+		return !evaluators.isEmpty() || (maxLength >= 0);
 
 	}
 
@@ -1115,8 +1633,114 @@ public class NodeList<T extends AbstractNode> extends AbstractNode implements It
 
 	}
 
+	/**
+	 * Stores the given position index on the list node. Note that this
+	 * method does not run in a transaction.
+	 *
+	 * @param index
+	 */
+	private void setListIndex(final ListIndex index) {
+
+		Node rootNode   = getNode();
+		long[] segments = new long[index.segments.size()];
+
+		for (int i = 0; i < segments.length; i++) {
+
+			segments[i] = index.segments.get(i);
+		}
+
+		rootNode.setProperty(SIZE_PROPERTY, index.size);
+		rootNode.setProperty(SEGMENTS_PROPERTY, segments);
+
+	}
+
 	//~--- inner classes --------------------------------------------------
 
+	/**
+	 * The size of a list and the ids of the first node of each segment.
+	 */
+	private static class ListIndex {
+
+		private List<Long> segments = new ArrayList<Long>();
+		private int size            = 0;
+
+	}
+
+
+	/**
+	 * Follows the NEXT_LIST_ENTRY relationships of this list, instantiating
+	 * the nodes while advancing. Nodes that are not visible in the current
+	 * security context are skipped.
+	 */
+	private class NodeIterator implements Iterator<AbstractNode> {
+
+		private NodeFactory nodeFactory = new NodeFactory();
+		private AbstractNode next       = null;
+		private Node node               = null;
+		private int remaining           = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public NodeIterator(final Node start, final int count) {
+
+			this.node      = start;
+			this.remaining = count;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public boolean hasNext() {
+
+			while ((next == null) && (node != null) && (remaining > 0)) {
+
+				try {
+
+					next = nodeFactory.createNode(securityContext, node);
+
+				} catch (FrameworkException fex) {
+
+					logger.log(Level.WARNING, "Unable to instantiate node", fex);
+
+				}
+
+				remaining--;
+
+				node = getRelatedNode(node, RelType.NEXT_LIST_ENTRY, Direction.OUTGOING);
+
+			}
+
+			return (next != null);
+
+		}
+
+		@Override
+		public AbstractNode next() {
+
+			if (!hasNext()) {
+
+				throw new NoSuchElementException();
+			}
+
+			AbstractNode ret = next;
+
+			next = null;
+
+			return (ret);
+
+		}
+
+		@Override
+		public void remove() {
+
+			throw new UnsupportedOperationException("Removal is not supported by this iterator.");
+
+		}
+
+	}
+
+
 	private class MaxLengthEvaluator implements Evaluator {
 
 		@Override
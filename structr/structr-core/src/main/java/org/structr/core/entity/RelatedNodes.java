@@ -0,0 +1,232 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.structr.core.entity;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.node.NodeFactory;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * The direct neighbours of a node over relationships of a given type and
+ * direction, filtered by destination type and readability.
+ *
+ * Neighbours are instantiated lazily while iterating. The first complete
+ * iteration records them, so that following iterations and {@link #size()}
+ * don't touch the database again.
+ *
+ * @author Christian Morgner
+ */
+public class RelatedNodes implements Iterable<AbstractNode> {
+
+	private static final Logger logger = Logger.getLogger(RelatedNodes.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private List<AbstractNode> nodes        = null;
+	private Class destType                  = null;
+	private Direction direction             = null;
+	private long generation                 = 0;
+	private Node node                       = null;
+	private RelationshipType relType        = null;
+	private SecurityContext securityContext = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public RelatedNodes(final SecurityContext securityContext, final Node node, final RelationshipType relType, final Direction direction, final Class destType,
+			    final long generation) {
+
+		this.securityContext = securityContext;
+		this.node            = node;
+		this.relType         = relType;
+		this.direction       = direction;
+		this.destType        = destType;
+		this.generation      = generation;
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	@Override
+	public Iterator<AbstractNode> iterator() {
+
+		if (nodes != null) {
+
+			return nodes.iterator();
+		}
+
+		return new RelatedNodeIterator();
+
+	}
+
+	/**
+	 * Returns the number of related nodes, iterating (and recording) them
+	 * if this was not done before.
+	 *
+	 * @return
+	 */
+	public int size() {
+
+		if (nodes == null) {
+
+			for (Iterator<AbstractNode> it = iterator(); it.hasNext(); it.next()) {}
+		}
+
+		return nodes.size();
+
+	}
+
+	/**
+	 * Returns the first related node without iterating the others.
+	 *
+	 * @return the first related node, or null
+	 */
+	public AbstractNode first() {
+
+		Iterator<AbstractNode> it = iterator();
+
+		return it.hasNext()
+		       ? it.next()
+		       : null;
+
+	}
+
+	public List<AbstractNode> toList() {
+
+		List<AbstractNode> list = new ArrayList<AbstractNode>();
+
+		for (AbstractNode related : this) {
+
+			list.add(related);
+		}
+
+		return list;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the relationship generation (see {@link org.structr.core.EntityContext#getRelationshipGeneration()})
+	 * at the time this object was created.
+	 *
+	 * @return
+	 */
+	public long getGeneration() {
+
+		return generation;
+
+	}
+
+	public SecurityContext getSecurityContext() {
+
+		return securityContext;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private class RelatedNodeIterator implements Iterator<AbstractNode> {
+
+		private NodeFactory nodeFactory              = new NodeFactory<AbstractNode>();
+		private List<AbstractNode> recorded          = new ArrayList<AbstractNode>();
+		private Iterator<Relationship> relationships = node.getRelationships(relType, direction).iterator();
+		private AbstractNode next                    = null;
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public boolean hasNext() {
+
+			while ((next == null) && relationships.hasNext()) {
+
+				Node otherNode = relationships.next().getOtherNode(node);
+
+				try {
+
+					AbstractNode candidate = nodeFactory.createNode(securityContext, otherNode);
+
+					// use inheritance
+					if ((candidate != null) && (destType != null) && destType.isAssignableFrom(candidate.getClass())) {
+
+						next = candidate;
+					}
+
+				} catch (FrameworkException fex) {
+
+					logger.log(Level.WARNING, "Unable to instantiate node: {0}", fex.getMessage());
+
+				}
+
+			}
+
+			if ((next == null) && (nodes == null)) {
+
+				// iteration complete
+				nodes = recorded;
+			}
+
+			return next != null;
+
+		}
+
+		@Override
+		public AbstractNode next() {
+
+			if (!hasNext()) {
+
+				throw new NoSuchElementException();
+			}
+
+			AbstractNode current = next;
+
+			next = null;
+
+			recorded.add(current);
+
+			return current;
+
+		}
+
+		@Override
+		public void remove() {
+
+			throw new UnsupportedOperationException("Related nodes can not be removed here.");
+
+		}
+
+	}
+
+}
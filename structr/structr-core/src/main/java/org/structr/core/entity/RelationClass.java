@@ -23,12 +23,8 @@ package org.structr.core.entity;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.traversal.Evaluation;
-import org.neo4j.graphdb.traversal.Evaluator;
-import org.neo4j.kernel.Traversal;
-import org.neo4j.kernel.Uniqueness;
 
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
@@ -36,8 +32,11 @@ import org.structr.common.error.IdNotFoundToken;
 import org.structr.core.Command;
 import org.structr.core.GraphObject;
 import org.structr.core.Services;
+import org.structr.core.module.GetEntityClassCommand;
 import org.structr.core.node.*;
 import org.structr.core.node.CreateRelationshipCommand;
+import org.structr.core.node.EntityCache;
+import org.structr.core.node.EntityCache.CachedEntity;
 import org.structr.core.node.FindNodeCommand;
 import org.structr.core.node.NodeFactory;
 import org.structr.core.node.StructrTransaction;
@@ -49,7 +48,6 @@ import org.structr.core.notion.Notion;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -397,8 +395,8 @@ public class RelationClass {
 
 		if (cardinality.equals(Cardinality.OneToMany) || cardinality.equals(Cardinality.ManyToMany)) {
 
-			// return getTraversalResults(securityContext, node, StringUtils.toCamelCase(combinedType));
-			return getTraversalResults(securityContext, node);
+			return getRelatedNodeIterable(securityContext, node).toList();
+
 		} else {
 
 			logger.log(Level.WARNING, "Requested related nodes with wrong cardinality {0} between {1} and {2}", new Object[] { cardinality.name(), node.getClass().getSimpleName(),
@@ -413,13 +411,7 @@ public class RelationClass {
 
 		if (cardinality.equals(Cardinality.OneToOne) || cardinality.equals(Cardinality.ManyToOne)) {
 
-			List<AbstractNode> nodes = getTraversalResults(securityContext, node);
-
-			if ((nodes != null) && nodes.iterator().hasNext()) {
-
-				return nodes.iterator().next();
-
-			}
+			return getRelatedNodeIterable(securityContext, node).first();
 
 		} else {
 
@@ -431,66 +423,91 @@ public class RelationClass {
 		return null;
 	}
 
-	// ----- private methods -----
-	private List<AbstractNode> getTraversalResults(final SecurityContext securityContext, final AbstractNode node) {
+	/**
+	 * Returns the direct neighbours of the given node in this relation.
+	 * The result is memoized in the node until a relationship is created
+	 * or deleted anywhere, see {@link EntityContext#getRelationshipGeneration()}.
+	 *
+	 * @param securityContext
+	 * @param node
+	 * @return
+	 */
+	public RelatedNodes getRelatedNodeIterable(final SecurityContext securityContext, final AbstractNode node) {
 
-		// final Class realType              = (Class) Services.command(securityContext, GetEntityClassCommand.class).execute(StringUtils.capitalize(destType));
-		final NodeFactory nodeFactory     = new NodeFactory<AbstractNode>();
-		final List<AbstractNode> nodeList = new LinkedList<AbstractNode>();
+		long generation      = EntityContext.getRelationshipGeneration();
+		RelatedNodes related = node.getCachedRelatedNodes(this);
 
-		// use traverser
-		Iterable<Node> nodes = Traversal.description().uniqueness(Uniqueness.NODE_PATH).breadthFirst().relationships(relType, direction).evaluator(new Evaluator() {
+		if ((related == null) || (related.getGeneration() != generation) || (related.getSecurityContext() != securityContext)) {
 
-			@Override
-			public Evaluation evaluate(Path path) {
+			related = new RelatedNodes(securityContext, node.getNode(), relType, direction, destType, generation);
 
-				int len = path.length();
+			node.setCachedRelatedNodes(this, related);
 
-				if (len <= 1) {
+		}
 
-					if (len == 0) {
+		return related;
+	}
 
-						// do not include start node (which is the
-						// index node in this case), but continue
-						// traversal
-						return Evaluation.EXCLUDE_AND_CONTINUE;
-						
-					} else {
+	/**
+	 * Returns the number of direct neighbours of the given node in this
+	 * relation. The neighbours are not instantiated, so they are only
+	 * filtered by type, not by readability.
+	 *
+	 * @param node
+	 * @return
+	 */
+	public int getRelatedNodeCount(final AbstractNode node) {
 
-						try {
-							AbstractNode abstractNode = (AbstractNode) nodeFactory.createNode(securityContext, path.endNode());
-							if(abstractNode != null) {
+		Node dbNode = node.getNode();
+		int count   = 0;
 
-								// use inheritance
-								if ((destType != null) && destType.isAssignableFrom(abstractNode.getClass())) {
+		for (Relationship rel : dbNode.getRelationships(relType, direction)) {
 
-									nodeList.add(abstractNode);
+			Class type = getEntityClass(rel.getOtherNode(dbNode));
 
-									return Evaluation.INCLUDE_AND_CONTINUE;
+			if ((type != null) && (destType != null) && destType.isAssignableFrom(type)) {
 
-								} else {
+				count++;
+			}
+		}
 
-									return Evaluation.EXCLUDE_AND_CONTINUE;
+		return count;
+	}
 
-								}
-							}
-							
-						} catch(FrameworkException fex) {
-							logger.log(Level.WARNING, "Unable to instaniate node: {0}", fex.getMessage());
-						}
-					}
+	// ----- private methods -----
+	private Class getEntityClass(final Node otherNode) {
 
-				}
+		EntityCache entityCache   = NodeService.getEntityCache();
+		CachedEntity cachedEntity = entityCache.get(otherNode.getId());
+
+		if (cachedEntity != null) {
+
+			return cachedEntity.getType();
+		}
+
+		String typeKey = AbstractNode.Key.type.name();
+		String rawType = otherNode.hasProperty(typeKey)
+				 ? (String) otherNode.getProperty(typeKey)
+				 : "";
 
-				return Evaluation.EXCLUDE_AND_PRUNE;
+		try {
+
+			Class type = (Class) Services.command(SecurityContext.getSuperUserInstance(), GetEntityClassCommand.class).execute(rawType);
+
+			if (type != null) {
+
+				entityCache.put(otherNode.getId(), type);
 			}
 
-		}).traverse(node.getNode()).nodes();
+			return type;
+
+		} catch (FrameworkException fex) {
 
-		// iterate nodes to evaluate traversal
-		for (Node n : nodes) {}
+			logger.log(Level.WARNING, "Unable to determine type of node {0}: {1}", new Object[] { otherNode.getId(), fex.getMessage() });
 
-		return nodeList;
+		}
+
+		return null;
 	}
 
 	//~--- set methods ----------------------------------------------------
@@ -39,17 +39,27 @@ import java.util.logging.Logger;
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Provides the log database. Log entries are written asynchronously by
+ * a {@link LogWriter}, which is configured with
+ * {@link Services#LOG_SERVICE_THRESHOLD} (entries per transaction),
+ * {@link Services#LOG_SERVICE_INTERVAL} (milliseconds between writes),
+ * {@link Services#LOG_SERVICE_QUEUE_SIZE} and
+ * {@link Services#LOG_SERVICE_DURABILITY} ("sync" or "lazy").
  *
  * @author Axel Morgner
  */
 public class LogService implements SingletonService {
 
-	private static final Logger logger                       = Logger.getLogger(LogService.class.getName());
+	private static final int DEFAULT_INTERVAL   = 1000;
+	private static final int DEFAULT_QUEUE_SIZE = 100000;
+	private static final int DEFAULT_THRESHOLD  = 100;
+	private static final Logger logger          = Logger.getLogger(LogService.class.getName());
 
 	//~--- fields ---------------------------------------------------------
 
 	private TxPageFileFactory logDbFactory	= null;
 	private TxPageFile logDb		= null;
+	private LogWriter logWriter		= null;
 
 	/** Dependent services */
 	private Set<RunnableService> registeredServices = new HashSet<RunnableService>();
@@ -64,6 +74,7 @@ public class LogService implements SingletonService {
 		if (command != null) {
 
 			command.setArgument("logDb", logDb);
+			command.setArgument("logWriter", logWriter);
 		}
 
 	}
@@ -95,6 +106,17 @@ public class LogService implements SingletonService {
 
 				logDb = logDbFactory.getTxPageFile();
 
+				int threshold     = getIntValue(context, Services.LOG_SERVICE_THRESHOLD, DEFAULT_THRESHOLD);
+				int interval      = getIntValue(context, Services.LOG_SERVICE_INTERVAL, DEFAULT_INTERVAL);
+				int queueSize     = getIntValue(context, Services.LOG_SERVICE_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+				String durability = context.get(Services.LOG_SERVICE_DURABILITY);
+
+				logWriter = new LogWriter(logDb, threshold, interval, queueSize, (durability != null)
+					? durability.trim()
+					: LogWriter.DURABILITY_SYNC);
+
+				logWriter.start();
+
 			} catch (Throwable t) {
 
 				logger.log(Level.INFO, "Log Database could not be started", logDbPath);
@@ -126,6 +148,15 @@ public class LogService implements SingletonService {
 			// Wait for all registered services to end
 			waitFor(registeredServices.isEmpty());
 
+			// write pending log entries
+			if (logWriter != null) {
+
+				logWriter.shutdown();
+
+				logWriter = null;
+
+			}
+
 			try {
 
 				logDbFactory.close();
@@ -171,6 +202,28 @@ public class LogService implements SingletonService {
 
 	//~--- get methods ----------------------------------------------------
 
+	private int getIntValue(final Map<String, String> context, final String key, final int defaultValue) {
+
+		String value = context.get(key);
+
+		if (value != null) {
+
+			try {
+
+				return Integer.parseInt(value.trim());
+
+			} catch (NumberFormatException nfex) {
+
+				logger.log(Level.WARNING, "Invalid value {0} for {1}, using {2}", new Object[] { value, key, defaultValue });
+
+			}
+
+		}
+
+		return defaultValue;
+
+	}
+
 	@Override
 	public String getName() {
 
@@ -0,0 +1,325 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.structr.core.log;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.fusesource.hawtdb.api.BTreeIndexFactory;
+import org.fusesource.hawtdb.api.IndexFactory;
+import org.fusesource.hawtdb.api.MultiIndexFactory;
+import org.fusesource.hawtdb.api.SortedIndex;
+import org.fusesource.hawtdb.api.Transaction;
+import org.fusesource.hawtdb.api.TxPageFile;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Writes log entries to the log database in batches. Request threads
+ * only enqueue their entries, a single writer thread collects them and
+ * stores up to <code>batchSize</code> entries in one transaction, at
+ * least every <code>interval</code> milliseconds.
+ *
+ * Entries are stored with time-ordered keys, see {@link #createKey(long, int)},
+ * so that they can be read by time window.
+ *
+ * @author Axel Morgner
+ */
+public class LogWriter extends Thread {
+
+	/** Flush the log database after each batch */
+	public static final String DURABILITY_SYNC = "sync";
+
+	/** Leave flushing to the log database, which writes when its buffer is full or on shutdown */
+	public static final String DURABILITY_LAZY = "lazy";
+
+	/** Length of the keys created by {@link #createKey(long, int)} */
+	public static final int KEY_LENGTH = 24;
+
+	private static final Logger logger = Logger.getLogger(LogWriter.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private final AtomicLong droppedEntries   = new AtomicLong(0);
+	private final Queue<LogEntry> queue       = new ConcurrentLinkedQueue<LogEntry>();
+	private final AtomicInteger queueSize     = new AtomicInteger(0);
+	private final AtomicInteger sequence      = new AtomicInteger(0);
+	private final AtomicLong writtenEntries   = new AtomicLong(0);
+	private volatile boolean doRun            = true;
+	private int batchSize                     = 0;
+	private boolean flush                     = true;
+	private long interval                     = 0;
+	private TxPageFile logDb                  = null;
+	private int maxQueueSize                  = 0;
+
+	//~--- constructors ---------------------------------------------------
+
+	public LogWriter(final TxPageFile logDb, final int batchSize, final long interval, final int maxQueueSize, final String durability) {
+
+		super("LogWriter");
+
+		this.logDb        = logDb;
+		this.batchSize    = Math.max(1, batchSize);
+		this.interval     = Math.max(1, interval);
+		this.maxQueueSize = Math.max(this.batchSize, maxQueueSize);
+		this.flush        = !DURABILITY_LAZY.equals(durability);
+
+		setDaemon(true);
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Enqueues a log entry for the given user. This method never blocks,
+	 * entries are dropped if the writer can not keep up.
+	 *
+	 * @param userId
+	 * @param data
+	 * @return false if the entry was dropped
+	 */
+	public boolean log(final String userId, final String[] data) {
+
+		if (!doRun) {
+
+			return false;
+		}
+
+		int size = queueSize.incrementAndGet();
+
+		if (size > maxQueueSize) {
+
+			queueSize.decrementAndGet();
+
+			if ((droppedEntries.incrementAndGet() % 1000) == 1) {
+
+				logger.log(Level.WARNING, "Log queue is full, {0} entries dropped so far", droppedEntries.get());
+			}
+
+			return false;
+
+		}
+
+		queue.add(new LogEntry(userId, data, System.currentTimeMillis()));
+
+		if (size == batchSize) {
+
+			// wake up writer early
+			LockSupport.unpark(this);
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public void run() {
+
+		while (doRun ||!queue.isEmpty()) {
+
+			if (doRun && (queueSize.get() < batchSize)) {
+
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(interval));
+			}
+
+			try {
+
+				writeBatch();
+
+			} catch (Throwable t) {
+
+				logger.log(Level.SEVERE, "Unable to write log entries", t);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Stops the writer after all queued entries have been written.
+	 */
+	public void shutdown() {
+
+		doRun = false;
+
+		LockSupport.unpark(this);
+
+		try {
+
+			join();
+
+		} catch (InterruptedException iex) {}
+
+	}
+
+	private void writeBatch() {
+
+		List<LogEntry> batch = new LinkedList<LogEntry>();
+		LogEntry entry       = null;
+
+		while ((batch.size() < batchSize) && ((entry = queue.poll()) != null)) {
+
+			batch.add(entry);
+		}
+
+		if (batch.isEmpty()) {
+
+			return;
+		}
+
+		queueSize.addAndGet(-batch.size());
+
+		Transaction tx                                   = logDb.tx();
+		MultiIndexFactory multiIndexFactory              = new MultiIndexFactory(tx);
+		IndexFactory<String, Object> indexFactory        = new BTreeIndexFactory<String, Object>();
+		Map<String, SortedIndex<String, Object>> indices = new HashMap<String, SortedIndex<String, Object>>();
+
+		try {
+
+			for (LogEntry logEntry : batch) {
+
+				SortedIndex<String, Object> index = indices.get(logEntry.userId);
+
+				if (index == null) {
+
+					index = (SortedIndex<String, Object>) multiIndexFactory.openOrCreate(logEntry.userId, indexFactory);
+
+					indices.put(logEntry.userId, index);
+				}
+
+				index.put(createKey(logEntry.timestamp, sequence.getAndIncrement()), logEntry.data);
+				logger.log(Level.FINEST, "Logged for user {0}: {1}", new Object[] { logEntry.userId, StringUtils.join(logEntry.data, ",") });
+
+			}
+
+			tx.commit();
+
+		} catch (RuntimeException rex) {
+
+			tx.rollback();
+
+			throw rex;
+
+		}
+
+		if (flush) {
+
+			logDb.flush();
+		}
+
+		writtenEntries.addAndGet(batch.size());
+		logger.log(Level.FINE, "Wrote {0} log entries", batch.size());
+
+	}
+
+	/**
+	 * Creates a log entry key that sorts by timestamp. The sequence number
+	 * orders entries with the same timestamp.
+	 *
+	 * @param timestamp
+	 * @param sequence
+	 * @return
+	 */
+	public static String createKey(final long timestamp, final int sequence) {
+
+		return String.format("%016x%08x", timestamp, sequence);
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the timestamp of the given key, or -1 if the key was not
+	 * created by {@link #createKey(long, int)}.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static long getTimestamp(final String key) {
+
+		if ((key != null) && (key.length() == KEY_LENGTH)) {
+
+			try {
+
+				return Long.parseLong(key.substring(0, 16), 16);
+
+			} catch (NumberFormatException nfex) {}
+
+		}
+
+		return -1;
+
+	}
+
+	public long getDroppedEntries() {
+
+		return droppedEntries.get();
+
+	}
+
+	public int getQueueSize() {
+
+		return queueSize.get();
+
+	}
+
+	public long getWrittenEntries() {
+
+		return writtenEntries.get();
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class LogEntry {
+
+		private String[] data  = null;
+		private long timestamp = 0;
+		private String userId  = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public LogEntry(final String userId, final String[] data, final long timestamp) {
+
+			this.userId    = userId;
+			this.data      = data;
+			this.timestamp = timestamp;
+
+		}
+
+	}
+
+}
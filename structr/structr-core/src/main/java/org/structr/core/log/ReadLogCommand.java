@@ -21,11 +21,12 @@
 
 package org.structr.core.log;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import org.fusesource.hawtdb.api.BTreeIndexFactory;
+import org.fusesource.hawtdb.api.IndexFactory;
+import org.fusesource.hawtdb.api.MultiIndexFactory;
+import org.fusesource.hawtdb.api.Predicate;
+import org.fusesource.hawtdb.api.Predicates;
+import org.fusesource.hawtdb.api.SortedIndex;
 import org.fusesource.hawtdb.api.Transaction;
 import org.fusesource.hawtdb.api.TxPageFile;
 
@@ -33,14 +34,27 @@ import org.structr.common.error.FrameworkException;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
-import org.fusesource.hawtdb.api.IndexFactory;
-import org.fusesource.hawtdb.api.MultiIndexFactory;
-import org.fusesource.hawtdb.api.SortedIndex;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Reads the log entries of a user, ordered by time.
+ *
+ * Parameters:
+ * <ul>
+ * <li>user id: all entries of the user</li>
+ * <li>user id, Long from, Long to: entries with from &lt;= timestamp &lt; to, null means unbounded</li>
+ * <li>user id, Long from, Long to, Integer offset, Integer pageSize: one page of these entries</li>
+ * </ul>
+ *
+ * Entries are visible after they were written by the {@link LogWriter}.
  *
  * @author Axel Morgner
  */
@@ -53,41 +67,102 @@ public class ReadLogCommand extends LogServiceCommand {
 	@Override
 	public Object execute(Object... parameters) throws FrameworkException {
 
-		TxPageFile logDb = (TxPageFile) arguments.get("logDb");
-
-		Map<String, Object> result = new HashMap<String, Object>();
-		
-		if (logDb != null) {
-
-			Transaction tx                                 = logDb.tx();
-			
-			MultiIndexFactory multiIndexFactory = new MultiIndexFactory(tx);
-			IndexFactory<String, Object> indexFactory = new BTreeIndexFactory<String, Object>();
-
-			if (parameters.length == 1) {
-				
-				String userId = (String) parameters[0];
-				
-				SortedIndex<String, Object> index = (SortedIndex<String, Object>) multiIndexFactory.openOrCreate(userId, indexFactory);
-				
-				Iterator<Entry<String, Object>> it = index.iterator();
-					
-				while (it.hasNext()) {
-					
+		TxPageFile logDb           = (TxPageFile) arguments.get("logDb");
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+
+		if ((logDb != null) && (parameters.length >= 1)) {
+
+			String userId = (String) parameters[0];
+			Long from     = null;
+			Long to       = null;
+			int offset    = 0;
+			int pageSize  = Integer.MAX_VALUE;
+
+			if (parameters.length >= 3) {
+
+				from = (Long) parameters[1];
+				to   = (Long) parameters[2];
+
+			}
+
+			if (parameters.length >= 5) {
+
+				offset   = (parameters[3] != null)
+					   ? (Integer) parameters[3]
+					   : 0;
+				pageSize = (parameters[4] != null)
+					   ? (Integer) parameters[4]
+					   : Integer.MAX_VALUE;
+
+			}
+
+			Transaction tx = logDb.tx();
+
+			try {
+
+				MultiIndexFactory multiIndexFactory = new MultiIndexFactory(tx);
+
+				if (userId == null ||!multiIndexFactory.indexes().contains(userId)) {
+
+					return result;
+				}
+
+				IndexFactory<String, Object> indexFactory = new BTreeIndexFactory<String, Object>();
+				SortedIndex<String, Object> index         = (SortedIndex<String, Object>) multiIndexFactory.open(userId, indexFactory);
+				boolean timeWindow                        = (from != null) || (to != null);
+				Iterator<Entry<String, Object>> it        = timeWindow
+					? index.iterator(getPredicate(from, to))
+					: index.iterator();
+				int position                              = 0;
+
+				while (it.hasNext() && (result.size() < pageSize)) {
+
 					Entry<String, Object> entry = it.next();
-					
-					String key = entry.getKey();
-					Object val = entry.getValue();
-					
-					result.put(key, val);
-					
+					String key                  = entry.getKey();
+
+					// keys from older versions are not ordered by time
+					if (timeWindow && (LogWriter.getTimestamp(key) < 0)) {
+
+						continue;
+					}
+
+					if (position++ >= offset) {
+
+						result.put(key, entry.getValue());
+					}
+
 				}
 
+			} finally {
+
+				tx.close();
+
 			}
+
 		}
 
 		return result;
 
 	}
 
+	//~--- get methods ----------------------------------------------------
+
+	private Predicate<String> getPredicate(final Long from, final Long to) {
+
+		List<Predicate<String>> predicates = new LinkedList<Predicate<String>>();
+
+		if (from != null) {
+
+			predicates.add(Predicates.gte(LogWriter.createKey(from, 0)));
+		}
+
+		if (to != null) {
+
+			predicates.add(Predicates.lt(LogWriter.createKey(to, 0)));
+		}
+
+		return Predicates.and(predicates);
+
+	}
+
 }
@@ -21,41 +21,28 @@
 
 package org.structr.core.log;
 
-import org.apache.commons.lang.StringUtils;
-
-import org.fusesource.hawtdb.api.BTreeIndexFactory;
-import org.fusesource.hawtdb.api.IndexFactory;
-import org.fusesource.hawtdb.api.MultiIndexFactory;
-import org.fusesource.hawtdb.api.SortedIndex;
-import org.fusesource.hawtdb.api.Transaction;
-import org.fusesource.hawtdb.api.TxPageFile;
-
 import org.structr.common.error.FrameworkException;
 
-//~--- JDK imports ------------------------------------------------------------
-
-import java.util.UUID;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Enqueues a log entry for a user. The entry is written to the log
+ * database asynchronously by the {@link LogWriter} of the log service.
+ *
+ * Parameters: user id, String[] data
  *
  * @author Axel Morgner
  */
 public class WriteLogCommand extends LogServiceCommand {
 
-	private static final Logger logger = Logger.getLogger(WriteLogCommand.class.getName());
-
 	//~--- methods --------------------------------------------------------
 
 	@Override
 	public Object execute(Object... parameters) throws FrameworkException {
 
-		TxPageFile logDb = (TxPageFile) arguments.get("logDb");
+		LogWriter logWriter = (LogWriter) arguments.get("logWriter");
 
-		if (logDb != null) {
+		if (logWriter != null) {
 
 			if (parameters.length == 2) {
 
@@ -63,22 +50,7 @@ public class WriteLogCommand extends LogServiceCommand {
 
 				if (userId != null) {
 
-					synchronized (logDb) {
-
-						Transaction tx                            = logDb.tx();
-						MultiIndexFactory multiIndexFactory       = new MultiIndexFactory(tx);
-						IndexFactory<String, Object> indexFactory = new BTreeIndexFactory<String, Object>();
-						SortedIndex<String, Object> index         = (SortedIndex<String, Object>) multiIndexFactory.openOrCreate(userId, indexFactory);
-						String[] obj                              = (String[]) parameters[1];
-						String uuid                               = UUID.randomUUID().toString().replaceAll("[\\-]+", "");
-
-						index.put(uuid, obj);
-						logger.log(Level.FINE, "Logged for user {0}: {1}", new Object[] { userId, StringUtils.join((String[]) obj, ",") });
-						tx.commit();
-						logDb.flush();
-
-					}
-
+					return logWriter.log(userId, (String[]) parameters[1]);
 				}
 
 			} else {
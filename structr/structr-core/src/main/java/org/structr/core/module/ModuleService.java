@@ -136,6 +136,9 @@ public class ModuleService implements SingletonService {
 		relationshipClassCache.clear();
 		agentClassCache.clear();
 		initializeModules();
+
+		// rebuild resolved schemas for the reloaded entity classes
+		EntityContext.init();
 	}
 
 	/**
@@ -225,6 +225,8 @@ public class CreateRelationshipCommand extends NodeServiceCommand {
 				Relationship rel            = startNode.createRelationshipTo(endNode, relType);
 				AbstractRelationship newRel = relationshipFactory.createRelationship(securityContext, rel);
 
+				EntityContext.relationshipsModified();
+
 				newRel.setProperty(AbstractRelationship.HiddenKey.createdDate.name(), new Date());
 
 				if (newRel != null) {
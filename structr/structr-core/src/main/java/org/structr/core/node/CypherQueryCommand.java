@@ -21,28 +21,22 @@
 
 package org.structr.core.node;
 
-import org.neo4j.cypher.javacompat.ExecutionEngine;
-import org.neo4j.cypher.javacompat.ExecutionResult;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.helpers.collection.IteratorUtil;
-
 import org.structr.common.error.FrameworkException;
 import org.structr.core.UnsupportedArgumentError;
-import org.structr.core.entity.AbstractNode;
+import org.structr.core.cypher.CypherExecutor;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import org.neo4j.graphdb.Relationship;
-import org.structr.core.GraphObject;
-import org.structr.core.entity.AbstractRelationship;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Executes a Cypher query on the shared {@link CypherExecutor} and returns
+ * a {@link org.structr.core.StreamingResult} that instantiates the nodes and
+ * relationships of the result while it is consumed. Variable parts of the
+ * query should be passed as parameters, so that the execution plan of the
+ * query can be reused.
  *
  * @author Christian Morgner
  */
@@ -51,10 +45,7 @@ public class CypherQueryCommand extends NodeServiceCommand {
 	@Override
 	public Object execute(Object... parameters) throws FrameworkException {
 
-		RelationshipFactory relFactory  = (RelationshipFactory) arguments.get("relationshipFactory");
-		GraphDatabaseService graphDb    = (GraphDatabaseService) arguments.get("graphDb");
-		NodeFactory nodeFactory         = (NodeFactory) arguments.get("nodeFactory");
-		ExecutionEngine engine          = new ExecutionEngine(graphDb);
+		CypherExecutor executor         = (CypherExecutor) arguments.get("cypherExecutor");
 		String query                    = null;
 		Map<String, Object> params      = null;
 		boolean includeHiddenAndDeleted = true; // makes more sense as default here
@@ -66,7 +57,7 @@ public class CypherQueryCommand extends NodeServiceCommand {
 				throw new UnsupportedArgumentError("No parameters given. Required parameters: String query");
 				
 			case 4:
-				publicOnly = (Boolean)parameters[2];
+				publicOnly = (Boolean)parameters[3];
 				
 			case 3:
 				includeHiddenAndDeleted = (Boolean)parameters[2];
@@ -80,47 +71,7 @@ public class CypherQueryCommand extends NodeServiceCommand {
 			
 		if (parameters[0] instanceof String) {
 
-			List<GraphObject> resultList    = new LinkedList<GraphObject>();
-			ExecutionResult result          = null;
-			
-			if(params != null) {
-				
-				result = engine.execute(query, params);
-				
-			} else {
-				
-				result = engine.execute(query);
-			}
-			
-			for (String column : result.columns()) {
-
-				for (Object o : IteratorUtil.asIterable(result.columnAs(column))) {
-
-					if (o instanceof Node) {
-
-						AbstractNode node = nodeFactory.createNode(securityContext, (Node) o, includeHiddenAndDeleted, publicOnly);
-
-						if (node != null) {
-
-							resultList.add(node);
-						}
-						
-					} else if (o instanceof Relationship) {
-
-						AbstractRelationship rel = relFactory.createRelationship(securityContext, (Relationship) o);
-
-						if (rel != null) {
-
-							resultList.add(rel);
-						}
-
-					}
-
-				}
-
-			}
-
-			return resultList;
+			return executor.execute(securityContext, query, params, includeHiddenAndDeleted, publicOnly);
 
 		} else {
 
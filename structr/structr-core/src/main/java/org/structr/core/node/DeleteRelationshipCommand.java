@@ -27,6 +27,7 @@ import org.neo4j.graphdb.Relationship;
 
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
+import org.structr.core.EntityContext;
 import org.structr.core.Services;
 import org.structr.core.UnsupportedArgumentError;
 import org.structr.core.entity.AbstractRelationship;
@@ -130,6 +131,7 @@ public class DeleteRelationshipCommand extends NodeServiceCommand {
 
 						// delete node in database
 						relToDelete.delete();
+						EntityContext.relationshipsModified();
 						
 					} catch (IllegalStateException ise) {
 						logger.log(Level.WARNING, ise.getMessage());
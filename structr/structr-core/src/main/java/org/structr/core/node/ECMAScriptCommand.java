@@ -18,17 +18,19 @@
  */
 package org.structr.core.node;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.ContextFactory;
-import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ScriptableObject;
-import org.mozilla.javascript.tools.shell.Global;
+import org.structr.common.ECMAScriptEngine;
 import org.structr.common.error.FrameworkException;
 
 /**
- * Execute given code as ECMAScript return output
+ * Execute given code as ECMAScript return output. Scripts are compiled once
+ * and cached by {@link ECMAScriptEngine}.
+ *
+ * Parameters: the script, and optionally the maximum execution time in
+ * milliseconds and the maximum number of instructions (0 means no limit).
  *
  * @author amorgner
  */
@@ -41,43 +43,40 @@ public class ECMAScriptCommand extends NodeServiceCommand {
 
         StringBuilder out = new StringBuilder();
 
-        StringBuilder scriptContent = new StringBuilder();
-
-        // this command takes exactly 1 parameter of type String
-        if (parameters != null && parameters.length == 1) {
+        if (parameters != null && parameters.length >= 1 && parameters.length <= 3) {
 
             Object o = parameters[0];
 
-            if (o instanceof String) {
+            if (o instanceof String && ((String) o).length() > 0) {
+
+                ECMAScriptEngine engine       = ECMAScriptEngine.getInstance();
+                Map<String, Object> variables = new LinkedHashMap<String, Object>();
+
+                // wrap output to be accessible from inside script
+                variables.put("out", out);
 
-                scriptContent.append((String) o);
+                try {
 
-                if (scriptContent != null && scriptContent.length() > 0) {
+                    Object result = null;
 
-                    // the following block is needed to turn some non-standard
-                    // features on like load, print etc.
-                    Global global = new Global();
-                    Context cx = ContextFactory.getGlobal().enterContext();
-                    global.init(cx);
-                    cx.setOptimizationLevel(-1); // don't compile (there's a 64KB limit)
-                    //cx.setLanguageVersion(Context.VERSION_1_5);
-                    Scriptable scope = cx.initStandardObjects(global);
+                    if (parameters.length > 1) {
 
-                    try {
-                        // wrap output to be accessible from inside script
-                        Object wrappedOut = Context.javaToJS(out, scope);
-                        ScriptableObject.putProperty(scope, "out", wrappedOut);
-                        Object result = cx.evaluateString(scope, scriptContent.toString(), "ScriptCommand", 1, null);
-                        logger.log(Level.INFO, Context.toString(result));
+                        long maxTime         = ((Number) parameters[1]).longValue();
+                        long maxInstructions = parameters.length > 2 ? ((Number) parameters[2]).longValue() : 0;
 
-                    } catch (Throwable t) {
-                        logger.log(Level.SEVERE, "Error evaluating script", t);
-                    } finally {
-                        Context.exit();
+                        result = engine.execute((String) o, variables, maxTime, maxInstructions);
+
+                    } else {
+
+                        result = engine.execute((String) o, variables);
                     }
 
+                    logger.log(Level.INFO, String.valueOf(result));
 
+                } catch (Throwable t) {
+                    logger.log(Level.SEVERE, "Error evaluating script", t);
                 }
+
             }
 
         }
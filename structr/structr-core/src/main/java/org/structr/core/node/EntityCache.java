@@ -0,0 +1,341 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.core.node;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.TransactionManager;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * A bounded second-level cache for structr nodes, keyed by database node id.
+ * Each entry holds the entity class of a node and its raw (unconverted)
+ * property values, which are shared between all node wrappers created from
+ * the cache.
+ *
+ * The cache is split into segments with LRU eviction each, so that
+ * concurrent readers do not contend on a single lock. It is bypassed for
+ * threads that are inside a transaction, as they could otherwise see
+ * cached values instead of their own modifications, or publish
+ * uncommitted values to other threads. Entries of modified and deleted
+ * nodes are invalidated by the transaction event handler.
+ *
+ * @author Christian Morgner
+ */
+public class EntityCache {
+
+	private static final Logger logger     = Logger.getLogger(EntityCache.class.getName());
+	private static final int SEGMENT_COUNT = 16;
+
+	//~--- fields ---------------------------------------------------------
+
+	private final AtomicLong evictions          = new AtomicLong(0);
+	private final AtomicLong hits               = new AtomicLong(0);
+	private final AtomicLong invalidations      = new AtomicLong(0);
+	private final AtomicLong misses             = new AtomicLong(0);
+	private volatile TransactionManager txManager = null;
+	private Segment[] segments                  = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public EntityCache(final int maxSize) {
+
+		int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+
+		segments = new Segment[SEGMENT_COUNT];
+
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+
+			segments[i] = new Segment(segmentSize);
+		}
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Returns the cached entry for the given node id, or null if there
+	 * is none or the cache is bypassed for the current thread.
+	 *
+	 * @param nodeId
+	 * @return the cached entry or null
+	 */
+	public CachedEntity get(final long nodeId) {
+
+		if (!isEnabled()) {
+
+			return null;
+		}
+
+		Segment segment = getSegment(nodeId);
+		CachedEntity entity;
+
+		synchronized (segment) {
+
+			entity = segment.get(nodeId);
+		}
+
+		if (entity != null) {
+
+			hits.incrementAndGet();
+
+		} else {
+
+			misses.incrementAndGet();
+		}
+
+		return entity;
+
+	}
+
+	/**
+	 * Creates and stores a new entry for the given node id and entity
+	 * class.
+	 *
+	 * @param nodeId
+	 * @param type
+	 * @return the new entry, or null if the cache is bypassed for the current thread
+	 */
+	public CachedEntity put(final long nodeId, final Class type) {
+
+		if (!isEnabled()) {
+
+			return null;
+		}
+
+		Segment segment     = getSegment(nodeId);
+		CachedEntity entity = new CachedEntity(type);
+
+		synchronized (segment) {
+
+			segment.put(nodeId, entity);
+		}
+
+		return entity;
+
+	}
+
+	public void invalidate(final long nodeId) {
+
+		Segment segment = getSegment(nodeId);
+
+		synchronized (segment) {
+
+			if (segment.remove(nodeId) != null) {
+
+				invalidations.incrementAndGet();
+			}
+		}
+
+	}
+
+	public void clear() {
+
+		for (Segment segment : segments) {
+
+			synchronized (segment) {
+
+				segment.clear();
+			}
+		}
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns true if the current thread may use the cache, i.e. if it
+	 * is not inside a transaction.
+	 *
+	 * @return
+	 */
+	public boolean isEnabled() {
+
+		TransactionManager tm = txManager;
+
+		if (tm == null) {
+
+			return false;
+		}
+
+		try {
+
+			return tm.getTransaction() == null;
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to determine transaction state", t);
+		}
+
+		return false;
+
+	}
+
+	public int size() {
+
+		int size = 0;
+
+		for (Segment segment : segments) {
+
+			synchronized (segment) {
+
+				size += segment.size();
+			}
+		}
+
+		return size;
+
+	}
+
+	public long getHits() {
+
+		return hits.get();
+
+	}
+
+	public long getMisses() {
+
+		return misses.get();
+
+	}
+
+	public long getEvictions() {
+
+		return evictions.get();
+
+	}
+
+	public long getInvalidations() {
+
+		return invalidations.get();
+
+	}
+
+	private Segment getSegment(final long nodeId) {
+
+		return segments[(int) ((nodeId ^ (nodeId >>> 32)) & (SEGMENT_COUNT - 1))];
+
+	}
+
+	@Override
+	public String toString() {
+
+		return "EntityCache(size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", invalidations="
+		       + getInvalidations() + ")";
+
+	}
+
+	//~--- set methods ----------------------------------------------------
+
+	/**
+	 * Sets the transaction manager that is used to detect whether the
+	 * current thread is inside a transaction. The cache stays disabled
+	 * until a transaction manager is set.
+	 *
+	 * @param txManager
+	 */
+	public void setTransactionManager(final TransactionManager txManager) {
+
+		this.txManager = txManager;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * A cache entry, holding the entity class and the raw property
+	 * values of a node.
+	 */
+	public static class CachedEntity {
+
+		private final Map<String, Object> rawProperties = new ConcurrentHashMap<String, Object>();
+		private final Class type;
+
+		//~--- constructors ---------------------------------------------------
+
+		public CachedEntity(final Class type) {
+
+			this.type = type;
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public Class getType() {
+
+			return type;
+
+		}
+
+		public Map<String, Object> getRawProperties() {
+
+			return rawProperties;
+
+		}
+
+	}
+
+	/**
+	 * An access-ordered map with a maximum size. Callers must
+	 * synchronize on the segment.
+	 */
+	private class Segment extends LinkedHashMap<Long, CachedEntity> {
+
+		private int maxSize = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Segment(final int maxSize) {
+
+			super(16, 0.75f, true);
+
+			this.maxSize = maxSize;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, CachedEntity> eldest) {
+
+			if (size() > maxSize) {
+
+				evictions.incrementAndGet();
+
+				return true;
+			}
+
+			return false;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.core.node;
+
+import org.neo4j.graphdb.NotFoundException;
+
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.AbstractRelationship;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * The index changes of a single transaction. Entities are either marked
+ * for a complete re-indexing, or for re-indexing of a set of property
+ * keys. Each entity and key is contained at most once, so that the index
+ * is written only once per entity, key and index when the delta is
+ * applied by {@link IndexNodeCommand} and {@link IndexRelationshipCommand}.
+ *
+ * @author Christian Morgner
+ */
+public class IndexDelta {
+
+	private final Map<AbstractNode, Set<String>> nodes                 = new LinkedHashMap<AbstractNode, Set<String>>();
+	private final Map<AbstractRelationship, Set<String>> relationships = new LinkedHashMap<AbstractRelationship, Set<String>>();
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Marks the given node for complete re-indexing.
+	 *
+	 * @param node
+	 */
+	public void addNode(final AbstractNode node) {
+
+		nodes.put(node, null);
+
+	}
+
+	/**
+	 * Marks the given property of the given node for re-indexing.
+	 *
+	 * @param node
+	 * @param key
+	 */
+	public void addNodeProperty(final AbstractNode node, final String key) {
+
+		add(nodes, node, key);
+
+	}
+
+	public void removeNode(final AbstractNode node) {
+
+		nodes.remove(node);
+
+	}
+
+	/**
+	 * Marks the given relationship for complete re-indexing.
+	 *
+	 * @param rel
+	 */
+	public void addRelationship(final AbstractRelationship rel) {
+
+		relationships.put(rel, null);
+
+	}
+
+	/**
+	 * Marks the given property of the given relationship for re-indexing.
+	 *
+	 * @param rel
+	 * @param key
+	 */
+	public void addRelationshipProperty(final AbstractRelationship rel, final String key) {
+
+		add(relationships, rel, key);
+
+	}
+
+	public void removeRelationship(final AbstractRelationship rel) {
+
+		relationships.remove(rel);
+
+	}
+
+	/**
+	 * Adds all changes of the given delta to this delta.
+	 *
+	 * @param delta
+	 */
+	public void addAll(final IndexDelta delta) {
+
+		addAll(nodes, delta.nodes);
+		addAll(relationships, delta.relationships);
+
+	}
+
+	public void clear() {
+
+		nodes.clear();
+		relationships.clear();
+
+	}
+
+	/**
+	 * Replaces the nodes of this delta with new instances, so that the
+	 * current values are indexed instead of the values cached by the old
+	 * instances. Deltas that are applied after the commit of a later
+	 * transaction then don't overwrite its values. Nodes that were deleted
+	 * in the meantime are dropped.
+	 *
+	 * @param securityContext
+	 * @throws FrameworkException
+	 */
+	public void reloadNodes(final SecurityContext securityContext) throws FrameworkException {
+
+		Map<AbstractNode, Set<String>> reloaded = new LinkedHashMap<AbstractNode, Set<String>>();
+		NodeFactory nodeFactory                 = new NodeFactory();
+
+		for (Map.Entry<AbstractNode, Set<String>> entry : nodes.entrySet()) {
+
+			try {
+
+				AbstractNode node = nodeFactory.createNode(securityContext, entry.getKey().getNode(), true, false);
+
+				if (node != null) {
+
+					reloaded.put(node, entry.getValue());
+				}
+
+			} catch (NotFoundException nfex) {
+
+				// node was deleted
+			}
+
+		}
+
+		nodes.clear();
+		nodes.putAll(reloaded);
+
+	}
+
+	private <T> void addAll(final Map<T, Set<String>> map, final Map<T, Set<String>> other) {
+
+		for (Map.Entry<T, Set<String>> entry : other.entrySet()) {
+
+			Set<String> keys = entry.getValue();
+
+			if (keys == null) {
+
+				map.put(entry.getKey(), null);
+
+			} else {
+
+				for (String key : keys) {
+
+					add(map, entry.getKey(), key);
+				}
+
+			}
+
+		}
+
+	}
+
+	private <T> void add(final Map<T, Set<String>> map, final T entity, final String key) {
+
+		if (map.containsKey(entity)) {
+
+			Set<String> keys = map.get(entity);
+
+			// null means the entity is re-indexed completely
+			if (keys != null) {
+
+				keys.add(key);
+			}
+
+		} else {
+
+			Set<String> keys = new LinkedHashSet<String>();
+
+			keys.add(key);
+			map.put(entity, keys);
+
+		}
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the nodes of this delta, mapped to the keys to re-index, or
+	 * to null if all keys are to be re-indexed.
+	 *
+	 * @return
+	 */
+	public Map<AbstractNode, Set<String>> getNodes() {
+
+		return nodes;
+
+	}
+
+	/**
+	 * Returns the relationships of this delta, mapped to the keys to
+	 * re-index, or to null if all keys are to be re-indexed.
+	 *
+	 * @return
+	 */
+	public Map<AbstractRelationship, Set<String>> getRelationships() {
+
+		return relationships;
+
+	}
+
+	public boolean hasNodes() {
+
+		return !nodes.isEmpty();
+
+	}
+
+	public boolean hasRelationships() {
+
+		return !relationships.isEmpty();
+
+	}
+
+}
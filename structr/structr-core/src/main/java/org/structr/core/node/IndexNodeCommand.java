@@ -42,6 +42,7 @@ import org.structr.core.node.NodeService.NodeIndex;
 //~--- JDK imports ------------------------------------------------------------
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -118,12 +119,27 @@ public class IndexNodeCommand extends NodeServiceCommand {
 
 					indexNodes((List<AbstractNode>) parameters[0]);
 
+				} else if (parameters[0] instanceof IndexDelta) {
+
+					indexDelta((IndexDelta) parameters[0]);
+
 				}
 
 				break;
 
 			case 2 :
 
+				// index all properties of this node in a single index
+				if ((parameters[0] instanceof AbstractNode) && (parameters[1] instanceof NodeIndex)) {
+
+					node = (AbstractNode) parameters[0];
+
+					indexNode(node, new NodeIndex[] { (NodeIndex) parameters[1] });
+
+					break;
+
+				}
+
 				// index a certain property
 				if (parameters[0] instanceof Long) {
 
@@ -178,8 +194,59 @@ public class IndexNodeCommand extends NodeServiceCommand {
 		}
 	}
 
+	/**
+	 * Applies the node part of the given delta.
+	 *
+	 * @param delta
+	 */
+	private void indexDelta(final IndexDelta delta) {
+
+		for (Map.Entry<AbstractNode, Set<String>> entry : delta.getNodes().entrySet()) {
+
+			AbstractNode node = entry.getKey();
+			Set<String> keys  = entry.getValue();
+
+			if (keys == null) {
+
+				indexNode(node);
+
+			} else {
+
+				try {
+
+					Map<String, Object> values = new HashMap<String, Object>();
+
+					for (String key : keys) {
+
+						indexProperty(node, key, values);
+
+					}
+
+				} catch (Throwable t) {
+
+					logger.log(Level.WARNING, "Unable to index node {0}: {1}", new Object[] { node.getNode().getId(), t.getMessage() } );
+
+				}
+
+			}
+
+		}
+	}
+
 	private void indexNode(final AbstractNode node) {
 
+		indexNode(node, (NodeIndex[]) arguments.get("indices"));
+	}
+
+	/**
+	 * Indexes all searchable properties of the given node in the given
+	 * indices only.
+	 *
+	 * @param node
+	 * @param nodeIndices
+	 */
+	private void indexNode(final AbstractNode node, final NodeIndex[] nodeIndices) {
+
 		try {
 
 			String uuid = node.getStringProperty(AbstractNode.Key.uuid);
@@ -191,27 +258,39 @@ public class IndexNodeCommand extends NodeServiceCommand {
 
 			}
 
-			for (Enum index : (NodeIndex[]) arguments.get("indices")) {
+			Map<String, Object> values = new HashMap<String, Object>();
+			Set<String> indexedKeys    = new LinkedHashSet<String>();
+
+			for (Enum index : nodeIndices) {
 
 				Set<String> properties = EntityContext.getSearchableProperties(node.getClass(), index.name());
 
 				for (String key : properties) {
 
-					indexProperty(node, key, index.name());
+					if (indexProperty(node, key, index.name(), values)) {
+
+						indexedKeys.add(key);
+					}
 
 				}
 
 			}
 
+			for (String key : indexedKeys) {
+
+				indexSpecialProperty(node, key, values.get(key), nodeIndices);
+
+			}
+
 			Node dbNode = node.getNode();
 
-			if ((dbNode.hasProperty(Location.Key.latitude.name())) && (dbNode.hasProperty(Location.Key.longitude.name()))) {
+			if (contains(nodeIndices, NodeIndex.layer) && (dbNode.hasProperty(Location.Key.latitude.name())) && (dbNode.hasProperty(Location.Key.longitude.name()))) {
 
 				LayerNodeIndex layerIndex = (LayerNodeIndex) indices.get(NodeIndex.layer.name());
 
 				try {
 
-					synchronized (layerIndex) {
+					synchronized (NodeService.getIndexWriteLock(NodeIndex.layer.name())) {
 					
 						layerIndex.add(dbNode, "", "");
 					}
@@ -252,20 +331,39 @@ public class IndexNodeCommand extends NodeServiceCommand {
 
 	private void indexProperty(final AbstractNode node, final String key) {
 
+		indexProperty(node, key, new HashMap<String, Object>());
+	}
+
+	private void indexProperty(final AbstractNode node, final String key, final Map<String, Object> values) {
+
+		boolean indexed = false;
+
 		for (Enum index : (NodeIndex[]) arguments.get("indices")) {
 
 			Set<String> properties = EntityContext.getSearchableProperties(node.getClass(), index.name());
 
 			if ((properties != null) && properties.contains(key)) {
 
-				indexProperty(node, key, index.name());
+				indexed |= indexProperty(node, key, index.name(), values);
 
 			}
 
 		}
+
+		if (indexed) {
+
+			indexSpecialProperty(node, key, values.get(key), (NodeIndex[]) arguments.get("indices"));
+		}
 	}
 
-	private void indexProperty(final AbstractNode node, final String key, final String indexName) {
+	/**
+	 * Indexes the given property in the given index. The value for indexing
+	 * is read only once per key and stored in the given map, so that it can
+	 * be re-used for the other indices.
+	 *
+	 * @return true if the property was indexed
+	 */
+	private boolean indexProperty(final AbstractNode node, final String key, final String indexName, final Map<String, Object> values) {
 
 		// String type = node.getClass().getSimpleName();
 		Node dbNode = node.getNode();
@@ -275,7 +373,7 @@ public class IndexNodeCommand extends NodeServiceCommand {
 
 			logger.log(Level.SEVERE, "Node {0} has null key", new Object[] { id });
 
-			return;
+			return false;
 
 		}
 
@@ -286,16 +384,23 @@ public class IndexNodeCommand extends NodeServiceCommand {
 			logger.log(Level.SEVERE, "Node {0} has empty, not-null key, removing property", new Object[] { id });
 			dbNode.removeProperty(key);
 
-			return;
+			return false;
 
 		}
 
-		Object value            = node.getProperty(key);    // dbNode.getProperty(key);
-		Object valueForIndexing = node.getPropertyForIndexing(key);
-		
-		if (value == null || (value != null && (value instanceof String) && StringUtils.isEmpty((String) value))) {
-			valueForIndexing = SearchNodeCommand.IMPROBABLE_SEARCH_VALUE;
-			value = SearchNodeCommand.IMPROBABLE_SEARCH_VALUE;
+		Object valueForIndexing = values.get(key);
+
+		if (valueForIndexing == null) {
+
+			Object value = node.getProperty(key);    // dbNode.getProperty(key);
+
+			valueForIndexing = node.getPropertyForIndexing(key);
+
+			if (value == null || (value != null && (value instanceof String) && StringUtils.isEmpty((String) value))) {
+				valueForIndexing = SearchNodeCommand.IMPROBABLE_SEARCH_VALUE;
+			}
+
+			values.put(key, valueForIndexing);
 		}
 
 		// logger.log(Level.INFO, "Indexing value {0} for key {1}", new Object[] { valueForIndexing, key });
@@ -304,34 +409,57 @@ public class IndexNodeCommand extends NodeServiceCommand {
 		removeNodePropertyFromIndex(dbNode, key, indexName);
 		logger.log(Level.FINE, "Node {0}: Old value for key {1} removed from all indices", new Object[] { id, key });
 		addNodePropertyToIndex(dbNode, key, valueForIndexing, indexName);
+		logger.log(Level.FINE, "Node {0}: New value {2} added for key {1}", new Object[] { id, key, valueForIndexing });
+
+		return true;
+	}
+
+	/**
+	 * Maintains the user and uuid indices, which only hold a few keys.
+	 */
+	private void indexSpecialProperty(final AbstractNode node, final String key, final Object valueForIndexing, final NodeIndex[] nodeIndices) {
+
+		Node dbNode = node.getNode();
 
-		if ((node instanceof Principal) && (key.equals(AbstractNode.Key.name.name()) || key.equals(Person.Key.email.name()))) {
+		if (contains(nodeIndices, NodeIndex.user) && (node instanceof Principal) && (key.equals(AbstractNode.Key.name.name()) || key.equals(Person.Key.email.name()))) {
 
 			removeNodePropertyFromIndex(dbNode, key, NodeIndex.user.name());
 			addNodePropertyToIndex(dbNode, key, valueForIndexing, NodeIndex.user.name());
 
 		}
 
-		if (key.equals(AbstractNode.Key.uuid.name())) {
+		if (contains(nodeIndices, NodeIndex.uuid) && key.equals(AbstractNode.Key.uuid.name())) {
 
 			removeNodePropertyFromIndex(dbNode, key, NodeIndex.uuid.name());
 			addNodePropertyToIndex(dbNode, key, valueForIndexing, NodeIndex.uuid.name());
 
 		}
+	}
+
+	private boolean contains(final NodeIndex[] nodeIndices, final NodeIndex index) {
+
+		for (NodeIndex nodeIndex : nodeIndices) {
+
+			if (nodeIndex.equals(index)) {
+
+				return true;
+			}
+
+		}
 
-		logger.log(Level.FINE, "Node {0}: New value {2} added for key {1}", new Object[] { id, key, value });
+		return false;
 	}
 
 	private void removeNodePropertyFromIndex(final Node node, final String key, final String indexName) {
 		Index<Node> index = indices.get(indexName);
-		synchronized(index) {
+		synchronized(NodeService.getIndexWriteLock(indexName)) {
 			index.remove(node, key);
 		}
 	}
 
 	private void addNodePropertyToIndex(final Node node, final String key, final Object value, final String indexName) {
 		Index<Node> index = indices.get(indexName);
-		synchronized(index) {
+		synchronized(NodeService.getIndexWriteLock(indexName)) {
 			index.add(node, key, value);
 		}
 	}
@@ -39,6 +39,7 @@ import org.structr.core.node.search.Search;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.core.entity.AbstractNode;
@@ -104,6 +105,10 @@ public class IndexRelationshipCommand extends NodeServiceCommand {
 
 					indexRelationships((List<AbstractRelationship>) parameters[0]);
 
+				} else if (parameters[0] instanceof IndexDelta) {
+
+					indexDelta((IndexDelta) parameters[0]);
+
 				}
 
 				break;
@@ -164,6 +169,35 @@ public class IndexRelationshipCommand extends NodeServiceCommand {
 		}
 	}
 
+	/**
+	 * Applies the relationship part of the given delta.
+	 *
+	 * @param delta
+	 */
+	private void indexDelta(final IndexDelta delta) throws FrameworkException {
+
+		for (Map.Entry<AbstractRelationship, Set<String>> entry : delta.getRelationships().entrySet()) {
+
+			AbstractRelationship rel = entry.getKey();
+			Set<String> keys         = entry.getValue();
+
+			if (keys == null) {
+
+				indexRelationship(rel);
+
+			} else {
+
+				for (String key : keys) {
+
+					indexProperty(rel, key);
+
+				}
+
+			}
+
+		}
+	}
+
 	private void indexRelationship(final AbstractRelationship rel) throws FrameworkException {
 
 		String uuid = rel.getStringProperty(AbstractRelationship.Key.uuid);
@@ -290,21 +324,21 @@ public class IndexRelationshipCommand extends NodeServiceCommand {
 
 	private void addRelationshipPropertyToFulltextIndex(final Relationship rel, final String key, final Object value) {
 		Index<Relationship> index = indices.get(RelationshipIndex.rel_fulltext.name());
-		synchronized(index) {
+		synchronized(NodeService.getIndexWriteLock(RelationshipIndex.rel_fulltext.name())) {
 			index.add(rel, key, value);
 		}
 	}
 
 	private void addRelationshipPropertyToUuidIndex(final Relationship rel, final String key, final Object value) {
 		Index<Relationship> index = indices.get(RelationshipIndex.rel_uuid.name());
-		synchronized(index) {
+		synchronized(NodeService.getIndexWriteLock(RelationshipIndex.rel_uuid.name())) {
 			index.add(rel, key, value);
 		}
 	}
 
 	private void addRelationshipPropertyToKeywordIndex(final Relationship rel, final String key, final Object value) {
 		Index<Relationship> index = indices.get(RelationshipIndex.rel_keyword.name());
-		synchronized(index) {
+		synchronized(NodeService.getIndexWriteLock(RelationshipIndex.rel_keyword.name())) {
 			index.add(rel, key, value);
 		}
 	}
@@ -27,6 +27,7 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.collection.ClosableIterator;
 
 import org.structr.common.Permission;
 import org.structr.common.RelType;
@@ -36,16 +37,20 @@ import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.Result;
 import org.structr.core.Services;
+import org.structr.core.StreamingResult;
+import org.structr.core.node.search.SearchCursor;
 import org.structr.core.entity.*;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.GenericNode;
 import org.structr.core.module.GetEntityClassCommand;
+import org.structr.core.node.EntityCache.CachedEntity;
 
 //~--- JDK imports ------------------------------------------------------------
 
 import java.lang.reflect.Constructor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,7 +71,7 @@ public class NodeFactory<T extends AbstractNode> {
 	//~--- fields ---------------------------------------------------------
 
 	private ThreadLocalCommand getEntityClassCommand = new ThreadLocalCommand(GetEntityClassCommand.class);
-	private Map<Class, Constructor> constructors     = new LinkedHashMap<Class, Constructor>();
+	private Map<Class, Constructor> constructors     = new ConcurrentHashMap<Class, Constructor>();
 
 	//~--- constructors ---------------------------------------------------
 
@@ -83,12 +88,23 @@ public class NodeFactory<T extends AbstractNode> {
 
 	public AbstractNode createNode(final SecurityContext securityContext, final Node node, final boolean includeDeletedAndHidden, final boolean publicOnly) throws FrameworkException {
 
+		// use the entity class from the entity cache if possible, so
+		// that the type property doesn't need to be read
+		EntityCache entityCache   = NodeService.getEntityCache();
+		CachedEntity cachedEntity = entityCache.get(node.getId());
+
+		if (cachedEntity != null) {
+
+			return createNode(securityContext, node, cachedEntity.getType(), cachedEntity, includeDeletedAndHidden, publicOnly);
+		}
+
 		String type     = AbstractNode.Key.type.name();
 		String nodeType = node.hasProperty(type)
 				  ? (String) node.getProperty(type)
 				  : "";
+		Class nodeClass = (Class) getEntityClassCommand.get().execute(nodeType);
 
-		return createNode(securityContext, node, nodeType, includeDeletedAndHidden, publicOnly);
+		return createNode(securityContext, node, nodeClass, entityCache.put(node.getId(), nodeClass), includeDeletedAndHidden, publicOnly);
 
 	}
 
@@ -101,19 +117,29 @@ public class NodeFactory<T extends AbstractNode> {
 	public AbstractNode createNode(final SecurityContext securityContext, final Node node, final String nodeType, final boolean includeDeletedAndHidden, final boolean publicOnly)
 		throws FrameworkException {
 
-		/*
-		 *  caching disabled for now...
-		 * AbstractNode cachedNode = null;
-		 *
-		 * // only look up node in cache if uuid is already present
-		 * if(node.hasProperty(AbstractNode.Key.uuid.name())) {
-		 *       String uuid = (String)node.getProperty(AbstractNode.Key.uuid.name());
-		 *       cachedNode = NodeService.getNodeFromCache(uuid);
-		 * }
-		 *
-		 * if(cachedNode == null) {
-		 */
-		Class nodeClass      = (Class) getEntityClassCommand.get().execute(nodeType);
+		EntityCache entityCache   = NodeService.getEntityCache();
+		Class nodeClass           = (Class) getEntityClassCommand.get().execute(nodeType);
+		CachedEntity cachedEntity = entityCache.get(node.getId());
+
+		if (cachedEntity == null) {
+
+			cachedEntity = entityCache.put(node.getId(), nodeClass);
+
+		} else if (cachedEntity.getType() != nodeClass) {
+
+			// the caller asked for a different type than the cached one,
+			// don't share raw properties between the two
+			cachedEntity = null;
+		}
+
+		return createNode(securityContext, node, nodeClass, cachedEntity, includeDeletedAndHidden, publicOnly);
+
+	}
+
+	private AbstractNode createNode(final SecurityContext securityContext, final Node node, final Class nodeClass, final CachedEntity cachedEntity, final boolean includeDeletedAndHidden,
+					final boolean publicOnly)
+		throws FrameworkException {
+
 		AbstractNode newNode = null;
 
 		if (nodeClass != null) {
@@ -146,7 +172,15 @@ public class NodeFactory<T extends AbstractNode> {
 			newNode = new GenericNode();
 		}
 
-		newNode.init(securityContext, node);
+		if (cachedEntity != null) {
+
+			newNode.init(securityContext, node, cachedEntity.getRawProperties());
+
+		} else {
+
+			newNode.init(securityContext, node);
+		}
+
 		newNode.onNodeInstantiation();
 
 		// check access
@@ -180,12 +214,35 @@ public class NodeFactory<T extends AbstractNode> {
 	public Result createNodes(final SecurityContext securityContext, final IndexHits<Node> input, final boolean includeDeletedAndHidden, final boolean publicOnly, long pageSize, long page)
 		throws FrameworkException {
 
+		return createNodes(securityContext, input, includeDeletedAndHidden, publicOnly, pageSize, page, null);
+
+	}
+
+	/**
+	 * Create structr nodes from the underlying database nodes, starting
+	 * at the raw index offset of the given cursor if it has one. The
+	 * returned result contains a cursor for the next page if there are
+	 * more hits left.
+	 *
+	 * @param securityContext
+	 * @param input
+	 * @param includeDeletedAndHidden
+	 * @param publicOnly
+	 * @param pageSize
+	 * @param page
+	 * @param cursor the cursor for the requested page, or null
+	 * @return
+	 */
+	public Result createNodes(final SecurityContext securityContext, final IndexHits<Node> input, final boolean includeDeletedAndHidden, final boolean publicOnly, long pageSize, long page, final SearchCursor cursor)
+		throws FrameworkException {
+
 		List<AbstractNode> nodes = new LinkedList<AbstractNode>();
 		long offset              = page > 0
 					   ? (page - 1) * pageSize
 					   : 0;
 		long position            = 0L;
 		long count               = 0L;
+		long rawPosition         = 0L;
 
 		if (input != null) {
 
@@ -276,6 +333,19 @@ public class NodeFactory<T extends AbstractNode> {
 
 			} else {
 
+				// skip the hits of the preceding pages without creating nodes
+				if (cursor != null && cursor.hasRawOffset()) {
+
+					while (rawPosition < cursor.getRawOffset() && input.hasNext()) {
+
+						input.next();
+
+						rawPosition++;
+					}
+
+					position = offset;
+				}
+
 				// Services.setAttribute(RAW_RESULT_COUNT + Thread.currentThread().getId(), size);
 				if (input.iterator().hasNext()) {
 
@@ -283,6 +353,8 @@ public class NodeFactory<T extends AbstractNode> {
 
 						AbstractNode n = createNode(securityContext, (Node) node, includeDeletedAndHidden, publicOnly);
 
+						rawPosition++;
+
 						// Check is done in createNode already, so we don't have to do it again
 						if (n != null) {            // && isReadable(securityContext, n, includeDeletedAndHidden, publicOnly)) {
 
@@ -291,7 +363,15 @@ public class NodeFactory<T extends AbstractNode> {
 								// stop if we got enough nodes
 								if (pageSize > 0 && ++count > pageSize) {
 
-									return new Result(nodes, size, true, false);
+									Result result = new Result(nodes, size, true, false);
+
+									// next page starts with the current hit
+									if (cursor != null) {
+
+										result.setNextCursor(cursor.next(rawPosition - 1));
+									}
+
+									return result;
 								}
 
 								nodes.add(n);
@@ -313,6 +393,56 @@ public class NodeFactory<T extends AbstractNode> {
 
 	}
 
+	/**
+	 * Create a streaming result that instantiates structr nodes from the
+	 * given index hits one at a time while it is being consumed. Paging
+	 * and access checks are applied exactly as in
+	 * {@link #createNodes(SecurityContext, IndexHits, boolean, boolean, long, long)},
+	 * but no intermediate list is built. The index hits are closed when
+	 * the result is exhausted or closed.
+	 *
+	 * Spatial index hits are not supported here, as they need to be
+	 * resolved to the nodes located at each hit.
+	 *
+	 * @param securityContext
+	 * @param input
+	 * @param includeDeletedAndHidden
+	 * @param publicOnly
+	 * @param pageSize
+	 * @param page
+	 * @return
+	 */
+	public StreamingResult createNodesLazily(final SecurityContext securityContext, final IndexHits<Node> input, final boolean includeDeletedAndHidden, final boolean publicOnly, long pageSize, long page) {
+
+		return createNodesLazily(securityContext, input, includeDeletedAndHidden, publicOnly, pageSize, page, null);
+
+	}
+
+	/**
+	 * Create a streaming result as above, starting at the raw index offset
+	 * of the given cursor if it has one. The cursor for the next page is
+	 * set on the result when the page has been consumed.
+	 *
+	 * @param securityContext
+	 * @param input
+	 * @param includeDeletedAndHidden
+	 * @param publicOnly
+	 * @param pageSize
+	 * @param page
+	 * @param cursor the cursor for the requested page, or null
+	 * @return
+	 */
+	public StreamingResult createNodesLazily(final SecurityContext securityContext, final IndexHits<Node> input, final boolean includeDeletedAndHidden, final boolean publicOnly, long pageSize, long page, final SearchCursor cursor) {
+
+		NodeIterator iterator  = new NodeIterator(securityContext, input, includeDeletedAndHidden, publicOnly, pageSize, page, cursor);
+		StreamingResult result = new StreamingResult(iterator, input.size(), true, false);
+
+		iterator.setResult(result);
+
+		return result;
+
+	}
+
 	/**
 	 * Create structr nodes from all given underlying database nodes
 	 *
@@ -396,4 +526,134 @@ public class NodeFactory<T extends AbstractNode> {
 
 	}
 
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Lazily creates readable structr nodes from index hits, honoring
+	 * the given page size and page.
+	 */
+	private class NodeIterator implements ClosableIterator<AbstractNode> {
+
+		private SecurityContext securityContext = null;
+		private IndexHits<Node> input           = null;
+		private SearchCursor cursor             = null;
+		private Result result                   = null;
+		private boolean includeDeletedAndHidden = false;
+		private boolean publicOnly              = false;
+		private AbstractNode nextNode           = null;
+		private long pageSize                   = -1;
+		private long offset                     = 0L;
+		private long position                   = 0L;
+		private long count                      = 0L;
+		private long rawPosition                = 0L;
+
+		public NodeIterator(final SecurityContext securityContext, final IndexHits<Node> input, final boolean includeDeletedAndHidden, final boolean publicOnly, long pageSize, long page, final SearchCursor cursor) {
+
+			this.securityContext         = securityContext;
+			this.input                   = input;
+			this.cursor                  = cursor;
+			this.includeDeletedAndHidden = includeDeletedAndHidden;
+			this.publicOnly              = publicOnly;
+			this.pageSize                = pageSize;
+			this.offset                  = page > 0
+						       ? (page - 1) * pageSize
+						       : 0;
+
+			// skip the hits of the preceding pages without creating nodes
+			if (cursor != null && cursor.hasRawOffset()) {
+
+				while (rawPosition < cursor.getRawOffset() && input.hasNext()) {
+
+					input.next();
+
+					rawPosition++;
+				}
+
+				position = offset;
+			}
+
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			while (nextNode == null && input.hasNext()) {
+
+				// stop if we got enough nodes
+				if (pageSize > 0 && count >= pageSize) {
+
+					// next page starts with the current hit
+					if (cursor != null && result != null) {
+
+						result.setNextCursor(cursor.next(rawPosition));
+					}
+
+					return false;
+				}
+
+				try {
+
+					rawPosition++;
+
+					AbstractNode n = createNode(securityContext, input.next(), includeDeletedAndHidden, publicOnly);
+
+					// Check is done in createNode already
+					if (n != null && ++position > offset) {
+
+						nextNode = n;
+
+						count++;
+					}
+
+				} catch (FrameworkException fex) {
+
+					logger.log(Level.WARNING, "Unable to create node", fex);
+				}
+
+			}
+
+			return nextNode != null;
+
+		}
+
+		@Override
+		public AbstractNode next() {
+
+			if (!hasNext()) {
+
+				throw new NoSuchElementException();
+			}
+
+			AbstractNode n = nextNode;
+
+			nextNode = null;
+
+			return n;
+
+		}
+
+		@Override
+		public void remove() {
+
+			throw new UnsupportedOperationException("Removal not supported.");
+
+		}
+
+		@Override
+		public void close() {
+
+			input.close();
+
+		}
+
+		//~--- set methods ----------------------------------------------------
+
+		public void setResult(final Result result) {
+
+			this.result = result;
+
+		}
+
+	}
+
 }
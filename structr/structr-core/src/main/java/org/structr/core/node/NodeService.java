@@ -30,14 +30,18 @@ import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.index.impl.lucene.LuceneIndexImplementation;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.GraphDatabaseAPI;
 
+import org.structr.common.GeoCodingCache;
 import org.structr.common.SecurityContext;
+import org.structr.common.ThumbnailService;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.EntityContext;
 import org.structr.core.RunnableService;
 import org.structr.core.Services;
 import org.structr.core.SingletonService;
+import org.structr.core.cypher.CypherExecutor;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Location;
 
@@ -46,9 +50,17 @@ import org.structr.core.entity.Location;
 import java.io.File;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.collections.map.LRUMap;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -62,7 +74,21 @@ public class NodeService implements SingletonService {
 
 	//~--- fields ---------------------------------------------------------
 
-	private static final Map<String, AbstractNode> nodeCache = (Map<String, AbstractNode>)Collections.synchronizedMap(new LRUMap(100000));
+	private static final int DEFAULT_ENTITY_CACHE_SIZE      = 100000;
+	private static final int DEFAULT_PERMISSION_CACHE_SIZE  = 100000;
+	private static final int DEFAULT_INDEX_QUEUE_SIZE       = 1000;
+	private static volatile EntityCache entityCache         = new EntityCache(DEFAULT_ENTITY_CACHE_SIZE);
+	private static volatile PermissionCache permissionCache = new PermissionCache(DEFAULT_PERMISSION_CACHE_SIZE);
+
+	// Index reads need no locking, the lucene index provider hands out reference-counted
+	// searchers which are refreshed after each commit. Only writers are coordinated.
+	private static final ConcurrentHashMap<String, Object> indexWriteLocks = new ConcurrentHashMap<String, Object>();
+
+	// Executor for write-behind indexing of nodes, null if indexing is synchronous
+	private static volatile ExecutorService indexExecutor = null;
+
+	// Shared Cypher execution engine, keeps its query plans across commands
+	private static volatile CypherExecutor cypherExecutor = null;
 	
 	private Index<Node> fulltextIndex               = null;
 	private GraphDatabaseService graphDb            = null;
@@ -105,6 +131,7 @@ public class NodeService implements SingletonService {
 			command.setArgument(RelationshipIndex.rel_keyword.name(), relKeywordIndex);
 			command.setArgument("nodeFactory", nodeFactory);
 			command.setArgument("relationshipFactory", relationshipFactory);
+			command.setArgument("cypherExecutor", cypherExecutor);
 			command.setArgument("filesPath", Services.getFilesPath());
 			command.setArgument("indices", NodeIndex.values());
 			command.setArgument("relationshipIndices", RelationshipIndex.values());
@@ -201,6 +228,48 @@ public class NodeService implements SingletonService {
 			nodeFactory = new NodeFactory();
 
 			logger.log(Level.FINE, "Node factory ready.");
+			logger.log(Level.FINE, "Initializing entity cache...");
+
+			int cacheSize        = DEFAULT_ENTITY_CACHE_SIZE;
+			EntityCache newCache = null;
+
+			try {
+				cacheSize = Integer.parseInt(Services.getConfigValue(context, Services.ENTITY_CACHE_SIZE, Integer.toString(DEFAULT_ENTITY_CACHE_SIZE)));
+			} catch (NumberFormatException nfex) {
+				logger.log(Level.WARNING, "Invalid entity cache size, using default of {0}", DEFAULT_ENTITY_CACHE_SIZE);
+			}
+
+			newCache = new EntityCache(cacheSize);
+
+			if (graphDb instanceof GraphDatabaseAPI) {
+
+				newCache.setTransactionManager(((GraphDatabaseAPI) graphDb).getTxManager());
+			}
+
+			entityCache = newCache;
+
+			logger.log(Level.FINE, "Entity cache ready, size {0}.", cacheSize);
+			logger.log(Level.FINE, "Initializing permission cache...");
+
+			int permissionCacheSize            = DEFAULT_PERMISSION_CACHE_SIZE;
+			PermissionCache newPermissionCache = null;
+
+			try {
+				permissionCacheSize = Integer.parseInt(Services.getConfigValue(context, Services.PERMISSION_CACHE_SIZE, Integer.toString(DEFAULT_PERMISSION_CACHE_SIZE)));
+			} catch (NumberFormatException nfex) {
+				logger.log(Level.WARNING, "Invalid permission cache size, using default of {0}", DEFAULT_PERMISSION_CACHE_SIZE);
+			}
+
+			newPermissionCache = new PermissionCache(permissionCacheSize);
+
+			if (graphDb instanceof GraphDatabaseAPI) {
+
+				newPermissionCache.setTransactionManager(((GraphDatabaseAPI) graphDb).getTxManager());
+			}
+
+			permissionCache = newPermissionCache;
+
+			logger.log(Level.FINE, "Permission cache ready, size {0}.", permissionCacheSize);
 			logger.log(Level.FINE, "Initializing relationship UUID index...");
 
 			relUuidIndex = graphDb.index().forRelationships("uuidAllRelationships", LuceneIndexImplementation.EXACT_CONFIG);
@@ -222,6 +291,55 @@ public class NodeService implements SingletonService {
 
 			logger.log(Level.FINE, "Relationship factory ready.");
 
+			cypherExecutor = new CypherExecutor(graphDb);
+
+			if (Boolean.parseBoolean(Services.getConfigValue(context, Services.INDEX_ASYNC, "false"))) {
+
+				int queueSize = DEFAULT_INDEX_QUEUE_SIZE;
+
+				try {
+					queueSize = Integer.parseInt(Services.getConfigValue(context, Services.INDEX_ASYNC_QUEUE, Integer.toString(DEFAULT_INDEX_QUEUE_SIZE)));
+				} catch (NumberFormatException nfex) {
+					logger.log(Level.WARNING, "Invalid index queue size, using default of {0}", DEFAULT_INDEX_QUEUE_SIZE);
+				}
+
+				// The queue is bounded, so the index lags behind by at most queueSize transactions.
+				// When it is full, committing threads wait for a free slot. Running the update in
+				// the committing thread instead would apply it before older ones that are queued.
+				indexExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+
+						Thread thread = new Thread(runnable, "IndexWriter");
+
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				}, new RejectedExecutionHandler() {
+
+					@Override
+					public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+
+						if (executor.isShutdown()) {
+							throw new RejectedExecutionException("Index executor shut down");
+						}
+
+						try {
+							executor.getQueue().put(runnable);
+						} catch (InterruptedException iex) {
+
+							Thread.currentThread().interrupt();
+
+							throw new RejectedExecutionException("Interrupted while waiting for the index queue", iex);
+						}
+					}
+				});
+
+				logger.log(Level.INFO, "Asynchronous node indexing enabled, at most {0} pending index updates.", queueSize);
+			}
+
 		} catch (Exception e) {
 
 			logger.log(Level.SEVERE, "Database could not be initialized. {0}", e.getMessage());
@@ -244,6 +362,39 @@ public class NodeService implements SingletonService {
 
 			// Wait for all registered services to end
 			waitFor(registeredServices.isEmpty());
+
+			// stop creating thumbnails
+			ThumbnailService.shutdown();
+
+			// close the geocoding cache file
+			GeoCodingCache.shutdown();
+
+			// apply pending index changes
+			ExecutorService executor = indexExecutor;
+
+			if (executor != null) {
+
+				indexExecutor = null;
+
+				executor.shutdown();
+
+				try {
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+				} catch (InterruptedException iex) {
+					logger.log(Level.WARNING, "Interrupted while waiting for pending index changes");
+				}
+			}
+
+			// disable and clear entity cache
+			entityCache.setTransactionManager(null);
+			entityCache.clear();
+
+			// disable and clear permission cache
+			permissionCache.setTransactionManager(null);
+			permissionCache.clear();
+
+			cypherExecutor = null;
+
 			graphDb.shutdown();
 
 			graphDb       = null;
@@ -285,15 +436,132 @@ public class NodeService implements SingletonService {
 		return ((graphDb != null) && isInitialized);
 	}
 	
-	public static AbstractNode getNodeFromCache(String uuid) {
-		return nodeCache.get(uuid);
+	/**
+	 * Returns the lock object that writers of the index with the given
+	 * name synchronize on. Searches must not use this lock.
+	 *
+	 * @param indexName
+	 * @return the write lock
+	 */
+	public static Object getIndexWriteLock(String indexName) {
+
+		Object lock = indexWriteLocks.get(indexName);
+
+		if (lock == null) {
+
+			lock = new Object();
+
+			Object existingLock = indexWriteLocks.putIfAbsent(indexName, lock);
+			if (existingLock != null) {
+
+				lock = existingLock;
+			}
+		}
+
+		return lock;
 	}
-	
-	public static void addNodeToCache(String uuid, AbstractNode node) {
-		nodeCache.put(uuid, node);
+
+	/**
+	 * Returns true if node index changes are applied asynchronously after
+	 * a transaction has been committed.
+	 *
+	 * @return
+	 */
+	public static boolean isAsyncIndexing() {
+		return indexExecutor != null;
 	}
-	
-	public static void removeNodeFromCache(String uuid) {
-		nodeCache.remove(uuid);
+
+	/**
+	 * Schedules the given index update to run after all previously
+	 * scheduled ones. Runs the update in the calling thread if
+	 * indexing is synchronous. Blocks while the maximum number of
+	 * updates is pending.
+	 *
+	 * @param indexUpdate
+	 */
+	public static void scheduleIndexUpdate(final Runnable indexUpdate) {
+
+		ExecutorService executor = indexExecutor;
+
+		if (executor != null) {
+
+			try {
+
+				executor.execute(indexUpdate);
+
+				return;
+
+			} catch (RejectedExecutionException rex) {
+				logger.log(Level.FINE, "Index update rejected, indexing synchronously: {0}", rex.getMessage());
+			}
+		}
+
+		indexUpdate.run();
+	}
+
+	/**
+	 * Waits until all index changes of transactions that were committed
+	 * before this call have been applied. Returns immediately if indexing
+	 * is synchronous.
+	 *
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return true if all index changes have been applied, false on timeout
+	 */
+	public static boolean waitForIndex(final long timeout) {
+
+		ExecutorService executor = indexExecutor;
+
+		if (executor == null) {
+			return true;
+		}
+
+		try {
+
+			// the executor is single-threaded, so this task runs after all pending updates
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {}
+			}).get(timeout, TimeUnit.MILLISECONDS);
+
+			return true;
+
+		} catch (TimeoutException tex) {
+			logger.log(Level.FINE, "Timeout while waiting for index");
+		} catch (RejectedExecutionException rex) {
+			return true;
+		} catch (Throwable t) {
+			logger.log(Level.WARNING, "Error while waiting for index", t);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the second-level entity cache shared by all node factories.
+	 *
+	 * @return the entity cache
+	 */
+	public static EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	/**
+	 * Returns the Cypher executor shared by all commands, or null if the
+	 * database is not running.
+	 *
+	 * @return the Cypher executor
+	 */
+	public static CypherExecutor getCypherExecutor() {
+		return cypherExecutor;
+	}
+
+	/**
+	 * Returns the cache for resolved access control decisions.
+	 *
+	 * @return the permission cache
+	 */
+	public static PermissionCache getPermissionCache() {
+		return permissionCache;
 	}
 }
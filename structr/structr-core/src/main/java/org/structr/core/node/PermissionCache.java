@@ -0,0 +1,469 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.core.node;
+
+import org.structr.common.Permission;
+import org.structr.core.entity.Principal;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.TransactionManager;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Caches the results of access control resolution.
+ *
+ * For each principal, the ids of the principal itself and of all groups
+ * it is a direct or indirect member of are computed once. For each
+ * (node, principal) pair, the permissions that have already been resolved
+ * are stored, so that repeated checks on the same node do not need to
+ * read the node's security relationships or walk the group hierarchy
+ * again.
+ *
+ * Like the {@link EntityCache}, this cache is bypassed for threads that
+ * are inside a transaction. Decisions for a node are invalidated when one
+ * of its security relationships changes, the flattened group memberships
+ * are dropped when a membership of a known principal changes.
+ *
+ * The flattened memberships are dropped when more than
+ * {@link #MAX_PRINCIPALS} principals are cached. The set of known
+ * principal ids keeps all ids until the next invalidation, so that
+ * membership changes are still detected for decisions made with dropped
+ * memberships. If it grows beyond {@link #MAX_KNOWN_PRINCIPAL_IDS}, the
+ * whole cache is invalidated.
+ *
+ * @author Christian Morgner
+ */
+public class PermissionCache {
+
+	private static final Logger logger     = Logger.getLogger(PermissionCache.class.getName());
+	private static final int SEGMENT_COUNT = 16;
+
+	public static final int MAX_PRINCIPALS          = 10000;
+	public static final int MAX_KNOWN_PRINCIPAL_IDS = 100000;
+
+	//~--- fields ---------------------------------------------------------
+
+	private final Map<Long, Set<Long>> principalIds = new ConcurrentHashMap<Long, Set<Long>>();
+	private final Set<Long> knownPrincipalIds       = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	private final AtomicLong generation             = new AtomicLong(0);
+	private final AtomicLong hits                   = new AtomicLong(0);
+	private final AtomicLong misses                 = new AtomicLong(0);
+	private volatile TransactionManager txManager   = null;
+	private Segment[] segments                      = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public PermissionCache(final int maxSize) {
+
+		int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+
+		segments = new Segment[SEGMENT_COUNT];
+
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+
+			segments[i] = new Segment(segmentSize);
+		}
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Stores the result of a permission check. The result is discarded
+	 * if the cache was invalidated after the given generation was read,
+	 * because it may have been computed from outdated data.
+	 *
+	 * @param nodeId
+	 * @param principalId
+	 * @param permission
+	 * @param granted
+	 * @param generation the value of {@link #getGeneration()} before the check was started
+	 */
+	public void put(final long nodeId, final long principalId, final Permission permission, final boolean granted, final long generation) {
+
+		if (!isEnabled()) {
+
+			return;
+		}
+
+		Segment segment = getSegment(nodeId);
+		int mask        = 1 << permission.ordinal();
+
+		synchronized (segment) {
+
+			if (this.generation.get() != generation) {
+
+				return;
+			}
+
+			Map<Long, Grant> grants = segment.get(nodeId);
+
+			if (grants == null) {
+
+				grants = new HashMap<Long, Grant>();
+
+				segment.put(nodeId, grants);
+			}
+
+			Grant grant = grants.get(principalId);
+
+			if (grant == null) {
+
+				grant = new Grant();
+
+				grants.put(principalId, grant);
+			}
+
+			grant.resolved |= mask;
+
+			if (granted) {
+
+				grant.granted |= mask;
+			}
+		}
+
+	}
+
+	/**
+	 * Removes all cached decisions for the given node.
+	 *
+	 * @param nodeId
+	 */
+	public void invalidateNode(final long nodeId) {
+
+		Segment segment = getSegment(nodeId);
+
+		synchronized (segment) {
+
+			generation.incrementAndGet();
+			segment.remove(nodeId);
+		}
+
+	}
+
+	/**
+	 * Removes all flattened group memberships, and all cached decisions,
+	 * as those depend on the memberships.
+	 */
+	public void invalidatePrincipals() {
+
+		synchronized (principalIds) {
+
+			generation.incrementAndGet();
+			principalIds.clear();
+			knownPrincipalIds.clear();
+		}
+
+		clearSegments();
+
+	}
+
+	public void clear() {
+
+		invalidatePrincipals();
+
+	}
+
+	private void clearSegments() {
+
+		for (Segment segment : segments) {
+
+			synchronized (segment) {
+
+				segment.clear();
+			}
+		}
+
+	}
+
+	private Set<Long> collectPrincipalIds(final Principal principal) {
+
+		Set<Long> ids               = new LinkedHashSet<Long>();
+		List<Principal> principals  = new LinkedList<Principal>();
+
+		principals.add(principal);
+
+		while (!principals.isEmpty()) {
+
+			Principal current = principals.remove(0);
+
+			// ignore cycles in the group hierarchy
+			if (ids.add(current.getId())) {
+
+				try {
+
+					principals.addAll(current.getParents());
+
+				} catch (Throwable t) {
+
+					logger.log(Level.WARNING, "Unable to resolve parents of principal {0}", current.getId());
+				}
+			}
+		}
+
+		return Collections.unmodifiableSet(ids);
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the cached result of a permission check.
+	 *
+	 * @param nodeId
+	 * @param principalId
+	 * @param permission
+	 * @return the cached result, or null if it is not known or the cache is bypassed for the current thread
+	 */
+	public Boolean isGranted(final long nodeId, final long principalId, final Permission permission) {
+
+		if (!isEnabled()) {
+
+			return null;
+		}
+
+		Segment segment = getSegment(nodeId);
+		int mask        = 1 << permission.ordinal();
+
+		synchronized (segment) {
+
+			Map<Long, Grant> grants = segment.get(nodeId);
+
+			if (grants != null) {
+
+				Grant grant = grants.get(principalId);
+
+				if ((grant != null) && ((grant.resolved & mask) != 0)) {
+
+					hits.incrementAndGet();
+
+					return (grant.granted & mask) != 0;
+				}
+			}
+		}
+
+		misses.incrementAndGet();
+
+		return null;
+
+	}
+
+	/**
+	 * Returns the ids of the given principal and all of its direct and
+	 * indirect parents, in breadth-first order.
+	 *
+	 * @param principal
+	 * @return
+	 */
+	public Set<Long> getPrincipalIds(final Principal principal) {
+
+		if (!isEnabled()) {
+
+			return collectPrincipalIds(principal);
+		}
+
+		long principalId = principal.getId();
+		Set<Long> ids    = principalIds.get(principalId);
+
+		if (ids == null) {
+
+			long currentGeneration = generation.get();
+
+			ids = collectPrincipalIds(principal);
+
+			synchronized (principalIds) {
+
+				if (generation.get() == currentGeneration) {
+
+					if (principalIds.size() >= MAX_PRINCIPALS) {
+
+						principalIds.clear();
+					}
+
+					if (knownPrincipalIds.size() + ids.size() > MAX_KNOWN_PRINCIPAL_IDS) {
+
+						invalidatePrincipals();
+
+					} else {
+
+						knownPrincipalIds.addAll(ids);
+						principalIds.put(principalId, ids);
+					}
+				}
+			}
+		}
+
+		return ids;
+
+	}
+
+	/**
+	 * Returns true if the given node id is a principal whose group
+	 * memberships have been flattened since the last invalidation, or a
+	 * group of such a principal.
+	 *
+	 * @param nodeId
+	 * @return
+	 */
+	public boolean isKnownPrincipal(final long nodeId) {
+
+		return knownPrincipalIds.contains(nodeId);
+
+	}
+
+	/**
+	 * Returns the current generation of this cache, which changes with
+	 * every invalidation.
+	 *
+	 * @return
+	 */
+	public long getGeneration() {
+
+		return generation.get();
+
+	}
+
+	/**
+	 * Returns true if the current thread may use the cache, i.e. if it
+	 * is not inside a transaction.
+	 *
+	 * @return
+	 */
+	public boolean isEnabled() {
+
+		TransactionManager tm = txManager;
+
+		if (tm == null) {
+
+			return false;
+		}
+
+		try {
+
+			return tm.getTransaction() == null;
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to determine transaction state", t);
+		}
+
+		return false;
+
+	}
+
+	public long getHits() {
+
+		return hits.get();
+
+	}
+
+	public long getMisses() {
+
+		return misses.get();
+
+	}
+
+	private Segment getSegment(final long nodeId) {
+
+		return segments[(int) ((nodeId ^ (nodeId >>> 32)) & (SEGMENT_COUNT - 1))];
+
+	}
+
+	@Override
+	public String toString() {
+
+		return "PermissionCache(principals=" + principalIds.size() + ", hits=" + getHits() + ", misses=" + getMisses() + ")";
+
+	}
+
+	//~--- set methods ----------------------------------------------------
+
+	/**
+	 * Sets the transaction manager that is used to detect whether the
+	 * current thread is inside a transaction. The cache stays disabled
+	 * until a transaction manager is set.
+	 *
+	 * @param txManager
+	 */
+	public void setTransactionManager(final TransactionManager txManager) {
+
+		this.txManager = txManager;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * The resolved and granted permissions of a principal on a node, as
+	 * bit masks over the permission ordinals.
+	 */
+	private static class Grant {
+
+		private int granted  = 0;
+		private int resolved = 0;
+	}
+
+	/**
+	 * An access-ordered map with a maximum size. Callers must
+	 * synchronize on the segment.
+	 */
+	private static class Segment extends LinkedHashMap<Long, Map<Long, Grant>> {
+
+		private int maxSize = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Segment(final int maxSize) {
+
+			super(16, 0.75f, true);
+
+			this.maxSize = maxSize;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, Map<Long, Grant>> eldest) {
+
+			return size() > maxSize;
+
+		}
+
+	}
+
+}
@@ -138,7 +138,7 @@ public class RemoveNodeFromIndex extends NodeServiceCommand {
 		for (Enum indexName : (NodeIndex[]) arguments.get("indices")) {
 
 			Index<Node> index = indices.get(indexName);
-			synchronized(index) {
+			synchronized(NodeService.getIndexWriteLock(indexName.name())) {
 				index.remove(node.getNode());
 			}
 
@@ -133,7 +133,7 @@ public class RemoveRelationshipFromIndex extends NodeServiceCommand {
 		for (Enum indexName : indices.keySet()) {
 
 			Index<Relationship> index = indices.get(indexName);
-			synchronized(index) {
+			synchronized(NodeService.getIndexWriteLock(indexName.name())) {
 				index.remove(rel.getRelationship());
 			}
 		}
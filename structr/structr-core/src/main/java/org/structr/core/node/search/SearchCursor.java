@@ -0,0 +1,173 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.core.node.search;
+
+import org.apache.commons.codec.binary.Base64;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * A position in the index hits of a search, used to continue paging at
+ * the raw index offset where the previous page ended, instead of creating
+ * and access-checking every node of the preceding pages again.
+ *
+ * A cursor is only valid for the query it was created for, which is
+ * identified by a fingerprint of the query string and sort order.
+ *
+ * @author Axel Morgner
+ */
+public class SearchCursor {
+
+	private static final Logger logger = Logger.getLogger(SearchCursor.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private int fingerprint = 0;
+	private long page       = -1;
+	private long pageSize   = -1;
+	private long rawOffset  = -1;
+
+	//~--- constructors ---------------------------------------------------
+
+	public SearchCursor(final int fingerprint, final long pageSize, final long page, final long rawOffset) {
+
+		this.fingerprint = fingerprint;
+		this.pageSize    = pageSize;
+		this.page        = page;
+		this.rawOffset   = rawOffset;
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Create the cursor for the page following this one, which starts
+	 * at the given raw index offset.
+	 *
+	 * @param nextRawOffset
+	 * @return
+	 */
+	public SearchCursor next(final long nextRawOffset) {
+
+		return new SearchCursor(fingerprint, pageSize, Math.max(page, 1) + 1, nextRawOffset);
+
+	}
+
+	/**
+	 * Encode this cursor as an opaque, URL-safe token.
+	 *
+	 * @return
+	 */
+	public String encode() {
+
+		StringBuilder buf = new StringBuilder();
+
+		buf.append(fingerprint).append(":").append(pageSize).append(":").append(page).append(":").append(rawOffset);
+
+		return Base64.encodeBase64URLSafeString(buf.toString().getBytes());
+
+	}
+
+	/**
+	 * Decode a token created by {@link #encode()}.
+	 *
+	 * @param token
+	 * @return the cursor, or null if the token is invalid
+	 */
+	public static SearchCursor decode(final String token) {
+
+		if (token == null) {
+
+			return null;
+		}
+
+		try {
+
+			String[] parts = new String(Base64.decodeBase64(token)).split(":");
+
+			if (parts.length == 4) {
+
+				return new SearchCursor(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+			}
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Invalid search cursor token {0}", token);
+		}
+
+		return null;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	public int getFingerprint() {
+
+		return fingerprint;
+
+	}
+
+	public long getPage() {
+
+		return page;
+
+	}
+
+	public long getPageSize() {
+
+		return pageSize;
+
+	}
+
+	public long getRawOffset() {
+
+		return rawOffset;
+
+	}
+
+	public boolean hasRawOffset() {
+
+		return rawOffset >= 0;
+
+	}
+
+	/**
+	 * Returns true if this cursor can be used to continue the query with
+	 * the given fingerprint at the given page.
+	 *
+	 * @param fingerprint
+	 * @param pageSize
+	 * @param page
+	 * @return
+	 */
+	public boolean isValidFor(final int fingerprint, final long pageSize, final long page) {
+
+		return hasRawOffset() && this.fingerprint == fingerprint && this.pageSize == pageSize && this.page == page;
+
+	}
+
+}
@@ -27,6 +27,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 
@@ -41,6 +42,7 @@ import org.structr.common.GeoHelper;
 import org.structr.common.GeoHelper.GeoCodingResult;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
+import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.node.NodeFactory;
@@ -54,6 +56,7 @@ import java.util.logging.Logger;
 import org.apache.lucene.search.*;
 import org.structr.common.PropertyKey;
 import org.structr.core.Result;
+import org.structr.core.StreamingResult;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -71,6 +74,10 @@ import org.structr.core.Result;
  *    <p>if no TextualSearchAttribute is given, return any node matching the other
  *       search criteria
  * </ol>
+ * <p>
+ * Optional parameters are sort key, sort descending, page size, page and a
+ * streaming flag. If streaming is requested, the result may be a
+ * {@see StreamingResult} that must be consumed or closed by the caller.
  *
  * @author amorgner
  */
@@ -80,13 +87,35 @@ public class SearchNodeCommand extends NodeServiceCommand {
 	
 	private static final Logger logger            = Logger.getLogger(SearchNodeCommand.class.getName());
 
-//	private static final Map<String, Integer> sortKeyTypeMap = new LinkedHashMap<String, Integer>();
-	
-//	static {
-//		
-//		sortKeyTypeMap.put("name",       SortField.STRING);
-//		sortKeyTypeMap.put("created_at", SortField.LONG);
-//	}
+	// Numeric values are indexed as plain strings, and nodes without a value
+	// are indexed with IMPROBABLE_SEARCH_VALUE, so parse leniently here.
+	private static final FieldCache.LongParser LENIENT_LONG_PARSER = new FieldCache.LongParser() {
+
+		@Override
+		public long parseLong(String value) {
+
+			try {
+				return Long.parseLong(value);
+
+			} catch (NumberFormatException nfex) {}
+
+			return Long.MIN_VALUE;
+		}
+	};
+
+	private static final FieldCache.DoubleParser LENIENT_DOUBLE_PARSER = new FieldCache.DoubleParser() {
+
+		@Override
+		public double parseDouble(String value) {
+
+			try {
+				return Double.parseDouble(value);
+
+			} catch (NumberFormatException nfex) {}
+
+			return Double.NEGATIVE_INFINITY;
+		}
+	};
 	
 	//~--- methods --------------------------------------------------------
 
@@ -109,10 +138,26 @@ public class SearchNodeCommand extends NodeServiceCommand {
 		boolean sortDescending            = false;
 		long pageSize                     = -1;
 		long page                         = -1;
+		boolean streaming                 = false;
+		SearchCursor cursor               = null;
 		
 		
 		switch (parameters.length) {
 			
+			case 10:
+				if (parameters[9] instanceof SearchCursor) {
+
+					cursor = (SearchCursor) parameters[9];
+
+				}
+			
+			case 9:
+				if (parameters[8] instanceof Boolean) {
+
+					streaming = (Boolean) parameters[8];
+
+				}
+			
 			case 8:
 				if (parameters[7] instanceof Number) {
 
@@ -174,7 +219,7 @@ public class SearchNodeCommand extends NodeServiceCommand {
 		}
 
 
-		return search(securityContext, topNode, includeDeletedAndHidden, publicOnly, searchAttrs, sortKey, sortDescending, pageSize, page);
+		return search(securityContext, topNode, includeDeletedAndHidden, publicOnly, searchAttrs, sortKey, sortDescending, pageSize, page, streaming, cursor);
 	}
 
 	/**
@@ -185,10 +230,13 @@ public class SearchNodeCommand extends NodeServiceCommand {
 	 * @param includeDeletedAndHidden       If true, include nodes marked as deleted or hidden
 	 * @param publicOnly			If true, don't include nodes which are not public
 	 * @param searchAttrs			List with search attributes
+	 * @param streaming			If true, return a {@see StreamingResult} whose nodes are created lazily when possible
+	 * @param cursor			If set and valid for this query and page, continue at the index position stored in the cursor
 	 * @return
 	 */
 	private Result search(final SecurityContext securityContext, final AbstractNode topNode, final boolean includeDeletedAndHidden, final boolean publicOnly,
-					  final List<SearchAttribute> searchAttrs, final String sortKey, final boolean sortDescending, final long pageSize, final long page)
+					  final List<SearchAttribute> searchAttrs, final String sortKey, final boolean sortDescending, final long pageSize, final long page, final boolean streaming,
+					  final SearchCursor cursor)
 		throws FrameworkException {
 
 		GraphDatabaseService graphDb   = (GraphDatabaseService) arguments.get("graphDb");
@@ -208,9 +256,24 @@ public class SearchNodeCommand extends NodeServiceCommand {
 			DistanceSearchAttribute distanceSearch         = null;
 			GeoCodingResult coords                         = null;
 			Double dist                                    = null;
+			boolean hasDistanceSearch                      = false;
 
 			for (SearchAttribute attr : searchAttrs) {
 
+				hasDistanceSearch |= (attr instanceof DistanceSearchAttribute);
+			}
+
+			for (SearchAttribute attr : searchAttrs) {
+
+				// push filters into the index query where possible, so
+				// that paging and counting are done on the index hits
+				if (!hasDistanceSearch && (attr instanceof FilterSearchAttribute) && isIndexableFilter((FilterSearchAttribute) attr)) {
+
+					FilterSearchAttribute filter = (FilterSearchAttribute) attr;
+
+					attr = new TextualSearchAttribute(filter.getKey(), Search.exactMatch((String) filter.getValue()), filter.getSearchOperator());
+				}
+
 				if (attr instanceof DistanceSearchAttribute) {
 
 					distanceSearch = (DistanceSearchAttribute) attr;
@@ -293,18 +356,11 @@ public class SearchNodeCommand extends NodeServiceCommand {
 
 				QueryContext queryContext = new QueryContext(textualQueryString);
 				IndexHits hits            = null;
+				String indexName          = null;
 
 				if (sortKey != null) {
-					
-//					Integer type = sortKeyTypeMap.get(sortKey);
-//					if (type != null) {
-//						
-//						queryContext.sort(new Sort(new SortField(sortKey, type, sortDescending)));
-//						
-//					} else {
-						
-						queryContext.sort(new Sort(new SortField(sortKey, Locale.getDefault(), sortDescending)));
-//					}
+
+					queryContext.sort(new Sort(getSortField(sortKey, sortDescending)));
 				}
 				
 				 if (distanceSearch != null) {
@@ -316,38 +372,34 @@ public class SearchNodeCommand extends NodeServiceCommand {
 						params.put(LayerNodeIndex.POINT_PARAMETER, coords.toArray());
 						params.put(LayerNodeIndex.DISTANCE_IN_KM_PARAMETER, dist);
 						
-						index = (LayerNodeIndex) arguments.get(NodeIndex.layer.name());
-						synchronized(index) {
-							hits  = index.query(LayerNodeIndex.WITHIN_DISTANCE_QUERY, params);
-						}
+						indexName = NodeIndex.layer.name();
+						index = (LayerNodeIndex) arguments.get(indexName);
+						hits = index.query(LayerNodeIndex.WITHIN_DISTANCE_QUERY, params);
 
 					}
 
 				} else if ((textualAttributes.size() == 1) && textualAttributes.get(0).getKey().equals(AbstractNode.Key.uuid.name())) {
 
 					// Search for uuid only: Use UUID index
-					index = (Index<Node>) arguments.get(NodeIndex.uuid.name());
-					synchronized(index) {
-						hits  = index.get(AbstractNode.Key.uuid.name(), decodeExactMatch(textualAttributes.get(0).getValue()));
-					}
+					indexName = NodeIndex.uuid.name();
+					index = (Index<Node>) arguments.get(indexName);
+					hits = index.get(AbstractNode.Key.uuid.name(), decodeExactMatch(textualAttributes.get(0).getValue()));
 					
 					
 				} else if (/*(textualAttributes.size() > 1) &&*/ allExactMatch) {
 //				} else if ((textualAttributes.size() > 1) && allExactMatch) {
 
 					// Only exact machtes: Use keyword index
-					index = (Index<Node>) arguments.get(NodeIndex.keyword.name());
-					synchronized(index) {
-						hits  = index.query(queryContext);
-					}
+					indexName = NodeIndex.keyword.name();
+					index = (Index<Node>) arguments.get(indexName);
+					hits = index.query(queryContext);
 					
 				} else {
 
 					// Default: Mixed or fulltext-only search: Use fulltext index
-					index = (Index<Node>) arguments.get(NodeIndex.fulltext.name());
-					synchronized(index) {
-						hits  = index.query(queryContext);
-					}
+					indexName = NodeIndex.fulltext.name();
+					index = (Index<Node>) arguments.get(indexName);
+					hits = index.query(queryContext);
 				}
 
 				long t1 = System.currentTimeMillis();
@@ -356,8 +408,41 @@ public class SearchNodeCommand extends NodeServiceCommand {
 					? hits.size()
 					: 0 });
 
-//                              IndexHits hits = index.query(new QueryContext(query.toString()));//.sort("name"));
-				intermediateResult = nodeFactory.createNodes(securityContext, hits, includeDeletedAndHidden, publicOnly, pageSize, page);
+				// Cursors are only used for paged, non-spatial queries
+				SearchCursor startCursor = null;
+
+				if (pageSize > 0 && distanceSearch == null && filters.isEmpty()) {
+
+					int fingerprint = getFingerprint(textualQueryString.toString(), indexName, sortKey, sortDescending);
+
+					if (cursor != null && cursor.isValidFor(fingerprint, pageSize, page)) {
+
+						startCursor = cursor;
+
+					} else {
+
+						startCursor = new SearchCursor(fingerprint, pageSize, page, -1);
+					}
+				}
+
+				// Stream results if requested and no in-memory filtering is needed
+				if (streaming && filters.isEmpty() && distanceSearch == null && hits != null) {
+
+					return nodeFactory.createNodesLazily(securityContext, hits, includeDeletedAndHidden, publicOnly, pageSize, page, startCursor);
+
+				}
+
+				if (filters.isEmpty()) {
+
+//                                      IndexHits hits = index.query(new QueryContext(query.toString()));//.sort("name"));
+					intermediateResult = nodeFactory.createNodes(securityContext, hits, includeDeletedAndHidden, publicOnly, pageSize, page, startCursor);
+
+				} else {
+
+					// Remaining filters are applied in memory, so paging
+					// must be done after filtering to get correct counts
+					intermediateResult = nodeFactory.createNodes(securityContext, hits, includeDeletedAndHidden, publicOnly, -1, -1);
+				}
 
 				hits.close();
 				long t2 = System.currentTimeMillis();
@@ -440,6 +525,14 @@ public class SearchNodeCommand extends NodeServiceCommand {
 			// eventually filter by distance from a given point
 			if (coords != null) {}
 
+			// apply paging after filtering
+			if (!filters.isEmpty()) {
+
+				List<? extends GraphObject> filteredList = intermediateResult.getResults();
+
+				intermediateResult = new Result(getPage(filteredList, pageSize, page), filteredList.size(), true, false);
+			}
+
 			finalResult = intermediateResult;
 
 			long t3 = System.currentTimeMillis();
@@ -602,12 +695,66 @@ public class SearchNodeCommand extends NodeServiceCommand {
 		return ListUtils.subtract(result, notMatchingNodes);
 	}
 
+	private SortField getSortField(final String sortKey, final boolean sortDescending) {
+
+		switch (EntityContext.getSortType(sortKey)) {
+
+			case SortField.LONG :
+				return new SortField(sortKey, LENIENT_LONG_PARSER, sortDescending);
+
+			case SortField.DOUBLE :
+				return new SortField(sortKey, LENIENT_DOUBLE_PARSER, sortDescending);
+
+			default :
+				return new SortField(sortKey, Locale.getDefault(), sortDescending);
+		}
+	}
+
+	private int getFingerprint(final String queryString, final String indexName, final String sortKey, final boolean sortDescending) {
+
+		StringBuilder buf = new StringBuilder();
+
+		buf.append(indexName).append("|").append(queryString).append("|").append(sortKey).append("|").append(sortDescending);
+
+		return buf.toString().hashCode();
+	}
+
+	private List<? extends GraphObject> getPage(final List<? extends GraphObject> list, final long pageSize, final long page) {
+
+		if (pageSize <= 0) {
+
+			return list;
+
+		}
+
+		int size      = list.size();
+		int fromIndex = (int) Math.min(size, Math.max(0, (Math.max(page, 1) - 1) * pageSize));
+		int toIndex   = (int) Math.min(size, Math.max(page, 1) * pageSize);
+
+		return list.subList(fromIndex, toIndex);
+	}
+
 	private String decodeExactMatch(final String value) {
 		return StringUtils.strip(value, "\"");
 	}
 
 	//~--- get methods ----------------------------------------------------
 
+	/**
+	 * Returns true if the given filter can be replaced by an exact match
+	 * on the index. This is the case for AND filters on the type key, which
+	 * is indexed for every node.
+	 *
+	 * NOT filters stay in memory: a query that consists of negations only
+	 * matches nothing in Lucene, and the in-memory NOT filter also drops
+	 * nodes without a value.
+	 */
+	private boolean isIndexableFilter(final FilterSearchAttribute filter) {
+
+		return AbstractNode.Key.type.name().equals(filter.getKey()) && (filter.getValue() instanceof String)
+		       && SearchOperator.AND.equals(filter.getSearchOperator());
+	}
+
 	private boolean isExactMatch(final String value) {
 		if (value == null) return false;
 		return value.startsWith("\"") && value.endsWith("\"");
@@ -189,23 +189,17 @@ public class SearchRelationshipCommand extends NodeServiceCommand {
 
 					// Search for uuid only: Use UUID index
 					index = (Index<Relationship>) arguments.get(RelationshipIndex.rel_uuid.name());
-					synchronized(index) {
-						hits  = index.get(AbstractNode.Key.uuid.name(), decodeExactMatch(textualAttributes.get(0).getValue()));
-					}
+					hits = index.get(AbstractNode.Key.uuid.name(), decodeExactMatch(textualAttributes.get(0).getValue()));
 				} else if ((textualAttributes.size() > 1) && allExactMatch) {
 
 					// Only exact machtes: Use keyword index
 					index = (Index<Relationship>) arguments.get(RelationshipIndex.rel_keyword.name());
-					synchronized(index) {
-						hits  = index.query(queryContext);
-					}
+					hits = index.query(queryContext);
 				} else {
 
 					// Default: Mixed or fulltext-only search: Use fulltext index
 					index = (Index<Relationship>) arguments.get(RelationshipIndex.rel_fulltext.name());
-					synchronized(index) {
-						hits  = index.query(queryContext);
-					}
+					hits = index.query(queryContext);
 				}
 
 				long t1 = System.currentTimeMillis();
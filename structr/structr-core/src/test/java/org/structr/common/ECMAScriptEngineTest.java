@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.apache.commons.lang.StringUtils;
+import org.structr.common.ECMAScriptEngine.ScriptLimitExceededError;
+
+/**
+ * Checks that the limits of the ECMAScript engine stop runaway scripts,
+ * both compiled and interpreted ones.
+ *
+ * @author Axel Morgner
+ */
+public class ECMAScriptEngineTest extends TestCase {
+
+	private static final String INFINITE_LOOP = "var i = 0; while (true) { try { i++; } catch (e) {} }";
+
+	private ECMAScriptEngine engine = null;
+
+	public ECMAScriptEngineTest(String testName) {
+		super(testName);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		this.engine = new ECMAScriptEngine(10, 0, 0);
+	}
+
+	public void testExecute() {
+
+		Map<String, Object> variables = new HashMap<String, Object>();
+
+		variables.put("a", 20);
+		variables.put("b", 22);
+
+		assertEquals(42.0, ((Number) engine.execute("a + b", variables)).doubleValue());
+	}
+
+	public void testTimeLimit() {
+
+		assertStopped(INFINITE_LOOP, 500, 0);
+	}
+
+	public void testInstructionLimit() {
+
+		assertStopped(INFINITE_LOOP, 0, 1000000);
+	}
+
+	public void testInterpretedTimeLimit() {
+
+		// too long to be compiled to bytecode
+		String padding = "/*" + StringUtils.repeat(" ", ECMAScriptEngine.MAX_COMPILED_LENGTH) + "*/";
+
+		assertStopped(padding + INFINITE_LOOP, 500, 0);
+	}
+
+	public void testCachedScriptWithLimit() {
+
+		// loops forever for a negative n
+		String source                 = "var i = 0; while (n < 0 || i < n) { try { i++; } catch (e) {} } i;";
+		Map<String, Object> variables = new HashMap<String, Object>();
+
+		variables.put("n", 3);
+
+		assertEquals(3.0, ((Number) engine.execute(source, variables, 0, 0)).doubleValue());
+
+		long hits = ((Number) engine.getStatusProperty(ECMAScriptEngine.HITS)).longValue();
+
+		// the cached script must observe limits that are given later
+		variables.put("n", -1);
+		assertStopped(source, variables, 500, 0);
+		assertEquals(hits + 1, ((Number) engine.getStatusProperty(ECMAScriptEngine.HITS)).longValue());
+	}
+
+	private void assertStopped(final String source, final long maxTime, final long maxInstructions) {
+
+		assertStopped(source, null, maxTime, maxInstructions);
+	}
+
+	private void assertStopped(final String source, final Map<String, Object> variables, final long maxTime, final long maxInstructions) {
+
+		long start = System.currentTimeMillis();
+
+		try {
+
+			engine.execute(source, variables, maxTime, maxInstructions);
+			fail("Script was not stopped");
+
+		} catch (ScriptLimitExceededError expected) {}
+
+		assertTrue("Script was stopped too late", System.currentTimeMillis() - start < 10000);
+	}
+}
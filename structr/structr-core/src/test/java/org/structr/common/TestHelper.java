@@ -0,0 +1,135 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.node.CreateNodeCommand;
+import org.structr.core.node.GraphDatabaseCommand;
+import org.structr.core.node.NodeAttribute;
+import org.structr.core.node.StructrTransaction;
+import org.structr.core.node.TransactionCommand;
+
+/**
+ * Starts the node service on a temporary database for tests and
+ * benchmarks, and removes the database afterwards.
+ *
+ * @author Christian Morgner
+ */
+public class TestHelper {
+
+	private static File basePath = null;
+
+	public static void startServices() {
+
+		basePath = new File(System.getProperty("java.io.tmpdir"), "structr-test-" + System.nanoTime());
+		basePath.mkdirs();
+
+		String base                 = basePath.getAbsolutePath();
+		Map<String, String> context = new HashMap<String, String>();
+
+		context.put(Services.CONFIGURED_SERVICES,    "ModuleService NodeService");
+		context.put(Services.CONFIG_FILE_PATH,       base + "/structr.conf");
+		context.put(Services.APPLICATION_TITLE,      "structr test");
+		context.put(Services.TMP_PATH,               base);
+		context.put(Services.BASE_PATH,              base);
+		context.put(Services.DATABASE_PATH,          base + "/db");
+		context.put(Services.LOG_DATABASE_PATH,      base + "/logdb.dat");
+		context.put(Services.FILES_PATH,             base + "/files");
+		context.put(Services.MODULES_PATH,           base + "/modules");
+		context.put(Services.SERVLET_REAL_ROOT_PATH, base);
+		context.put(Services.SERVER_IP,              "127.0.0.1");
+		context.put(Services.TCP_PORT,               "54555");
+		context.put(Services.UDP_PORT,               "57555");
+		context.put(Services.SMTP_HOST,              "localhost");
+		context.put(Services.SMTP_PORT,              "25");
+		context.put(Services.SMTP_USER,              "");
+		context.put(Services.SMTP_PASSWORD,          "");
+		context.put(Services.SUPERUSER_USERNAME,     "superadmin");
+		context.put(Services.SUPERUSER_PASSWORD,     "sehrgeheim");
+
+		new File(base + "/modules").mkdirs();
+
+		Services.initialize(context);
+	}
+
+	public static void stopServices() {
+
+		Services.shutdown();
+
+		if (basePath != null) {
+
+			delete(basePath);
+			basePath = null;
+		}
+	}
+
+	public static GraphDatabaseService getGraphDatabase() throws FrameworkException {
+
+		return (GraphDatabaseService) Services.command(SecurityContext.getSuperUserInstance(), GraphDatabaseCommand.class).execute();
+	}
+
+	/**
+	 * Creates a node of the given type in its own transaction and returns
+	 * an instance of the given class for it.
+	 */
+	public static <T extends AbstractNode> T createNode(final Class<T> type, final NodeAttribute... attributes) throws Exception {
+
+		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+
+		AbstractNode node = (AbstractNode) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+			@Override
+			public Object execute() throws FrameworkException {
+
+				NodeAttribute[] attrs = new NodeAttribute[attributes.length + 1];
+
+				attrs[0] = new NodeAttribute(AbstractNode.Key.type.name(), type.getSimpleName());
+				System.arraycopy(attributes, 0, attrs, 1, attributes.length);
+
+				return Services.command(securityContext, CreateNodeCommand.class).execute((Object[]) attrs);
+			}
+		});
+
+		T instance = type.newInstance();
+
+		instance.init(securityContext, node.getNode());
+
+		return instance;
+	}
+
+	private static void delete(File file) {
+
+		File[] children = file.listFiles();
+
+		if (children != null) {
+
+			for (File child : children) {
+				delete(child);
+			}
+		}
+
+		file.delete();
+	}
+}
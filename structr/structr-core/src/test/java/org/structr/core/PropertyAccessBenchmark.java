@@ -0,0 +1,156 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core;
+
+import org.neo4j.graphdb.Node;
+import org.structr.common.PropertyView;
+import org.structr.common.SecurityContext;
+import org.structr.common.TestHelper;
+import org.structr.core.entity.GenericNode;
+import org.structr.core.node.NodeAttribute;
+
+/**
+ * Measures AbstractNode.getProperty on an entity with a deep class
+ * hierarchy, the way a page is rendered: a fresh instance per request,
+ * reading all keys of a view.
+ *
+ * Run with
+ *
+ * <pre>
+ * java -cp ... org.structr.core.PropertyAccessBenchmark [iterations]
+ * </pre>
+ *
+ * The benchmark only uses API that existed before the resolved schemas
+ * were introduced, so the same class can be run against older revisions
+ * for comparison. JMH is not available in this build, so warmup and
+ * measurement are done by hand.
+ *
+ * @author Christian Morgner
+ */
+public class PropertyAccessBenchmark {
+
+	private static final String VIEW   = PropertyView.Ui;
+	private static final int WARMUP    = 20000;
+	private static final int ROUNDS    = 5;
+
+	public static void main(String[] args) throws Exception {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		TestHelper.startServices();
+
+		try {
+
+			Level6 template = TestHelper.createNode(Level6.class,
+				new NodeAttribute("key1", "value1"),
+				new NodeAttribute("key2", "value2"),
+				new NodeAttribute("key3", "value3"),
+				new NodeAttribute("key4", "value4"),
+				new NodeAttribute("key5", "value5"),
+				new NodeAttribute("key6", "value6"),
+				new NodeAttribute("markerKey", "marker")
+			);
+
+			SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+			Node dbNode                     = template.getNode();
+
+			run(securityContext, dbNode, WARMUP);
+
+			for (int i = 0; i < ROUNDS; i++) {
+
+				long start = System.nanoTime();
+				int keys   = run(securityContext, dbNode, iterations);
+				long time  = System.nanoTime() - start;
+
+				System.out.println(String.format("round %d: %d nodes, %d property reads, %.1f ns per read", i + 1, iterations, keys, (double) time / keys));
+			}
+
+		} finally {
+
+			TestHelper.stopServices();
+		}
+	}
+
+	private static int run(SecurityContext securityContext, Node dbNode, int iterations) {
+
+		int count = 0;
+
+		for (int i = 0; i < iterations; i++) {
+
+			Level6 node = new Level6();
+
+			node.init(securityContext, dbNode);
+
+			for (String key : node.getPropertyKeys(VIEW)) {
+
+				if (node.getProperty(key) != null) {
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	// ----- a deep entity hierarchy, similar to HtmlElement subclasses -----
+	public static interface Marker {}
+
+	public static class Level1 extends GenericNode {
+
+		static {
+			EntityContext.registerPropertySet(Level1.class, VIEW, new String[] { "key1" });
+		}
+	}
+
+	public static class Level2 extends Level1 {
+
+		static {
+			EntityContext.registerPropertySet(Level2.class, VIEW, new String[] { "key2" });
+		}
+	}
+
+	public static class Level3 extends Level2 implements Marker {
+
+		static {
+			EntityContext.registerPropertySet(Level3.class, VIEW, new String[] { "key3" });
+			EntityContext.registerPropertySet(Marker.class, VIEW, new String[] { "markerKey" });
+		}
+	}
+
+	public static class Level4 extends Level3 {
+
+		static {
+			EntityContext.registerPropertySet(Level4.class, VIEW, new String[] { "key4" });
+		}
+	}
+
+	public static class Level5 extends Level4 {
+
+		static {
+			EntityContext.registerPropertySet(Level5.class, VIEW, new String[] { "key5" });
+		}
+	}
+
+	public static class Level6 extends Level5 {
+
+		static {
+			EntityContext.registerPropertySet(Level6.class, VIEW, new String[] { "key6" });
+		}
+	}
+}
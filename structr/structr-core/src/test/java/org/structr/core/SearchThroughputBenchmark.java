@@ -0,0 +1,187 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.common.SecurityContext;
+import org.structr.common.TestHelper;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.GenericNode;
+import org.structr.core.node.CreateNodeCommand;
+import org.structr.core.node.NodeAttribute;
+import org.structr.core.node.NodeService.NodeIndex;
+import org.structr.core.node.StructrTransaction;
+import org.structr.core.node.TransactionCommand;
+import org.structr.core.node.search.Search;
+import org.structr.core.node.search.SearchAttribute;
+import org.structr.core.node.search.SearchNodeCommand;
+
+/**
+ * Measures the throughput of concurrent keyword index searches with 1 to N
+ * threads, where N defaults to twice the number of available processors.
+ *
+ * Run with
+ *
+ * <pre>
+ * java -cp ... org.structr.core.SearchThroughputBenchmark [maxThreads] [seconds]
+ * </pre>
+ *
+ * JMH is not available in this build, so warmup and measurement are done
+ * by hand.
+ *
+ * @author Christian Morgner
+ */
+public class SearchThroughputBenchmark {
+
+	private static final int NODE_COUNT = 1000;
+
+	static {
+
+		// nodes of an unknown type are instantiated as GenericNode
+		EntityContext.registerSearchablePropertySet(GenericNode.class, NodeIndex.keyword.name(), AbstractNode.Key.type, AbstractNode.Key.name);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+		int seconds    = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		TestHelper.startServices();
+
+		try {
+
+			createNodes();
+
+			// warmup
+			measure(maxThreads, 2);
+
+			double single = 0.0;
+
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+
+				double throughput = measure(threads, seconds);
+
+				if (threads == 1) {
+					single = throughput;
+				}
+
+				System.out.println(String.format("%3d threads: %10.1f searches/s, speedup %.2f", threads, throughput, throughput / single));
+			}
+
+		} finally {
+
+			TestHelper.stopServices();
+		}
+	}
+
+	private static void createNodes() throws FrameworkException {
+
+		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+
+		Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+			@Override
+			public Object execute() throws FrameworkException {
+
+				Command createNode = Services.command(securityContext, CreateNodeCommand.class);
+
+				for (int i = 0; i < NODE_COUNT; i++) {
+
+					createNode.execute(
+						new NodeAttribute(AbstractNode.Key.type.name(), "Item"),
+						new NodeAttribute(AbstractNode.Key.name.name(), "item" + i)
+					);
+				}
+
+				return null;
+			}
+		});
+	}
+
+	private static double measure(final int threads, final int seconds) throws InterruptedException {
+
+		final long end              = System.currentTimeMillis() + seconds * 1000L;
+		final CountDownLatch start  = new CountDownLatch(1);
+		final AtomicLong searches   = new AtomicLong(0);
+		final AtomicLong misses     = new AtomicLong(0);
+		final List<Thread> workers  = new LinkedList<Thread>();
+
+		for (int i = 0; i < threads; i++) {
+
+			Thread worker = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+					Random random                   = new Random();
+
+					try {
+
+						start.await();
+
+						while (System.currentTimeMillis() < end) {
+
+							List<SearchAttribute> attrs = new LinkedList<SearchAttribute>();
+
+							attrs.add(Search.andExactType("Item"));
+							attrs.add(Search.andExactName("item" + random.nextInt(NODE_COUNT)));
+
+							Result result = (Result) Services.command(securityContext, SearchNodeCommand.class).execute(null, false, false, attrs);
+
+							if (result.size() != 1) {
+								misses.incrementAndGet();
+							}
+
+							searches.incrementAndGet();
+						}
+
+					} catch (Exception ex) {
+
+						throw new RuntimeException(ex);
+					}
+				}
+			});
+
+			workers.add(worker);
+			worker.start();
+		}
+
+		long startTime = System.nanoTime();
+
+		start.countDown();
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		long time = System.nanoTime() - startTime;
+
+		if (misses.get() > 0) {
+			System.out.println(misses.get() + " searches returned an unexpected number of results");
+		}
+
+		return searches.get() * 1000000000.0 / time;
+	}
+}
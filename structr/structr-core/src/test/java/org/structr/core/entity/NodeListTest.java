@@ -0,0 +1,242 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.entity;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.structr.common.RelType;
+import org.structr.common.SecurityContext;
+import org.structr.common.TestHelper;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Command;
+import org.structr.core.Services;
+import org.structr.core.node.CreateNodeCommand;
+import org.structr.core.node.NodeAttribute;
+import org.structr.core.node.StructrTransaction;
+import org.structr.core.node.TransactionCommand;
+
+/**
+ * Checks that the position index of a node list matches the linked list
+ * after appending, inserting and removing elements, and that it is built
+ * for lists that were created without it.
+ *
+ * @author Christian Morgner
+ */
+public class NodeListTest extends TestCase {
+
+	private static final int COUNT = 2 * NodeList.SEGMENT_SIZE + 10;
+
+	private SecurityContext securityContext = null;
+
+	public NodeListTest(String testName) {
+		super(testName);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		TestHelper.startServices();
+
+		this.securityContext = SecurityContext.getSuperUserInstance();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		TestHelper.stopServices();
+
+		super.tearDown();
+	}
+
+	public void testAppend() throws Exception {
+
+		NodeList<AbstractNode> list = TestHelper.createNode(NodeList.class);
+		List<AbstractNode> expected = createNodes(COUNT);
+
+		for (AbstractNode node : expected) {
+			assertTrue(list.add(node));
+		}
+
+		assertConsistent(list, expected);
+	}
+
+	public void testAppendAtIndex() throws Exception {
+
+		NodeList<AbstractNode> list = TestHelper.createNode(NodeList.class);
+		List<AbstractNode> expected = createNodes(COUNT);
+
+		for (int i = 0; i < expected.size(); i++) {
+			list.add(i, expected.get(i));
+		}
+
+		assertConsistent(list, expected);
+	}
+
+	public void testInsert() throws Exception {
+
+		NodeList<AbstractNode> list = TestHelper.createNode(NodeList.class);
+		List<AbstractNode> expected = createNodes(COUNT);
+		List<AbstractNode> inserted = createNodes(4);
+
+		list.addAll(expected);
+
+		// first position, a segment head, inside a segment, and the end
+		int[] positions = new int[] { 0, NodeList.SEGMENT_SIZE, NodeList.SEGMENT_SIZE + 17, expected.size() };
+
+		for (int i = 0; i < positions.length; i++) {
+
+			list.add(positions[i], inserted.get(i));
+			expected.add(positions[i], inserted.get(i));
+		}
+
+		assertConsistent(list, expected);
+
+		// append after the inserts
+		AbstractNode last = createNodes(1).get(0);
+
+		list.add(last);
+		expected.add(last);
+
+		assertConsistent(list, expected);
+	}
+
+	public void testRemove() throws Exception {
+
+		NodeList<AbstractNode> list = TestHelper.createNode(NodeList.class);
+		List<AbstractNode> expected = createNodes(COUNT);
+
+		list.addAll(expected);
+
+		// first element, a segment head, inside a segment, and the last element
+		int[] positions = new int[] { 0, NodeList.SEGMENT_SIZE, NodeList.SEGMENT_SIZE + 17, expected.size() - 1 };
+
+		for (int i = positions.length - 1; i >= 0; i--) {
+
+			assertTrue(list.remove(expected.get(positions[i]).getNode()));
+			expected.remove(positions[i]);
+		}
+
+		assertConsistent(list, expected);
+
+		// remove everything
+		for (AbstractNode node : new ArrayList<AbstractNode>(expected)) {
+
+			assertTrue(list.remove(node.getNode()));
+			expected.remove(node);
+		}
+
+		assertConsistent(list, expected);
+		assertTrue(list.isEmpty());
+	}
+
+	public void testMigration() throws Exception {
+
+		NodeList<AbstractNode> list  = TestHelper.createNode(NodeList.class);
+		List<AbstractNode> expected  = createNodes(COUNT);
+		GraphDatabaseService graphDb = TestHelper.getGraphDatabase();
+		Node root                    = list.getNode();
+		Transaction tx               = graphDb.beginTx();
+
+		// a list as it was stored before the position index existed
+		try {
+
+			Node previous = root;
+
+			for (AbstractNode node : expected) {
+
+				previous.createRelationshipTo(node.getNode(), RelType.NEXT_LIST_ENTRY).setProperty(NodeList.Key.parent.name(), root.getId());
+				previous = node.getNode();
+			}
+
+			tx.success();
+
+		} finally {
+
+			tx.finish();
+		}
+
+		assertFalse(root.hasProperty("listSize"));
+		assertFalse(root.hasProperty("listSegments"));
+
+		assertConsistent(list, expected);
+
+		assertEquals(COUNT, root.getProperty("listSize"));
+		assertEquals((COUNT + NodeList.SEGMENT_SIZE - 1) / NodeList.SEGMENT_SIZE, ((long[]) root.getProperty("listSegments")).length);
+	}
+
+	/**
+	 * Compares size, positional access and iteration of the given list, and of
+	 * a fresh instance that reads the persisted index, with the expected nodes.
+	 */
+	private void assertConsistent(final NodeList<AbstractNode> list, final List<AbstractNode> expected) {
+
+		NodeList<AbstractNode> fresh = new NodeList<AbstractNode>();
+
+		fresh.init(securityContext, list.getNode());
+
+		for (NodeList<AbstractNode> l : new NodeList[] { list, fresh }) {
+
+			assertEquals(expected.size(), l.size());
+
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals("element at " + i, expected.get(i).getId(), l.get(i).getId());
+			}
+
+			try {
+
+				l.get(expected.size());
+				fail("get() behind the last element must throw");
+
+			} catch (ArrayIndexOutOfBoundsException expectedException) {}
+
+			Iterator<AbstractNode> it = l.iterator();
+
+			for (AbstractNode node : expected) {
+				assertEquals(node.getId(), it.next().getId());
+			}
+
+			assertFalse(it.hasNext());
+		}
+	}
+
+	private List<AbstractNode> createNodes(final int count) throws FrameworkException {
+
+		return (List<AbstractNode>) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+			@Override
+			public Object execute() throws FrameworkException {
+
+				Command createNode       = Services.command(securityContext, CreateNodeCommand.class);
+				List<AbstractNode> nodes = new ArrayList<AbstractNode>();
+
+				for (int i = 0; i < count; i++) {
+					nodes.add((AbstractNode) createNode.execute(new NodeAttribute(AbstractNode.Key.type.name(), "Item"), new NodeAttribute(AbstractNode.Key.name.name(), "item" + i)));
+				}
+
+				return nodes;
+			}
+		});
+	}
+}
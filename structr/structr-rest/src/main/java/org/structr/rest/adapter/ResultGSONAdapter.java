@@ -20,6 +20,7 @@
 package org.structr.rest.adapter;
 
 import org.structr.core.GraphObjectGSONAdapter;
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -29,16 +30,21 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import org.structr.core.GraphObject;
 import org.structr.core.Value;
 import org.structr.core.Result;
+import org.structr.core.StreamingResult;
 import org.structr.core.PropertySet.PropertyFormat;
 import org.structr.core.entity.AbstractNode;
+import org.structr.rest.resource.PagingHelper;
 
 /**
  * Controls deserialization of property sets.
@@ -57,11 +63,133 @@ public class ResultGSONAdapter implements JsonSerializer<Result>, JsonDeserializ
 	public JsonElement serialize(Result src, Type typeOfSrc, JsonSerializationContext context) {
 
 		long t0 = System.nanoTime();
-		
+
+		List<? extends GraphObject> results = src.getResults();
+		JsonElement resultElement = null;
+
+		if(results != null) {
+
+			if(results.isEmpty() || src.isPrimitiveArray()) {
+
+				JsonArray resultArray = new JsonArray();
+				for(GraphObject graphObject : results) {
+					JsonElement element = serializeElement(src, graphObject, context);
+					if(element != null) {
+						resultArray.add(element);
+					}
+				}
+
+				resultElement = resultArray;
+
+			} else {
+
+				if (results.size() > 1 && !src.isCollection()){
+					throw new IllegalStateException(src.getClass().getSimpleName() + " is not a collection resource, but result set has size " + results.size());
+				}
+
+				if(src.isCollection()) {
+
+					// serialize list of results
+					JsonArray resultArray = new JsonArray();
+					for(GraphObject graphObject : results) {
+						resultArray.add(serializeElement(src, graphObject, context));
+					}
+
+					resultElement = resultArray;
+
+				} else {
+
+					// use GraphObject adapter to serialize single result
+					resultElement = serializeElement(src, results.get(0), context);
+				}
+			}
+		}
+
+		JsonObject result = serializeMetadata(src, resultElement);
+
+		result.add("serialization_time", new JsonPrimitive(getSerializationTime(t0)));
+
+		return result;
+	}
+
+	/**
+	 * Writes the given streaming result to the given JSON writer, one
+	 * element at a time, so that only a single serialized object is
+	 * held in memory. Paging metadata is written after the result
+	 * array.
+	 *
+	 * @param src
+	 * @param writer
+	 * @param gson
+	 * @throws IOException
+	 */
+	public void serialize(StreamingResult src, JsonWriter writer, Gson gson) throws IOException {
+
+		long t0 = System.nanoTime();
+
+		try {
+
+			writer.beginObject();
+			writer.name("result");
+			writer.beginArray();
+
+			for (GraphObject graphObject : src) {
+
+				JsonElement element = serializeElement(src, graphObject, null);
+				if (element != null) {
+					gson.toJson(element, writer);
+				}
+			}
+
+			writer.endArray();
+
+		} finally {
+
+			src.close();
+		}
+
+		for (Map.Entry<String, JsonElement> entry : serializeMetadata(src, null).entrySet()) {
+
+			writer.name(entry.getKey());
+			gson.toJson(entry.getValue(), writer);
+		}
+
+		writer.name("serialization_time").value(getSerializationTime(t0));
+
+		writer.endObject();
+	}
+
+	/**
+	 * Serializes a single element of the given result, either as an
+	 * object or, for primitive arrays, as its UUID.
+	 *
+	 * @return the element, or null if a primitive array element has no UUID
+	 */
+	private JsonElement serializeElement(Result src, GraphObject graphObject, JsonSerializationContext context) {
+
+		if(src.isPrimitiveArray()) {
+
+			Object value = graphObject.getProperty(AbstractNode.Key.uuid.name());	// FIXME: UUID key hard-coded, use variable in Result here!
+			if(value != null) {
+				return new JsonPrimitive(value.toString());
+			}
+
+			return null;
+		}
+
+		return graphObjectGsonAdapter.serialize(graphObject, GraphObject.class, context);
+	}
+
+	/**
+	 * Returns the paging and search fields of the given result in
+	 * alphabetical order, with the given result element in its place
+	 * if it is not null.
+	 */
+	private JsonObject serializeMetadata(Result src, JsonElement resultElement) {
+
 		JsonObject result = new JsonObject();
 
 		// result fields in alphabetical order
-		List<? extends GraphObject> results = src.getResults();
 		Integer page = src.getPage();
 		Integer pageCount = src.getPageCount();
 		Integer pageSize = src.getPageSize();
@@ -70,6 +198,7 @@ public class ResultGSONAdapter implements JsonSerializer<Result>, JsonDeserializ
 		String searchString = src.getSearchString();
 		String sortKey = src.getSortKey();
 		String sortOrder = src.getSortOrder();
+		String nextToken = PagingHelper.getNextToken(src);
 
 		if(page != null) {
 			result.add("page", new JsonPrimitive(page));
@@ -91,47 +220,12 @@ public class ResultGSONAdapter implements JsonSerializer<Result>, JsonDeserializ
 			result.add("result_count", new JsonPrimitive(resultCount));
 		}
 
-		if(results != null) {
-
-			if(results.isEmpty()) {
-
-				result.add("result", new JsonArray());
-
-			} else if(src.isPrimitiveArray()) {
-
-				JsonArray resultArray = new JsonArray();
-				for(GraphObject graphObject : results) {
-					Object value = graphObject.getProperty(AbstractNode.Key.uuid.name());	// FIXME: UUID key hard-coded, use variable in Result here!
-					if(value != null) {
-						resultArray.add(new JsonPrimitive(value.toString()));
-					}
-				}
-
-				result.add("result", resultArray);
-
-
-			} else {
-
-				if (results.size() > 1 && !src.isCollection()){
-					throw new IllegalStateException(src.getClass().getSimpleName() + " is not a collection resource, but result set has size " + results.size());
-				}
-
-				if(src.isCollection()) {
-
-					// serialize list of results
-					JsonArray resultArray = new JsonArray();
-					for(GraphObject graphObject : results) {
-						resultArray.add(graphObjectGsonAdapter.serialize(graphObject, GraphObject.class, context));
-					}
-
-					result.add("result", resultArray);
-
-				} else {
+		if(resultElement != null) {
+			result.add("result", resultElement);
+		}
 
-					// use GraphObject adapter to serialize single result
-					result.add("result", graphObjectGsonAdapter.serialize(results.get(0), GraphObject.class, context));
-				}
-			}
+		if(nextToken != null) {
+			result.add("next", new JsonPrimitive(nextToken));
 		}
 
 		if(searchString != null) {
@@ -145,13 +239,16 @@ public class ResultGSONAdapter implements JsonSerializer<Result>, JsonDeserializ
 		if(sortOrder != null) {
 			result.add("sort_order", new JsonPrimitive(sortOrder));
 		}
-		
-		DecimalFormat decimalFormat = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-		result.add("serialization_time", new JsonPrimitive(decimalFormat.format((System.nanoTime() - t0) / 1000000000.0)));
 
 		return result;
 	}
 
+	private String getSerializationTime(long t0) {
+
+		DecimalFormat decimalFormat = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+		return decimalFormat.format((System.nanoTime() - t0) / 1000000000.0);
+	}
+
 	@Override
 	public Result deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
 		return null;
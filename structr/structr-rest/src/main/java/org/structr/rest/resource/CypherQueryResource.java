@@ -10,6 +10,7 @@ import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
 import org.structr.core.Services;
+import org.structr.core.StreamingResult;
 import org.structr.core.node.CypherQueryCommand;
 import org.structr.rest.RestMethodResult;
 import org.structr.rest.exception.IllegalMethodException;
@@ -17,7 +18,6 @@ import org.structr.rest.exception.NotFoundException;
 
 //~--- JDK imports ------------------------------------------------------------
 
-import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -59,8 +59,16 @@ public class CypherQueryResource extends Resource {
 
 			if (queryObject != null) {
 
-				String query                 = queryObject.toString();
-				List<GraphObject> resultList = (List<GraphObject>) Services.command(securityContext, CypherQueryCommand.class).execute(query);
+				String query                = queryObject.toString();
+				Map<String, Object> params  = null;
+				Object paramsObject         = propertySet.get("params");
+
+				if (paramsObject instanceof Map) {
+
+					params = (Map<String, Object>) paramsObject;
+				}
+
+				StreamingResult resultList = (StreamingResult) Services.command(securityContext, CypherQueryCommand.class).execute(query, params);
 
 				for (GraphObject obj : resultList) {
 
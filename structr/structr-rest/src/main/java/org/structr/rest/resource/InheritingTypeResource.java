@@ -108,7 +108,9 @@ public class InheritingTypeResource extends TypeResource {
 				sortKey,
 				sortDescending,
 				pageSize,
-				page
+				page,
+				true,		// stream results
+				getSearchCursor()
 			);
 			
 			// TODO: SORTING: remove default sorting below
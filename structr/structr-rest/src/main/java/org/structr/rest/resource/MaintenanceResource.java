@@ -35,6 +35,8 @@ import org.structr.rest.exception.SystemException;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.lang.reflect.InvocationTargetException;
+
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,7 +92,18 @@ public class MaintenanceResource extends Resource {
 
 					if (Task.class.isAssignableFrom(taskOrCommand)) {
 
-						Task task = (Task) taskOrCommand.newInstance();
+						Task task = null;
+
+						try {
+
+							// tasks can take the request parameters in their constructor
+							task = (Task) taskOrCommand.getConstructor(Map.class).newInstance(propertySet);
+
+						} catch (NoSuchMethodException nsmex) {
+
+							task = (Task) taskOrCommand.newInstance();
+
+						}
 
 						Services.command(securityContext, ProcessTaskCommand.class).execute(task);
 
@@ -109,6 +122,8 @@ public class MaintenanceResource extends Resource {
 					throw new SystemException(iex.getMessage());
 				} catch (IllegalAccessException iaex) {
 					throw new SystemException(iaex.getMessage());
+				} catch (InvocationTargetException itex) {
+					throw new SystemException(itex.getMessage());
 				}
 
 			} else {
@@ -23,6 +23,7 @@ package org.structr.rest.resource;
 
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
+import org.structr.core.node.search.SearchCursor;
 
 //~--- JDK imports ------------------------------------------------------------
 
@@ -145,6 +146,38 @@ public class PagingHelper {
 
 	}
 
+	/**
+	 * Return the opaque token that can be used to request the page
+	 * following the given result, or null if there is none.
+	 *
+	 * @param result
+	 * @return
+	 */
+	public static String getNextToken(final Result result) {
+
+		SearchCursor nextCursor = result.getNextCursor();
+
+		if (nextCursor != null) {
+
+			return nextCursor.encode();
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Parse a token returned by {@link #getNextToken(Result)}.
+	 *
+	 * @param token
+	 * @return the cursor, or null if the token is empty or invalid
+	 */
+	public static SearchCursor parseToken(final String token) {
+
+		return SearchCursor.decode(token);
+
+	}
+
 	//~--- get methods ----------------------------------------------------
 
 	private static int getPageCount(int resultCount, int pageSize) {
@@ -22,7 +22,7 @@
 package org.structr.rest.resource;
 
 import org.structr.core.Result;
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.apache.commons.collections.ListUtils;
 
 import org.structr.common.PropertyKey;
@@ -144,16 +144,14 @@ public class StaticRelationshipResource extends SortableResource {
 				String key = typeResource.getRawType();
 
 				// String key                  = CaseHelper.toLowerCamelCase(typeResource.getRawType());
-				PropertyConverter converter = EntityContext.getPropertyConverter(securityContext, type, key);
+				StatelessPropertyConverter converter = EntityContext.getPropertyConverter(type, key);
 
 				if (converter != null) {
 
 					Value conversionValue = EntityContext.getPropertyConversionParameter(type, key);
 
-					converter.setCurrentObject(sourceNode);
-					converter.setRawMode(true);    // disable notion
-
-					Object value = converter.convertForGetter(null, conversionValue);
+					// use raw getter to disable notion
+					Object value = converter.convertForRawGetter(securityContext, sourceNode, null, conversionValue);
 
 					// create error message in advance to avoid having to construct it twice in different locations
 					StringBuilder msgBuilder = new StringBuilder();
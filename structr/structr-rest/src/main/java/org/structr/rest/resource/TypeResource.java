@@ -35,6 +35,7 @@ import org.structr.core.node.search.Search;
 import org.structr.core.node.search.SearchAttribute;
 import org.structr.core.node.search.SearchNodeCommand;
 import org.structr.rest.RestMethodResult;
+import org.structr.rest.servlet.JsonRestServlet;
 import org.structr.rest.exception.IllegalPathException;
 import org.structr.rest.exception.NotFoundException;
 
@@ -174,7 +175,9 @@ public class TypeResource extends SortableResource {
 				sortKey,
 				sortDescending,
 				pageSize,
-				page
+				page,
+				true,		// stream results
+				getSearchCursor()
 			);
 			
 			return results;
@@ -293,6 +296,20 @@ public class TypeResource extends SortableResource {
 
 	}
 
+	/**
+	 * Returns the search cursor passed with the request, if any.
+	 */
+	protected SearchCursor getSearchCursor() {
+
+		if (request != null) {
+
+			return PagingHelper.parseToken(request.getParameter(JsonRestServlet.REQUEST_PARAMETER_NEXT_TOKEN));
+		}
+
+		return null;
+
+	}
+
 	public boolean hasSearchableAttributes(List<SearchAttribute> attributes) throws FrameworkException {
 
 		return hasSearchableAttributesForNodes(rawType, request, attributes);
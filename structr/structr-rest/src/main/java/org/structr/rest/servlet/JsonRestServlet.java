@@ -25,6 +25,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonWriter;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -37,6 +38,7 @@ import org.structr.core.PropertySet.PropertyFormat;
 import org.structr.core.PropertySetGSONAdapter;
 import org.structr.core.Value;
 import org.structr.core.node.NodeAttribute;
+import org.structr.core.node.search.SearchCursor;
 import org.structr.rest.ResourceProvider;
 import org.structr.rest.RestMethodResult;
 import org.structr.rest.adapter.FrameworkExceptionGSONAdapter;
@@ -91,6 +93,7 @@ public class JsonRestServlet extends HttpServlet {
 	public static final int DEFAULT_VALUE_PAGE_SIZE                     = 20;
 	public static final String DEFAULT_VALUE_SORT_ORDER                 = "asc";
 	public static final String REQUEST_PARAMETER_LOOSE_SEARCH           = "loose";
+	public static final String REQUEST_PARAMETER_NEXT_TOKEN             = "next";
 	public static final String REQUEST_PARAMETER_PAGE_NUMBER            = "page";
 	public static final String REQUEST_PARAMETER_PAGE_SIZE              = "pageSize";
 	public static final String REQUEST_PARAMETER_SORT_KEY               = "sort";
@@ -321,6 +324,15 @@ public class JsonRestServlet extends HttpServlet {
 			boolean sortDescending   = (sortOrder != null && "desc".equals(sortOrder.toLowerCase()));
 			int pageSize		 = parseInt(pageSizeParameter, -1);
 			int page                 = parseInt(pageParameter, -1);
+
+			// continue paging from a token returned with a previous page
+			SearchCursor cursor      = PagingHelper.parseToken(request.getParameter(REQUEST_PARAMETER_NEXT_TOKEN));
+
+			if (cursor != null && page < 1) {
+
+				page     = (int) cursor.getPage();
+				pageSize = (int) cursor.getPageSize();
+			}
 			
 			// do action
 			Result result            = resource.doGet(sortKey, sortDescending, pageSize, page);
@@ -350,8 +362,22 @@ public class JsonRestServlet extends HttpServlet {
 
 				Writer writer = response.getWriter();
 
-				gson.toJson(result, writer);
 				response.setStatus(HttpServletResponse.SC_OK);
+
+				if (result instanceof StreamingResult && result.isCollection()) {
+
+					// serialize nodes one by one while they are being created
+					JsonWriter jsonWriter = new JsonWriter(writer);
+
+					jsonWriter.setIndent("  ");
+					resultGsonAdapter.serialize((StreamingResult) result, jsonWriter, gson);
+					jsonWriter.flush();
+
+				} else {
+
+					gson.toJson(result, Result.class, writer);
+				}
+
 				writer.append("\n");    // useful newline
 				writer.flush();
 				writer.close();
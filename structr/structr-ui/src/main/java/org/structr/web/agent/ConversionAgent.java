@@ -67,7 +67,7 @@ public class ConversionAgent extends Agent {
 			ConversionTask ct = (ConversionTask) task;
 
 			logger.log(Level.INFO, "Task found, starting conversion ...");
-			convert(ct.getUser(), ct.getSourceNode(), ct.getTargetNodeClass());
+			convert(ct);
 			logger.log(Level.INFO, " done.");
 
 		}
@@ -76,7 +76,11 @@ public class ConversionAgent extends Agent {
 
 	}
 
-	private void convert(final Principal user, final AbstractNode sourceNode, final Class targetClass) {
+	private void convert(final ConversionTask task) {
+
+		Principal user          = task.getUser();
+		AbstractNode sourceNode = task.getSourceNode();
+		Class targetClass       = task.getTargetNodeClass();
 
 		// FIXME: superuser security context
 		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
@@ -90,7 +94,7 @@ public class ConversionAgent extends Agent {
 
 			try {
 
-				Services.command(securityContext, ConvertCsvToNodeListCommand.class).execute(user, sourceNode, targetClass);
+				Services.command(securityContext, ConvertCsvToNodeListCommand.class).execute(user, sourceNode, targetClass, task);
 
 			} catch (FrameworkException fex) {
 
@@ -28,6 +28,7 @@ import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.auth.AuthHelper;
 import org.structr.core.auth.Authenticator;
+import org.structr.core.auth.PrincipalIndex;
 import org.structr.core.auth.exception.AuthenticationException;
 import org.structr.core.entity.Principal;
 import org.structr.core.entity.ResourceAccess;
@@ -136,7 +137,18 @@ public class HttpAuthenticator implements Authenticator {
 				writeUnauthorized(response);
 			}
 
-			user = AuthHelper.getUserForUsernameAndPassword(SecurityContext.getSuperUserInstance(), userAndPass[0], userAndPass[1]);
+			PrincipalIndex index = PrincipalIndex.getInstance();
+
+			// API clients send their credentials with every request
+			user = index.getVerifiedPrincipal(userAndPass[0], userAndPass[1]);
+
+			if (user == null) {
+
+				user = AuthHelper.getUserForUsernameAndPassword(SecurityContext.getSuperUserInstance(), userAndPass[0], userAndPass[1]);
+
+				index.putVerifiedCredentials(userAndPass[0], userAndPass[1], user);
+
+			}
 
 		} catch (Exception ex) {
 
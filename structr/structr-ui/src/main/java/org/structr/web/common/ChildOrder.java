@@ -0,0 +1,471 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.web.common;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+
+import org.structr.common.RelType;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.ErrorBuffer;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.EntityContext;
+import org.structr.core.GraphObject;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.node.RelationshipFactory;
+import org.structr.web.entity.Component;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Holds the order of the CONTAINS relationships of a parent node for each
+ * page, so that rendering doesn't have to parse and sort the position
+ * properties of all child relationships for every request.
+ *
+ * The order of a (parent, page) pair is built when it is first requested
+ * and dropped whenever a CONTAINS relationship of the parent is created,
+ * modified or deleted, which covers the ADD, INSERT, SORT and REMOVE
+ * commands as well as any other modification. The order is dropped again
+ * after the transaction has been committed, so that an order built from
+ * uncommitted data doesn't survive.
+ *
+ * Once the order is known, only the relationships it contains are loaded,
+ * by id, instead of all CONTAINS relationships of the parent.
+ *
+ * @author Axel Morgner
+ */
+public class ChildOrder implements StructrTransactionListener {
+
+	private static final int MAX_PARENTS = 10000;
+	private static final Logger logger   = Logger.getLogger(ChildOrder.class.getName());
+	private static ChildOrder instance   = null;
+
+	//~--- fields ---------------------------------------------------------
+
+	private final AtomicLong generation                     = new AtomicLong(0);
+	private final Map<Long, Map<String, long[]>> orders     = new ConcurrentHashMap<Long, Map<String, long[]>>();
+	private final Map<Long, Set<Long>> pendingInvalidations = new ConcurrentHashMap<Long, Set<Long>>();
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Drops the order of all pages of the given parent node.
+	 *
+	 * @param parentId
+	 */
+	public void invalidate(final long parentId) {
+
+		synchronized (this) {
+
+			generation.incrementAndGet();
+			orders.remove(parentId);
+		}
+
+	}
+
+	public void clear() {
+
+		synchronized (this) {
+
+			generation.incrementAndGet();
+			orders.clear();
+		}
+
+	}
+
+	private long[] createOrder(final List<AbstractRelationship> rels, final String pageId) {
+
+		List<OrderEntry> entries = new ArrayList<OrderEntry>(rels.size());
+
+		for (AbstractRelationship abstractRelationship : rels) {
+
+			Relationship rel = abstractRelationship.getRelationship();
+
+			if (rel.hasProperty(pageId) || rel.hasProperty("*")) {
+
+				entries.add(new OrderEntry(abstractRelationship.getId(), Component.getPosition(abstractRelationship, pageId)));
+			}
+
+		}
+
+		// stable, so equal positions keep the order of the database
+		Collections.sort(entries);
+
+		long[] order = new long[entries.size()];
+
+		for (int i = 0; i < order.length; i++) {
+
+			order[i] = entries.get(i).id;
+		}
+
+		return order;
+
+	}
+
+	private void store(final long parentId, final String pageId, final long[] order, final long startGeneration) {
+
+		synchronized (this) {
+
+			// don't store an order that was built while the relationships were modified
+			if (generation.get() != startGeneration) {
+
+				return;
+			}
+
+			Map<String, long[]> pageOrders = orders.get(parentId);
+
+			if (pageOrders == null) {
+
+				if (orders.size() >= MAX_PARENTS) {
+
+					orders.clear();
+				}
+
+				pageOrders = new ConcurrentHashMap<String, long[]>();
+
+				orders.put(parentId, pageOrders);
+
+			}
+
+			pageOrders.put(pageId, order);
+
+		}
+
+	}
+
+	private void invalidate(final long transactionKey, final GraphObject graphObject) {
+
+		try {
+
+			long parentId;
+
+			if (graphObject instanceof AbstractRelationship) {
+
+				Relationship rel = ((AbstractRelationship) graphObject).getRelationship();
+
+				if (!rel.isType(RelType.CONTAINS)) {
+
+					return;
+				}
+
+				parentId = rel.getStartNode().getId();
+
+			} else if (graphObject != null) {
+
+				parentId = graphObject.getId();
+
+			} else {
+
+				return;
+			}
+
+			invalidate(parentId);
+
+			Set<Long> pending = pendingInvalidations.get(transactionKey);
+
+			if (pending == null) {
+
+				pending = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+				pendingInvalidations.put(transactionKey, pending);
+
+			}
+
+			pending.add(parentId);
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to invalidate child order selectively", t);
+			clear();
+
+		}
+
+	}
+
+	private void finish(final long transactionKey) {
+
+		Set<Long> pending = pendingInvalidations.remove(transactionKey);
+
+		if (pending != null) {
+
+			for (Long parentId : pending) {
+
+				invalidate(parentId);
+			}
+
+		}
+
+	}
+
+	// ----- interface StructrTransactionListener -----
+	@Override
+	public void begin(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void commit(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void rollback(SecurityContext securityContext, long transactionKey) {
+
+		finish(transactionKey);
+
+	}
+
+	@Override
+	public void afterCommit(SecurityContext securityContext, long transactionKey) {
+
+		finish(transactionKey);
+
+	}
+
+	@Override
+	public boolean propertyModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue, Object newValue) {
+
+		if (graphObject instanceof AbstractRelationship) {
+
+			invalidate(transactionKey, graphObject);
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public boolean propertyRemoved(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue) {
+
+		if (graphObject instanceof AbstractRelationship) {
+
+			invalidate(transactionKey, graphObject);
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectCreated(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) {
+
+		if (graphObject instanceof AbstractRelationship) {
+
+			invalidate(transactionKey, graphObject);
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) {
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectDeleted(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, Map<String, Object> properties) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns the shared instance, which is registered as a transaction
+	 * listener on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized ChildOrder getInstance() {
+
+		if (instance == null) {
+
+			instance = new ChildOrder();
+
+			EntityContext.registerTransactionListener(instance);
+
+		}
+
+		return instance;
+
+	}
+
+	/**
+	 * Returns the outgoing CONTAINS relationships of the given node that
+	 * belong to the given page (or to any page), ordered by their position
+	 * on that page.
+	 *
+	 * @param node
+	 * @param pageId
+	 * @return
+	 */
+	public List<AbstractRelationship> getOrderedRelationships(final AbstractNode node, final String pageId) {
+
+		long startGeneration           = generation.get();
+		Map<String, long[]> pageOrders = orders.get(node.getId());
+		long[] order                   = (pageOrders != null)
+						 ? pageOrders.get(pageId)
+						 : null;
+
+		if (order == null) {
+
+			List<AbstractRelationship> rels = node.getOutgoingRelationships(RelType.CONTAINS);
+
+			order = createOrder(rels, pageId);
+
+			store(node.getId(), pageId, order, startGeneration);
+
+			return resolve(order, rels);
+
+		}
+
+		return resolve(node, order);
+
+	}
+
+	/**
+	 * Returns the relationships with the given ids from the given list.
+	 */
+	private List<AbstractRelationship> resolve(final long[] order, final List<AbstractRelationship> rels) {
+
+		Map<Long, AbstractRelationship> relsById = new HashMap<Long, AbstractRelationship>(rels.size() * 2);
+
+		for (AbstractRelationship rel : rels) {
+
+			relsById.put(rel.getId(), rel);
+		}
+
+		List<AbstractRelationship> orderedRels = new ArrayList<AbstractRelationship>(order.length);
+
+		for (long id : order) {
+
+			AbstractRelationship rel = relsById.get(id);
+
+			if (rel != null) {
+
+				orderedRels.add(rel);
+			}
+
+		}
+
+		return orderedRels;
+
+	}
+
+	/**
+	 * Loads the relationships with the given ids. Relationships that have
+	 * been deleted or moved to another parent in the meantime are skipped.
+	 */
+	private List<AbstractRelationship> resolve(final AbstractNode node, final long[] order) {
+
+		Node parent                            = node.getNode();
+		GraphDatabaseService graphDb           = parent.getGraphDatabase();
+		RelationshipFactory factory            = new RelationshipFactory(node.getSecurityContext());
+		List<AbstractRelationship> orderedRels = new ArrayList<AbstractRelationship>(order.length);
+
+		for (long id : order) {
+
+			try {
+
+				Relationship rel = graphDb.getRelationshipById(id);
+
+				if (rel.isType(RelType.CONTAINS) && rel.getStartNode().equals(parent)) {
+
+					orderedRels.add(factory.createRelationship(node.getSecurityContext(), rel));
+				}
+
+			} catch (NotFoundException nfex) {
+
+				logger.log(Level.FINE, "Relationship {0} of child order is gone", id);
+
+			} catch (FrameworkException fex) {
+
+				logger.log(Level.WARNING, "Unable to instantiate relationship", fex);
+
+			}
+
+		}
+
+		return orderedRels;
+
+	}
+
+	/**
+	 * @return the number of parent nodes with a materialized order
+	 */
+	public int size() {
+
+		return orders.size();
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class OrderEntry implements Comparable<OrderEntry> {
+
+		private long id       = 0;
+		private long position = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public OrderEntry(final long id, final long position) {
+
+			this.id       = id;
+			this.position = position;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public int compareTo(final OrderEntry other) {
+
+			return (position < other.position)
+			       ? -1
+			       : ((position == other.position)
+				  ? 0
+				  : 1);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,674 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.web.common;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.structr.core.entity.File;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Delivers the content of {@link File} nodes, with support for entity tags,
+ * byte ranges (RFC 2616, section 14.35) and conditional range requests.
+ *
+ * File content is transferred with {@link FileChannel#transferTo}, which
+ * lets the JDK choose the cheapest way to move the requested region into
+ * the response, instead of copying it through our own buffers.
+ *
+ * Compressible files are sent gzip-encoded to clients that accept it. The
+ * compressed variant is created once, next to the file on disk, and is
+ * recreated when the modification time of the file changes. Range requests
+ * are always answered from the uncompressed file.
+ *
+ * @author Axel Morgner
+ */
+public class FileDeliveryHelper {
+
+	private static final String BYTES_UNIT  = "bytes";
+	private static final String CRLF        = "\r\n";
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final Logger logger      = Logger.getLogger(FileDeliveryHelper.class.getName());
+
+	/** Range headers with more ranges than this are ignored, and the whole file is sent. */
+	public static final int MAX_RANGES = 16;
+
+	/** Files smaller than this are not compressed. */
+	public static final long MIN_GZIP_LENGTH = 512;
+
+	/** Files larger than this are not compressed, to keep the first request fast. */
+	public static final long MAX_GZIP_LENGTH = 8 * 1024 * 1024;
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Writes the content of the given file to the response. Caching
+	 * headers (Last-Modified, Cache-Control) are expected to be set by
+	 * the caller.
+	 *
+	 * @param request
+	 * @param response
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void serve(final HttpServletRequest request, final HttpServletResponse response, final File file) throws IOException {
+
+		java.io.File fileOnDisk = file.getFileOnDisk();
+
+		if ((fileOnDisk == null) ||!fileOnDisk.isFile()) {
+
+			logger.log(Level.WARNING, "No content found for file node {0}", file.getUuid());
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+			return;
+
+		}
+
+		long length           = fileOnDisk.length();
+		String etag           = getETag(file, fileOnDisk);
+		String contentType    = file.getContentType();
+		String rangeHeader    = request.getHeader("Range");
+		java.io.File gzipFile = null;
+
+		if (contentType == null) {
+
+			contentType = "application/octet-stream";
+		}
+
+		if (isCompressible(contentType)) {
+
+			response.setHeader("Vary", "Accept-Encoding");
+
+			if ((rangeHeader == null) && acceptsGzip(request)) {
+
+				gzipFile = getGzipFile(fileOnDisk);
+			}
+
+		}
+
+		if (gzipFile != null) {
+
+			// the compressed variant is a different representation and needs its own tag
+			etag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+		}
+
+		response.setHeader("ETag", etag);
+		response.setHeader("Accept-Ranges", BYTES_UNIT);
+
+		if (matches(request.getHeader("If-None-Match"), etag)) {
+
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+			return;
+
+		}
+
+		List<long[]> ranges = null;
+
+		if ((rangeHeader != null) && isRangeValid(request.getHeader("If-Range"), etag, fileOnDisk)) {
+
+			ranges = parseRanges(rangeHeader, length);
+
+			if ((ranges != null) && ranges.isEmpty()) {
+
+				response.setHeader("Content-Range", BYTES_UNIT + " */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+				return;
+
+			}
+
+		}
+
+		FileInputStream in         = new FileInputStream((gzipFile != null)
+			? gzipFile
+			: fileOnDisk);
+		FileChannel channel        = in.getChannel();
+		OutputStream out           = response.getOutputStream();
+		WritableByteChannel target = Channels.newChannel(out);
+
+		try {
+
+			if (gzipFile != null) {
+
+				// complete file, precompressed
+				long gzipLength = channel.size();
+
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentType(contentType);
+				response.setHeader("Content-Encoding", "gzip");
+				setContentLength(response, gzipLength);
+				transfer(channel, target, 0, gzipLength);
+
+			} else if (ranges == null) {
+
+				// complete file
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentType(contentType);
+				setContentLength(response, length);
+				transfer(channel, target, 0, length);
+
+			} else if (ranges.size() == 1) {
+
+				long[] range = ranges.get(0);
+				long count   = range[1] - range[0] + 1;
+
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType(contentType);
+				response.setHeader("Content-Range", getContentRange(range, length));
+				setContentLength(response, count);
+				transfer(channel, target, range[0], count);
+
+			} else {
+
+				String boundary      = UUID.randomUUID().toString().replace("-", "");
+				List<String> headers = new LinkedList<String>();
+				String trailer       = CRLF + "--" + boundary + "--" + CRLF;
+				long contentLength   = trailer.length();
+
+				// precompute part headers and total content length
+				for (long[] range : ranges) {
+
+					String partHeader = CRLF + "--" + boundary + CRLF + "Content-Type: " + contentType + CRLF + "Content-Range: " + getContentRange(range, length) + CRLF
+							    + CRLF;
+
+					headers.add(partHeader);
+
+					contentLength += partHeader.getBytes("ISO-8859-1").length + (range[1] - range[0] + 1);
+
+				}
+
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType("multipart/byteranges; boundary=" + boundary);
+				setContentLength(response, contentLength);
+
+				for (int i = 0; i < ranges.size(); i++) {
+
+					long[] range = ranges.get(i);
+
+					out.write(headers.get(i).getBytes("ISO-8859-1"));
+					transfer(channel, target, range[0], range[1] - range[0] + 1);
+
+				}
+
+				out.write(trailer.getBytes("ISO-8859-1"));
+
+			}
+
+			out.flush();
+
+		} finally {
+
+			channel.close();
+			in.close();
+
+		}
+
+	}
+
+	private static void transfer(final FileChannel channel, final WritableByteChannel target, final long position, final long count) throws IOException {
+
+		long transferred = 0;
+
+		while (transferred < count) {
+
+			long bytes = channel.transferTo(position + transferred, count - transferred, target);
+
+			if (bytes <= 0) {
+
+				// file was truncated while being transferred
+				throw new IOException("Unexpected end of file at position " + (position + transferred));
+			}
+
+			transferred += bytes;
+
+		}
+
+	}
+
+	/**
+	 * Parses the value of a Range header. Overlapping and adjacent ranges
+	 * are coalesced, so the result is sorted and has no overlaps.
+	 *
+	 * @param rangeHeader
+	 * @param length the length of the file
+	 * @return the list of satisfiable ranges as [first, last] pairs, an empty list if no range is satisfiable, or null if the header is invalid or has more than {@link #MAX_RANGES} ranges and should be ignored
+	 */
+	public static List<long[]> parseRanges(final String rangeHeader, final long length) {
+
+		if (!rangeHeader.startsWith(BYTES_UNIT + "=")) {
+
+			return null;
+		}
+
+		String[] specs = StringUtils.split(rangeHeader.substring(BYTES_UNIT.length() + 1), ",");
+
+		if (specs.length > MAX_RANGES) {
+
+			logger.log(Level.FINE, "Ignoring Range header with {0} ranges", specs.length);
+
+			return null;
+		}
+
+		List<long[]> ranges = new LinkedList<long[]>();
+
+		for (String spec : specs) {
+
+			spec = spec.trim();
+
+			int dash = spec.indexOf("-");
+
+			if (dash < 0) {
+
+				return null;
+			}
+
+			try {
+
+				long first;
+				long last;
+
+				if (dash == 0) {
+
+					// suffix range: last n bytes
+					long suffixLength = Long.parseLong(spec.substring(1));
+
+					if (suffixLength <= 0) {
+
+						continue;
+					}
+
+					first = Math.max(0, length - suffixLength);
+					last  = length - 1;
+
+				} else {
+
+					first = Long.parseLong(spec.substring(0, dash));
+					last  = (dash == spec.length() - 1)
+						? length - 1
+						: Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+
+				}
+
+				if (first > last) {
+
+					if (first < length) {
+
+						// syntactically invalid, ignore the whole header
+						return null;
+					}
+
+					// not satisfiable
+					continue;
+
+				}
+
+				ranges.add(new long[] { first, last });
+
+			} catch (NumberFormatException nfex) {
+
+				return null;
+			}
+
+		}
+
+		return coalesce(ranges);
+
+	}
+
+	/**
+	 * Writes a gzip-compressed copy of the given file to the given target.
+	 * The copy is written to a temporary file first and then renamed, so
+	 * concurrent requests never see an incomplete variant. The target gets
+	 * the modification time of the source, which marks it as up to date.
+	 *
+	 * @param source
+	 * @param target
+	 * @return true if the variant was created
+	 */
+	private static boolean compress(final java.io.File source, final java.io.File target) {
+
+		java.io.File tmp = new java.io.File(target.getPath() + "." + UUID.randomUUID().toString());
+		long modified    = source.lastModified();
+
+		try {
+
+			InputStream in   = new FileInputStream(source);
+			OutputStream out = null;
+
+			try {
+
+				out = new GZIPOutputStream(new FileOutputStream(tmp));
+
+				byte[] buf = new byte[8192];
+				int count;
+
+				while ((count = in.read(buf)) >= 0) {
+
+					out.write(buf, 0, count);
+				}
+
+			} finally {
+
+				in.close();
+
+				if (out != null) {
+
+					out.close();
+				}
+
+			}
+
+			// the file was changed while it was compressed
+			if (source.lastModified() != modified) {
+
+				return false;
+			}
+
+			tmp.setLastModified(modified);
+			target.delete();
+
+			return tmp.renameTo(target);
+
+		} catch (IOException ioex) {
+
+			logger.log(Level.WARNING, "Unable to create compressed variant of {0}: {1}", new Object[] { source, ioex.getMessage() });
+
+		} finally {
+
+			tmp.delete();
+
+		}
+
+		return false;
+
+	}
+
+	private static List<long[]> coalesce(final List<long[]> ranges) {
+
+		if (ranges.size() < 2) {
+
+			return ranges;
+		}
+
+		Collections.sort(ranges, new Comparator<long[]>() {
+
+			@Override
+			public int compare(final long[] range1, final long[] range2) {
+
+				return (range1[0] < range2[0])
+				       ? -1
+				       : ((range1[0] == range2[0])
+					  ? 0
+					  : 1);
+
+			}
+
+		});
+
+		List<long[]> coalesced = new LinkedList<long[]>();
+		long[] current         = null;
+
+		for (long[] range : ranges) {
+
+			if ((current != null) && (range[0] <= current[1] + 1)) {
+
+				current[1] = Math.max(current[1], range[1]);
+
+			} else {
+
+				current = range;
+
+				coalesced.add(current);
+
+			}
+
+		}
+
+		return coalesced;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * Returns a strong entity tag based on the stored checksum of the
+	 * file, or a weak tag based on size and modification time if no
+	 * checksum is available.
+	 *
+	 * @param file
+	 * @param fileOnDisk
+	 * @return
+	 */
+	public static String getETag(final File file, final java.io.File fileOnDisk) {
+
+		Long checksum = file.getLongProperty(File.Key.checksum);
+
+		if (checksum != null) {
+
+			return "\"" + Long.toHexString(checksum) + "-" + Long.toHexString(fileOnDisk.length()) + "\"";
+		}
+
+		return "W/\"" + Long.toHexString(fileOnDisk.length()) + "-" + Long.toHexString(fileOnDisk.lastModified()) + "\"";
+
+	}
+
+	/**
+	 * Returns the gzip-compressed variant of the given file, creating it if
+	 * it does not exist or is outdated.
+	 *
+	 * @param fileOnDisk
+	 * @return the compressed file, or null if the file is too small or too
+	 * large to be compressed, or the variant could not be created
+	 */
+	public static java.io.File getGzipFile(final java.io.File fileOnDisk) {
+
+		long length = fileOnDisk.length();
+
+		if ((length < MIN_GZIP_LENGTH) || (length > MAX_GZIP_LENGTH)) {
+
+			return null;
+		}
+
+		java.io.File gzipFile = getGzipVariant(fileOnDisk);
+
+		if ((gzipFile.lastModified() == fileOnDisk.lastModified()) || compress(fileOnDisk, gzipFile)) {
+
+			return gzipFile;
+		}
+
+		return null;
+
+	}
+
+	/**
+	 * Returns the location of the compressed variant of the given file,
+	 * which may not exist.
+	 *
+	 * @param fileOnDisk
+	 * @return
+	 */
+	public static java.io.File getGzipVariant(final java.io.File fileOnDisk) {
+
+		return new java.io.File(fileOnDisk.getPath() + GZIP_SUFFIX);
+
+	}
+
+	private static String getContentRange(final long[] range, final long length) {
+
+		return BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length;
+
+	}
+
+	private static boolean matches(final String ifNoneMatch, final String etag) {
+
+		if (ifNoneMatch == null) {
+
+			return false;
+		}
+
+		for (String tag : StringUtils.split(ifNoneMatch, ",")) {
+
+			tag = tag.trim();
+
+			if (tag.equals("*") || tag.equals(etag)) {
+
+				return true;
+			}
+
+		}
+
+		return false;
+
+	}
+
+	/**
+	 * Returns true if the client accepts gzip-encoded content.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public static boolean acceptsGzip(final HttpServletRequest request) {
+
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+
+		if (acceptEncoding != null) {
+
+			for (String encoding : acceptEncoding.split(",")) {
+
+				String[] parts = encoding.trim().split(";");
+
+				if (parts[0].trim().equalsIgnoreCase("gzip")) {
+
+					// "gzip;q=0" means "not acceptable"
+					return (parts.length < 2) || !parts[1].trim().matches("q=0(\\.0*)?");
+
+				}
+
+			}
+
+		}
+
+		return false;
+
+	}
+
+	private static boolean isCompressible(final String contentType) {
+
+		String type = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+
+		return type.startsWith("text/") || type.equals("application/javascript") || type.equals("application/x-javascript") || type.equals("application/json")
+		       || type.equals("application/xml") || type.endsWith("+xml");
+
+	}
+
+	/**
+	 * Returns true if a range request should be served as such, i.e. if
+	 * there is no If-Range header, or if it matches the current version
+	 * of the file. Weak entity tags never match.
+	 *
+	 * @param ifRange
+	 * @param etag
+	 * @param fileOnDisk
+	 * @return
+	 */
+	private static boolean isRangeValid(final String ifRange, final String etag, final java.io.File fileOnDisk) {
+
+		if (ifRange == null) {
+
+			return true;
+		}
+
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+
+			return ifRange.equals(etag) &&!etag.startsWith("W/");
+		}
+
+		DateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+
+		httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		try {
+
+			Date date = httpDateFormat.parse(ifRange);
+
+			// HTTP dates have a resolution of one second
+			return (fileOnDisk.lastModified() / 1000) <= (date.getTime() / 1000);
+
+		} catch (ParseException pex) {
+
+			logger.log(Level.FINE, "Could not parse If-Range header {0}", ifRange);
+
+		}
+
+		return false;
+
+	}
+
+	//~--- set methods ----------------------------------------------------
+
+	private static void setContentLength(final HttpServletResponse response, final long length) {
+
+		if (length <= Integer.MAX_VALUE) {
+
+			response.setContentLength((int) length);
+
+		} else {
+
+			response.setHeader("Content-Length", Long.toString(length));
+
+		}
+
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.web.common;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.PrintWriter;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * The output buffer of the page rendering. Without a writer, the whole page
+ * is collected in memory. With a writer, the buffer is written out whenever
+ * it exceeds {@link #FLUSH_THRESHOLD} characters and on {@link #flush()},
+ * so the client receives the beginning of a page while the rest is still
+ * being rendered.
+ *
+ * The renderer looks back at the current line to decide about whitespace,
+ * so the last two lines are kept in the buffer. Output without line breaks
+ * (e.g. minified content) is written up to the last {@link #FLUSH_THRESHOLD}
+ * characters once the buffer exceeds {@link #MAX_BUFFER_LENGTH}. All
+ * positions are relative to the start of the buffered part.
+ *
+ * A copy of the written content is kept for the render cache only up to
+ * {@link #MAX_COPY_LENGTH} characters, larger pages are streamed without
+ * being cached.
+ *
+ * @author Christian Morgner
+ */
+public class RenderBuffer {
+
+	public static final int FLUSH_THRESHOLD   = 8192;
+	public static final int MAX_BUFFER_LENGTH = 4 * FLUSH_THRESHOLD;
+	public static final int MAX_COPY_LENGTH   = 1024 * 1024;
+
+	//~--- fields ---------------------------------------------------------
+
+	private StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD);
+	private StringBuilder copy   = null;
+	private boolean truncated    = false;
+	private PrintWriter writer   = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	/**
+	 * Creates a buffer that collects the whole page.
+	 */
+	public RenderBuffer() {}
+
+	/**
+	 * Creates a buffer that streams the page to the given writer.
+	 *
+	 * @param writer
+	 * @param keepCopy if true, the written content is kept, so that
+	 * {@link #getContent()} returns the whole page, as long as it does not
+	 * exceed {@link #MAX_COPY_LENGTH} characters
+	 */
+	public RenderBuffer(final PrintWriter writer, final boolean keepCopy) {
+
+		this.writer = writer;
+
+		if (keepCopy) {
+
+			this.copy = new StringBuilder(FLUSH_THRESHOLD);
+		}
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	public RenderBuffer append(final String str) {
+
+		buffer.append(str);
+
+		if ((writer != null) && (buffer.length() >= FLUSH_THRESHOLD)) {
+
+			write(false);
+		}
+
+		return this;
+
+	}
+
+	public int lastIndexOf(final String str) {
+
+		return buffer.lastIndexOf(str);
+
+	}
+
+	public String substring(final int start) {
+
+		return buffer.substring(start);
+
+	}
+
+	public RenderBuffer replace(final int start, final int end, final String str) {
+
+		buffer.replace(start, end, str);
+
+		return this;
+
+	}
+
+	/**
+	 * Sends everything but the last two lines to the client.
+	 */
+	public void flush() {
+
+		if (writer != null) {
+
+			write(false);
+		}
+
+	}
+
+	/**
+	 * Sends the remaining content to the client.
+	 */
+	public void finish() {
+
+		if (writer != null) {
+
+			write(true);
+		}
+
+	}
+
+	private void write(final boolean all) {
+
+		int end = buffer.length();
+
+		if (!all) {
+
+			end = buffer.lastIndexOf("\n");
+
+			if (end > 0) {
+
+				end = buffer.lastIndexOf("\n", end - 1);
+			}
+
+			if (buffer.length() - Math.max(end, 0) > MAX_BUFFER_LENGTH) {
+
+				// no line breaks (minified output), keep only the end of the current line
+				end = buffer.length() - FLUSH_THRESHOLD;
+
+				if (Character.isHighSurrogate(buffer.charAt(end - 1))) {
+
+					end--;
+				}
+
+			}
+
+		}
+
+		if (end > 0) {
+
+			if (copy != null) {
+
+				if (copy.length() + end > MAX_COPY_LENGTH) {
+
+					copy      = null;
+					truncated = true;
+
+				} else {
+
+					copy.append(buffer, 0, end);
+
+				}
+
+			}
+
+			writer.append(buffer, 0, end);
+			writer.flush();
+			buffer.delete(0, end);
+
+		}
+
+	}
+
+	@Override
+	public String toString() {
+
+		return buffer.toString();
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	public int length() {
+
+		return buffer.length();
+
+	}
+
+	/**
+	 * Returns the whole page. Only available when the buffer has no writer
+	 * or keeps a copy, after {@link #finish()}.
+	 *
+	 * @return the page, or null if the copy was dropped because the page
+	 * exceeded {@link #MAX_COPY_LENGTH} characters
+	 */
+	public String getContent() {
+
+		if (truncated) {
+
+			return null;
+		}
+
+		if (copy != null) {
+
+			return copy.toString();
+		}
+
+		return buffer.toString();
+
+	}
+
+}
@@ -0,0 +1,602 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.web.common;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.neo4j.graphdb.Relationship;
+
+import org.structr.common.SecurityContext;
+import org.structr.common.error.ErrorBuffer;
+import org.structr.core.GraphObject;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.entity.Principal;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * Caches the rendered output of pages, together with the ids of all nodes
+ * that were visited while rendering. A cached page is dropped as soon as
+ * one of these nodes, or a relationship attached to one of them, is
+ * created, modified or deleted.
+ *
+ * Pages that contain dynamic parts (views, conditions, search results or
+ * variable expressions) are never cached, see {@link RenderContext#setUncacheable()}.
+ *
+ * Pages are invalidated before a transaction is committed, and again after
+ * the commit, because a page rendered in between would still show the old
+ * values. The number of pages is limited, the least recently used page is
+ * dropped first.
+ *
+ * @author Christian Morgner
+ */
+public class RenderCache implements StructrTransactionListener {
+
+	private static final int DEFAULT_MAX_ENTRIES = 1000;
+	private static final Logger logger           = Logger.getLogger(RenderCache.class.getName());
+
+	//~--- fields ---------------------------------------------------------
+
+	private final Map<Long, Set<String>> dependencies         = new HashMap<Long, Set<String>>();
+	private final AtomicLong generation                       = new AtomicLong(0);
+	private final Map<Long, Set<Long>> pendingInvalidations   = new ConcurrentHashMap<Long, Set<Long>>();
+	private Map<String, CachedPage> entries                   = null;
+
+	//~--- constructors ---------------------------------------------------
+
+	public RenderCache() {
+
+		this(DEFAULT_MAX_ENTRIES);
+
+	}
+
+	public RenderCache(final int maxEntries) {
+
+		// access-ordered, guarded by this
+		this.entries = new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Entry<String, CachedPage> eldest) {
+
+				if (size() > maxEntries) {
+
+					removeDependencies(eldest.getKey(), eldest.getValue());
+
+					return true;
+				}
+
+				return false;
+
+			}
+
+		};
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Creates a new context to record the nodes visited while rendering.
+	 *
+	 * @return
+	 */
+	public RenderContext startRendering() {
+
+		return new RenderContext(generation.get());
+
+	}
+
+	/**
+	 * Stores the rendered content of a page, if the given context is still
+	 * cacheable and no node was modified while the page was rendered.
+	 *
+	 * @param key
+	 * @param context
+	 * @param content
+	 * @param contentType
+	 * @return the new entry, which holds the ETag of the content
+	 */
+	public CachedPage put(final String key, final RenderContext context, final String content, final String contentType) {
+
+		CachedPage page = new CachedPage(content, contentType);
+
+		if ((key == null) ||!context.isCacheable()) {
+
+			return page;
+		}
+
+		synchronized (this) {
+
+			if (generation.get() != context.generation) {
+
+				return page;
+			}
+
+			CachedPage previous = entries.remove(key);
+
+			if (previous != null) {
+
+				removeDependencies(key, previous);
+			}
+
+			for (Long nodeId : context.nodeIds) {
+
+				Set<String> keys = dependencies.get(nodeId);
+
+				if (keys == null) {
+
+					keys = new HashSet<String>();
+
+					dependencies.put(nodeId, keys);
+				}
+
+				keys.add(key);
+			}
+
+			page.nodeIds = context.nodeIds;
+
+			entries.put(key, page);
+		}
+
+		return page;
+
+	}
+
+	/**
+	 * Removes all pages that depend on the given node.
+	 *
+	 * @param nodeId
+	 */
+	public void invalidate(final long nodeId) {
+
+		synchronized (this) {
+
+			generation.incrementAndGet();
+
+			Set<String> keys = dependencies.remove(nodeId);
+
+			if (keys != null) {
+
+				for (String key : keys) {
+
+					CachedPage page = entries.remove(key);
+
+					if (page != null) {
+
+						removeDependencies(key, page);
+					}
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Removes the given page from the dependencies of its nodes. Callers
+	 * must synchronize on this cache.
+	 */
+	private void removeDependencies(final String key, final CachedPage page) {
+
+		if (page.nodeIds == null) {
+
+			return;
+		}
+
+		for (Long nodeId : page.nodeIds) {
+
+			Set<String> keys = dependencies.get(nodeId);
+
+			if (keys != null) {
+
+				keys.remove(key);
+
+				if (keys.isEmpty()) {
+
+					dependencies.remove(nodeId);
+				}
+			}
+		}
+
+	}
+
+	public void clear() {
+
+		synchronized (this) {
+
+			generation.incrementAndGet();
+			entries.clear();
+			dependencies.clear();
+		}
+
+	}
+
+	private void invalidate(final long transactionKey, final GraphObject graphObject) {
+
+		try {
+
+			if (graphObject instanceof AbstractRelationship) {
+
+				Relationship rel = ((AbstractRelationship) graphObject).getRelationship();
+
+				invalidate(transactionKey, rel.getStartNode().getId());
+				invalidate(transactionKey, rel.getEndNode().getId());
+
+			} else if (graphObject != null) {
+
+				invalidate(transactionKey, graphObject.getId());
+			}
+
+		} catch (Throwable t) {
+
+			logger.log(Level.FINE, "Unable to invalidate render cache selectively", t);
+			clear();
+		}
+
+	}
+
+	private void invalidate(final long transactionKey, final long nodeId) {
+
+		invalidate(nodeId);
+
+		Set<Long> pending = pendingInvalidations.get(transactionKey);
+
+		if (pending == null) {
+
+			pending = new LinkedHashSet<Long>();
+
+			pendingInvalidations.put(transactionKey, pending);
+		}
+
+		pending.add(nodeId);
+
+	}
+
+	// ----- interface StructrTransactionListener -----
+	@Override
+	public void begin(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void commit(SecurityContext securityContext, long transactionKey) {}
+
+	@Override
+	public void rollback(SecurityContext securityContext, long transactionKey) {
+
+		pendingInvalidations.remove(transactionKey);
+
+	}
+
+	@Override
+	public void afterCommit(SecurityContext securityContext, long transactionKey) {
+
+		Set<Long> pending = pendingInvalidations.remove(transactionKey);
+
+		if (pending != null) {
+
+			for (Long nodeId : pending) {
+
+				invalidate(nodeId);
+			}
+		}
+
+	}
+
+	@Override
+	public boolean propertyModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue, Object newValue) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	@Override
+	public boolean propertyRemoved(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectCreated(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	@Override
+	public boolean graphObjectDeleted(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, Map<String, Object> properties) {
+
+		invalidate(transactionKey, graphObject);
+
+		return true;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	public CachedPage get(final String key) {
+
+		if (key == null) {
+
+			return null;
+		}
+
+		synchronized (this) {
+
+			return entries.get(key);
+		}
+
+	}
+
+	/**
+	 * Returns the cache key for the given page and request. Besides the
+	 * page, the rendered output depends on the request path, which selects
+	 * components, on the request parameters and on the kind of principal.
+	 *
+	 * @param securityContext
+	 * @param page
+	 * @param request
+	 * @return
+	 */
+	public static String getKey(final SecurityContext securityContext, final AbstractNode page, final HttpServletRequest request) {
+
+		Principal user        = securityContext.getUser();
+		StringBuilder key     = new StringBuilder();
+		String queryString    = request.getQueryString();
+
+		key.append(page.getId());
+		key.append("|").append(request.getPathInfo());
+
+		if (queryString != null) {
+
+			key.append("?").append(queryString);
+		}
+
+		key.append("|").append((user != null)
+				       ? user.getClass().getName()
+				       : "anonymous");
+
+		return key.toString();
+
+	}
+
+	public int size() {
+
+		synchronized (this) {
+
+			return entries.size();
+		}
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Rendered content of a page and its entity tag.
+	 */
+	public static class CachedPage {
+
+		private String content     = null;
+		private String contentType = null;
+		private String etag        = null;
+		private byte[] gzipped     = null;
+		private Set<Long> nodeIds  = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public CachedPage(final String content, final String contentType) {
+
+			this.content     = content;
+			this.contentType = contentType;
+
+			try {
+
+				this.etag = "\"" + DigestUtils.md5Hex(content.getBytes("UTF-8")) + "\"";
+
+			} catch (UnsupportedEncodingException ueex) {
+
+				this.etag = "\"" + DigestUtils.md5Hex(content) + "\"";
+			}
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public String getContent() {
+
+			return content;
+
+		}
+
+		public String getContentType() {
+
+			return contentType;
+
+		}
+
+		public String getETag() {
+
+			return etag;
+
+		}
+
+		/**
+		 * Returns the entity tag of the gzipped content, which must differ
+		 * from the one of the uncompressed content.
+		 *
+		 * @return
+		 */
+		public String getGzipETag() {
+
+			return etag.substring(0, etag.length() - 1).concat("-gzip\"");
+
+		}
+
+		/**
+		 * Returns the gzipped UTF-8 bytes of the content. They are
+		 * compressed on first access and kept with the page.
+		 *
+		 * @return the compressed content, or null if it can't be compressed
+		 */
+		public synchronized byte[] getGzippedContent() {
+
+			if (gzipped == null) {
+
+				try {
+
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() / 4);
+					GZIPOutputStream gzip       = new GZIPOutputStream(bytes);
+
+					gzip.write(content.getBytes("UTF-8"));
+					gzip.close();
+
+					gzipped = bytes.toByteArray();
+
+				} catch (IOException ioex) {
+
+					logger.log(Level.WARNING, "Unable to compress page", ioex);
+
+					return null;
+
+				}
+
+			}
+
+			return gzipped;
+
+		}
+
+		/**
+		 * Returns true if the given If-None-Match header value contains
+		 * the entity tag of this page.
+		 *
+		 * @param ifNoneMatch
+		 * @return
+		 */
+		public boolean matches(final String ifNoneMatch) {
+
+			if (ifNoneMatch == null) {
+
+				return false;
+			}
+
+			for (String tag : ifNoneMatch.split(",")) {
+
+				tag = tag.trim();
+
+				if (tag.equals("*") || tag.equals(etag) || tag.equals(getGzipETag())) {
+
+					return true;
+				}
+			}
+
+			return false;
+
+		}
+
+	}
+
+
+	/**
+	 * Records the nodes visited while a page is rendered.
+	 */
+	public static class RenderContext {
+
+		private final Set<Long> nodeIds = new LinkedHashSet<Long>();
+		private boolean cacheable       = true;
+		private long generation         = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		private RenderContext(final long generation) {
+
+			this.generation = generation;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		public void visit(final AbstractNode node) {
+
+			nodeIds.add(node.getId());
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public boolean isCacheable() {
+
+			return cacheable;
+
+		}
+
+		//~--- set methods ----------------------------------------------------
+
+		/**
+		 * Marks the page as not cacheable, because its output depends on
+		 * data other than the visited nodes.
+		 */
+		public void setUncacheable() {
+
+			this.cacheable = false;
+
+		}
+
+	}
+
+}
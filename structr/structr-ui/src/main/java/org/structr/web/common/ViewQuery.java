@@ -0,0 +1,336 @@
+/*
+ *  Copyright (C) 2010-2012 Axel Morgner, structr <structr@structr.org>
+ *
+ *  This file is part of structr <http://structr.org>.
+ *
+ *  structr is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  structr is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.structr.web.common;
+
+//~--- JDK imports ------------------------------------------------------------
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+//~--- classes ----------------------------------------------------------------
+
+/**
+ * The query of a {@link org.structr.web.entity.View}, with its
+ * <code>${request.key}</code> placeholders compiled into Cypher parameters.
+ * As the query string does not depend on the request, its execution plan can
+ * be reused.
+ *
+ * <p>
+ * A string literal that contains placeholders is replaced by a single parameter
+ * whose value is the literal with the request values filled in. A regular
+ * expression literal (<code>=~ /.../</code>) is handled the same way, except
+ * that the request values are quoted, so they are matched literally. A
+ * placeholder outside of a literal is replaced by a parameter holding the
+ * request value, converted to a number if possible. Missing request values
+ * are replaced by an empty string.
+ * </p>
+ *
+ * @author Christian Morgner
+ */
+public class ViewQuery {
+
+	private static final int MAX_CACHED_QUERIES          = 1000;
+	private static final Pattern PLACEHOLDER             = Pattern.compile("\\$\\{request\\.([^}]+)\\}");
+	private static final Pattern NUMBER                  = Pattern.compile("-?[0-9]{1,18}");
+	private static final Map<String, ViewQuery> compiled = new ConcurrentHashMap<String, ViewQuery>();
+
+	//~--- fields ---------------------------------------------------------
+
+	private List<Parameter> parameters = new LinkedList<Parameter>();
+	private String query               = null;
+
+	//~--- constant enums -------------------------------------------------
+
+	private enum ParameterType { string, regex, value }
+
+	//~--- constructors ---------------------------------------------------
+
+	private ViewQuery(final String rawQuery) {
+
+		StringBuilder buf = new StringBuilder(rawQuery.length());
+		int length        = rawQuery.length();
+		int pos           = 0;
+
+		while (pos < length) {
+
+			char c = rawQuery.charAt(pos);
+
+			if ((c == '\'') || (c == '"') || ((c == '/') && isRegexStart(buf))) {
+
+				int end = findEnd(rawQuery, pos + 1, c);
+
+				if (end < 0) {
+
+					// unterminated literal, leave it to the parser
+					buf.append(rawQuery.substring(pos));
+
+					break;
+
+				}
+
+				String content = rawQuery.substring(pos + 1, end);
+
+				if (PLACEHOLDER.matcher(content).find()) {
+
+					buf.append(addParameter(content, (c == '/')
+									 ? ParameterType.regex
+									 : ParameterType.string));
+
+				} else {
+
+					buf.append(rawQuery, pos, end + 1);
+				}
+
+				pos = end + 1;
+
+				continue;
+
+			}
+
+			if (c == '$') {
+
+				Matcher matcher = PLACEHOLDER.matcher(rawQuery);
+
+				if (matcher.find(pos) && (matcher.start() == pos)) {
+
+					buf.append(addParameter(matcher.group(), ParameterType.value));
+
+					pos = matcher.end();
+
+					continue;
+
+				}
+
+			}
+
+			buf.append(c);
+
+			pos++;
+
+		}
+
+		this.query = buf.toString();
+
+	}
+
+	//~--- methods --------------------------------------------------------
+
+	/**
+	 * Returns the compiled form of the given query. Compiled queries are
+	 * cached by their query string.
+	 *
+	 * @param rawQuery
+	 * @return
+	 */
+	public static ViewQuery compile(final String rawQuery) {
+
+		ViewQuery viewQuery = compiled.get(rawQuery);
+
+		if (viewQuery == null) {
+
+			viewQuery = new ViewQuery(rawQuery);
+
+			if (compiled.size() >= MAX_CACHED_QUERIES) {
+
+				compiled.clear();
+			}
+
+			compiled.put(rawQuery, viewQuery);
+
+		}
+
+		return viewQuery;
+
+	}
+
+	private String addParameter(final String template, final ParameterType type) {
+
+		Parameter parameter = new Parameter("request_" + parameters.size(), template, type);
+
+		parameters.add(parameter);
+
+		return "{" + parameter.name + "}";
+
+	}
+
+	/**
+	 * Returns the position of the closing delimiter of a literal that starts
+	 * at the given position, skipping escaped characters.
+	 *
+	 * @param query
+	 * @param start
+	 * @param delimiter
+	 * @return the position of the delimiter, or -1
+	 */
+	private static int findEnd(final String query, final int start, final char delimiter) {
+
+		for (int i = start; i < query.length(); i++) {
+
+			char c = query.charAt(i);
+
+			if (c == '\\') {
+
+				i++;
+
+			} else if (c == delimiter) {
+
+				return i;
+			}
+
+		}
+
+		return -1;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	/**
+	 * @return the query string with all placeholders replaced by parameters
+	 */
+	public String getQuery() {
+
+		return query;
+
+	}
+
+	/**
+	 * Returns the values of all parameters of this query for the given
+	 * request.
+	 *
+	 * @param request the request, or null
+	 * @return
+	 */
+	public Map<String, Object> getParameters(final HttpServletRequest request) {
+
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+		for (Parameter parameter : parameters) {
+
+			values.put(parameter.name, parameter.getValue(request));
+		}
+
+		return values;
+
+	}
+
+	public boolean hasParameters() {
+
+		return !parameters.isEmpty();
+
+	}
+
+	private static boolean isRegexStart(final StringBuilder buf) {
+
+		int i = buf.length() - 1;
+
+		while ((i >= 0) && Character.isWhitespace(buf.charAt(i))) {
+
+			i--;
+		}
+
+		return (i >= 1) && (buf.charAt(i - 1) == '=') && (buf.charAt(i) == '~');
+
+	}
+
+	private static String getRequestValue(final HttpServletRequest request, final String key) {
+
+		String value = (request != null)
+			       ? request.getParameter(key)
+			       : null;
+
+		return (value != null)
+		       ? value
+		       : "";
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class Parameter {
+
+		private String name        = null;
+		private String template    = null;
+		private ParameterType type = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Parameter(final String name, final String template, final ParameterType type) {
+
+			this.name     = name;
+			this.template = template;
+			this.type     = type;
+
+		}
+
+		//~--- get methods ----------------------------------------------------
+
+		public Object getValue(final HttpServletRequest request) {
+
+			Matcher matcher = PLACEHOLDER.matcher(template);
+
+			if (type == ParameterType.value) {
+
+				String value = matcher.matches()
+					       ? getRequestValue(request, matcher.group(1))
+					       : "";
+
+				if (NUMBER.matcher(value).matches()) {
+
+					return Long.valueOf(value);
+				}
+
+				return value;
+
+			}
+
+			StringBuffer buf = new StringBuffer();
+
+			while (matcher.find()) {
+
+				String value = getRequestValue(request, matcher.group(1));
+
+				if ((type == ParameterType.regex) && (value.length() > 0)) {
+
+					value = Pattern.quote(value);
+				}
+
+				matcher.appendReplacement(buf, Matcher.quoteReplacement(value));
+
+			}
+
+			matcher.appendTail(buf);
+
+			return buf.toString();
+
+		}
+
+	}
+
+}
@@ -21,15 +21,19 @@
 
 package org.structr.web.converter;
 
+import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
+import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
 import org.structr.core.Value;
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.structr.web.entity.Content;
 import org.structr.web.entity.TypeDefinition;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang.StringUtils;
@@ -44,25 +48,24 @@ import org.apache.commons.lang.StringUtils;
  *
  * @author Axel Morgner
  */
-public class DynamicConverter extends PropertyConverter {
+public class DynamicConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(DynamicConverter.class.getName());
 
-	//~--- fields ---------------------------------------------------------
-
-	private PropertyConverter converter = null;
+	// converter instances are shared, so we only need one instance per converter class
+	private static final Map<String, StatelessPropertyConverter> converterCache = new ConcurrentHashMap<String, StatelessPropertyConverter>();
 
 	//~--- methods --------------------------------------------------------
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
-		instantiateConverter(currentObject);
+		StatelessPropertyConverter converter = getConverter(currentObject);
 
 		try {
 
 			return converter != null
-			       ? converter.convertForSetter(source, value)
+			       ? converter.convertForSetter(securityContext, currentObject, source, value)
 			       : source;
 
 		} catch (FrameworkException ex) {
@@ -76,19 +79,19 @@ public class DynamicConverter extends PropertyConverter {
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
-		instantiateConverter(currentObject);
+		StatelessPropertyConverter converter = getConverter(currentObject);
 
 		Object result = (converter != null
-		       ? converter.convertForGetter(source, value)
+		       ? converter.convertForGetter(securityContext, currentObject, source, value)
 		       : source);
 		
 		return result != null ? result.toString() : null;
 
 	}
 
-	private void instantiateConverter(final GraphObject currentObject) {
+	private StatelessPropertyConverter getConverter(final GraphObject currentObject) {
 
 		if (currentObject != null && currentObject instanceof Content) {
 
@@ -101,6 +104,12 @@ public class DynamicConverter extends PropertyConverter {
 
 				if (StringUtils.isNotBlank(converterProp)) {
 
+					StatelessPropertyConverter converter = converterCache.get(converterProp);
+					if (converter != null) {
+
+						return converter;
+					}
+
 					Class converterClass = null;
 
 					try {
@@ -115,20 +124,15 @@ public class DynamicConverter extends PropertyConverter {
 
 					if (converterClass != null) {
 
-						try {
-
-							converter = (PropertyConverter) converterClass.newInstance();
-
-						} catch (InstantiationException ex) {
+						converter = EntityContext.createPropertyConverter(converterClass);
 
-							logger.log(Level.SEVERE, null, ex);
-
-						} catch (IllegalAccessException ex) {
-
-							logger.log(Level.SEVERE, null, ex);
+						if (converter != null) {
 
+							converterCache.put(converterProp, converter);
 						}
 
+						return converter;
+
 					}
 
 				}
@@ -137,6 +141,8 @@ public class DynamicConverter extends PropertyConverter {
 
 		}
 
+		return null;
+
 	}
 
 }
@@ -21,6 +21,8 @@
 
 package org.structr.web.converter;
 
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
@@ -29,7 +31,7 @@ import org.neo4j.kernel.Traversal;
 import org.neo4j.kernel.Uniqueness;
 
 import org.structr.common.RelType;
-import org.structr.core.converter.PropertyConverter;
+import org.structr.core.converter.StatelessPropertyConverter;
 import org.structr.core.Value;
 import org.structr.core.entity.AbstractNode;
 
@@ -46,21 +48,21 @@ import java.util.logging.Logger;
  *
  * @author axel
  */
-public class PathsConverter extends PropertyConverter {
+public class PathsConverter extends StatelessPropertyConverter {
 
 	private static final Logger logger = Logger.getLogger(PathsConverter.class.getName());
 
 	//~--- methods --------------------------------------------------------
 
 	@Override
-	public Object convertForSetter(Object source, Value value) {
+	public Object convertForSetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		// read only
 		return null;
 	}
 
 	@Override
-	public Object convertForGetter(Object source, Value value) {
+	public Object convertForGetter(SecurityContext securityContext, GraphObject currentObject, Object source, Value value) {
 
 		AbstractNode startNode         = (AbstractNode) currentObject;
 		TraversalDescription localDesc = Traversal.description().depthFirst().uniqueness(Uniqueness.NODE_PATH).relationships(RelType.CONTAINS, Direction.INCOMING);
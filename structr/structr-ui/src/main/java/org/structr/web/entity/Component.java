@@ -22,7 +22,6 @@
 package org.structr.web.entity;
 
 import org.neo4j.graphdb.Direction;
-import org.neo4j.graphdb.Relationship;
 
 import org.structr.common.PropertyKey;
 import org.structr.common.PropertyView;
@@ -36,6 +35,7 @@ import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.entity.RelationClass.Cardinality;
 import org.structr.core.node.DeleteNodeCommand;
 import org.structr.core.node.NodeService;
+import org.structr.web.common.ChildOrder;
 
 //~--- JDK imports ------------------------------------------------------------
 
@@ -300,58 +300,40 @@ public class Component extends AbstractNode implements Element {
 
 		List<AbstractRelationship> rels = new LinkedList<AbstractRelationship>();
 
-		for (AbstractRelationship abstractRelationship : node.getOutgoingRelationships(RelType.CONTAINS)) {
+		// the relationships of a page are already filtered and ordered by their position
+		List<AbstractRelationship> candidates = (pageId != null)
+							? ChildOrder.getInstance().getOrderedRelationships(node, pageId)
+							: node.getOutgoingRelationships(RelType.CONTAINS);
 
-			Relationship rel = abstractRelationship.getRelationship();
+		for (AbstractRelationship abstractRelationship : candidates) {
 
-			if ((pageId == null) || ((pageId != null) && rel.hasProperty(pageId)) || rel.hasProperty("*")) {
+			AbstractNode endNode = abstractRelationship.getEndNode();
 
-				AbstractNode endNode = abstractRelationship.getEndNode();
+			if (endNode == null || (endNode instanceof Component && !isVisible(request, endNode, abstractRelationship, componentId))) {
 
-				if (endNode == null || (endNode instanceof Component && !isVisible(request, endNode, abstractRelationship, componentId))) {
-
-					continue;
+				continue;
 
-				}
+			}
 
-				if ((componentId != null) && ((endNode instanceof Content) || (endNode instanceof Component))) {
+			if ((componentId != null) && ((endNode instanceof Content) || (endNode instanceof Component))) {
+				
+				// Add content nodes if they don't have the data-key property set
+				if (endNode instanceof Content && endNode.getStringProperty("data-key") == null) {
 					
-					// Add content nodes if they don't have the data-key property set
-					if (endNode instanceof Content && endNode.getStringProperty("data-key") == null) {
-						
-						rels.add(abstractRelationship);
-						
-					// Add content or component nodes if rel's componentId attribute matches
-					} else if (componentId.equals(abstractRelationship.getStringProperty(Key.componentId.name()))) {
-
-						rels.add(abstractRelationship);
-
-					}
-						
-				} else {
+					rels.add(abstractRelationship);
+					
+				// Add content or component nodes if rel's componentId attribute matches
+				} else if (componentId.equals(abstractRelationship.getStringProperty(Key.componentId.name()))) {
 
 					rels.add(abstractRelationship);
 
 				}
+					
+			} else {
 
-			}
-
-		}
-
-		if (pageId != null) {
-
-			Collections.sort(rels, new Comparator<AbstractRelationship>() {
-
-				@Override
-				public int compare(AbstractRelationship o1, AbstractRelationship o2) {
-
-					Long pos1 = getPosition(o1, pageId);
-					Long pos2 = getPosition(o2, pageId);
-
-					return pos1.compareTo(pos2);
-				}
+				rels.add(abstractRelationship);
 
-			});
+			}
 
 		}
 
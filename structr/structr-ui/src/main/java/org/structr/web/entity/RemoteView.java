@@ -1,28 +1,25 @@
 package org.structr.web.entity;
 
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
-import org.neo4j.cypher.javacompat.ExecutionEngine;
-import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.neo4j.graphdb.Direction;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
-import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.rest.graphdb.RestGraphDatabase;
 import org.structr.common.PropertyKey;
 import org.structr.common.PropertyView;
 import org.structr.common.RelType;
+import org.structr.common.SecurityContext;
 import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
-import org.structr.core.entity.AbstractNode;
-import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.cypher.CypherExecutor;
 import org.structr.core.entity.RelationClass.Cardinality;
-import org.structr.core.node.NodeFactory;
 import org.structr.core.node.NodeService.NodeIndex;
-import org.structr.core.node.RelationshipFactory;
+import org.structr.web.common.ViewQuery;
 import org.structr.web.entity.html.HtmlElement.UiKey;
 
 /**
@@ -32,6 +29,29 @@ import org.structr.web.entity.html.HtmlElement.UiKey;
 
 public class RemoteView extends View {
 
+	private static final int MAX_REMOTE_CONNECTIONS = 16;
+	private static final Logger logger              = Logger.getLogger(RemoteView.class.getName());
+
+	// remote connections by repository URL and user, least recently used first
+	private static final Map<String, RemoteConnection> remoteConnections = new LinkedHashMap<String, RemoteConnection>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, RemoteConnection> eldest) {
+
+			if (size() > MAX_REMOTE_CONNECTIONS) {
+
+				eldest.getValue().close();
+
+				return true;
+			}
+
+			return false;
+		}
+	};
+
+	// connection key of each view, to drop its connection when the view is changed
+	private static final Map<Long, String> viewConnections = new HashMap<Long, String>();
+
 	public enum Key implements PropertyKey {
 		repositoryUrl, remoteUser, remotePassword
 	};
@@ -48,69 +68,135 @@ public class RemoteView extends View {
 	}
 	
 	@Override
-	public List<GraphObject> getGraphObjects(final HttpServletRequest request) {
+	public Iterable<GraphObject> getGraphObjects(final HttpServletRequest request) {
 
 		try {
 
-			List<GraphObject> resultList = new LinkedList<GraphObject>();
-			String query                 = getQuery(request);
-			String repositoryUrl         = getStringProperty(Key.repositoryUrl);
-			String username              = getStringProperty(Key.remoteUser);
-			String password              = getStringProperty(Key.remotePassword);
-			
-			// fetch factories
-			RelationshipFactory relFactory  = new RelationshipFactory(securityContext);
-			NodeFactory nodeFactory         = new NodeFactory();
-			boolean includeHiddenAndDeleted = false;
-			boolean publicOnly              = false;
+			ViewQuery viewQuery = getViewQuery();
+
+			if (viewQuery != null) {
+
+				// execute cypher query, results are instantiated locally
+				return getRemoteExecutor().execute(securityContext, viewQuery.getQuery(), viewQuery.getParameters(request), false, false);
+			}
+
+		} catch (Throwable t) {
+
+			logger.log(Level.WARNING, "Unable to execute remote view query", t);
+
+		}
+
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void afterModification(SecurityContext securityContext) {
+
+		dropRemoteConnection(getId());
+	}
+
+	@Override
+	public void afterDeletion(SecurityContext securityContext) {
+
+		dropRemoteConnection(getId());
+	}
 
-			// initialize remote cypher engine
-			GraphDatabaseService gds        = new RestGraphDatabase(repositoryUrl, username, password);
-			ExecutionEngine engine          = new ExecutionEngine(gds);
+	/**
+	 * Returns the executor for the remote repository of this view. Remote
+	 * connections and their execution plans are shared by all views that
+	 * use the same repository and user. At most {@link #MAX_REMOTE_CONNECTIONS}
+	 * connections are kept, a connection is replaced when its password
+	 * changes, and closed when one of the views that use it is modified.
+	 *
+	 * @return
+	 */
+	private CypherExecutor getRemoteExecutor() {
 
-			// execute cypher query
-			ExecutionResult result          = engine.execute(query);
-			
-			// process result
-			for (String column : result.columns()) {
+		String repositoryUrl = getStringProperty(Key.repositoryUrl);
+		String username      = getStringProperty(Key.remoteUser);
+		String password      = getStringProperty(Key.remotePassword);
+		String key           = repositoryUrl + "|" + username;
+		String credentials   = DigestUtils.shaHex(String.valueOf(password));
 
-				for (Object o : IteratorUtil.asIterable(result.columnAs(column))) {
+		synchronized (remoteConnections) {
 
-					if (o instanceof Node) {
+			RemoteConnection connection = remoteConnections.get(key);
 
-						AbstractNode node = nodeFactory.createNode(securityContext, (Node) o, includeHiddenAndDeleted, publicOnly);
+			if ((connection != null) &&!connection.credentials.equals(credentials)) {
 
-						if (node != null) {
+				connection.close();
 
-							resultList.add(node);
-						}
-						
-					} else if (o instanceof Relationship) {
+				connection = null;
 
-						AbstractRelationship rel = relFactory.createRelationship(securityContext, (Relationship) o);
+			}
 
-						if (rel != null) {
+			if (connection == null) {
 
-							resultList.add(rel);
-						}
+				// initialize remote cypher engine
+				connection = new RemoteConnection(new RestGraphDatabase(repositoryUrl, username, password), credentials);
 
-					}
+				remoteConnections.put(key, connection);
 
+			}
+
+			viewConnections.put(getId(), key);
+
+			return connection.executor;
+
+		}
+
+	}
+
+	private static void dropRemoteConnection(final long viewId) {
+
+		synchronized (remoteConnections) {
+
+			String key = viewConnections.remove(viewId);
+
+			if (key != null) {
+
+				RemoteConnection connection = remoteConnections.remove(key);
+
+				if (connection != null) {
+
+					connection.close();
 				}
 
 			}
 
-			// shutdown rest database connection
-			gds.shutdown();
-			
-			return resultList;
-			
-		} catch (Throwable t) {
+		}
 
-			t.printStackTrace();
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	private static class RemoteConnection {
+
+		private RestGraphDatabase graphDb = null;
+		private CypherExecutor executor   = null;
+		private String credentials        = null;
+
+		public RemoteConnection(final RestGraphDatabase graphDb, final String credentials) {
+
+			this.graphDb     = graphDb;
+			this.executor    = new CypherExecutor(graphDb);
+			this.credentials = credentials;
+
+		}
+
+		public void close() {
+
+			try {
+
+				graphDb.shutdown();
+
+			} catch (Throwable t) {
+
+				logger.log(Level.FINE, "Error closing remote connection", t);
+
+			}
 
 		}
 
-		return Collections.emptyList();
 	}
 }
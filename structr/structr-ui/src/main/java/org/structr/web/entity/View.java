@@ -21,8 +21,6 @@
 
 package org.structr.web.entity;
 
-import org.apache.commons.lang.StringUtils;
-
 import org.neo4j.graphdb.Direction;
 
 import org.structr.common.PropertyKey;
@@ -31,16 +29,15 @@ import org.structr.common.RelType;
 import org.structr.core.EntityContext;
 import org.structr.core.GraphObject;
 import org.structr.core.Services;
+import org.structr.core.StreamingResult;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.RelationClass;
 import org.structr.core.node.CypherQueryCommand;
+import org.structr.web.common.ViewQuery;
 
 //~--- JDK imports ------------------------------------------------------------
 
 import java.util.Collections;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 import org.structr.core.node.NodeService.NodeIndex;
@@ -71,12 +68,24 @@ public class View extends AbstractNode implements Element {
 
 	//~--- get methods ----------------------------------------------------
 
-	public List<GraphObject> getGraphObjects(final HttpServletRequest request) {
+	/**
+	 * Executes the query of this view with the parameters of the given
+	 * request. The result is instantiated while it is iterated.
+	 *
+	 * @param request
+	 * @return
+	 */
+	public Iterable<GraphObject> getGraphObjects(final HttpServletRequest request) {
 
 		try {
 
-			return (List<GraphObject>) Services.command(securityContext, CypherQueryCommand.class).execute(getQuery(request));
-			
+			ViewQuery viewQuery = getViewQuery();
+
+			if (viewQuery != null) {
+
+				return (StreamingResult) Services.command(securityContext, CypherQueryCommand.class).execute(viewQuery.getQuery(), viewQuery.getParameters(request));
+			}
+
 		} catch (Throwable t) {
 
 			t.printStackTrace();
@@ -87,32 +96,22 @@ public class View extends AbstractNode implements Element {
 
 	}
 
-	protected String getQuery(HttpServletRequest request) {
-		
-		String rawQuery = getStringProperty("query");
-		String query    = rawQuery;
-
-		if (request != null && query != null) {
+	/**
+	 * Returns the compiled query of this view, or null if no query is set.
+	 *
+	 * @return
+	 */
+	protected ViewQuery getViewQuery() {
 
-			Pattern pattern = Pattern.compile("\\$\\{request.(.*)\\}");
-			Matcher matcher = pattern.matcher(rawQuery);
+		String rawQuery = getStringProperty(Key.query);
 
-			while (matcher.find()) {
+		if (rawQuery == null) {
 
-				String key = matcher.group(1);
-
-				String value = request.getParameter(key);
-
-				if (StringUtils.isNotEmpty(value)) {
-
-					query = StringUtils.replace(rawQuery, "${request." + key + "}", value);
-				}
+			return null;
+		}
 
-			}
+		return ViewQuery.compile(rawQuery);
 
-		}
-		
-		return query;
 	}
 	
 //      public static void main(String[] args) throws Exception {
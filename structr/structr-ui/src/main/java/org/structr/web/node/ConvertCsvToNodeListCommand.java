@@ -20,38 +20,52 @@
 
 
 package org.structr.web.node;
-
 import au.com.bytecode.opencsv.CSVReader;
 
+import org.neo4j.graphdb.Direction;
+
+import org.structr.common.PropertyView;
 import org.structr.common.RelType;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
+import org.structr.core.EntityContext;
 import org.structr.core.Services;
 import org.structr.core.UnsupportedArgumentError;
+import org.structr.core.agent.ConversionTask;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.entity.NodeList;
-import org.structr.core.entity.Principal;
 import org.structr.core.node.CreateNodeCommand;
 import org.structr.core.node.CreateRelationshipCommand;
 import org.structr.core.node.FindNodeCommand;
+import org.structr.core.node.IndexDelta;
+import org.structr.core.node.IndexNodeCommand;
+import org.structr.core.node.IndexRelationshipCommand;
 import org.structr.core.node.NodeAttribute;
 import org.structr.core.node.NodeServiceCommand;
 import org.structr.core.node.StructrTransaction;
 import org.structr.core.node.TransactionCommand;
 import org.structr.web.entity.CsvFile;
-import org.structr.web.entity.CsvFile;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 //~--- classes ----------------------------------------------------------------
@@ -60,11 +74,42 @@ import java.util.logging.Logger;
  * Converts a CSV file to a node list. Each row will be represented
  * as a node.
  *
+ * The first row must contain the column names, which are matched
+ * against the property keys of the target type (case-insensitive).
+ * Values are set with {@link AbstractNode#setProperty(java.lang.String, java.lang.Object)},
+ * so the property converters registered for the target type apply.
+ * Empty cells and unknown columns are ignored.
+ *
+ * Rows are parsed by a separate thread and imported in transactions of
+ * <code>batchSize</code> rows. Each transaction also stores the number
+ * of imported rows in the node list, so that an interrupted import can
+ * be resumed. Indexing of the new nodes is deferred and done every
+ * {@link #INDEX_INTERVAL} batches.
+ *
+ * Parameters: CsvFile (or its id), target class, and optionally the
+ * field separator (Character, detected from the first row if omitted),
+ * the batch size (Integer), Boolean.TRUE to resume the last import of
+ * this file, and a {@link ConversionTask} to report progress to.
+ *
  * @author axel
  */
 public class ConvertCsvToNodeListCommand extends NodeServiceCommand {
 
-	private static final Logger logger = Logger.getLogger(ConvertCsvToNodeListCommand.class.getName());
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/** Property of the node list that holds the number of imported rows */
+	public static final String IMPORTED_ROWS = "importedRows";
+
+	/** Property of the node list that holds the number of entries whose index changes are applied */
+	public static final String INDEXED_ENTRIES = "indexedEntries";
+
+	/** Number of batches whose index changes are applied together */
+	public static final int INDEX_INTERVAL = 10;
+
+	private static final Batch END_OF_FILE     = new Batch(Collections.<Map<String, Object>>emptyList(), 0);
+	private static final int QUEUE_CAPACITY    = 4;
+	private static final char[] SEPARATORS     = new char[] { '|', ';', ',', '\t' };
+	private static final Logger logger         = Logger.getLogger(ConvertCsvToNodeListCommand.class.getName());
 
 	//~--- methods --------------------------------------------------------
 
@@ -76,12 +121,14 @@ public class ConvertCsvToNodeListCommand extends NodeServiceCommand {
 			throw new UnsupportedArgumentError("Wrong number of arguments");
 		}
 
-		Long csvNodeId          = null;
 		AbstractNode sourceNode = null;
 		Class targetClass       = null;
 		CsvFile csvFileNode     = null;
 		String filePath         = null;
-		Principal user          = null;
+		Character separator     = null;
+		int batchSize           = DEFAULT_BATCH_SIZE;
+		boolean resume          = false;
+		ConversionTask task     = null;
 
 		for (Object o : parameters) {
 
@@ -94,8 +141,7 @@ public class ConvertCsvToNodeListCommand extends NodeServiceCommand {
 
 			if (o instanceof Long) {
 
-				csvNodeId  = (Long) o;
-				sourceNode = (AbstractNode) Services.command(securityContext, FindNodeCommand.class).execute(csvNodeId);
+				sourceNode = (AbstractNode) Services.command(securityContext, FindNodeCommand.class).execute((Long) o);
 
 				if (sourceNode instanceof CsvFile) {
 
@@ -111,205 +157,570 @@ public class ConvertCsvToNodeListCommand extends NodeServiceCommand {
 				targetClass = (Class) o;
 			}
 
-			if (o instanceof Principal) {
+			if (o instanceof Character) {
+
+				separator = (Character) o;
+			}
+
+			if (o instanceof Integer) {
+
+				batchSize = Math.max(1, (Integer) o);
+			}
+
+			if (o instanceof Boolean) {
 
-				user = (Principal) o;
+				resume = (Boolean) o;
 			}
 
+			if (o instanceof ConversionTask) {
+
+				task = (ConversionTask) o;
+			}
+
+		}
+
+		if ((csvFileNode == null) || (targetClass == null)) {
+
+			throw new UnsupportedArgumentError("CSV file and target class are required");
 		}
 
 		try {
 
-			// TODO: Implement auto-detection for field separator and quote characters
-			CSVReader reader = new CSVReader(new FileReader(filePath), '|', '\"');
+			BufferedReader in = new BufferedReader(new FileReader(filePath));
+
+			if (separator == null) {
+
+				separator = detectSeparator(in);
+			}
+
+			CSVReader reader = new CSVReader(in, separator, '\"');
 
 			// Read first line, these should be the column keys
-			String[] keys = reader.readNext();
+			String[] header = reader.readNext();
+
+			if (header == null) {
+
+				reader.close();
+
+				return null;
+
+			}
+
+			String[] columnKeys          = resolveColumns(targetClass, header);
+			NodeList<AbstractNode> list  = resume
+						       ? findNodeList(csvFileNode)
+						       : null;
+			long importedRows            = 0;
+
+			if (list != null) {
+
+				Long rows = list.getLongProperty(IMPORTED_ROWS);
+
+				importedRows = (rows != null)
+					       ? rows
+					       : 0;
+
+				logger.log(Level.INFO, "Resuming import of {0} after row {1}", new Object[] { csvFileNode.getName(), importedRows });
+				reindexSinceCheckpoint(list);
+
+			} else {
+
+				list = createNodeList(csvFileNode);
+			}
+
+			importRows(reader, targetClass.getSimpleName(), columnKeys, list, importedRows, batchSize, task);
+
+			return list;
+
+		} catch (Throwable t) {
+
+			logger.log(Level.WARNING, "Unable to convert CSV file", t);
+
+		}
+
+		return null;
+
+	}
+
+	private void importRows(final CSVReader reader, final String type, final String[] columnKeys, final NodeList<AbstractNode> list, final long skipRows, final int batchSize,
+				final ConversionTask task)
+		throws FrameworkException {
+
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+		final Command transactionCommand = Services.command(securityContext, TransactionCommand.class);
+		final Command createNode         = Services.command(securityContext, CreateNodeCommand.class);
+		final IndexDelta indexDelta      = new IndexDelta();
+		final Parser parser              = new Parser(reader, type, columnKeys, skipRows, batchSize, queue);
+		long importedRows                = skipRows;
+		long start                       = System.currentTimeMillis();
+		int batches                      = 0;
+		boolean completed                = false;
+
+		parser.start();
+
+		EntityContext.setDeferredIndexDelta(indexDelta);
+
+		try {
+
+			while (true) {
+
+				final Batch batch = queue.take();
+
+				if (batch == END_OF_FILE) {
+
+					break;
+				}
 
-			// Get the fields of the target node
-			Field[] fields = targetClass.getFields();
+				transactionCommand.execute(new StructrTransaction() {
 
-			// The field index stores the field name of a column
-			Map<Integer, String> fieldIndex = new HashMap<Integer, String>();
+					@Override
+					public Object execute() throws FrameworkException {
 
-			// Instantiate object
-			AbstractNode o = (AbstractNode) targetClass.newInstance();
-			int col        = 0;
+						List<AbstractNode> nodes = new LinkedList<AbstractNode>();
 
-			// Match with fields
-			for (String key : keys) {
+						for (Map<String, Object> attributes : batch.rows) {
 
-				for (Field f : fields) {
+							nodes.add((AbstractNode) createNode.execute(attributes));
+						}
 
-					String fieldName = (String) f.get(o);
+						list.addAll(nodes);
+						list.setProperty(IMPORTED_ROWS, batch.position);
 
-					if (fieldName.toUpperCase().equals(key.toUpperCase())) {
+						return null;
 
-						fieldIndex.put(col, fieldName);
 					}
 
+				});
+
+				importedRows = batch.position;
+
+				if (task != null) {
+
+					task.setProcessedRows(importedRows);
+				}
+
+				if ((++batches % INDEX_INTERVAL) == 0) {
+
+					applyIndexDelta(indexDelta, list);
+
+					long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+					logger.log(Level.INFO, "Imported {0} rows ({1} rows/s)", new Object[] { importedRows, ((importedRows - skipRows) * 1000) / elapsed });
+
 				}
 
-				col++;
+			}
+
+			if (parser.error != null) {
 
+				throw new FrameworkException(500, "Unable to parse CSV file: " + parser.error.getMessage());
 			}
 
-			for (Entry<Integer, String> entry : fieldIndex.entrySet()) {
+			completed = true;
+
+		} catch (InterruptedException iex) {
+
+			logger.log(Level.WARNING, "Import interrupted after {0} rows", importedRows);
+
+		} finally {
+
+			EntityContext.setDeferredIndexDelta(null);
+
+			parser.interrupt();
 
-				Integer i = entry.getKey();
-				String v  = entry.getValue();
+			// don't let a failure here hide the exception that ended the import,
+			// the index changes are applied again when the import is resumed
+			try {
 
-				System.out.println("v: " + v + ", i: " + i);
+				applyIndexDelta(indexDelta, list);
+
+			} catch (FrameworkException fex) {
+
+				if (completed) {
+
+					throw fex;
+				}
+
+				logger.log(Level.WARNING, "Unable to apply index changes of aborted import", fex);
+
+			} catch (RuntimeException rex) {
+
+				if (completed) {
+
+					throw rex;
+				}
+
+				logger.log(Level.WARNING, "Unable to apply index changes of aborted import", rex);
 
 			}
 
-//                      List<String[]> lines = reader.readAll();
-			final Principal userCopy                  = user;
-			final AbstractNode sourceNodeCopy         = csvFileNode;
-			final Command transactionCommand          = Services.command(securityContext, TransactionCommand.class);
-			final Command createNode                  = Services.command(securityContext, CreateNodeCommand.class);
-			final Command createRel                   = Services.command(securityContext, CreateRelationshipCommand.class);
-			final NodeList<AbstractNode> nodeListNode = (NodeList<AbstractNode>) transactionCommand.execute(new StructrTransaction() {
+		}
 
-				@Override
-				public Object execute() throws FrameworkException {
+		logger.log(Level.INFO, "Import of {0} rows finished, {1} empty rows skipped", new Object[] { importedRows, parser.skippedRows });
 
-					// If the node list node doesn't exist, create one
-					NodeList<AbstractNode> result = (NodeList) createNode.execute(userCopy, new NodeAttribute(AbstractNode.Key.type.name(), NodeList.class.getSimpleName()),
-										new NodeAttribute(AbstractNode.Key.name.name(), sourceNodeCopy.getName() + " List"));
+	}
 
-					createRel.execute(sourceNodeCopy, result, RelType.CONTAINS);
+	/**
+	 * Applies the given index changes and records the number of list
+	 * entries they cover in the same transaction, so that a resumed
+	 * import knows which entries still need to be indexed.
+	 */
+	private void applyIndexDelta(final IndexDelta indexDelta, final NodeList<AbstractNode> list) throws FrameworkException {
+
+		if (!indexDelta.hasNodes() &&!indexDelta.hasRelationships()) {
+
+			return;
+		}
 
-					return result;
+		Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
+
+			@Override
+			public Object execute() throws FrameworkException {
+
+				if (indexDelta.hasRelationships()) {
+
+					Services.command(securityContext, IndexRelationshipCommand.class).execute(indexDelta);
+				}
+
+				if (indexDelta.hasNodes()) {
+
+					Services.command(securityContext, IndexNodeCommand.class).execute(indexDelta);
 				}
 
-			});
-			final List<List<NodeAttribute>> creationList = new LinkedList<List<NodeAttribute>>();
-			String targetClassName                       = targetClass.getSimpleName();
-			String[] line                                = null;
+				list.setProperty(INDEXED_ENTRIES, list.size());
 
-			do {
+				return null;
 
-				// read line, one at a time
-				try {
+			}
+
+		});
+
+		indexDelta.clear();
+
+	}
+
+	/**
+	 * Indexes the list entries that were imported after the last applied
+	 * index changes, i.e. the ones whose index changes were lost when the
+	 * import was aborted.
+	 */
+	private void reindexSinceCheckpoint(final NodeList<AbstractNode> list) throws FrameworkException {
+
+		Long indexed          = list.getLongProperty(INDEXED_ENTRIES);
+		int size              = list.size();
+		int from              = (indexed != null)
+					? (int) Math.min(indexed, size)
+					: 0;
+		IndexDelta indexDelta = new IndexDelta();
+
+		if (from == size) {
+
+			return;
+		}
+
+		logger.log(Level.INFO, "Indexing {0} entries imported since the last checkpoint", size - from);
+		indexDelta.addNode(list);
+
+		for (AbstractNode node : list.subList(from, size)) {
+
+			indexDelta.addNode(node);
+
+			for (AbstractRelationship rel : node.getRelationships()) {
+
+				indexDelta.addRelationship(rel);
+			}
+
+		}
+
+		applyIndexDelta(indexDelta, list);
+
+	}
+
+	private NodeList<AbstractNode> createNodeList(final CsvFile csvFileNode) throws FrameworkException {
+
+		final Command createNode = Services.command(securityContext, CreateNodeCommand.class);
+		final Command createRel  = Services.command(securityContext, CreateRelationshipCommand.class);
 
-					line = reader.readNext();
+		return (NodeList<AbstractNode>) Services.command(securityContext, TransactionCommand.class).execute(new StructrTransaction() {
 
-				} catch (Throwable t) {}
+			@Override
+			public Object execute() throws FrameworkException {
 
-				if (line != null) {
+				NodeList<AbstractNode> result = (NodeList) createNode.execute(new NodeAttribute(AbstractNode.Key.type.name(), NodeList.class.getSimpleName()),
+									new NodeAttribute(AbstractNode.Key.name.name(), csvFileNode.getName() + " List"));
 
-					// create a new list for each item
-					List<NodeAttribute> nodeAttributes = new LinkedList<NodeAttribute>();
+				createRel.execute(csvFileNode, result, RelType.CONTAINS);
 
-					nodeAttributes.add(new NodeAttribute(AbstractNode.Key.type.name(), targetClassName));
+				return result;
+			}
+
+		});
+
+	}
+
+	/**
+	 * Guesses the field separator from the first line, which is expected
+	 * to contain the column names.
+	 */
+	private char detectSeparator(final BufferedReader in) throws IOException {
+
+		in.mark(65536);
+
+		String firstLine = in.readLine();
+		char separator   = SEPARATORS[0];
+		int maxCount     = 0;
+
+		in.reset();
 
-					for (int i = 0; i < col; i++) {
+		if (firstLine != null) {
 
-						String csvValue = line[i];
-						String key      = fieldIndex.get(i);
+			for (char candidate : SEPARATORS) {
 
-						nodeAttributes.add(new NodeAttribute(key, csvValue));
+				int count = 0;
 
+				for (int i = 0; i < firstLine.length(); i++) {
+
+					if (firstLine.charAt(i) == candidate) {
+
+						count++;
 					}
 
-					// add node attributes to creation list
-					creationList.add(nodeAttributes);
 				}
-			} while (line != null);
 
-			reader.close();
+				if (count > maxCount) {
+
+					maxCount  = count;
+					separator = candidate;
+
+				}
 
-			// everything in one transaction
-			transactionCommand.execute(new StructrTransaction() {
+			}
 
-				@Override
-				public Object execute() throws FrameworkException {
+		}
 
-					List<AbstractNode> nodesToAdd = new LinkedList<AbstractNode>();
+		return separator;
 
-					for (List<NodeAttribute> attrList : creationList) {
+	}
 
-						nodesToAdd.add((AbstractNode) createNode.execute(attrList, false));    // don't index
+	/**
+	 * Maps each column to a property key of the given type, or to null
+	 * if the column does not match any property.
+	 */
+	private String[] resolveColumns(final Class type, final String[] header) {
+
+		Map<String, String> keys = new HashMap<String, String>();
+		Set<String> propertySet  = EntityContext.getPropertySet(type, PropertyView.All);
+		String[] columnKeys      = new String[header.length];
+
+		if (propertySet != null) {
+
+			for (String key : propertySet) {
+
+				keys.put(key.toUpperCase(Locale.ENGLISH), key);
+			}
+
+		}
+
+		// public static String fields of the type (legacy)
+		for (Field field : type.getFields()) {
+
+			if (Modifier.isStatic(field.getModifiers()) && String.class.equals(field.getType())) {
+
+				try {
+
+					String key = (String) field.get(null);
+
+					if ((key != null) &&!keys.containsKey(key.toUpperCase(Locale.ENGLISH))) {
+
+						keys.put(key.toUpperCase(Locale.ENGLISH), key);
 					}
 
-					// use bulk add
-					nodeListNode.addAll(nodesToAdd);
+				} catch (IllegalAccessException iaex) {}
 
-					return (null);
+			}
 
-				}
+		}
 
-			});
-
-			/*
-			 * final List<NodeAttribute> attrList = new LinkedList<NodeAttribute>();
-			 *
-			 * NodeAttribute typeAttr = new NodeAttribute(AbstractNode.Key.type.name(), targetClass.getSimpleName());
-			 * attrList.add(typeAttr);
-			 *
-			 * String[] line = null;
-			 *
-			 * do
-			 * {
-			 * try
-			 * {
-			 * line = reader.readNext();
-			 *
-			 * } catch(Throwable t)
-			 * {
-			 * line = null;
-			 * }
-			 *
-			 * if(line != null)
-			 * {
-			 * for(int i = 0; i < col; i++)
-			 * {
-			 *
-			 * String csvValue = line[i];
-			 * String key = fieldIndex.get(i);
-			 *
-			 * System.out.println("Creating attribute " + key + " = '" + csvValue + "'..");
-			 *
-			 * NodeAttribute attr = new NodeAttribute(key, csvValue);
-			 * attrList.add(attr);
-			 *
-			 * logger.log(Level.FINEST, "Created node attribute {0}={1}", new Object[]
-			 * {
-			 * attr.getKey(), attr.getValue()
-			 * });
-			 * }
-			 *
-			 * AbstractNode newNode = (AbstractNode)transactionCommand.execute(new StructrTransaction()
-			 * {
-			 * @Override
-			 * public Object execute() throws Throwable
-			 * {
-			 * Command createNode = Services.command(securityContext, CreateNodeCommand.class);
-			 *
-			 * // Create new node
-			 * AbstractNode newNode = (AbstractNode)createNode.execute(userCopy, attrList);
-			 * transactionCommand.setExitCode(createNode.getExitCode());
-			 * transactionCommand.setErrorMessage(createNode.getErrorMessage());
-			 * return newNode;
-			 * }
-			 * });
-			 *
-			 * nodeListNode.add(newNode);
-			 * logger.log(Level.INFO, "Node {0} added to node list", newNode.getId());
-			 * }
-			 *
-			 * } while(line != null);
-			 */
-			return nodeListNode;
-		} catch (Throwable t) {
+		for (int i = 0; i < header.length; i++) {
+
+			columnKeys[i] = keys.get(header[i].trim().toUpperCase(Locale.ENGLISH));
+
+			if (columnKeys[i] == null) {
+
+				logger.log(Level.WARNING, "Column {0} does not match any property of {1}, ignoring", new Object[] { header[i], type.getSimpleName() });
+			}
+
+		}
+
+		return columnKeys;
+
+	}
+
+	//~--- get methods ----------------------------------------------------
+
+	private NodeList<AbstractNode> findNodeList(final CsvFile csvFileNode) {
+
+		for (AbstractRelationship rel : csvFileNode.getRelationships(RelType.CONTAINS, Direction.OUTGOING)) {
+
+			AbstractNode endNode = rel.getEndNode();
+
+			if (endNode instanceof NodeList) {
+
+				return (NodeList<AbstractNode>) endNode;
+			}
 
-			// TODO: use logger
-			t.printStackTrace(System.out);
 		}
 
 		return null;
 
 	}
 
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * Rows to import in one transaction, and the number of data rows
+	 * of the file that were read up to and including these rows.
+	 */
+	private static class Batch {
+
+		private long position                  = 0;
+		private List<Map<String, Object>> rows = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Batch(final List<Map<String, Object>> rows, final long position) {
+
+			this.rows     = rows;
+			this.position = position;
+
+		}
+
+	}
+
+
+	/**
+	 * Reads rows and hands them to the importing thread in batches.
+	 */
+	private static class Parser extends Thread {
+
+		private int batchSize              = 0;
+		private String[] columnKeys        = null;
+		private volatile Throwable error   = null;
+		private BlockingQueue<Batch> queue = null;
+		private CSVReader reader           = null;
+		private long skipRows              = 0;
+		private volatile long skippedRows  = 0;
+		private String type                = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public Parser(final CSVReader reader, final String type, final String[] columnKeys, final long skipRows, final int batchSize,
+			      final BlockingQueue<Batch> queue) {
+
+			super("CsvParser");
+
+			this.reader     = reader;
+			this.type       = type;
+			this.columnKeys = columnKeys;
+			this.skipRows   = skipRows;
+			this.batchSize  = batchSize;
+			this.queue      = queue;
+
+			setDaemon(true);
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public void run() {
+
+			List<Map<String, Object>> batch = new LinkedList<Map<String, Object>>();
+			long row                        = 0;
+
+			try {
+
+				String[] line = null;
+
+				while ((line = reader.readNext()) != null) {
+
+					// rows that were imported before
+					if (row++ < skipRows) {
+
+						continue;
+					}
+
+					if ((line.length == 1) && (line[0].trim().length() == 0)) {
+
+						skippedRows++;
+
+						continue;
+
+					}
+
+					Map<String, Object> attributes = new HashMap<String, Object>();
+
+					attributes.put(AbstractNode.Key.type.name(), type);
+
+					for (int i = 0; i < Math.min(line.length, columnKeys.length); i++) {
+
+						String key   = columnKeys[i];
+						String value = line[i];
+
+						if ((key != null) && (value != null) && (value.length() > 0)) {
+
+							attributes.put(key, value);
+						}
+
+					}
+
+					if (line.length != columnKeys.length) {
+
+						logger.log(Level.FINE, "Row {0} has {1} columns instead of {2}", new Object[] { row, line.length, columnKeys.length });
+					}
+
+					batch.add(attributes);
+
+					if (batch.size() >= batchSize) {
+
+						queue.put(new Batch(batch, row));
+
+						batch = new LinkedList<Map<String, Object>>();
+
+					}
+
+				}
+
+				if (!batch.isEmpty()) {
+
+					queue.put(new Batch(batch, row));
+				}
+
+			} catch (InterruptedException iex) {
+
+				// import was aborted
+				return;
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Unable to parse CSV file", t);
+
+				error = t;
+
+			} finally {
+
+				try { reader.close(); } catch (IOException ioex) {}
+
+			}
+
+			try {
+
+				queue.put(END_OF_FILE);
+
+			} catch (InterruptedException iex) {}
+
+		}
+
+	}
+
 }
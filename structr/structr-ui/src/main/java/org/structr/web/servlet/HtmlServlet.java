@@ -24,7 +24,6 @@ package org.structr.web.servlet;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
@@ -35,7 +34,6 @@ import net.java.textilej.parser.markup.mediawiki.MediaWikiDialect;
 import net.java.textilej.parser.markup.textile.TextileDialect;
 import net.java.textilej.parser.markup.trac.TracWikiDialect;
 
-import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 
@@ -89,7 +87,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.structr.core.node.GetNodeByIdCommand;
+import org.structr.web.common.FileDeliveryHelper;
 import org.structr.web.common.PageHelper;
+import org.structr.web.common.RenderBuffer;
+import org.structr.web.common.RenderCache;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -110,11 +111,18 @@ public class HtmlServlet extends HttpServlet {
 	private static Set<Page> resultPages                                        = new HashSet<Page>();
 	private static final Logger logger                                          = Logger.getLogger(HtmlServlet.class.getName());
 	private static final ThreadLocalConfluenceProcessor confluenceProcessor     = new ThreadLocalConfluenceProcessor();
+	private static final RenderCache renderCache                                = new RenderCache();
+	private static final int MIN_GZIP_LENGTH                                    = 512;
+	private static boolean streaming                                            = true;
+	private static boolean gzip                                                 = true;
 	private static Date lastModified;
 	public static final String REST_RESPONSE = "restResponse";
 	public static final String REDIRECT = "redirect";
 	public static final String LAST_GET_URL = "lastGetUrl";
 	public static final String POSSIBLE_ENTRY_POINTS = "possibleEntryPoints";
+	public static final String THUMBNAIL_WIDTH = "width";
+	public static final String THUMBNAIL_HEIGHT = "height";
+	public static final String THUMBNAIL_CROP = "crop";
 	
 	public static final DecimalFormat decimalFormat     = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
 	
@@ -236,10 +244,24 @@ public class HtmlServlet extends HttpServlet {
 	public void init() {
 		
 		 searchNodesAsSuperuser = Services.command(SecurityContext.getSuperUserInstance(), SearchNodeCommand.class);
+
+		 EntityContext.registerTransactionListener(renderCache);
+
+		 Map<String, String> context = Services.getContext();
+
+		 if (context != null) {
+
+			 streaming = !"false".equalsIgnoreCase(StringUtils.strip(context.get(Services.HTML_STREAMING)));
+			 gzip      = !"false".equalsIgnoreCase(StringUtils.strip(context.get(Services.HTML_GZIP)));
+		 }
 	}
 
 	@Override
-	public void destroy() {}
+	public void destroy() {
+
+		EntityContext.unregisterTransactionListener(renderCache);
+		renderCache.clear();
+	}
 
 	@Override
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws UnsupportedEncodingException {
@@ -430,9 +452,7 @@ public class HtmlServlet extends HttpServlet {
 				// Store last page GET URL in session
 				request.getSession().setAttribute(LAST_GET_URL, request.getPathInfo());
 
-				PrintWriter out            = response.getWriter();
-				String uuid                = page.getStringProperty(AbstractNode.Key.uuid);
-				final StringBuilder buffer = new StringBuilder(8192);
+				String uuid = page.getStringProperty(AbstractNode.Key.uuid);
 				
 				List<NodeAttribute> attrs          = new LinkedList<NodeAttribute>();
 				Map<String, String[]> parameterMap = request.getParameterMap();
@@ -448,72 +468,158 @@ public class HtmlServlet extends HttpServlet {
 
 				if (!edit && !dontCache && setCachingHeader(request, response, node)) {
 
+					PrintWriter out = response.getWriter();
+
 					out.flush();
 					out.close();
 
 				} else {
-					
-					getContent(securityContext, uuid, null, buffer, page, page, 0, false, searchFor, attrs, null, null);
 
-					String content = buffer.toString();
-					double end     = System.nanoTime();
-					logger.log(Level.INFO, "Content for path {0} in {1} seconds", new Object[] { path, decimalFormat.format((end - setup) / 1000000000.0)});
+					// rendered pages are cached unless in edit mode or after a form submission
+					boolean useCache                 = !edit && !dontCache;
+					String cacheKey                  = useCache ? RenderCache.getKey(securityContext, page, request) : null;
+					RenderCache.CachedPage rendered  = renderCache.get(cacheKey);
+
+					if (rendered != null) {
+
+						logger.log(Level.FINE, "Serving page {0} from render cache", path);
+
+					} else if (streaming) {
+
+						// stream the page while it is rendered, the next request gets it from the cache
+						RenderCache.RenderContext renderContext = renderCache.startRendering();
+						String contentType                      = getContentType(page);
+
+						response.setStatus(HttpServletResponse.SC_OK);
+						response.setContentType(contentType);
+
+						PrintWriter out     = response.getWriter();
+						RenderBuffer buffer = new RenderBuffer(out, useCache);
 
-					String contentType = page.getStringProperty(Page.UiKey.contentType);
+						buffer.append("<!DOCTYPE html>\n");
+						getContent(securityContext, uuid, null, buffer, page, page, 0, false, searchFor, attrs, null, null, renderContext);
+						buffer.finish();
 
-					if (contentType != null) {
+						double end     = System.nanoTime();
+						logger.log(Level.INFO, "Content for path {0} in {1} seconds", new Object[] { path, decimalFormat.format((end - setup) / 1000000000.0)});
 
-						if (contentType.equals("text/html")) {
+						String content = buffer.getContent();
 
-							contentType = contentType.concat(";charset=UTF-8");
+						// pages larger than the copy limit are not cached
+						if (useCache && (content != null)) {
 
+							renderCache.put(cacheKey, renderContext, content, contentType);
 						}
 
-						response.setContentType(contentType);
+						out.flush();
+						out.close();
+
+						return;
 
 					} else {
 
-						// Default
-						response.setContentType("text/html;charset=UTF-8");
+						RenderCache.RenderContext renderContext = renderCache.startRendering();
+						RenderBuffer buffer                     = new RenderBuffer();
+
+						buffer.append("<!DOCTYPE html>\n");
+						getContent(securityContext, uuid, null, buffer, page, page, 0, false, searchFor, attrs, null, null, renderContext);
+
+						double end     = System.nanoTime();
+						logger.log(Level.INFO, "Content for path {0} in {1} seconds", new Object[] { path, decimalFormat.format((end - setup) / 1000000000.0)});
+
+						String contentType = getContentType(page);
+
+						rendered = useCache
+							   ? renderCache.put(cacheKey, renderContext, buffer.getContent(), contentType)
+							   : new RenderCache.CachedPage(buffer.getContent(), contentType);
+
+					}
+
+					boolean gzipped = gzip && FileDeliveryHelper.acceptsGzip(request) && (rendered.getContent().length() >= MIN_GZIP_LENGTH);
+
+					response.setContentType(rendered.getContentType());
+
+					if (gzip) {
+
+						response.setHeader("Vary", "Accept-Encoding");
+					}
+
+					if (!edit && !dontCache) {
+
+						response.setHeader("ETag", gzipped
+									   ? rendered.getGzipETag()
+									   : rendered.getETag());
+
+						if (rendered.matches(request.getHeader("If-None-Match"))) {
+
+							response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+							response.getOutputStream().close();
+
+							return;
+
+						}
+
 					}
 
 					// 3: output content
-					out.append("<!DOCTYPE html>\n");
-					HttpAuthenticator.writeContent(content, response);
+					byte[] compressed = gzipped
+							    ? rendered.getGzippedContent()
+							    : null;
 
-				}
+					if (compressed != null) {
 
-			} else if ((file != null) && securityContext.isVisible(file)) {
+						response.setStatus(HttpServletResponse.SC_OK);
+						response.setHeader("Content-Encoding", "gzip");
+						response.setContentLength(compressed.length);
 
-				OutputStream out = response.getOutputStream();
+						OutputStream out = response.getOutputStream();
 
-				if (!edit && setCachingHeader(request, response, node)) {
+						out.write(compressed);
+						out.flush();
+						out.close();
 
-					out.flush();
-					out.close();
+					} else {
 
-				} else {
+						HttpAuthenticator.writeContent(rendered.getContent(), response);
+					}
 
-					// 2b: stream file to response
-					InputStream in     = file.getInputStream();
-					String contentType = file.getContentType();
+				}
 
-					if (contentType != null) {
+			} else if ((file != null) && securityContext.isVisible(file)) {
 
-						response.setContentType(contentType);
+				boolean placeholder = false;
+
+				if ((file instanceof Image) && (request.getParameter(THUMBNAIL_WIDTH) != null) && (request.getParameter(THUMBNAIL_HEIGHT) != null)) {
+
+					Image thumbnail = getThumbnail(request, (Image) file);
+
+					if (thumbnail != null) {
+
+						file = thumbnail;
 
 					} else {
 
-						// Default
-						response.setContentType("application/octet-stream");
+						placeholder = true;
 					}
+				}
 
-					IOUtils.copy(in, out);
+				if (placeholder) {
+
+					// 2a: deliver the original image until the thumbnail is ready, but don't let it be cached
+					response.setHeader("Cache-Control", "no-cache");
+					FileDeliveryHelper.serve(request, response, file);
+
+				} else if (!edit && setCachingHeader(request, response, node)) {
+
+					OutputStream out = response.getOutputStream();
 
-					// 3: output content
 					out.flush();
 					out.close();
-					response.setStatus(HttpServletResponse.SC_OK);
+
+				} else {
+
+					// 2b: stream file to response, with support for byte ranges
+					FileDeliveryHelper.serve(request, response, file);
 				}
 
 			} else {
@@ -587,6 +693,33 @@ public class HtmlServlet extends HttpServlet {
 		return null;
 	}
 	
+	/**
+	 * Returns the thumbnail of the given image with the size given in the
+	 * request parameters, or null if the thumbnail is not ready yet. Its
+	 * creation is scheduled, so the page is not held up by the image.
+	 *
+	 * @param request
+	 * @param image
+	 * @return
+	 */
+	private Image getThumbnail(HttpServletRequest request, final Image image) {
+
+		try {
+
+			int width      = Integer.parseInt(request.getParameter(THUMBNAIL_WIDTH));
+			int height     = Integer.parseInt(request.getParameter(THUMBNAIL_HEIGHT));
+			boolean crop   = Boolean.parseBoolean(request.getParameter(THUMBNAIL_CROP));
+
+			return image.getScaledImage(width, height, crop, false);
+
+		} catch (NumberFormatException nfex) {
+
+			logger.log(Level.FINE, "Invalid thumbnail size, delivering original image");
+		}
+
+		return image;
+	}
+	
 	/**
 	 * Find a page with its name matching last path part
 	 * 
@@ -733,6 +866,32 @@ public class HtmlServlet extends HttpServlet {
 		return Collections.EMPTY_LIST;
 	}
 
+	private static String getContentType(final Page page) {
+
+		String contentType = page.getStringProperty(Page.UiKey.contentType);
+
+		if (contentType != null) {
+
+			if (contentType.equals("text/html")) {
+
+				contentType = contentType.concat(";charset=UTF-8");
+
+			}
+
+		} else {
+
+			// Default
+			contentType = "text/html;charset=UTF-8";
+		}
+
+		return contentType;
+	}
+
+	private static boolean containsVariables(final String value) {
+
+		return (value != null) && value.contains("${");
+	}
+
 	private static String indent(final int depth, final boolean newline) {
 
 		StringBuilder indent = new StringBuilder();
@@ -754,8 +913,8 @@ public class HtmlServlet extends HttpServlet {
 
 	//~--- get methods ----------------------------------------------------
 
-	private void getContent(SecurityContext securityContext, final String pageId, final String componentId, final StringBuilder buffer, final AbstractNode page, final AbstractNode startNode,
-				int depth, boolean inBody, final String searchClass, final List<NodeAttribute> attrs, final AbstractNode viewComponent, final Condition condition) {
+	private void getContent(SecurityContext securityContext, final String pageId, final String componentId, final RenderBuffer buffer, final AbstractNode page, final AbstractNode startNode,
+				int depth, boolean inBody, final String searchClass, final List<NodeAttribute> attrs, final AbstractNode viewComponent, final Condition condition, final RenderCache.RenderContext renderContext) {
 
 		String localComponentId    = componentId;
 		String content             = null;
@@ -798,6 +957,15 @@ public class HtmlServlet extends HttpServlet {
 			String id   = startNode.getUuid();
 			tag = startNode.getStringProperty(Element.UiKey.tag);
 
+			renderContext.visit(startNode);
+
+			// the output of these nodes depends on more than the rendered subtree
+			if ((startNode instanceof View) || (startNode instanceof SearchResultView) || (startNode instanceof Condition)) {
+
+				renderContext.setUncacheable();
+
+			}
+
 			if (startNode instanceof Component && searchClass != null) {
 			
 				// If a search class is given, respect search attributes
@@ -827,6 +995,12 @@ public class HtmlServlet extends HttpServlet {
 
 				Content contentNode = (Content) startNode;
 
+				if (containsVariables(contentNode.getStringProperty(Content.UiKey.content))) {
+
+					renderContext.setUncacheable();
+
+				}
+
 				// fetch content with variable replacement
 				content = contentNode.getPropertyWithVariableReplacement(request, page, pageId, componentId, viewComponent, Content.UiKey.content.name());
 
@@ -881,6 +1055,9 @@ public class HtmlServlet extends HttpServlet {
 
 					inBody = true;
 
+					// send the head before the body is rendered
+					buffer.flush();
+
 				}
 
 				if ((startNode instanceof Content) || (startNode instanceof HtmlElement)) {
@@ -915,6 +1092,12 @@ public class HtmlServlet extends HttpServlet {
 
 							try {
 
+								if (containsVariables(el.getStringProperty(attribute))) {
+
+									renderContext.setUncacheable();
+
+								}
+
 								String value = el.getPropertyWithVariableReplacement(page, pageId, localComponentId, viewComponent, attribute);
 
 								if ((value != null) && StringUtils.isNotBlank(value)) {
@@ -971,7 +1154,7 @@ public class HtmlServlet extends HttpServlet {
 								if (subNode.isNotDeleted() && subNode.isNotDeleted()) {
 
 									getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth, inBody, searchClass, attrs, resultPage,
-										   condition);
+										   condition, renderContext);
 
 								}
 
@@ -987,7 +1170,7 @@ public class HtmlServlet extends HttpServlet {
 				double startView     = System.nanoTime();
 				
 				// fetch query results
-				List<GraphObject> results = ((View) startNode).getGraphObjects(request);
+				Iterable<GraphObject> results = ((View) startNode).getGraphObjects(request);
 				
 				double endView     = System.nanoTime();
 				logger.log(Level.INFO, "Get graph objects for {0} in {1} seconds", new Object[] { startNode.getUuid(), decimalFormat.format((endView - startView) / 1000000000.0)});
@@ -1006,7 +1189,7 @@ public class HtmlServlet extends HttpServlet {
 							if (subNode.isNotDeleted() && subNode.isNotDeleted()) {
 
 								getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth, inBody, searchClass, attrs, (AbstractNode) result,
-									   condition);
+									   condition, renderContext);
 
 							}
 
@@ -1026,7 +1209,7 @@ public class HtmlServlet extends HttpServlet {
 
 					if (subNode.isNotDeleted() && subNode.isNotDeleted()) {
 
-						getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth + 1, inBody, searchClass, attrs, viewComponent, newCondition);
+						getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth + 1, inBody, searchClass, attrs, viewComponent, newCondition, renderContext);
 
 					}
 
@@ -1044,7 +1227,7 @@ public class HtmlServlet extends HttpServlet {
 
 						if (subNode.isNotDeleted() && subNode.isNotDeleted()) {
 
-							getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth + 1, inBody, searchClass, attrs, viewComponent, condition);
+							getContent(securityContext, pageId, localComponentId, buffer, page, subNode, depth + 1, inBody, searchClass, attrs, viewComponent, condition, renderContext);
 
 						}
 
@@ -37,32 +37,53 @@ import org.structr.websocket.message.WebSocketMessage;
 //~--- JDK imports ------------------------------------------------------------
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 //~--- classes ----------------------------------------------------------------
 
 /**
+ * Broadcasts the modifications of each transaction to all connected
+ * clients.
+ *
+ * Broadcasting is decoupled from the committing thread: once the
+ * transaction has been committed, its messages are handed to a dispatcher
+ * thread, which coalesces repeated UPDATEs of the
+ * same object, serializes each message once per distinct filtered result
+ * and puts it into a bounded outbound queue per client. The queues are
+ * drained by a small pool of sender threads, so a slow client can neither
+ * block a transaction nor other clients. A client whose queue overflows
+ * is disconnected and has to reconnect and reload.
  *
  * @author Christian Morgner
  */
 public class SynchronizationController implements StructrTransactionListener {
 
-	private static final Logger logger = Logger.getLogger(SynchronizationController.class.getName());
+	private static final Logger logger      = Logger.getLogger(SynchronizationController.class.getName());
+	private static final int MAX_QUEUE_SIZE = 1000;
+	private static final int SENDER_BATCH   = 100;
+	private static final int SENDER_THREADS = 4;
 
 	//~--- fields ---------------------------------------------------------
 
-	private Set<StructrWebSocket> clients                     = null;
-	private Gson gson                                         = null;
-	private Map<Long, List<WebSocketMessage>> messageStackMap = new LinkedHashMap<Long, List<WebSocketMessage>>();
-	private List<WebSocketMessage> messageStack;
+	private Map<StructrWebSocket, ClientQueue> clients          = new ConcurrentHashMap<StructrWebSocket, ClientQueue>();
+	private Gson gson                                           = null;
+	private Map<Long, List<WebSocketMessage>> messageStackMap   = new ConcurrentHashMap<Long, List<WebSocketMessage>>();
+	private Map<Long, List<WebSocketMessage>> committedMessages = new ConcurrentHashMap<Long, List<WebSocketMessage>>();
+	private ExecutorService dispatcher                          = null;
+	private ExecutorService senders                             = null;
 
 	//~--- constructors ---------------------------------------------------
 
 	public SynchronizationController(Gson gson) {
 
-		this.clients = new LinkedHashSet<StructrWebSocket>();
-		this.gson    = gson;
+		this.gson       = gson;
+		this.dispatcher = Executors.newSingleThreadExecutor(new DaemonThreadFactory("WebSocketDispatcher"));
+		this.senders    = Executors.newFixedThreadPool(SENDER_THREADS, new DaemonThreadFactory("WebSocketSender"));
 
 	}
 
@@ -70,70 +91,169 @@ public class SynchronizationController implements StructrTransactionListener {
 
 	public void registerClient(StructrWebSocket client) {
 
-		clients.add(client);
+		clients.put(client, new ClientQueue(client));
 
 	}
 
 	public void unregisterClient(StructrWebSocket client) {
 
-		clients.remove(client);
+		ClientQueue queue = clients.remove(client);
+
+		if (queue != null) {
+
+			queue.clear();
+		}
+
+	}
+
+	/**
+	 * Stops the dispatcher and sender threads. Pending messages are
+	 * discarded.
+	 */
+	public void shutdown() {
+
+		dispatcher.shutdownNow();
+		senders.shutdownNow();
+
+		for (ClientQueue queue : clients.values()) {
+
+			queue.clear();
+		}
+
+		clients.clear();
 
 	}
 
 	// ----- private methods -----
-	private void broadcast(final WebSocketMessage webSocketData) {
+	private void broadcast(final List<WebSocketMessage> messages) {
+
+		logger.log(Level.FINE, "Broadcasting {0} messages to {1} clients..", new Object[] { messages.size(), clients.size() });
 
-		logger.log(Level.FINE, "Broadcasting message to {0} clients..", clients.size());
+		for (WebSocketMessage webSocketData : coalesce(messages)) {
+
+			try {
+
+				broadcast(webSocketData);
+
+			} catch (Throwable t) {
+
+				// e.g. a node that was deleted before the message was dispatched
+				logger.log(Level.WARNING, "Error broadcasting " + webSocketData.getCommand() + " message, skipping it", t);
+
+			}
+
+		}
+
+	}
+
+	private void broadcast(final WebSocketMessage webSocketData) {
 
 		// session must be valid to be received by the client
 		webSocketData.setSessionValid(true);
 
-		String message;
+		// serialized message per distinct filtered result
+		Map<String, String> serializedMessages = new HashMap<String, String>();
+		String coalesceKey                     = getCoalesceKey(webSocketData);
+		Set<String> propertyKeys               = new HashSet<String>();
 
-		// create message
-		for (StructrWebSocket socket : clients) {
+		propertyKeys.addAll(webSocketData.getModifiedProperties());
+		propertyKeys.addAll(webSocketData.getRemovedProperties());
 
-			Connection socketConnection = socket.getConnection();
+		for (ClientQueue queue : clients.values()) {
 
-			if ((socketConnection != null) && socket.isAuthenticated()) {
+			StructrWebSocket socket = queue.socket;
+
+			if ((socket.getConnection() == null) ||!socket.isAuthenticated()) {
+
+				continue;
+			}
+
+			try {
 
 				List<? extends GraphObject> result = webSocketData.getResult();
+				WebSocketMessage clientData        = webSocketData;
+				String viewKey                     = "";
 
 				if ((result != null) && (result.size() > 0)
 					&& (webSocketData.getCommand().equals("UPDATE") || webSocketData.getCommand().equals("ADD") || webSocketData.getCommand().equals("CREATE"))) {
 
-					WebSocketMessage clientData     = webSocketData.copy();
-					SecurityContext securityContext = socket.getSecurityContext();
+					List<? extends GraphObject> filteredResult = filter(socket.getSecurityContext(), result);
+					StringBuilder buf                          = new StringBuilder();
+
+					for (GraphObject obj : filteredResult) {
+
+						buf.append(obj.getId()).append(",");
+					}
+
+					viewKey    = buf.toString();
+					clientData = webSocketData.copy();
 
-					clientData.setResult(filter(securityContext, result));
+					clientData.setResult(filteredResult);
+
+				}
+
+				String message = serializedMessages.get(viewKey);
+
+				if (message == null) {
 
 					message = gson.toJson(clientData, WebSocketMessage.class);
 
-				} else {
+					serializedMessages.put(viewKey, message);
 
-					message = gson.toJson(webSocketData, WebSocketMessage.class);
 				}
 
-				logger.log(Level.FINE, "############################################################ SENDING \n{0}", message);
+				queue.add(new OutboundMessage(coalesceKey, propertyKeys, message));
+
+			} catch (Throwable t) {
 
-				try {
+				logger.log(Level.WARNING, "Error sending " + webSocketData.getCommand() + " message to client, skipping it", t);
 
-					socketConnection.sendMessage(message);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Merges all UPDATE messages for the same object into the first
+	 * one, as the serialized values are read from the object anyway.
+	 *
+	 * @param messages
+	 * @return
+	 */
+	private List<WebSocketMessage> coalesce(final List<WebSocketMessage> messages) {
+
+		Map<String, WebSocketMessage> updates = new HashMap<String, WebSocketMessage>();
+		List<WebSocketMessage> coalesced      = new LinkedList<WebSocketMessage>();
 
-				} catch (org.eclipse.jetty.io.EofException eof) {
+		for (WebSocketMessage message : messages) {
 
-					logger.log(Level.FINE, "EofException irgnored, may occour on SSL connections.", eof);
+			String coalesceKey = getCoalesceKey(message);
 
-				} catch (Throwable t) {
+			if (coalesceKey != null) {
 
-					logger.log(Level.WARNING, "Error sending message to client.", t);
+				WebSocketMessage existing = updates.get(coalesceKey);
+
+				if (existing != null) {
+
+					existing.getModifiedProperties().addAll(message.getModifiedProperties());
+					existing.getRemovedProperties().addAll(message.getRemovedProperties());
+					existing.getRelData().putAll(message.getRelData());
+
+					continue;
 
 				}
 
+				updates.put(coalesceKey, message);
+
 			}
 
+			coalesced.add(message);
+
 		}
 
+		return coalesced;
+
 	}
 
 	private List<? extends GraphObject> filter(final SecurityContext securityContext, final List<? extends GraphObject> all) {
@@ -157,21 +277,20 @@ public class SynchronizationController implements StructrTransactionListener {
 	@Override
 	public void begin(SecurityContext securityContext, long transactionKey) {
 
-		messageStack = new LinkedList<WebSocketMessage>();
-
-		messageStackMap.put(transactionKey, messageStack);
+		messageStackMap.put(transactionKey, new LinkedList<WebSocketMessage>());
 	}
 
 	@Override
 	public void commit(SecurityContext securityContext, long transactionKey) {
 
-		messageStack = messageStackMap.get(transactionKey);
+		List<WebSocketMessage> messages = messageStackMap.remove(transactionKey);
 
-		if (messageStack != null) {
+		if (messages != null) {
 
-			for (WebSocketMessage message : messageStack) {
+			if (!messages.isEmpty()) {
 
-				broadcast(message);
+				// broadcast when the changes are visible to other threads
+				committedMessages.put(transactionKey, messages);
 			}
 
 		} else {
@@ -179,8 +298,6 @@ public class SynchronizationController implements StructrTransactionListener {
 			logger.log(Level.WARNING, "No message found for transaction key {0}", transactionKey);
 		}
 
-		messageStackMap.remove(transactionKey);
-
 	}
 
 	@Override
@@ -188,12 +305,44 @@ public class SynchronizationController implements StructrTransactionListener {
 
 		// roll back transaction
 		messageStackMap.remove(transactionKey);
+		committedMessages.remove(transactionKey);
+	}
+
+	@Override
+	public void afterCommit(SecurityContext securityContext, long transactionKey) {
+
+		final List<WebSocketMessage> messages = committedMessages.remove(transactionKey);
+
+		if (messages != null) {
+
+			// do not block the committing thread
+			dispatcher.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						broadcast(messages);
+
+					} catch (Throwable t) {
+
+						logger.log(Level.WARNING, "Error broadcasting messages", t);
+
+					}
+
+				}
+
+			});
+
+		}
+
 	}
 
 	@Override
 	public boolean propertyModified(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue, Object newValue) {
 
-		messageStack = messageStackMap.get(transactionKey);
+		List<WebSocketMessage> messageStack = messageStackMap.get(transactionKey);
 
 		WebSocketMessage message = new WebSocketMessage();
 
@@ -226,7 +375,7 @@ public class SynchronizationController implements StructrTransactionListener {
 	@Override
 	public boolean propertyRemoved(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject, String key, Object oldValue) {
 
-		messageStack = messageStackMap.get(transactionKey);
+		List<WebSocketMessage> messageStack = messageStackMap.get(transactionKey);
 
 		WebSocketMessage message = new WebSocketMessage();
 
@@ -259,7 +408,7 @@ public class SynchronizationController implements StructrTransactionListener {
 	@Override
 	public boolean graphObjectCreated(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject graphObject) {
 
-		messageStack = messageStackMap.get(transactionKey);
+		List<WebSocketMessage> messageStack = messageStackMap.get(transactionKey);
 
 		AbstractRelationship relationship;
 
@@ -333,7 +482,7 @@ public class SynchronizationController implements StructrTransactionListener {
 	@Override
 	public boolean graphObjectDeleted(SecurityContext securityContext, long transactionKey, ErrorBuffer errorBuffer, GraphObject obj, Map<String, Object> properties) {
 
-		messageStack = messageStackMap.get(transactionKey);
+		List<WebSocketMessage> messageStack = messageStackMap.get(transactionKey);
 
 		AbstractRelationship relationship;
 
@@ -375,4 +524,242 @@ public class SynchronizationController implements StructrTransactionListener {
 
 		return true;
 	}
+
+	//~--- get methods ----------------------------------------------------
+
+	private static String getCoalesceKey(final WebSocketMessage message) {
+
+		if ("UPDATE".equals(message.getCommand()) && (message.getId() != null)) {
+
+			return "UPDATE:" + message.getId();
+		}
+
+		return null;
+
+	}
+
+	//~--- inner classes --------------------------------------------------
+
+	/**
+	 * A serialized message waiting to be sent to a client.
+	 */
+	private static class OutboundMessage {
+
+		private String coalesceKey       = null;
+		private String message           = null;
+		private Set<String> propertyKeys = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public OutboundMessage(final String coalesceKey, final Set<String> propertyKeys, final String message) {
+
+			this.coalesceKey  = coalesceKey;
+			this.propertyKeys = propertyKeys;
+			this.message      = message;
+
+		}
+
+	}
+
+
+	/**
+	 * The bounded outbound queue of a single client. At most one sender
+	 * thread drains a queue at any time, so messages are sent in order.
+	 */
+	private class ClientQueue implements Runnable {
+
+		private final LinkedList<OutboundMessage> queue = new LinkedList<OutboundMessage>();
+		private boolean scheduled                       = false;
+		private StructrWebSocket socket                 = null;
+
+		//~--- constructors ---------------------------------------------------
+
+		public ClientQueue(final StructrWebSocket socket) {
+
+			this.socket = socket;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		public void add(final OutboundMessage message) {
+
+			boolean overflow = false;
+			boolean schedule = false;
+
+			synchronized (this) {
+
+				if (replacePending(message)) {
+
+					return;
+				}
+
+				if (queue.size() >= MAX_QUEUE_SIZE) {
+
+					queue.clear();
+
+					overflow = true;
+
+				} else {
+
+					queue.add(message);
+
+					if (!scheduled) {
+
+						scheduled = true;
+						schedule  = true;
+
+					}
+
+				}
+
+			}
+
+			if (overflow) {
+
+				logger.log(Level.WARNING, "Outbound queue of client overflowed, disconnecting slow client.");
+				disconnect();
+
+			} else if (schedule) {
+
+				senders.execute(this);
+
+			}
+
+		}
+
+		public synchronized void clear() {
+
+			queue.clear();
+
+		}
+
+		@Override
+		public void run() {
+
+			for (int i = 0; i < SENDER_BATCH; i++) {
+
+				OutboundMessage message = null;
+
+				synchronized (this) {
+
+					message = queue.poll();
+
+					if (message == null) {
+
+						scheduled = false;
+
+						return;
+
+					}
+
+				}
+
+				send(message.message);
+
+			}
+
+			// give other clients a chance
+			senders.execute(this);
+
+		}
+
+		/**
+		 * Replaces a pending UPDATE of the same object whose properties
+		 * are all contained in the given message, keeping its position
+		 * in the queue.
+		 */
+		private boolean replacePending(final OutboundMessage message) {
+
+			if (message.coalesceKey == null) {
+
+				return false;
+			}
+
+			for (OutboundMessage pending : queue) {
+
+				if (message.coalesceKey.equals(pending.coalesceKey) && message.propertyKeys.containsAll(pending.propertyKeys)) {
+
+					pending.message      = message.message;
+					pending.propertyKeys = message.propertyKeys;
+
+					return true;
+
+				}
+
+			}
+
+			return false;
+
+		}
+
+		private void send(final String message) {
+
+			Connection socketConnection = socket.getConnection();
+
+			if (socketConnection == null) {
+
+				return;
+			}
+
+			logger.log(Level.FINE, "############################################################ SENDING \n{0}", message);
+
+			try {
+
+				socketConnection.sendMessage(message);
+
+			} catch (org.eclipse.jetty.io.EofException eof) {
+
+				logger.log(Level.FINE, "EofException irgnored, may occour on SSL connections.", eof);
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Error sending message to client.", t);
+
+			}
+
+		}
+
+		private void disconnect() {
+
+			Connection socketConnection = socket.getConnection();
+
+			if (socketConnection != null) {
+
+				socketConnection.close();
+			}
+
+		}
+
+	}
+
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private String name = null;
+		private int count   = 0;
+
+		//~--- constructors ---------------------------------------------------
+
+		public DaemonThreadFactory(final String name) {
+
+			this.name = name;
+
+		}
+
+		//~--- methods --------------------------------------------------------
+
+		@Override
+		public synchronized Thread newThread(final Runnable runnable) {
+
+			Thread thread = new Thread(runnable, name + "-" + (++count));
+
+			thread.setDaemon(true);
+
+			return thread;
+
+		}
+
+	}
+
 }
@@ -22,9 +22,11 @@
 package org.structr.websocket.command;
 
 import org.structr.common.Path;
+import org.structr.common.ThumbnailService;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.core.entity.File;
+import org.structr.core.entity.Image;
 
 //~--- JDK imports ------------------------------------------------------------
 
@@ -93,6 +95,12 @@ public class FileUploadHandler {
 			if (channel.position() == this.size) {
 
 				finish();
+
+				if (file instanceof Image) {
+
+					// create configured thumbnails in the background
+					ThumbnailService.createConfiguredThumbnails((Image) file);
+				}
 			}
 
 		}
@@ -116,6 +116,7 @@ public class WebSocketServlet extends HttpServlet {
 	@Override
 	public void destroy() {
 		EntityContext.unregisterTransactionListener(syncController);
+		syncController.shutdown();
 	}
 
 	@Override